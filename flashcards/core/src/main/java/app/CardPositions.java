@@ -0,0 +1,230 @@
+package app;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Order-statistic tree that tells the cards of a deck their positions.
+ *
+ * <p>Every slot of the deck has a {@link Position} in the tree, and a card in the deck
+ * holds its position. The tree is a treap ordered by position, whose nodes know the size
+ * of their subtree and their parent, so a position finds its number by walking up to the
+ * root. Inserting, removing and moving a slot and finding its number all take O(log n)
+ * expected time, and nothing has to be renumbered when cards come and go.
+ *
+ * @see FlashcardDeck
+ */
+final class CardPositions {
+
+  private Position root;
+
+  /**
+   * Slot in a deck, which knows its number for as long as it is in the tree.
+   */
+  static final class Position {
+    private final int priority = ThreadLocalRandom.current().nextInt();
+    private Position left;
+    private Position right;
+    private Position parent;
+    private int size = 1;
+
+    /**
+     * Computes the 1-based number of the slot by walking up to the root.
+     *
+     * @return the number
+     */
+    int number() {
+      int number = sizeOf(left) + 1;
+      for (Position node = this; node.parent != null; node = node.parent) {
+        if (node.parent.right == node) {
+          number += sizeOf(node.parent.left) + 1;
+        }
+      }
+      return number;
+    }
+  }
+
+  /**
+   * Gets the number of slots.
+   *
+   * @return the size
+   */
+  int size() {
+    return sizeOf(root);
+  }
+
+  /**
+   * Inserts a new slot.
+   *
+   * @param index the 0-based place of the slot
+   * @return the slot
+   */
+  Position insert(int index) {
+    Position position = new Position();
+    place(index, position);
+    return position;
+  }
+
+  /**
+   * Removes a slot.
+   *
+   * @param index the 0-based place of the slot
+   * @return the slot that was removed
+   */
+  Position remove(int index) {
+    Position[] before = split(root, index);
+    Position[] after = split(before[1], 1);
+    root = detach(merge(before[0], after[1]));
+    return detach(after[0]);
+  }
+
+  /**
+   * Moves a slot, keeping it, so a card holding it reports its new number.
+   *
+   * @param from the current 0-based place
+   * @param to the new 0-based place, counted after the slot was taken out
+   */
+  void move(int from, int to) {
+    place(to, remove(from));
+  }
+
+  /**
+   * Removes all slots.
+   */
+  void clear() {
+    root = null;
+  }
+
+  /**
+   * Lists the slots in order.
+   *
+   * @return the slots
+   */
+  Position[] toArray() {
+    Position[] positions = new Position[size()];
+    fill(root, positions, 0);
+    return positions;
+  }
+
+  /**
+   * Lists the slots of a subtree in order.
+   *
+   * @param node the root of the subtree, null if empty
+   * @param positions the array to fill
+   * @param from where the first slot of the subtree goes
+   */
+  private static void fill(Position node, Position[] positions, int from) {
+    if (node != null) {
+      fill(node.left, positions, from);
+      positions[from + sizeOf(node.left)] = node;
+      fill(node.right, positions, from + sizeOf(node.left) + 1);
+    }
+  }
+
+  /**
+   * Puts a slot into the tree.
+   *
+   * @param index the 0-based place of the slot
+   * @param position the slot, not in any tree
+   */
+  private void place(int index, Position position) {
+    Position[] parts = split(root, index);
+    root = detach(merge(merge(parts[0], position), parts[1]));
+  }
+
+  /**
+   * Splits a subtree into its first slots and the rest.
+   *
+   * @param node the root of the subtree, null if empty
+   * @param count how many slots go into the first part
+   * @return the roots of the two parts, with stale parents
+   */
+  private static Position[] split(Position node, int count) {
+    if (node == null) {
+      return new Position[2];
+    }
+    Position[] parts;
+    if (sizeOf(node.left) >= count) {
+      parts = split(node.left, count);
+      setLeft(node, parts[1]);
+      parts[1] = node;
+    } else {
+      parts = split(node.right, count - sizeOf(node.left) - 1);
+      setRight(node, parts[0]);
+      parts[0] = node;
+    }
+    return parts;
+  }
+
+  /**
+   * Joins two subtrees, all slots of the first coming before those of the second.
+   *
+   * @param first the root of the first subtree, null if empty
+   * @param second the root of the second subtree, null if empty
+   * @return the root of the joined tree, with a stale parent
+   */
+  private static Position merge(Position first, Position second) {
+    if (first == null) {
+      return second;
+    }
+    if (second == null) {
+      return first;
+    }
+    if (first.priority > second.priority) {
+      setRight(first, merge(first.right, second));
+      return first;
+    }
+    setLeft(second, merge(first, second.left));
+    return second;
+  }
+
+  /**
+   * Sets the left child of a node and updates its size.
+   *
+   * @param node the node
+   * @param child the new child, null for none
+   */
+  private static void setLeft(Position node, Position child) {
+    node.left = child;
+    if (child != null) {
+      child.parent = node;
+    }
+    node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+  }
+
+  /**
+   * Sets the right child of a node and updates its size.
+   *
+   * @param node the node
+   * @param child the new child, null for none
+   */
+  private static void setRight(Position node, Position child) {
+    node.right = child;
+    if (child != null) {
+      child.parent = node;
+    }
+    node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+  }
+
+  /**
+   * Makes a node a root.
+   *
+   * @param node the node, null for none
+   * @return the node
+   */
+  private static Position detach(Position node) {
+    if (node != null) {
+      node.parent = null;
+    }
+    return node;
+  }
+
+  /**
+   * Gets the number of slots in a subtree.
+   *
+   * @param node the root of the subtree, null if empty
+   * @return the size
+   */
+  private static int sizeOf(Position node) {
+    return node == null ? 0 : node.size;
+  }
+}
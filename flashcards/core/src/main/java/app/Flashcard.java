@@ -1,5 +1,6 @@
 package app;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -19,6 +20,17 @@ public class Flashcard {
   @JsonProperty("answer")
   private String answer;
 
+  // Stable within the deck, 0 until the card joins one
+  @JsonProperty("id")
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private int id;
+
+  // Where the card is in its deck, null while it is in none
+  private CardPositions.Position position;
+
+  // The deck whose question index holds the card, null while it is in none
+  private FlashcardDeck deck;
+
   /**
    * Default constructor for JSON deserialization.
    */
@@ -62,12 +74,17 @@ public class Flashcard {
   
   /**
    * Sets the question.
+   * The deck the card is in is told, so it can still find the card by its question.
    *
    * @param question the question text
    */
   public void setQuestion(String question) {
     if (question != null && !question.isBlank()) {
+      String previous = this.question;
       this.question = question;
+      if (deck != null) {
+        deck.questionChanged(this, previous);
+      }
     }
   }
 
@@ -91,24 +108,98 @@ public class Flashcard {
     }
   }
 
+  /**
+   * Gets the id of the flashcard.
+   * A deck gives each card an id when it joins, which stays the same when other cards
+   * are added, removed or moved. The deck never gives out the same id twice.
+   *
+   * @return the id, 0 if the card has not been in a deck
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Sets the id of the flashcard, for cards read back from storage.
+   * A deck replaces the id when the card joins it if the id is taken.
+   *
+   * @param id the id
+   */
+  public void setId(int id) {
+    this.id = id;
+  }
+
   /**
    * Gets the flashcard number.
+   * While the card is in a deck this is its 1-based position there, looked up in
+   * O(log n); a card in no deck keeps the number it was given or last had.
    *
    * @return the number of this flashcard
    */
   public int getNumber() {
-    return number;
+    return position == null ? number : position.number();
   }
 
   /**
    * Sets the flashcard number.
+   * While the card is in a deck its number follows its position and cannot be set;
+   * move the card within the deck instead.
    *
    * @param number the number to assign to this flashcard
+   * @throws IllegalStateException if the card is in a deck
    */
   public void setNumber(int number) {
+    if (position != null) {
+      throw new IllegalStateException("The number of a card in a deck follows its position");
+    }
     this.number = number;
   }
 
+  /**
+   * Checks whether the card is in a deck. A card is in at most one deck at a time.
+   *
+   * @return true if the card is in a deck
+   */
+  boolean isAttached() {
+    return position != null;
+  }
+
+  /**
+   * Copies the card with its number and id, outside any deck.
+   *
+   * @return the copy
+   */
+  Flashcard copy() {
+    Flashcard copy = new Flashcard(getNumber(), question, answer);
+    copy.id = id;
+    return copy;
+  }
+
+  /**
+   * Places the card in a deck slot, after which its number follows the slot.
+   *
+   * @param position the slot
+   * @param deck the deck the slot belongs to
+   */
+  void attach(CardPositions.Position position, FlashcardDeck deck) {
+    this.position = position;
+    this.deck = deck;
+  }
+
+  /**
+   * Takes the card out of a deck slot, if it is still in it, keeping its last number.
+   *
+   * @param position the slot the deck is removing
+   * @param number the number the slot had
+   */
+  void detach(CardPositions.Position position, int number) {
+    if (this.position == position) {
+      this.number = number;
+      this.position = null;
+      this.deck = null;
+    }
+  }
+
   /**
    * Returns string representation of the flashcard.
    *
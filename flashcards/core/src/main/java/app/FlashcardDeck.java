@@ -1,9 +1,19 @@
 package app;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Manages flashcards for the application.
@@ -13,21 +23,39 @@ import java.util.List;
  * @author isamw
  * @author chrsom
  */
-@JsonPropertyOrder({"deckName", "flashcards"})
+@JsonPropertyOrder({"deckName", "lastCardId", "flashcards"})
 public class FlashcardDeck {
   
   @JsonProperty("deckName")
   private String deckName;
 
-  // List of all flashcards in this deck.
+  // The manager that indexes the deck by name, told when the deck is renamed
+  private FlashcardDeckManager owner;
+
+  // List of all flashcards in this deck, shared with the copies handed out by getDeck
   @JsonProperty("flashcards")
-  private List<Flashcard> deck;
+  private PersistentList<Flashcard> deck;
+
+  // Tells the cards their numbers, one slot per entry of the list above
+  private final CardPositions positions = new CardPositions();
+
+  // The highest id given out so far, kept so ids of removed cards are not reused
+  @JsonProperty("lastCardId")
+  private int lastCardId;
+
+  private final Map<Integer, Flashcard> cardsById = new HashMap<>();
+
+  // Cards by question text, kept up to date by the cards when a question is edited
+  private final Map<String, List<Flashcard>> cardsByQuestion = new HashMap<>();
+
+  // Questions that more than one card has, in the order they became shared
+  private final Set<String> sharedQuestions = new LinkedHashSet<>();
 
   /**
    * Default constructor that creates an empty deck.
    */
   public FlashcardDeck() {
-    this.deck = new ArrayList<>();
+    this.deck = new PersistentList<>();
   }
 
   /**
@@ -37,25 +65,98 @@ public class FlashcardDeck {
    */
   public FlashcardDeck(String deckName) {
     this.deckName = deckName;
-    this.deck = new ArrayList<>();
+    this.deck = new PersistentList<>();
   }
 
   /**
    * Gets all flashcards as a list.
+   * The list is a copy, taken in constant time, that can be changed without affecting
+   * the deck. The flashcards in it are the deck's own.
    *
    * @return list of flashcards
    */
   public List<Flashcard> getDeck() {
-    return new ArrayList<>(deck);
+    return deck.snapshot();
   }
 
   /**
    * Sets the flashcards in the deck.
+   * The cards are numbered by their position in the list, and the cards that were in
+   * the deck keep the numbers they had. A card that is in another deck, or in the list
+   * more than once, is copied, since a card tracks its number and question for one deck.
    *
    * @param deck list of flashcards to set
    */
   public void setDeck(List<Flashcard> deck) {
-    this.deck = new ArrayList<>(deck);
+    CardPositions.Position[] previous = positions.toArray();
+    int index = 0;
+    for (Flashcard card : this.deck) {
+      if (card != null) {
+        card.detach(previous[index], index + 1);
+      }
+      index++;
+    }
+    positions.clear();
+    cardsById.clear();
+    cardsByQuestion.clear();
+    sharedQuestions.clear();
+    this.deck = PersistentList.copyOf(unattached(deck));
+    for (Flashcard card : this.deck) {
+      CardPositions.Position position = positions.insert(positions.size());
+      if (card != null) {
+        card.attach(position, this);
+        register(card);
+      }
+    }
+  }
+
+  /**
+   * Gets the highest card id the deck has given out.
+   *
+   * @return the id, 0 if none
+   */
+  public int getLastCardId() {
+    return lastCardId;
+  }
+
+  /**
+   * Raises the highest card id the deck has given out, for decks read back from storage.
+   * Ids can only go up, so a lower value than the ids already in the deck is ignored.
+   *
+   * @param lastCardId the id
+   */
+  public void setLastCardId(int lastCardId) {
+    this.lastCardId = Math.max(this.lastCardId, lastCardId);
+  }
+
+  /**
+   * Gets a flashcard by its id in constant time.
+   *
+   * @param id the id of the flashcard
+   * @return the flashcard, or null if the deck has no card with the id
+   */
+  public Flashcard getFlashcardById(int id) {
+    return cardsById.get(id);
+  }
+
+  /**
+   * Gets the flashcard at a position in O(log n).
+   *
+   * @param index the index of the flashcard (0-based)
+   * @return the flashcard
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public Flashcard getFlashcard(int index) {
+    return deck.get(index);
+  }
+
+  /**
+   * Gets the number of flashcards in the deck.
+   *
+   * @return the number of flashcards
+   */
+  public int size() {
+    return deck.size();
   }
 
   /**
@@ -69,11 +170,43 @@ public class FlashcardDeck {
 
   /**
    * Sets the name of the deck.
+   * The {@link FlashcardDeckManager} that indexes the deck by name is told, so it finds
+   * the deck under its new name. {@link FlashcardDeckManager#renameDeck} also checks
+   * that the new name is free.
    *
    * @param deckName the name to set for the deck
    */
   public void setDeckName(String deckName) {
+    String previous = this.deckName;
     this.deckName = deckName;
+    if (owner != null && !Objects.equals(previous, deckName)) {
+      owner.renamed(this, previous);
+    }
+  }
+
+  /**
+   * Makes a manager the one told about renames of the deck. A deck shared between
+   * managers tells only the last one that indexed it, so the one before is told that it
+   * no longer sees every rename.
+   *
+   * @param manager the manager that indexed the deck
+   */
+  void markIndexed(FlashcardDeckManager manager) {
+    if (owner != null && owner != manager) {
+      owner.disowned();
+    }
+    owner = manager;
+  }
+
+  /**
+   * Stops telling a manager about renames, for a deck that was removed from it.
+   *
+   * @param manager the manager the deck was removed from
+   */
+  void unmarkIndexed(FlashcardDeckManager manager) {
+    if (owner == manager) {
+      owner = null;
+    }
   }
 
   /**
@@ -82,45 +215,213 @@ public class FlashcardDeck {
    * @param flashcard the flashcard to add
    */
   public void addFlashcard(Flashcard flashcard) {
+    addFlashcard(deck.size(), flashcard);
+  }
+
+  /**
+   * Inserts a new flashcard into the deck in O(log n).
+   * The flashcards from the index on move one number up. A card that is already in a
+   * deck is copied, so the copy is what joins this deck.
+   *
+   * @param index the index the flashcard gets (0-based), at most the size of the deck
+   * @param card the flashcard to add
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public void addFlashcard(int index, Flashcard card) {
+    Flashcard flashcard = card != null && card.isAttached() ? card.copy() : card;
+    deck.add(index, flashcard);
+    CardPositions.Position position = positions.insert(index);
     if (flashcard != null) {
-      flashcard.setNumber(deck.size() + 1);
+      flashcard.attach(position, this);
+      register(flashcard);
     }
-
-    deck.add(flashcard);
   }
 
   /**
-   * Removes a flashcard from the deck at the specified index.
-   * After removal, all subsequent flashcards have their numbers updated
-   * to maintain sequential numbering.
+   * Removes a flashcard from the deck at the specified index in O(log n).
+   * The numbers of the following flashcards come from their positions, so they are
+   * sequential again without being rewritten. The removed flashcard keeps its number.
    *
    * @param index the index of the flashcard to remove (0-based)
    * @return true if the flashcard was successfully removed, false if index is invalid
    */
   public boolean removeFlashcardByIndex(int index) {
     if (index >= 0 && index < deck.size()) {
-      deck.remove(index);
-      //Updates numbers
-      for (int i = index; i < deck.size(); i++) {
-        deck.get(i).setNumber(i + 1);
+      Flashcard card = deck.remove(index);
+      CardPositions.Position position = positions.remove(index);
+      if (card != null) {
+        card.detach(position, index + 1);
+        cardsById.remove(card.getId(), card);
+        unindex(card, card.getQuestion());
       }
       return true;
     }
     return false;
   }
 
+  /**
+   * Removes a flashcard from the deck by its id in O(log n).
+   *
+   * @param id the id of the flashcard to remove
+   * @return true if the flashcard was removed, false if the deck has no card with the id
+   */
+  public boolean removeFlashcardById(int id) {
+    int index = indexOf(id);
+    return index >= 0 && removeFlashcardByIndex(index);
+  }
+
+  /**
+   * Finds the position of a flashcard by its id in O(log n).
+   *
+   * @param id the id of the flashcard
+   * @return the index of the flashcard (0-based), or -1 if the deck has no card with the id
+   */
+  public int indexOf(int id) {
+    Flashcard card = cardsById.get(id);
+    return card == null ? -1 : card.getNumber() - 1;
+  }
+
+  /**
+   * Moves a flashcard to another position in O(log n).
+   * The flashcards in between shift one number towards the old position.
+   *
+   * @param from the index of the flashcard to move (0-based)
+   * @param to the index the flashcard gets (0-based)
+   * @return true if the flashcard was moved, false if an index is invalid
+   */
+  public boolean moveFlashcard(int from, int to) {
+    if (from < 0 || from >= deck.size() || to < 0 || to >= deck.size()) {
+      return false;
+    }
+    deck.add(to, deck.remove(from));
+    positions.move(from, to);
+    return true;
+  }
+
+  /**
+   * Gets the flashcards that have a question, in deck order.
+   *
+   * @param question the question text
+   * @return the flashcards, empty if no card has the question
+   */
+  public List<Flashcard> getFlashcardsByQuestion(String question) {
+    List<Flashcard> cards = new ArrayList<>(cardsByQuestion.getOrDefault(question, List.of()));
+    cards.sort(Comparator.comparingInt(Flashcard::getNumber));
+    return cards;
+  }
+
+  /**
+   * Gets the questions that more than one flashcard in the deck has, with those cards.
+   * The cost depends on the number of such cards, not on the size of the deck.
+   *
+   * @return the cards in deck order by question, in the order the questions became shared
+   */
+  @JsonIgnore
+  public Map<String, List<Flashcard>> getSharedQuestions() {
+    Map<String, List<Flashcard>> shared = new LinkedHashMap<>();
+    for (String question : sharedQuestions) {
+      shared.put(question, getFlashcardsByQuestion(question));
+    }
+    return shared;
+  }
+
+  /**
+   * Moves a card in the question index after its question was edited.
+   *
+   * @param card the card, which is in this deck
+   * @param previous the question the card had before
+   */
+  void questionChanged(Flashcard card, String previous) {
+    unindex(card, previous);
+    index(card);
+  }
+
+  /**
+   * Replaces the cards of a list that are in a deck by copies. The list itself is
+   * returned if there are none, so it can still be shared.
+   *
+   * @param cards the cards, none of which are in this deck any more
+   * @return the cards, with copies where needed
+   */
+  private static List<Flashcard> unattached(List<Flashcard> cards) {
+    List<Flashcard> copies = null;
+    Set<Flashcard> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    int index = 0;
+    for (Flashcard card : cards) {
+      if (card != null && (card.isAttached() || !seen.add(card))) {
+        if (copies == null) {
+          copies = new ArrayList<>(cards);
+        }
+        copies.set(index, card.copy());
+      }
+      index++;
+    }
+    return copies == null ? cards : copies;
+  }
+
+  /**
+   * Adds a card that joined the deck to the id index, giving it a new id unless it
+   * brought one that is free, and to the question index.
+   *
+   * @param card the card
+   */
+  private void register(Flashcard card) {
+    if (card.getId() <= 0 || cardsById.containsKey(card.getId())) {
+      card.setId(++lastCardId);
+    } else {
+      lastCardId = Math.max(lastCardId, card.getId());
+    }
+    cardsById.put(card.getId(), card);
+    index(card);
+  }
+
+  /**
+   * Adds a card to the question index under its current question.
+   *
+   * @param card the card
+   */
+  private void index(Flashcard card) {
+    List<Flashcard> cards = cardsByQuestion.computeIfAbsent(card.getQuestion(),
+        question -> new ArrayList<>(1));
+    cards.add(card);
+    if (cards.size() == 2) {
+      sharedQuestions.add(card.getQuestion());
+    }
+  }
+
+  /**
+   * Removes a card from the question index.
+   *
+   * @param card the card
+   * @param question the question the card is indexed under
+   */
+  private void unindex(Flashcard card, String question) {
+    List<Flashcard> cards = cardsByQuestion.get(question);
+    if (cards == null) {
+      return;
+    }
+    for (int i = 0; i < cards.size(); i++) {
+      if (cards.get(i) == card) {
+        cards.remove(i);
+        break;
+      }
+    }
+    if (cards.size() < 2) {
+      sharedQuestions.remove(question);
+    }
+    if (cards.isEmpty()) {
+      cardsByQuestion.remove(question);
+    }
+  }
+
   /**
    * Checks if the text displayed on the card is a question or answer.
+   * Looks the text up in the question index, so it takes constant time.
    *
    * @param current the question text to check
    * @return true if the question exists, false otherwise
    */
   public boolean isQuestion(String current) {
-    for (Flashcard card : deck) {
-      if (card.getQuestion().equals(current)) {
-        return true;
-      }
-    }
-    return false;
+    return cardsByQuestion.containsKey(current);
   }
 }
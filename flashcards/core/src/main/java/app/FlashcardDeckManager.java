@@ -1,29 +1,75 @@
 package app;
 
-import java.util.ArrayList;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Manages a collection of flashcard decks.
  * Provides functionality to add, remove, and retrieve flashcard decks
  * with validation to ensure deck name uniqueness and enforce maximum deck limits.
  *
+ * <p>Next to the decks in order, the manager keeps an index from deck name to deck, so
+ * finding a deck by name and checking that a name is free take constant time however
+ * many decks a user has. A deck tells the manager that indexed it when it is renamed,
+ * and {@link #renameDeck} renames a deck after checking that the new name is free.
+ * Decks can be shared between managers, for example through copies, and a deck only
+ * tells the last manager that indexed it. A manager that lost decks to another one that
+ * way looks decks up by scanning them, and takes them back by rebuilding its index on
+ * its next change.
+ *
+ * <p>The number of decks is limited by {@code flashcards.decks.max}, or
+ * {@link #DEFAULT_MAX_DECKS} if that is not set.
+ *
  * @author isamw
  * @author chrsom
  */
-public class FlashcardDeckManager {
-  private List<FlashcardDeck> decks = new ArrayList<>();
-  
+public final class FlashcardDeckManager {
+
+  /** Maximum number of decks used when none is configured. */
+  public static final int DEFAULT_MAX_DECKS = 1000;
+
+  private PersistentList<FlashcardDeck> decks = new PersistentList<>();
+  private Map<String, FlashcardDeck> decksByName = new HashMap<>();
+
+  // Whether some name is on more than one deck, so only the first is in the index
+  private boolean duplicateNames;
+
+  // Whether another manager indexed some of the decks since this one did
+  private boolean disowned;
+
   // Maximum number of decks allowed in the manager
-  private static final int MAX_DECKS = 8;
+  private final int maxDecks;
+
+  /**
+   * Creates an empty manager with the configured deck limit.
+   */
+  public FlashcardDeckManager() {
+    this(Integer.getInteger("flashcards.decks.max", DEFAULT_MAX_DECKS));
+  }
+
+  /**
+   * Creates an empty manager with the given deck limit.
+   *
+   * @param maxDecks the maximum number of decks, must be positive
+   * @throws IllegalArgumentException if maxDecks is not positive
+   */
+  public FlashcardDeckManager(int maxDecks) {
+    if (maxDecks <= 0) {
+      throw new IllegalArgumentException("Deck limit must be positive");
+    }
+    this.maxDecks = maxDecks;
+  }
 
   /**
    * Returns a copy of the list of all flashcard decks.
+   * The copy is taken in constant time and can be changed without affecting the manager.
    *
-   * @return a new ArrayList containing all the flashcard decks
+   * @return a new list containing all the flashcard decks
    */
   public List<FlashcardDeck> getDecks() {
-    return new ArrayList<>(decks);
+    return decks.snapshot();
   }
 
   /**
@@ -41,15 +87,69 @@ public class FlashcardDeckManager {
     if (deck.getDeckName() == null || deck.getDeckName().trim().isEmpty()) {
       throw new IllegalArgumentException("Deckname cannot be empty");
     }
-    if (decks.size() >= MAX_DECKS) {
-      throw new IllegalArgumentException("You can only have up to " + MAX_DECKS + " decks");
+    if (decks.size() >= maxDecks) {
+      throw new IllegalArgumentException("You can only have up to " + maxDecks + " decks");
     }
-    for (FlashcardDeck flashcardDeck : decks) {
-      if (flashcardDeck.getDeckName().equals(deck.getDeckName())) {
-        throw new IllegalArgumentException("Deckname must be unique");
-      }
+    reindexIfDisowned();
+    if (decksByName.containsKey(deck.getDeckName())) {
+      throw new IllegalArgumentException("Deckname must be unique");
     }
     decks.add(deck);
+    decksByName.put(deck.getDeckName(), deck);
+    deck.markIndexed(this);
+  }
+
+  /**
+   * Finds a deck by its name, in constant time unless another manager indexed some of
+   * the decks since this one last changed.
+   *
+   * @param deckName the name of the deck
+   * @return the deck, or null if the manager has no deck with that name
+   */
+  public FlashcardDeck getDeck(String deckName) {
+    if (!disowned) {
+      return decksByName.get(deckName);
+    }
+    for (FlashcardDeck deck : decks) {
+      if (deck != null && deck.getDeckName() != null && deck.getDeckName().equals(deckName)) {
+        return deck;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Renames a deck, checking the new name like {@link #addDeck} does.
+   *
+   * @param deckName the name of the deck
+   * @param newName the name the deck gets
+   * @return the renamed deck, or null if the manager has no deck with that name
+   * @throws IllegalArgumentException if the new name is null/empty or another deck has it
+   */
+  public FlashcardDeck renameDeck(String deckName, String newName) {
+    reindexIfDisowned();
+    FlashcardDeck deck = decksByName.get(deckName);
+    if (deck == null) {
+      return null;
+    }
+    if (newName == null || newName.trim().isEmpty()) {
+      throw new IllegalArgumentException("Deckname cannot be empty");
+    }
+    if (!newName.equals(deckName) && decksByName.containsKey(newName)) {
+      throw new IllegalArgumentException("Deckname must be unique");
+    }
+    deck.setDeckName(newName);
+    return deck;
+  }
+
+  /**
+   * Gets the maximum number of decks the manager accepts.
+   *
+   * @return the deck limit
+   */
+  @JsonIgnore
+  public int getMaxDecks() {
+    return maxDecks;
   }
 
   /**
@@ -58,16 +158,121 @@ public class FlashcardDeckManager {
    * @param deck the flashcard deck to remove
    */
   public void removeDeck(FlashcardDeck deck) {
-    decks.remove(deck);
+    reindexIfDisowned();
+    if (decks.remove(deck)) {
+      deck.unmarkIndexed(this);
+      if (!decksByName.remove(deck.getDeckName(), deck) || duplicateNames) {
+        reindex();
+      }
+    }
+  }
+
+  /**
+   * Removes a flashcard deck from the manager by its name.
+   *
+   * @param deckName the name of the deck to remove
+   * @return the removed deck, or null if the manager has no deck with that name
+   */
+  public FlashcardDeck removeDeck(String deckName) {
+    FlashcardDeck deck = getDeck(deckName);
+    if (deck != null) {
+      removeDeck(deck);
+    }
+    return deck;
   }
 
   /**
    * Sets the list of decks in the manager, replacing any existing decks.
+   * If several decks share a name, the first is found by that name.
    *
    * @param decks the new list of decks
    */
   public void setDecks(List<FlashcardDeck> decks) {
-    this.decks = new ArrayList<>(decks);
+    for (FlashcardDeck deck : this.decks) {
+      if (deck != null) {
+        deck.unmarkIndexed(this);
+      }
+    }
+    this.decks = PersistentList.copyOf(decks);
+    reindex();
+  }
+
+  /**
+   * Copies the manager, if every deck would pass {@link #addDeck} into an empty manager
+   * in order. Decks can bypass those checks through {@link #setDecks} or by being
+   * renamed, so they are checked again while the copy's name index is built. The decks
+   * themselves are shared, and tell the copy about renames from then on.
+   *
+   * @return the copy, or null if some deck would be rejected
+   */
+  FlashcardDeckManager copyIfValid() {
+    if (decks.size() > maxDecks) {
+      return null;
+    }
+    Map<String, FlashcardDeck> byName = new HashMap<>();
+    for (FlashcardDeck deck : decks) {
+      if (deck == null || deck.getDeckName() == null || deck.getDeckName().trim().isEmpty()
+          || byName.putIfAbsent(deck.getDeckName(), deck) != null) {
+        return null;
+      }
+    }
+    FlashcardDeckManager copy = new FlashcardDeckManager(maxDecks);
+    copy.decks = decks.snapshot();
+    copy.decksByName = byName;
+    for (FlashcardDeck deck : decks) {
+      deck.markIndexed(copy);
+    }
+    return copy;
   }
 
+  /**
+   * Moves a deck in the name index after it was renamed.
+   *
+   * @param deck the deck, which this manager indexed last
+   * @param previous the name the deck had before
+   */
+  void renamed(FlashcardDeck deck, String previous) {
+    if (duplicateNames || !decksByName.remove(previous, deck) || deck.getDeckName() == null
+        || decksByName.putIfAbsent(deck.getDeckName(), deck) != null) {
+      reindex();
+    }
+  }
+
+  /**
+   * Notes that another manager indexed one of the decks, so renaming it is no longer
+   * seen by this one.
+   */
+  void disowned() {
+    disowned = true;
+  }
+
+  /**
+   * Rebuilds the name index if another manager indexed some of the decks since it was
+   * built.
+   */
+  private void reindexIfDisowned() {
+    if (disowned) {
+      reindex();
+    }
+  }
+
+  /**
+   * Builds the name index of the decks, skipping decks without a name. The first deck
+   * with a name wins.
+   */
+  private void reindex() {
+    Map<String, FlashcardDeck> byName = new HashMap<>();
+    boolean duplicates = false;
+    for (FlashcardDeck deck : decks) {
+      if (deck != null) {
+        deck.markIndexed(this);
+        if (deck.getDeckName() != null && byName.putIfAbsent(deck.getDeckName(), deck) != null) {
+          duplicates = true;
+        }
+      }
+    }
+    decksByName = byName;
+    duplicateNames = duplicates;
+    disowned = false;
+  }
 }
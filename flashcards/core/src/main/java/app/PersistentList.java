@@ -0,0 +1,401 @@
+package app;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * List that can be copied in constant time, used where the model hands out copies of
+ * its cards and decks.
+ *
+ * <p>The elements live in a balanced tree whose nodes are never changed once built.
+ * Every change builds new nodes along one path from the root and shares the rest of the
+ * tree with the version before, so it takes O(log n), and {@link #snapshot()} only has to
+ * copy the root. A snapshot is an independent list: changing it never shows up in the
+ * list it was taken from, nor the other way around, just like a copy into a new
+ * ArrayList. Positional access also takes O(log n), iteration O(1) per element.
+ *
+ * <p>"Persistent" refers to the data structure keeping its old versions, not to
+ * storage. Like ArrayList, the list is not thread-safe and allows null elements.
+ *
+ * @param <E> the type of the elements
+ * @see FlashcardDeck#getDeck()
+ */
+public final class PersistentList<E> extends AbstractList<E> {
+
+  private Node<E> root;
+
+  /**
+   * Immutable tree node, which knows the size and height of its subtree.
+   *
+   * @param <E> the type of the element
+   */
+  private static final class Node<E> {
+    private final E value;
+    private final Node<E> left;
+    private final Node<E> right;
+    private final int size;
+    private final int height;
+
+    /**
+     * Creates a node.
+     *
+     * @param value the element
+     * @param left the elements before it
+     * @param right the elements after it
+     */
+    Node(E value, Node<E> left, Node<E> right) {
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.size = sizeOf(left) + sizeOf(right) + 1;
+      this.height = Math.max(heightOf(left), heightOf(right)) + 1;
+    }
+  }
+
+  /**
+   * Creates an empty list.
+   */
+  public PersistentList() {
+  }
+
+  /**
+   * Creates a list holding the elements of a collection, in iteration order.
+   *
+   * @param elements the elements
+   */
+  @SuppressWarnings("unchecked")
+  public PersistentList(Collection<? extends E> elements) {
+    if (elements instanceof PersistentList<?> other) {
+      this.root = (Node<E>) other.root;
+    } else {
+      Object[] array = elements.toArray();
+      this.root = build(array, 0, array.length);
+    }
+  }
+
+  /**
+   * Creates a list that shares a tree.
+   *
+   * @param root the root of the tree
+   */
+  private PersistentList(Node<E> root) {
+    this.root = root;
+  }
+
+  /**
+   * Copies a collection into a new list, in constant time if it is a PersistentList.
+   *
+   * @param <E> the type of the elements
+   * @param elements the elements
+   * @return the new list
+   */
+  public static <E> PersistentList<E> copyOf(Collection<? extends E> elements) {
+    return new PersistentList<>(elements);
+  }
+
+  /**
+   * Takes an independent copy of the list in constant time.
+   *
+   * @return the copy
+   */
+  public PersistentList<E> snapshot() {
+    return new PersistentList<>(root);
+  }
+
+  @Override
+  public int size() {
+    return sizeOf(root);
+  }
+
+  @Override
+  public E get(int index) {
+    checkIndex(index, size());
+    Node<E> node = root;
+    while (true) {
+      int leftSize = sizeOf(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index == leftSize) {
+        return node.value;
+      } else {
+        index -= leftSize + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  @Override
+  public E set(int index, E element) {
+    E previous = get(index);
+    root = replace(root, index, element);
+    return previous;
+  }
+
+  @Override
+  public void add(int index, E element) {
+    checkIndex(index, size() + 1);
+    root = insert(root, index, element);
+    modCount++;
+  }
+
+  @Override
+  public E remove(int index) {
+    E removed = get(index);
+    root = delete(root, index);
+    modCount++;
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    root = null;
+    modCount++;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new Itr();
+  }
+
+  @Override
+  public Spliterator<E> spliterator() {
+    return Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED);
+  }
+
+  /**
+   * Iterator that walks the tree with a stack instead of looking up every position.
+   */
+  private final class Itr implements Iterator<E> {
+    private final Deque<Node<E>> path = new ArrayDeque<>();
+    private int cursor;
+    private int lastReturned = -1;
+    private int expectedModCount = modCount;
+
+    /**
+     * Starts at the first element.
+     */
+    Itr() {
+      seek(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return cursor < size();
+    }
+
+    @Override
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (path.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      Node<E> node = path.pop();
+      for (Node<E> next = node.right; next != null; next = next.left) {
+        path.push(next);
+      }
+      lastReturned = cursor++;
+      return node.value;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      PersistentList.this.remove(lastReturned);
+      cursor = lastReturned;
+      lastReturned = -1;
+      expectedModCount = modCount;
+      // The tree was rebuilt along the removed path, so find the way back in
+      seek(cursor);
+    }
+
+    /**
+     * Positions the iterator before an element.
+     *
+     * @param index the position of the element
+     */
+    private void seek(int index) {
+      path.clear();
+      Node<E> node = root;
+      while (node != null) {
+        int leftSize = sizeOf(node.left);
+        if (index <= leftSize) {
+          path.push(node);
+          if (index == leftSize) {
+            return;
+          }
+          node = node.left;
+        } else {
+          index -= leftSize + 1;
+          node = node.right;
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that a position is within bounds.
+   *
+   * @param index the position
+   * @param bound the first position out of bounds
+   */
+  private static void checkIndex(int index, int bound) {
+    if (index < 0 || index >= bound) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (bound - 1));
+    }
+  }
+
+  /**
+   * Builds a balanced tree from part of an array.
+   *
+   * @param <E> the type of the elements
+   * @param elements the elements
+   * @param from the first position to include
+   * @param to the first position to leave out
+   * @return the root, null for an empty range
+   */
+  @SuppressWarnings("unchecked")
+  private static <E> Node<E> build(Object[] elements, int from, int to) {
+    if (from >= to) {
+      return null;
+    }
+    int middle = (from + to) >>> 1;
+    return new Node<>((E) elements[middle], build(elements, from, middle),
+        build(elements, middle + 1, to));
+  }
+
+  /**
+   * Replaces the element at a position.
+   *
+   * @param <E> the type of the elements
+   * @param node the root of the subtree
+   * @param index the position within the subtree
+   * @param element the new element
+   * @return the new root
+   */
+  private static <E> Node<E> replace(Node<E> node, int index, E element) {
+    int leftSize = sizeOf(node.left);
+    if (index < leftSize) {
+      return new Node<>(node.value, replace(node.left, index, element), node.right);
+    }
+    if (index > leftSize) {
+      return new Node<>(node.value, node.left, replace(node.right, index - leftSize - 1, element));
+    }
+    return new Node<>(element, node.left, node.right);
+  }
+
+  /**
+   * Inserts an element at a position.
+   *
+   * @param <E> the type of the elements
+   * @param node the root of the subtree, null if empty
+   * @param index the position within the subtree
+   * @param element the element
+   * @return the new root
+   */
+  private static <E> Node<E> insert(Node<E> node, int index, E element) {
+    if (node == null) {
+      return new Node<>(element, null, null);
+    }
+    int leftSize = sizeOf(node.left);
+    if (index <= leftSize) {
+      return balance(node.value, insert(node.left, index, element), node.right);
+    }
+    return balance(node.value, node.left, insert(node.right, index - leftSize - 1, element));
+  }
+
+  /**
+   * Removes the element at a position.
+   *
+   * @param <E> the type of the elements
+   * @param node the root of the subtree
+   * @param index the position within the subtree
+   * @return the new root, null if the subtree is empty now
+   */
+  private static <E> Node<E> delete(Node<E> node, int index) {
+    int leftSize = sizeOf(node.left);
+    if (index < leftSize) {
+      return balance(node.value, delete(node.left, index), node.right);
+    }
+    if (index > leftSize) {
+      return balance(node.value, node.left, delete(node.right, index - leftSize - 1));
+    }
+    if (node.left == null) {
+      return node.right;
+    }
+    if (node.right == null) {
+      return node.left;
+    }
+    // Replace the element with the first one after it
+    Node<E> first = node.right;
+    while (first.left != null) {
+      first = first.left;
+    }
+    return balance(first.value, node.left, delete(node.right, 0));
+  }
+
+  /**
+   * Creates a node and rotates it back into balance if one side grew two levels taller
+   * than the other.
+   *
+   * @param <E> the type of the elements
+   * @param value the element
+   * @param left the elements before it
+   * @param right the elements after it
+   * @return the balanced subtree
+   */
+  private static <E> Node<E> balance(E value, Node<E> left, Node<E> right) {
+    int leftHeight = heightOf(left);
+    int rightHeight = heightOf(right);
+    if (leftHeight > rightHeight + 1) {
+      if (heightOf(left.left) >= heightOf(left.right)) {
+        return new Node<>(left.value, left.left, new Node<>(value, left.right, right));
+      }
+      Node<E> middle = left.right;
+      return new Node<>(middle.value, new Node<>(left.value, left.left, middle.left),
+          new Node<>(value, middle.right, right));
+    }
+    if (rightHeight > leftHeight + 1) {
+      if (heightOf(right.right) >= heightOf(right.left)) {
+        return new Node<>(right.value, new Node<>(value, left, right.left), right.right);
+      }
+      Node<E> middle = right.left;
+      return new Node<>(middle.value, new Node<>(value, left, middle.left),
+          new Node<>(right.value, middle.right, right.right));
+    }
+    return new Node<>(value, left, right);
+  }
+
+  /**
+   * Gets the number of elements in a subtree.
+   *
+   * @param node the root of the subtree, null if empty
+   * @return the size
+   */
+  private static int sizeOf(Node<?> node) {
+    return node == null ? 0 : node.size;
+  }
+
+  /**
+   * Gets the height of a subtree.
+   *
+   * @param node the root of the subtree, null if empty
+   * @return the height, 0 if empty
+   */
+  private static int heightOf(Node<?> node) {
+    return node == null ? 0 : node.height;
+  }
+}
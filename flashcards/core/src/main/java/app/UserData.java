@@ -17,8 +17,11 @@ public class UserData {
 
   /**
    * Default constructor for JSON deserialization.
+   * Starts with an empty deck manager in case the JSON has none.
    */
-  public UserData() {}
+  public UserData() {
+    this.deckManager = new FlashcardDeckManager();
+  }
 
   /**
    * Constructor without deckManager, initializes with empty deck manager.
@@ -38,22 +41,8 @@ public class UserData {
    */
   public UserData(User user, FlashcardDeckManager deckManager) {
     this.user = user;
-    if (deckManager == null) {
-      this.deckManager = new FlashcardDeckManager();
-    } else {
-      // Create defensive copy to avoid storing externally mutable object
-      this.deckManager = new FlashcardDeckManager();
-      for (FlashcardDeck deck : deckManager.getDecks()) {
-        try {
-          this.deckManager.addDeck(deck);
-        } catch (IllegalArgumentException e) {
-          // Skip invalid decks to prevent partial initialization
-          // This ensures constructor completes successfully
-          System.err.println("Skipping invalid deck during UserData construction: " 
-              + e.getMessage());
-        }
-      }
-    }
+    // Create defensive copy to avoid storing externally mutable object
+    this.deckManager = copyOf(deckManager, "UserData construction");
   }
 
   /** 
@@ -73,16 +62,7 @@ public class UserData {
    */
   @JsonProperty("deckManager")
   public FlashcardDeckManager getDeckManager() {
-    FlashcardDeckManager copy = new FlashcardDeckManager();
-    for (FlashcardDeck deck : deckManager.getDecks()) {
-      try {
-        copy.addDeck(deck);
-      } catch (IllegalArgumentException e) {
-        // Skip invalid decks
-        System.err.println("Skipping invalid deck during getDeckManager: " + e.getMessage());
-      }
-    }
-    return copy;
+    return copyOf(deckManager, "getDeckManager");
   }
 
   /**
@@ -92,18 +72,35 @@ public class UserData {
    * @param deckManager the FlashcardDeckManager to set
    */
   public void setDeckManager(FlashcardDeckManager deckManager) {
+    this.deckManager = copyOf(deckManager, "setDeckManager");
+  }
+
+  /**
+   * Copies a deck manager, skipping decks it could not have accepted so the copy is
+   * always complete and valid. Valid managers, which is nearly all of them, are copied
+   * in constant time.
+   *
+   * @param deckManager the manager to copy, null for an empty one
+   * @param during what the copy is made for, shown when a deck is skipped
+   * @return the copy
+   */
+  private static FlashcardDeckManager copyOf(FlashcardDeckManager deckManager, String during) {
     if (deckManager == null) {
-      this.deckManager = new FlashcardDeckManager();
-    } else {
-      this.deckManager = new FlashcardDeckManager();
-      for (FlashcardDeck deck : deckManager.getDecks()) {
-        try {
-          this.deckManager.addDeck(deck);
-        } catch (IllegalArgumentException e) {
-          // Skip invalid decks
-          System.err.println("Skipping invalid deck during setDeckManager: " + e.getMessage());
-        }
+      return new FlashcardDeckManager();
+    }
+    FlashcardDeckManager copy = deckManager.copyIfValid();
+    if (copy != null) {
+      return copy;
+    }
+    copy = new FlashcardDeckManager(deckManager.getMaxDecks());
+    for (FlashcardDeck deck : deckManager.getDecks()) {
+      try {
+        copy.addDeck(deck);
+      } catch (IllegalArgumentException e) {
+        // Skip invalid decks to prevent partial initialization
+        System.err.println("Skipping invalid deck during " + during + ": " + e.getMessage());
       }
     }
+    return copy;
   }
-}
\ No newline at end of file
+}
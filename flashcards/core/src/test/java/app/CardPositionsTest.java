@@ -0,0 +1,97 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link CardPositions}.
+ * Runs random inserts, moves and removals on a deck and checks the numbers its cards
+ * report against an ArrayList.
+ *
+ * @see CardPositions
+ */
+public class CardPositionsTest {
+
+  /**
+   * Tests random changes to a deck against an ArrayList.
+   */
+  @Test
+  public void testAgainstArrayList() {
+    FlashcardDeck deck = new FlashcardDeck("random");
+    List<Flashcard> expected = new ArrayList<>();
+    Random random = new Random(11);
+    for (int i = 0; i < 3_000; i++) {
+      int operation = random.nextInt(3);
+      if (operation == 0 || expected.size() < 2) {
+        int index = random.nextInt(expected.size() + 1);
+        Flashcard card = new Flashcard("q" + i, "a" + i);
+        deck.addFlashcard(index, card);
+        expected.add(index, card);
+      } else if (operation == 1) {
+        int from = random.nextInt(expected.size());
+        int to = random.nextInt(expected.size());
+        deck.moveFlashcard(from, to);
+        expected.add(to, expected.remove(from));
+      } else {
+        int index = random.nextInt(expected.size());
+        Flashcard removed = expected.remove(index);
+        deck.removeFlashcardByIndex(index);
+        assertEquals(index + 1, removed.getNumber());
+      }
+      if (i % 100 == 0) {
+        assertNumbers(expected, deck);
+      }
+    }
+    assertNumbers(expected, deck);
+  }
+
+  /**
+   * Tests that the JSON of a deck still carries the card numbers and reads back with
+   * cards numbered by position and their ids kept.
+   *
+   * @throws Exception if the JSON cannot be written or read
+   */
+  @Test
+  public void testJson() throws Exception {
+    FlashcardDeck deck = new FlashcardDeck("json");
+    deck.addFlashcard(new Flashcard("q1", "a1"));
+    deck.addFlashcard(new Flashcard("q2", "a2"));
+    deck.addFlashcard(0, new Flashcard("q0", "a0"));
+
+    ObjectMapper mapper = new ObjectMapper();
+    String json = mapper.writeValueAsString(deck);
+    assertEquals("{\"deckName\":\"json\",\"lastCardId\":3,\"flashcards\":["
+        + "{\"number\":1,\"question\":\"q0\",\"answer\":\"a0\",\"id\":3},"
+        + "{\"number\":2,\"question\":\"q1\",\"answer\":\"a1\",\"id\":1},"
+        + "{\"number\":3,\"question\":\"q2\",\"answer\":\"a2\",\"id\":2}]}", json);
+
+    FlashcardDeck read = mapper.readValue(json, FlashcardDeck.class);
+    assertEquals(3, read.size());
+    assertEquals("q2", read.getFlashcard(2).getQuestion());
+    assertEquals("q0", read.getFlashcardById(3).getQuestion());
+    read.removeFlashcardByIndex(0);
+    assertEquals(1, read.getFlashcard(0).getNumber());
+    assertFalse(mapper.writeValueAsString(read).contains("position"));
+  }
+
+  /**
+   * Checks that a deck holds the expected cards and each reports its position.
+   *
+   * @param expected the cards in order
+   * @param deck the deck
+   */
+  private static void assertNumbers(List<Flashcard> expected, FlashcardDeck deck) {
+    assertEquals(expected.size(), deck.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSame(expected.get(i), deck.getFlashcard(i));
+      assertEquals(i + 1, expected.get(i).getNumber());
+    }
+  }
+}
@@ -1,8 +1,11 @@
 package app;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.List;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -27,7 +30,7 @@ public class FlashcardDeckManagerTest {
   static void setUp() {
     flashcard = new Flashcard("question", "answer");
     flashcardDeck = new FlashcardDeck();
-    manager = new FlashcardDeckManager();
+    manager = new FlashcardDeckManager(8);
   }
 
   /**
@@ -99,4 +102,86 @@ public class FlashcardDeckManagerTest {
     manager.removeDeck(flashcardDeck);
     assertEquals(7, manager.getDecks().size());
   }
+
+  /**
+   * Tests finding and removing decks by name in a manager with many decks.
+   * Verifies that:
+   * - The default limit allows far more than the old eight decks
+   * - Decks are found and removed by name, and the order of the rest is kept
+   * - A deck renamed while in the manager is found, and checked, under its new name
+   */
+  @Test
+  void testDecksByName() {
+    FlashcardDeckManager large = new FlashcardDeckManager();
+    assertEquals(FlashcardDeckManager.DEFAULT_MAX_DECKS, large.getMaxDecks());
+    for (int i = 0; i < 500; i++) {
+      large.addDeck(new FlashcardDeck("Deck" + i));
+    }
+    assertEquals("Deck250", large.getDeck("Deck250").getDeckName());
+    assertNull(large.getDeck("Deck500"));
+    assertThrows(IllegalArgumentException.class,
+        () -> large.addDeck(new FlashcardDeck("Deck499")));
+
+    FlashcardDeck removed = large.removeDeck("Deck0");
+    assertEquals("Deck0", removed.getDeckName());
+    assertNull(large.getDeck("Deck0"));
+    assertNull(large.removeDeck("Deck0"));
+    assertEquals("Deck1", large.getDecks().get(0).getDeckName());
+    large.addDeck(removed);
+    assertSame(removed, large.getDecks().get(499));
+
+    FlashcardDeck renamed = large.getDeck("Deck1");
+    renamed.setDeckName("Renamed");
+    assertSame(renamed, large.getDeck("Renamed"));
+    assertNull(large.getDeck("Deck1"));
+    assertThrows(IllegalArgumentException.class,
+        () -> large.addDeck(new FlashcardDeck("Renamed")));
+    large.addDeck(new FlashcardDeck("Deck1"));
+    assertEquals("Deck1", large.getDecks().get(500).getDeckName());
+    assertSame(renamed, large.getDeck("Renamed"));
+
+    FlashcardDeckManager loaded = new FlashcardDeckManager(2);
+    loaded.setDecks(List.of(new FlashcardDeck("a"), new FlashcardDeck("b")));
+    assertEquals("b", loaded.getDeck("b").getDeckName());
+    assertThrows(IllegalArgumentException.class, () -> loaded.addDeck(new FlashcardDeck("c")));
+    loaded.getDeck("b").setDeckName("a2");
+    loaded.removeDeck("a");
+    assertThrows(IllegalArgumentException.class, () -> loaded.addDeck(new FlashcardDeck("a2")));
+    assertThrows(IllegalArgumentException.class, () -> new FlashcardDeckManager(0));
+  }
+
+  /**
+   * Tests renaming decks through their manager and while they are shared.
+   * Verifies that:
+   * - renameDeck checks the new name and keeps the name index up to date
+   * - Renaming a deck in one manager leaves the index of an unrelated manager in use
+   * - A manager sharing decks with a copy still finds them after the copy renames one
+   */
+  @Test
+  void testRenameDeck() {
+    FlashcardDeckManager renaming = new FlashcardDeckManager();
+    renaming.addDeck(new FlashcardDeck("a"));
+    renaming.addDeck(new FlashcardDeck("b"));
+    FlashcardDeckManager other = new FlashcardDeckManager();
+    FlashcardDeck untouched = new FlashcardDeck("a");
+    other.addDeck(untouched);
+
+    FlashcardDeck renamed = renaming.renameDeck("a", "c");
+    assertEquals("c", renamed.getDeckName());
+    assertSame(renamed, renaming.getDeck("c"));
+    assertNull(renaming.getDeck("a"));
+    assertNull(renaming.renameDeck("a", "d"));
+    assertThrows(IllegalArgumentException.class, () -> renaming.renameDeck("c", "b"));
+    assertThrows(IllegalArgumentException.class, () -> renaming.renameDeck("c", " "));
+    assertSame(untouched, other.getDeck("a"));
+
+    FlashcardDeckManager copy = renaming.copyIfValid();
+    copy.renameDeck("b", "e");
+    assertSame(copy.getDeck("e"), renaming.getDeck("e"));
+    assertNull(renaming.getDeck("b"));
+    assertThrows(IllegalArgumentException.class, () -> renaming.addDeck(new FlashcardDeck("e")));
+    renaming.getDeck("c").setDeckName("f");
+    assertEquals("f", renaming.getDeck("f").getDeckName());
+    assertNull(renaming.getDeck("c"));
+  }
 }
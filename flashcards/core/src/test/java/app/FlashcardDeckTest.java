@@ -2,10 +2,13 @@ package app;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -105,4 +108,158 @@ public class FlashcardDeckTest {
     flashcardDeck.setDeck(deck);
     assertEquals(1, flashcardDeck.getDeck().size());
   }
+
+  /**
+   * Tests that card numbers follow the positions of the cards.
+   * Verifies that:
+   * - Inserting, moving and removing cards renumbers the others
+   * - A removed card keeps its last number
+   * - Cards set on a deck are numbered by their position
+   */
+  @Test
+  void testNumbers() {
+    FlashcardDeck deck = new FlashcardDeck("numbers");
+    Flashcard first = new Flashcard("q1", "a1");
+    Flashcard second = new Flashcard("q2", "a2");
+    Flashcard third = new Flashcard("q3", "a3");
+    deck.addFlashcard(second);
+    deck.addFlashcard(third);
+    deck.addFlashcard(0, first);
+    assertEquals(List.of(1, 2, 3), numbers(deck));
+    assertEquals(second, deck.getFlashcard(1));
+
+    assertTrue(deck.moveFlashcard(0, 2));
+    assertEquals(List.of(second, third, first), deck.getDeck());
+    assertEquals(3, first.getNumber());
+    assertFalse(deck.moveFlashcard(0, 3));
+
+    assertTrue(deck.removeFlashcardByIndex(0));
+    assertEquals(1, second.getNumber());
+    assertEquals(List.of(1, 2), numbers(deck));
+    assertEquals(2, deck.size());
+
+    deck.setDeck(List.of(new Flashcard(7, "q4", "a4"), third));
+    assertEquals(List.of(1, 2), numbers(deck));
+    assertEquals(2, first.getNumber());
+  }
+
+  /**
+   * Tests that card ids stay with their cards.
+   * Verifies that:
+   * - Ids are found by lookup and survive changes to other cards
+   * - The id of a removed card is not given out again
+   * - Cards set on a deck keep free ids and get new ones for taken ids
+   */
+  @Test
+  void testIds() {
+    FlashcardDeck deck = new FlashcardDeck("ids");
+    Flashcard first = new Flashcard("q1", "a1");
+    Flashcard second = new Flashcard("q2", "a2");
+    deck.addFlashcard(first);
+    deck.addFlashcard(second);
+    assertEquals(1, first.getId());
+    assertEquals(2, second.getId());
+    assertEquals(second, deck.getFlashcardById(2));
+
+    assertTrue(deck.removeFlashcardById(1));
+    assertFalse(deck.removeFlashcardById(1));
+    assertEquals(0, deck.indexOf(2));
+    Flashcard third = new Flashcard("q3", "a3");
+    deck.addFlashcard(0, third);
+    assertEquals(3, third.getId());
+    assertEquals(1, deck.indexOf(2));
+    assertNull(deck.getFlashcardById(1));
+
+    Flashcard copy = new Flashcard(1, "q4", "a4");
+    copy.setId(2);
+    deck.setDeck(List.of(second, copy));
+    assertEquals(2, second.getId());
+    assertEquals(4, copy.getId());
+    assertEquals(4, deck.getLastCardId());
+    deck.setLastCardId(1);
+    assertEquals(4, deck.getLastCardId());
+  }
+
+  /**
+   * Tests that the question index follows adding, removing, replacing and editing cards,
+   * and groups the cards that share a question.
+   */
+  @Test
+  void testQuestionIndex() {
+    FlashcardDeck deck = new FlashcardDeck("questions");
+    Flashcard first = new Flashcard("q1", "a1");
+    Flashcard second = new Flashcard("q2", "a2");
+    Flashcard third = new Flashcard("q1", "a3");
+    deck.addFlashcard(first);
+    deck.addFlashcard(second);
+    deck.addFlashcard(0, third);
+    assertTrue(deck.isQuestion("q1"));
+    assertFalse(deck.isQuestion("a1"));
+    assertEquals(List.of(third, first), deck.getFlashcardsByQuestion("q1"));
+    assertEquals(Map.of("q1", List.of(third, first)), deck.getSharedQuestions());
+
+    second.setQuestion("q1");
+    assertFalse(deck.isQuestion("q2"));
+    assertEquals(List.of(third, first, second), deck.getFlashcardsByQuestion("q1"));
+
+    first.setQuestion("q3");
+    deck.removeFlashcardByIndex(0);
+    assertEquals(List.of(second), deck.getFlashcardsByQuestion("q1"));
+    assertTrue(deck.getSharedQuestions().isEmpty());
+    assertTrue(deck.isQuestion("q3"));
+
+    // Cards that left the deck no longer change its index
+    third.setQuestion("q4");
+    assertFalse(deck.isQuestion("q4"));
+    deck.setDeck(List.of(new Flashcard("q5", "a5")));
+    second.setQuestion("q6");
+    assertFalse(deck.isQuestion("q1"));
+    assertFalse(deck.isQuestion("q6"));
+    assertTrue(deck.isQuestion("q5"));
+    assertTrue(deck.getFlashcardsByQuestion("q3").isEmpty());
+  }
+
+  /**
+   * Tests that a card handed from one deck to another is copied, so editing it changes
+   * only the deck it belongs to and each deck keeps numbering its own cards.
+   */
+  @Test
+  void testSharedCards() {
+    FlashcardDeck first = new FlashcardDeck("first");
+    first.addFlashcard(new Flashcard("q1", "a1"));
+    first.addFlashcard(new Flashcard("q2", "a2"));
+    FlashcardDeck second = new FlashcardDeck("second");
+    second.setDeck(first.getDeck());
+    second.addFlashcard(0, first.getFlashcard(1));
+
+    second.getFlashcard(1).setQuestion("changed");
+    assertTrue(first.isQuestion("q1"));
+    assertFalse(first.isQuestion("changed"));
+    assertTrue(second.isQuestion("changed"));
+    first.getFlashcard(1).setQuestion("q3");
+    assertTrue(second.isQuestion("q2"));
+    assertFalse(second.isQuestion("q3"));
+
+    assertEquals(List.of(1, 2, 3), numbers(second));
+    // The second copy of card 2 gets a new id, as 2 is taken in this deck
+    assertEquals(3, second.getFlashcard(0).getId());
+    first.removeFlashcardByIndex(0);
+    assertEquals(List.of(1), numbers(first));
+    assertEquals(List.of(1, 2, 3), numbers(second));
+
+    Flashcard twice = new Flashcard("q4", "a4");
+    first.setDeck(List.of(twice, twice));
+    assertEquals(List.of(1, 2), numbers(first));
+    assertThrows(IllegalStateException.class, () -> twice.setNumber(5));
+  }
+
+  /**
+   * Gets the numbers the cards of a deck report.
+   *
+   * @param deck the deck
+   * @return the numbers, in deck order
+   */
+  private static List<Integer> numbers(FlashcardDeck deck) {
+    return deck.getDeck().stream().map(Flashcard::getNumber).toList();
+  }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link PersistentList}.
+ * Compares the list against an ArrayList and checks that copies stay independent.
+ *
+ * @see PersistentList
+ */
+public class PersistentListTest {
+
+  /**
+   * Tests random inserts, replacements and removals against an ArrayList.
+   */
+  @Test
+  public void testAgainstArrayList() {
+    PersistentList<Integer> list = new PersistentList<>();
+    List<Integer> expected = new ArrayList<>();
+    Random random = new Random(7);
+    for (int i = 0; i < 5_000; i++) {
+      int operation = random.nextInt(4);
+      if (operation < 2 || expected.isEmpty()) {
+        int index = random.nextInt(expected.size() + 1);
+        list.add(index, i);
+        expected.add(index, i);
+      } else if (operation == 2) {
+        int index = random.nextInt(expected.size());
+        assertEquals(expected.set(index, -i), list.set(index, -i));
+      } else {
+        int index = random.nextInt(expected.size());
+        assertEquals(expected.remove(index), list.remove(index));
+      }
+    }
+    assertEquals(expected, list);
+    assertEquals(expected, new ArrayList<>(list));
+    assertEquals(expected.hashCode(), list.hashCode());
+    assertEquals(expected.stream().mapToLong(Integer::longValue).sum(),
+        list.stream().mapToLong(Integer::longValue).sum());
+    assertEquals(expected, PersistentList.copyOf(expected));
+    assertThrows(IndexOutOfBoundsException.class, () -> list.get(expected.size()));
+    assertThrows(IndexOutOfBoundsException.class, () -> list.add(-1, 0));
+  }
+
+  /**
+   * Tests that a snapshot and the list it was taken from can be changed independently.
+   */
+  @Test
+  public void testSnapshot() {
+    PersistentList<String> list = PersistentList.copyOf(List.of("a", "b", "c"));
+    List<String> snapshot = list.snapshot();
+    snapshot.add("d");
+    snapshot.set(0, "z");
+    list.remove(1);
+    assertEquals(List.of("a", "c"), list);
+    assertEquals(List.of("z", "b", "c", "d"), snapshot);
+
+    PersistentList<String> copy = PersistentList.copyOf(list);
+    list.clear();
+    assertTrue(list.isEmpty());
+    assertEquals(List.of("a", "c"), copy);
+  }
+
+  /**
+   * Tests removing through the iterator and that changes during iteration are detected.
+   */
+  @Test
+  public void testIterator() {
+    PersistentList<Integer> list = new PersistentList<>();
+    for (int i = 0; i < 100; i++) {
+      list.add(i);
+    }
+    assertTrue(list.removeIf(value -> value % 3 == 0));
+    assertEquals(66, list.size());
+    assertFalse(list.contains(99));
+    assertTrue(list.remove(Integer.valueOf(1)));
+    assertEquals(2, list.get(0));
+
+    Iterator<Integer> iterator = list.iterator();
+    iterator.next();
+    assertThrows(IllegalStateException.class, () -> {
+      iterator.remove();
+      iterator.remove();
+    });
+    list.add(0);
+    assertThrows(ConcurrentModificationException.class, iterator::next);
+  }
+
+  /**
+   * Tests that decks and managers hand out copies that do not change them.
+   */
+  @Test
+  public void testModelCopies() {
+    FlashcardDeck deck = new FlashcardDeck("Deck");
+    deck.addFlashcard(new Flashcard("q1", "a1"));
+    List<Flashcard> cards = deck.getDeck();
+    cards.clear();
+    assertEquals(1, deck.getDeck().size());
+
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(deck);
+    UserData userData = new UserData(new User("user", "password123"), manager);
+    manager.removeDeck(deck);
+    assertEquals(1, userData.getDeckManager().getDecks().size());
+
+    FlashcardDeckManager duplicates = new FlashcardDeckManager();
+    duplicates.setDecks(List.of(deck, new FlashcardDeck("Deck")));
+    userData.setDeckManager(duplicates);
+    assertEquals(List.of(deck), userData.getDeckManager().getDecks());
+  }
+}
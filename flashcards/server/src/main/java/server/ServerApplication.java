@@ -1,7 +1,13 @@
 package server;
 
+import itp.storage.StorageEngines;
+import java.util.logging.Logger;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import server.service.WarmUpService;
 
 /**
  * Main Spring Boot application class for the Flashcards REST API server.
@@ -14,6 +20,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class ServerApplication {
 
+  private static final Logger LOGGER = Logger.getLogger(ServerApplication.class.getName());
+
   /**
    * Main method that starts the Spring Boot application.
    *
@@ -22,4 +30,32 @@ public class ServerApplication {
   public static void main(String[] args) {
     SpringApplication.run(ServerApplication.class, args);
   }
-}
\ No newline at end of file
+
+  /**
+   * Runs the startup warm-up once the server is up: builds the in-memory indexes and,
+   * if switched on, preloads the most recently active users. The readiness endpoint
+   * answers 503 until it is done.
+   *
+   * @param event the event carrying the application context
+   * @see WarmUpService
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void warmUp(ApplicationReadyEvent event) {
+    // Absent in test slices that only load the web layer
+    event.getApplicationContext().getBeanProvider(WarmUpService.class)
+        .ifAvailable(WarmUpService::warmUp);
+  }
+
+  /**
+   * Writes any deck and card changes the configured storage engine still holds in memory
+   * before the server stops. Only has work to do when write-behind is switched on.
+   */
+  @EventListener(ContextClosedEvent.class)
+  public void flushPendingWrites() {
+    int failed = StorageEngines.configured().flushPendingWrites();
+    if (failed > 0) {
+      LOGGER.warning(() -> "Failed to write pending changes for " + failed
+          + " users on shutdown");
+    }
+  }
+}
@@ -5,13 +5,17 @@ import app.FlashcardDeckManager;
 import dto.FlashcardDeckDto;
 import dto.FlashcardDeckManagerDto;
 import dto.mappers.FlashcardDeckMapper;
+import itp.storage.VersionConflictException;
 import java.util.Objects; 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -27,6 +31,10 @@ import shared.ApiResponse;
  * Handles HTTP requests related to flashcard deck operations.
  * Interacts with DeckService to perform business logic and data manipulation.
  *
+ * <p>Reads are tagged with the version of the user's decks as ETag. Writes that send
+ * it back in If-Match fail with 412 if the decks changed in the meantime, see
+ * {@link EntityTags}.
+ *
  * @author ailinat
  * @author sofietw
  * @see server.service.DeckService
@@ -53,22 +61,31 @@ public class DeckController {
    * Gets all decks for a user.
    *
    * @param username the username of the user
-   * @return an ApiResponse containing FlashcardDeckManagerDto if success or an error message
+   * @param ifNoneMatch the ETag of the client's copy, if it has one
+   * @return an ApiResponse containing FlashcardDeckManagerDto if success or an error message,
+   *     or no body if the client's copy is current
    */
   @RequestMapping
-  public ApiResponse<FlashcardDeckManagerDto> getAllDecks(@RequestParam String username) {
+  public ResponseEntity<ApiResponse<FlashcardDeckManagerDto>> getAllDecks(
+      @RequestParam String username,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
     try {
+      // Versions are read before the data, so the data is never older than its ETag
+      long version = deckService.getVersion(username);
+      if (EntityTags.matches(ifNoneMatch, version)) {
+        return EntityTags.notModified(version);
+      }
       FlashcardDeckManager deckManager = deckService.getAllDecks(username);
       FlashcardDeckManagerDto dto = new FlashcardDeckManagerDto(
           mapper.toDtoList(deckManager.getDecks()));
-      return new ApiResponse<>(true, ApiConstants.DECKS_RETRIEVED, dto);
+      return EntityTags.ok(version, new ApiResponse<>(true, ApiConstants.DECKS_RETRIEVED, dto));
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.DECKS_RETRIEVING_ERROR 
           + " for username: '" + username + "': " + e.getMessage());
       // Return user-friendly message
-      return new ApiResponse<>(false, 
-          ApiConstants.FAILED_TO_LOAD_DATA, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FAILED_TO_LOAD_DATA, null));
     }
   }
 
@@ -77,22 +94,29 @@ public class DeckController {
    *
    * @param username the username of the user
    * @param deckName the name of the deck to retrieve
-   * @return an ApiResponse containing FlashcardDeckDto if success or an error message
+   * @param ifNoneMatch the ETag of the client's copy, if it has one
+   * @return an ApiResponse containing FlashcardDeckDto if success or an error message,
+   *     or no body if the client's copy is current
    */
   @RequestMapping("/{deckName}")
-  public ApiResponse<FlashcardDeckDto> getDeckByName(
-      @RequestParam String username, @PathVariable String deckName) {
+  public ResponseEntity<ApiResponse<FlashcardDeckDto>> getDeckByName(
+      @RequestParam String username, @PathVariable String deckName,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
     try {
+      long version = deckService.getVersion(username);
+      if (EntityTags.matches(ifNoneMatch, version)) {
+        return EntityTags.notModified(version);
+      }
       FlashcardDeck deck = deckService.getDeck(username, deckName);
       FlashcardDeckDto dto = mapper.toDto(deck);
-      return new ApiResponse<>(true, ApiConstants.DECK_RETRIEVED, dto);
+      return EntityTags.ok(version, new ApiResponse<>(true, ApiConstants.DECK_RETRIEVED, dto));
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.DECK_RETRIEVING_ERROR 
           + ": '" + deckName + "' for username: '" + username + "': " + e.getMessage());
       // Return user-friendly message
-      return new ApiResponse<>(false, 
-          ApiConstants.FAILED_TO_LOAD_DATA, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FAILED_TO_LOAD_DATA, null));
     }
   }
 
@@ -101,15 +125,21 @@ public class DeckController {
    *
    * @param username the username of the user
    * @param deckName the name of the deck to create
+   * @param ifMatch the ETag the change is based on, if it is conditional
    * @return an ApiResponse containing FlashcardDeckDto if success or an error message
    */
   @PostMapping("/{deckName}")
-  public ApiResponse<FlashcardDeckDto> createDeck(
-      @RequestParam String username, @PathVariable String deckName) {
+  public ResponseEntity<ApiResponse<FlashcardDeckDto>> createDeck(
+      @RequestParam String username, @PathVariable String deckName,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
     try {
-      FlashcardDeck deck = deckService.createDeck(username, deckName);
-      FlashcardDeckDto dto = mapper.toDto(deck);
-      return new ApiResponse<>(true, ApiConstants.DECK_CREATED, dto);
+      EntityTags.Versioned<FlashcardDeck> created = EntityTags.write(deckService, username,
+          ifMatch, () -> deckService.createDeck(username, deckName));
+      FlashcardDeckDto dto = mapper.toDto(created.result());
+      return EntityTags.ok(created.version(),
+          new ApiResponse<>(true, ApiConstants.DECK_CREATED, dto));
+    } catch (VersionConflictException e) {
+      return EntityTags.conflict(e);
     } catch (IllegalArgumentException e) {
       // Log technical details for developers
       System.err.println(ApiConstants.DECK_CREATED_ERROR 
@@ -128,38 +158,50 @@ public class DeckController {
       } else {
         userMessage = ApiConstants.DECK_OPERATION_FAILED;  // Generic fallback
       }
-      return new ApiResponse<>(false, userMessage, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, userMessage, null));
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.DECK_CREATED_ERROR 
           + ": '" + deckName + "' for username: '" + username + "': " + e.getMessage());
       // Return generic user-friendly message for other errors (IOException, etc.)
-      return new ApiResponse<>(false, 
-          ApiConstants.DECK_OPERATION_FAILED, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.DECK_OPERATION_FAILED, null));
     }
   }
 
   /**
    * Updates all decks for a user.
+   * Since this replaces every deck, the client must send the ETag it read them at,
+   * or {@code *} to overwrite them whatever they are.
    *
    * @param username the username of the user
+   * @param ifMatch the ETag the change is based on
    * @param deckManager the FlashcardDeckManager containing updated decks
    * @return an ApiResponse indicating success or failure
    */
   @PutMapping
-  public ApiResponse<Void> updateAllDecks(
+  public ResponseEntity<ApiResponse<Void>> updateAllDecks(
       @RequestParam String username,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
       @RequestBody FlashcardDeckManager deckManager) {
     try {
+      if (EntityTags.missing(ifMatch)) {
+        return EntityTags.preconditionRequired();
+      }
       Objects.requireNonNull(deckManager, "Deck manager cannot be null");
-      deckService.updateAllDecks(username, deckManager);
-      return new ApiResponse<>(true, ApiConstants.DECK_UPDATED, null);
+      Long version = EntityTags.write(deckService, username, ifMatch, () -> {
+        deckService.updateAllDecks(username, deckManager);
+        return null;
+      }).version();
+      return EntityTags.ok(version, new ApiResponse<>(true, ApiConstants.DECK_UPDATED, null));
+    } catch (VersionConflictException e) {
+      return EntityTags.conflict(e);
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.DECK_UPDATED_ERROR 
           + " for username: '" + username + "': " + e.getMessage());
       // Return user-friendly message
-      return new ApiResponse<>(false, ApiConstants.DECK_UPDATE_FAILED, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, ApiConstants.DECK_UPDATE_FAILED, null));
     }
   }
 
@@ -168,21 +210,28 @@ public class DeckController {
    *
    * @param username the username of the user
    * @param deckName the name of the deck to delete
+   * @param ifMatch the ETag the change is based on, if it is conditional
    * @return An ApiResponse indicating success or failure
    */
   @DeleteMapping("/{deckName}")
-  public ApiResponse<Void> deleteDeck(
-      @RequestParam String username, @PathVariable String deckName) {
+  public ResponseEntity<ApiResponse<Void>> deleteDeck(
+      @RequestParam String username, @PathVariable String deckName,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
     try {
-      deckService.deleteDeck(username, deckName);
-      return new ApiResponse<>(true, ApiConstants.DECK_DELETED, null);
+      Long version = EntityTags.write(deckService, username, ifMatch, () -> {
+        deckService.deleteDeck(username, deckName);
+        return null;
+      }).version();
+      return EntityTags.ok(version, new ApiResponse<>(true, ApiConstants.DECK_DELETED, null));
+    } catch (VersionConflictException e) {
+      return EntityTags.conflict(e);
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.DECK_DELETED_ERROR 
           + ": '" + deckName + "' for username: '" + username + "': " + e.getMessage());
       // Return user-friendly message  
-      return new ApiResponse<>(false, 
-          ApiConstants.DECK_OPERATION_FAILED, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.DECK_OPERATION_FAILED, null));
     }
   }
 }
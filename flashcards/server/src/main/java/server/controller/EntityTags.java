@@ -0,0 +1,198 @@
+package server.controller;
+
+import itp.storage.UserLockManager.LockedAction;
+import itp.storage.VersionConflictException;
+import java.io.IOException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import server.service.VersionedService;
+import shared.ApiConstants;
+import shared.ApiResponse;
+
+/**
+ * Translates between the version of a user's decks and HTTP entity tags.
+ *
+ * <p>The ETag of a user's decks and cards is the version in quotes, such as {@code "42"}.
+ * Reads send it along, and a client that sends it back in {@code If-None-Match} gets
+ * 304 Not Modified while nothing changed. Writes with the ETag in {@code If-Match} only
+ * go through while the user is still at that version, otherwise they get
+ * 412 Precondition Failed with the current ETag. Replacing all of a user's decks at once
+ * requires If-Match and gets 428 Precondition Required without it; other writes may leave
+ * it out.
+ *
+ * @see server.service.DeckService#ifVersion
+ */
+final class EntityTags {
+
+  // Matches no version, for tags that are not a version at all
+  private static final long NO_VERSION = Long.MIN_VALUE;
+
+  private EntityTags() {
+  }
+
+  /**
+   * Formats a version as an entity tag.
+   *
+   * @param version the version
+   * @return the quoted version
+   */
+  static String of(long version) {
+    return "\"" + version + "\"";
+  }
+
+  /**
+   * Reads the version a write is conditional on.
+   *
+   * @param ifMatch the If-Match header, may be null
+   * @return the expected version, or null if the write is unconditional
+   */
+  static Long expectedVersion(String ifMatch) {
+    if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+      return null;
+    }
+    // If-Match compares strongly, so a weak tag never matches
+    return ifMatch.trim().startsWith("W/") ? NO_VERSION : parse(ifMatch);
+  }
+
+  /**
+   * Checks whether a client's copy is current.
+   *
+   * @param ifNoneMatch the If-None-Match header, may be null
+   * @param version the current version
+   * @return true if one of the tags is the current version
+   */
+  static boolean matches(String ifNoneMatch, long version) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      String trimmed = tag.trim();
+      if (trimmed.equals("*")) {
+        return true;
+      }
+      // If-None-Match compares weakly
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (parse(trimmed) == version) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * What a write returned, along with the version it left behind.
+   *
+   * @param <T> the type of the result
+   * @param result the value the change returned
+   * @param version the version after a conditional write, null after an unconditional one
+   */
+  record Versioned<T>(T result, Long version) {
+  }
+
+  /**
+   * Runs a write, conditional on the version in If-Match if the client sent one.
+   * A conditional write reads the version it leaves behind under the same lock, so the
+   * client can send it along with its next write. Unconditional writes are not tagged,
+   * since another write may already have followed by the time the version is read.
+   *
+   * @param <T> the type of the change's result
+   * @param service the service making the change
+   * @param username the username of the user
+   * @param ifMatch the If-Match header, may be null
+   * @param change the write
+   * @return the change's result and the version after a conditional write
+   * @throws VersionConflictException if the decks are no longer at the expected version
+   * @throws IOException if the write fails
+   */
+  static <T> Versioned<T> write(VersionedService service, String username, String ifMatch,
+      LockedAction<T> change) throws IOException {
+    Long expected = expectedVersion(ifMatch);
+    if (expected == null) {
+      return new Versioned<>(change.run(), null);
+    }
+    return service.ifVersion(username, expected,
+        () -> new Versioned<>(change.run(), service.getVersion(username)));
+  }
+
+  /**
+   * Checks whether a client left out If-Match altogether.
+   * A client that means to overwrite whatever is there says so with {@code *}.
+   *
+   * @param ifMatch the If-Match header, may be null
+   * @return true if there is no precondition
+   */
+  static boolean missing(String ifMatch) {
+    return ifMatch == null || ifMatch.isBlank();
+  }
+
+  /**
+   * Builds a successful response, tagged with a version if there is one.
+   *
+   * @param <T> the type of the response data
+   * @param version the version, or null for an untagged response
+   * @param response the response body
+   * @return the response
+   */
+  static <T> ResponseEntity<ApiResponse<T>> ok(Long version, ApiResponse<T> response) {
+    ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+    if (version != null) {
+      builder.eTag(of(version));
+    }
+    return builder.body(response);
+  }
+
+  /**
+   * Builds the response for a client whose copy is current.
+   *
+   * @param <T> the type of the response data
+   * @param version the current version
+   * @return a 304 response without body
+   */
+  static <T> ResponseEntity<ApiResponse<T>> notModified(long version) {
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(of(version)).build();
+  }
+
+  /**
+   * Builds the response for a write based on an old version.
+   *
+   * @param <T> the type of the response data
+   * @param conflict the conflict
+   * @return a 412 response tagged with the current version
+   */
+  static <T> ResponseEntity<ApiResponse<T>> conflict(VersionConflictException conflict) {
+    return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+        .eTag(of(conflict.getActualVersion()))
+        .body(new ApiResponse<>(false, ApiConstants.VERSION_CONFLICT, null));
+  }
+
+  /**
+   * Builds the response for a write that needs If-Match but came without.
+   *
+   * @param <T> the type of the response data
+   * @return a 428 response
+   */
+  static <T> ResponseEntity<ApiResponse<T>> preconditionRequired() {
+    return ResponseEntity.status(HttpStatus.PRECONDITION_REQUIRED)
+        .body(new ApiResponse<>(false, ApiConstants.PRECONDITION_REQUIRED, null));
+  }
+
+  /**
+   * Parses one entity tag.
+   *
+   * @param tag the tag, quoted or not
+   * @return the version, or a value no version has if the tag is none of ours
+   */
+  private static long parse(String tag) {
+    String value = tag.trim();
+    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+      value = value.substring(1, value.length() - 1);
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return NO_VERSION;
+    }
+  }
+}
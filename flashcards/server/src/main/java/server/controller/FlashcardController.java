@@ -4,12 +4,17 @@ package server.controller;
 import app.Flashcard;
 import dto.FlashcardDto;
 import dto.mappers.FlashcardMapper;
+import itp.storage.VersionConflictException;
 import java.util.List;
 import java.util.Objects;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -22,6 +27,9 @@ import shared.ApiResponse;
  * Controller for managing flashcards.
  * Uses the FlashcardService to handle business logic.
  *
+ * <p>Reads are tagged with the version of the user's decks as ETag, and writes honour
+ * If-Match the same way as in {@link DeckController}, see {@link EntityTags}.
+ *
  * @author parts of class is generated with the help of claude.ai
  * @author ailinat
  * @author sofietw
@@ -53,29 +61,38 @@ public class FlashcardController {
    * @param username the username of the user who owns the deck
    * @param deckname the name of the deck containing the flashcard
    * @param number the position/index of the flashcard to retrieve
+   * @param ifNoneMatch the ETag of the client's copy, if it has one
    * @return ApiResponse containing the FlashcardDto on success,
-   *         or error message on failure
+   *         or error message on failure, or no body if the client's copy is current
    */
   @GetMapping(ApiEndpoints.FLASHCARD_GET)
-  public ApiResponse<FlashcardDto> getFlashcard(
+  public ResponseEntity<ApiResponse<FlashcardDto>> getFlashcard(
       @RequestParam String username,
       @RequestParam String deckname,
-      @RequestParam int number) {
+      @RequestParam int number,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
     try {
+      // Versions are read before the data, so the data is never older than its ETag
+      long version = flashcardService.getVersion(username);
+      if (EntityTags.matches(ifNoneMatch, version)) {
+        return EntityTags.notModified(version);
+      }
+
       // Get flashcard from specified position in deck
       Flashcard flashcard = flashcardService.getFlashcard(username, deckname, number);
       
       // Convert to DTO for response
       FlashcardDto flashcardDto = mapper.toDto(flashcard);
-      return new ApiResponse<>(true, ApiConstants.FLASHCARD_RETRIEVED, flashcardDto);
+      return EntityTags.ok(version,
+          new ApiResponse<>(true, ApiConstants.FLASHCARD_RETRIEVED, flashcardDto));
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.FLASHCARD_RETRIEVED_FAILED + " for username: '" 
           + username + "', deck: '" + deckname + "', number: " 
           + number + " - " + e.getMessage());
       // Return user-friendly message
-      return new ApiResponse<>(false, 
-          ApiConstants.FLASHCARD_OPERATION_FAILED, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FLASHCARD_OPERATION_FAILED, null));
     }
   }
 
@@ -84,25 +101,33 @@ public class FlashcardController {
    *
    * @param username the username of the user who owns the deck
    * @param deckname the name of the deck to retrieve flashcards from
+   * @param ifNoneMatch the ETag of the client's copy, if it has one
    * @return ApiResponse containing a list of all FlashcardDto objects on success,
-   *         or error message on failure
+   *         or error message on failure, or no body if the client's copy is current
    */
   @GetMapping(ApiEndpoints.FLASHCARD_GET_ALL)
-  public ApiResponse<List<FlashcardDto>> getAllFlashcards(
+  public ResponseEntity<ApiResponse<List<FlashcardDto>>> getAllFlashcards(
       @RequestParam String username,
-      @RequestParam String deckname) {
+      @RequestParam String deckname,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
     try {
+      long version = flashcardService.getVersion(username);
+      if (EntityTags.matches(ifNoneMatch, version)) {
+        return EntityTags.notModified(version);
+      }
+
       // Get all flashcards from the specified deck
       List<Flashcard> flashcards = flashcardService.getAllFlashcards(username, deckname);
       List<FlashcardDto> flashcardDtos = mapper.toDtoList(flashcards);
-      return new ApiResponse<>(true, ApiConstants.FLASHCARDS_RETRIEVED, flashcardDtos);
+      return EntityTags.ok(version,
+          new ApiResponse<>(true, ApiConstants.FLASHCARDS_RETRIEVED, flashcardDtos));
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.FLASHCARDS_RETRIEVED_FAILED + " for username: '" 
           + username + "', deck: '" + deckname + "' - " + e.getMessage());
       // Return user-friendly message
-      return new ApiResponse<>(false, 
-          ApiConstants.FLASHCARD_OPERATION_FAILED, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FLASHCARD_OPERATION_FAILED, null));
     }
   }
 
@@ -113,34 +138,36 @@ public class FlashcardController {
    * @param deckname the name of the deck to add the flashcard to
    * @param question the question text for the flashcard
    * @param answer the answer text for the flashcard
+   * @param ifMatch the ETag the change is based on, if it is conditional
    * @return ApiResponse containing the created FlashcardDto on success,
    *         or error message on failure
    */
   @PostMapping(ApiEndpoints.FLASHCARD_CREATE)
-  public ApiResponse<FlashcardDto> createFlashcard(
+  public ResponseEntity<ApiResponse<FlashcardDto>> createFlashcard(
       @RequestParam String username,
       @RequestParam String deckname,
       @RequestParam String question, 
-      @RequestParam String answer) {
+      @RequestParam String answer,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
     try {
-      // Create flashcard in the specified deck
-      flashcardService.createFlashcard(username, deckname, answer, question);
-      
-      // Get updated deck to find position of newly created flashcard
-      List<Flashcard> allFlashcards = flashcardService.getAllFlashcards(username, deckname);
-      int position = allFlashcards.size(); // New card is at the end (1-indexed)
+      // Create flashcard in the specified deck, keeping the card as it was added, since
+      // reading the deck again could already see later changes
+      EntityTags.Versioned<Flashcard> created = EntityTags.write(flashcardService, username,
+          ifMatch, () -> flashcardService.createFlashcard(username, deckname, answer, question));
       
       // Return the created flashcard as Dto
-      FlashcardDto flashcardDto = mapper.toDto(flashcardService.getFlashcard(username, 
-          deckname, position));
-      return new ApiResponse<>(true, ApiConstants.FLASHCARD_CREATED, flashcardDto);
+      FlashcardDto flashcardDto = mapper.toDto(created.result());
+      return EntityTags.ok(created.version(),
+          new ApiResponse<>(true, ApiConstants.FLASHCARD_CREATED, flashcardDto));
+    } catch (VersionConflictException e) {
+      return EntityTags.conflict(e);
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.FLASHCARD_FAILED + " for username: '" 
           + username + "', deck: '" + deckname + "' - " + e.getMessage());
       // Return user-friendly message
-      return new ApiResponse<>(false, 
-          ApiConstants.FLASHCARD_OPERATION_FAILED, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FLASHCARD_OPERATION_FAILED, null));
     }
   }
 
@@ -150,27 +177,142 @@ public class FlashcardController {
    * @param username the username of the user who owns the deck
    * @param deckname the name of the deck containing the flashcard
    * @param number the position/index of the flashcard to delete
+   * @param ifMatch the ETag the change is based on, if it is conditional
    * @return ApiResponse with success message on successful deletion,
    *         or error message on failure
    */
   @DeleteMapping(ApiEndpoints.FLASHCARD_DELETE)
-  public ApiResponse<Void> deleteFlashcard(
+  public ResponseEntity<ApiResponse<Void>> deleteFlashcard(
       @RequestParam String username,
       @RequestParam String deckname,
-      @RequestParam int number) {
+      @RequestParam int number,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
     try {
       // Remove flashcard at specified position
-      flashcardService.deleteFlashcard(username, deckname, number);
-      return new ApiResponse<>(true, ApiConstants.FLASHCARD_DELETED, null);
+      Long version = EntityTags.write(flashcardService, username, ifMatch, () -> {
+        flashcardService.deleteFlashcard(username, deckname, number);
+        return null;
+      }).version();
+      return EntityTags.ok(version, new ApiResponse<>(true, ApiConstants.FLASHCARD_DELETED, null));
+    } catch (VersionConflictException e) {
+      return EntityTags.conflict(e);
     } catch (Exception e) {
       // Log technical details for developers
       System.err.println(ApiConstants.FLASHCARD_FAILED_TO_DELETE 
           + " for username: '" + username + "', deck: '" + deckname 
           + "', number: " + number + " - " + e.getMessage());
       // Return user-friendly message
-      return new ApiResponse<>(false, 
-          ApiConstants.FLASHCARD_OPERATION_FAILED, null);
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FLASHCARD_OPERATION_FAILED, null));
+    }
+  }
+
+  /**
+   * Retrieves a specific flashcard by its id, which unlike its position does not change
+   * when other cards are added or deleted.
+   *
+   * @param username the username of the user who owns the deck
+   * @param deckname the name of the deck containing the flashcard
+   * @param id the id of the flashcard within the deck
+   * @param ifNoneMatch the ETag of the client's copy, if it has one
+   * @return ApiResponse containing the FlashcardDto on success,
+   *         or error message on failure, or no body if the client's copy is current
+   */
+  @GetMapping(ApiEndpoints.FLASHCARD_GET_BY_ID)
+  public ResponseEntity<ApiResponse<FlashcardDto>> getFlashcardById(
+      @RequestParam String username,
+      @RequestParam String deckname,
+      @RequestParam int id,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    try {
+      long version = flashcardService.getVersion(username);
+      if (EntityTags.matches(ifNoneMatch, version)) {
+        return EntityTags.notModified(version);
+      }
+
+      Flashcard flashcard = flashcardService.getFlashcardById(username, deckname, id);
+      return EntityTags.ok(version, new ApiResponse<>(true, ApiConstants.FLASHCARD_RETRIEVED,
+          mapper.toDto(flashcard)));
+    } catch (Exception e) {
+      // Log technical details for developers
+      System.err.println(ApiConstants.FLASHCARD_RETRIEVED_FAILED + " for username: '" 
+          + username + "', deck: '" + deckname + "', id: " + id + " - " + e.getMessage());
+      // Return user-friendly message
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FLASHCARD_OPERATION_FAILED, null));
+    }
+  }
+
+  /**
+   * Changes the question and/or answer of a flashcard found by its id.
+   *
+   * @param username the username of the user who owns the deck
+   * @param deckname the name of the deck containing the flashcard
+   * @param id the id of the flashcard within the deck
+   * @param question the new question text, left as it is if missing or blank
+   * @param answer the new answer text, left as it is if missing or blank
+   * @param ifMatch the ETag the change is based on, if it is conditional
+   * @return ApiResponse containing the updated FlashcardDto on success,
+   *         or error message on failure
+   */
+  @PutMapping(ApiEndpoints.FLASHCARD_UPDATE)
+  public ResponseEntity<ApiResponse<FlashcardDto>> updateFlashcard(
+      @RequestParam String username,
+      @RequestParam String deckname,
+      @RequestParam int id,
+      @RequestParam(required = false) String question,
+      @RequestParam(required = false) String answer,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    try {
+      EntityTags.Versioned<Flashcard> updated = EntityTags.write(flashcardService, username,
+          ifMatch, () -> flashcardService.updateFlashcard(username, deckname, id, question,
+              answer));
+      return EntityTags.ok(updated.version(), new ApiResponse<>(true,
+          ApiConstants.FLASHCARD_UPDATED, mapper.toDto(updated.result())));
+    } catch (VersionConflictException e) {
+      return EntityTags.conflict(e);
+    } catch (Exception e) {
+      // Log technical details for developers
+      System.err.println(ApiConstants.FLASHCARD_FAILED_TO_UPDATE + " for username: '" 
+          + username + "', deck: '" + deckname + "', id: " + id + " - " + e.getMessage());
+      // Return user-friendly message
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FLASHCARD_OPERATION_FAILED, null));
     }
   }
 
+  /**
+   * Deletes a flashcard by its id.
+   *
+   * @param username the username of the user who owns the deck
+   * @param deckname the name of the deck containing the flashcard
+   * @param id the id of the flashcard within the deck
+   * @param ifMatch the ETag the change is based on, if it is conditional
+   * @return ApiResponse with success message on successful deletion,
+   *         or error message on failure
+   */
+  @DeleteMapping(ApiEndpoints.FLASHCARD_DELETE_BY_ID)
+  public ResponseEntity<ApiResponse<Void>> deleteFlashcardById(
+      @RequestParam String username,
+      @RequestParam String deckname,
+      @RequestParam int id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    try {
+      Long version = EntityTags.write(flashcardService, username, ifMatch, () -> {
+        flashcardService.deleteFlashcardById(username, deckname, id);
+        return null;
+      }).version();
+      return EntityTags.ok(version, new ApiResponse<>(true, ApiConstants.FLASHCARD_DELETED, null));
+    } catch (VersionConflictException e) {
+      return EntityTags.conflict(e);
+    } catch (Exception e) {
+      // Log technical details for developers
+      System.err.println(ApiConstants.FLASHCARD_FAILED_TO_DELETE 
+          + " for username: '" + username + "', deck: '" + deckname 
+          + "', id: " + id + " - " + e.getMessage());
+      // Return user-friendly message
+      return ResponseEntity.ok(new ApiResponse<>(false, 
+          ApiConstants.FLASHCARD_OPERATION_FAILED, null));
+    }
+  }
 }
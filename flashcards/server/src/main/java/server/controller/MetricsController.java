@@ -0,0 +1,34 @@
+package server.controller;
+
+import itp.storage.FlashcardPersistent;
+import itp.storage.StorageMetrics;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import shared.ApiConstants;
+import shared.ApiEndpoints;
+import shared.ApiResponse;
+
+/**
+ * MetricsController reports how the storage layer spends its time: latency histograms
+ * split into I/O, lock wait and serialization for every storage operation, the bytes
+ * read and written, and the sizes of the files involved.
+ *
+ * @see StorageMetrics
+ */
+@RestController
+@RequestMapping(ApiEndpoints.STORAGE_METRICS)
+public class MetricsController {
+
+  /**
+   * Gets a snapshot of the storage metrics of this process.
+   *
+   * @return 200 with the snapshot, latencies in nanoseconds and sizes in bytes
+   */
+  @GetMapping
+  public ResponseEntity<ApiResponse<StorageMetrics.Snapshot>> storage() {
+    return ResponseEntity.ok(new ApiResponse<>(true, ApiConstants.METRICS_RETRIEVED,
+        FlashcardPersistent.sharedMetrics().snapshot()));
+  }
+}
@@ -0,0 +1,48 @@
+package server.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import server.service.WarmUpService;
+import shared.ApiConstants;
+import shared.ApiEndpoints;
+import shared.ApiResponse;
+
+/**
+ * ReadinessController tells load balancers and deploy scripts when the server can take
+ * traffic. Unlike the other endpoints it answers with an HTTP status, 503 while the
+ * startup warm-up is still running and 200 once it is done.
+ *
+ * @see server.service.WarmUpService
+ */
+@RestController
+@RequestMapping(ApiEndpoints.READY)
+public class ReadinessController {
+
+  private final WarmUpService warmUpService;
+
+  /**
+   * Constructor for ReadinessController.
+   *
+   * @param warmUpService the service running the warm-up
+   */
+  public ReadinessController(final WarmUpService warmUpService) {
+    this.warmUpService = warmUpService;
+  }
+
+  /**
+   * Reports whether the warm-up has finished.
+   *
+   * @return 200 with a success response once ready, 503 before that
+   */
+  @GetMapping
+  public ResponseEntity<ApiResponse<Void>> ready() {
+    if (warmUpService.isReady()) {
+      return ResponseEntity.ok(new ApiResponse<>(true, ApiConstants.SERVER_READY, null));
+    }
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .body(new ApiResponse<>(false, ApiConstants.SERVER_WARMING_UP, null));
+  }
+}
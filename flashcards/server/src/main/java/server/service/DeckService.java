@@ -2,7 +2,13 @@ package server.service;
 
 import app.FlashcardDeck;
 import app.FlashcardDeckManager;
+import itp.storage.DeckOperation;
 import itp.storage.FlashcardPersistent;
+import itp.storage.StorageEngine;
+import itp.storage.StorageEngines;
+import itp.storage.UserLockManager;
+import itp.storage.UserLockManager.LockedAction;
+import itp.storage.VersionConflictException;
 import java.io.IOException;
 import java.util.Objects;
 import org.springframework.stereotype.Service;
@@ -12,7 +18,7 @@ import shared.ApiConstants;
  * Service class responsible for managing flashcard deck operations.
  *
  * <p>Provides high-level CRUD operations for flashcard decks, handling validation
- * and persistence through the FlashcardPersistent storage layer. Acts as an
+ * and persistence through the configured {@link StorageEngine}. Acts as an
  * intermediary between business logic and data storage.
  *
  * <p>Operations:
@@ -23,33 +29,49 @@ import shared.ApiConstants;
  * <p>Throws IllegalArgumentException for business 
  * logic violations and IOException for storage errors.
  *
+ * <p>Creating and deleting a deck validates against the user's current decks and then
+ * appends a single {@link DeckOperation} instead of rewriting every deck. Both steps run
+ * under the user's lock from {@link UserLockManager} to avoid lost updates.
+ *
+ * <p>Single-deck operations read only that deck, or only the deck names, so their cost
+ * does not grow with the size of the user's other decks.
+ *
+ * <p>Every change increases the user's version, which clients get as an ETag and send
+ * back to make a change conditional with {@link #ifVersion(String, long, LockedAction)}.
+ * That way a client working on an old copy gets a conflict instead of silently
+ * overwriting someone else's changes.
+ *
  * @author chrsom
  * @author isamw
- * @see FlashcardPersistent
+ * @see StorageEngine
  * @see FlashcardDeckManager
  * @see FlashcardDeck
  * @see ApiConstants
  */
 @Service
-public class DeckService {
-  private final FlashcardPersistent flashcardPersistent;
+public class DeckService implements VersionedService {
+  private final StorageEngine flashcardPersistent;
+  private final UserLockManager lockManager;
 
   /**
-   * Constructs a DeckService with a default FlashcardPersistent instance.
+   * Constructs a DeckService with the storage engine selected by
+   * {@code flashcards.storage.engine}.
    */
   public DeckService() {
-    this.flashcardPersistent = new FlashcardPersistent();
+    this.flashcardPersistent = StorageEngines.configured();
+    this.lockManager = FlashcardPersistent.sharedLockManager();
   }
 
   /**
-   * Constructs a DeckService with the specified FlashcardPersistent instance.
+   * Constructs a DeckService with the specified storage engine.
    *
-   * @param flashcardPersistent the FlashcardPersistent instance to use for
+   * @param flashcardPersistent the storage engine to use for
    *                            storage operations
    */
-  public DeckService(FlashcardPersistent flashcardPersistent) {
+  public DeckService(StorageEngine flashcardPersistent) {
     this.flashcardPersistent = Objects.requireNonNull(
         flashcardPersistent, "FlashcardPersistent cannot be null");
+    this.lockManager = FlashcardPersistent.sharedLockManager();
   }
 
   /**
@@ -79,10 +101,14 @@ public class DeckService {
    * @throws IllegalArgumentException if the user does not exist or the deck is not found
    */
   public FlashcardDeck getDeck(String username, String deckname) throws IOException {
-    return getAllDecks(username).getDecks()
-          .stream()
-          .filter(deck -> deck.getDeckName().equals(deckname)).findFirst()
-          .orElseThrow(() -> new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND));
+    if (!flashcardPersistent.userExists(username)) {
+      throw new IllegalArgumentException(ApiConstants.USER_NOT_FOUND);
+    }
+    FlashcardDeck deck = flashcardPersistent.readDeck(username, deckname);
+    if (deck == null) {
+      throw new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND);
+    }
+    return deck;
   }
 
   /**
@@ -95,11 +121,20 @@ public class DeckService {
    */
   public FlashcardDeck createDeck(String username, String deckName) 
       throws IOException {
-    FlashcardDeck deck = new FlashcardDeck(deckName);
-    FlashcardDeckManager deckManager = getAllDecks(username);
-    deckManager.addDeck(deck);
-    flashcardPersistent.writeDeck(username, deckManager);
-    return deck;
+    return lockManager.withLock(username, () -> {
+      if (!flashcardPersistent.userExists(username)) {
+        throw new IllegalArgumentException(ApiConstants.USER_NOT_FOUND);
+      }
+      // Only the names are needed to check uniqueness and the deck limit
+      FlashcardDeckManager deckManager = new FlashcardDeckManager();
+      for (String name : flashcardPersistent.readDeckNames(username)) {
+        deckManager.addDeck(new FlashcardDeck(name));
+      }
+      FlashcardDeck deck = new FlashcardDeck(deckName);
+      deckManager.addDeck(deck);
+      flashcardPersistent.appendOperation(username, DeckOperation.createDeck(deckName));
+      return deck;
+    });
   }
 
   /**
@@ -111,13 +146,17 @@ public class DeckService {
    * @throws IllegalArgumentException if the user does not exist or the deck is not found
    */
   public void deleteDeck(String username, String deckname) throws IOException {
-    FlashcardDeckManager manager = getAllDecks(username);
-    FlashcardDeck deckToRemove = manager.getDecks().stream()
-        .filter(deck -> deck.getDeckName().equals(deckname))
-        .findFirst()
-        .orElseThrow(() -> new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND));
-    manager.removeDeck(deckToRemove);
-    flashcardPersistent.writeDeck(username, manager);
+    lockManager.withLock(username, () -> {
+      if (!flashcardPersistent.userExists(username)) {
+        throw new IllegalArgumentException(ApiConstants.USER_NOT_FOUND);
+      }
+      // Only the names are needed to check that the deck exists
+      if (!flashcardPersistent.readDeckNames(username).contains(deckname)) {
+        throw new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND);
+      }
+      flashcardPersistent.appendOperation(username, DeckOperation.deleteDeck(deckname));
+      return null;
+    });
   }
 
   /**
@@ -137,4 +176,43 @@ public class DeckService {
     manager.setDecks(deckManager.getDecks());
     flashcardPersistent.writeDeck(username, manager);
   }
+
+  /**
+   * Gets the version of a user's decks, which increases with every change.
+   *
+   * @param username the username of the user
+   * @return the current version
+   * @throws IOException if an error occurs while reading from persistent storage
+   * @throws IllegalArgumentException if the user does not exist
+   */
+  @Override
+  public long getVersion(String username) throws IOException {
+    long version = flashcardPersistent.readVersion(username);
+    if (version < 0) {
+      throw new IllegalArgumentException(ApiConstants.USER_NOT_FOUND);
+    }
+    return version;
+  }
+
+  /**
+   * Runs a change only if the user's decks are still at the version the client last saw.
+   * The change runs under the user's lock, so it can read the version it leaves behind.
+   *
+   * @param <T> the result type of the change
+   * @param username the username of the user
+   * @param expectedVersion the version the client based the change on
+   * @param change the change, calling the other methods of this service
+   * @return the result of the change
+   * @throws VersionConflictException if the user's decks changed in the meantime
+   * @throws IOException if an error occurs while reading or writing persistent storage
+   * @throws IllegalArgumentException if the user does not exist
+   */
+  @Override
+  public <T> T ifVersion(String username, long expectedVersion, LockedAction<T> change)
+      throws IOException {
+    if (!flashcardPersistent.userExists(username)) {
+      throw new IllegalArgumentException(ApiConstants.USER_NOT_FOUND);
+    }
+    return flashcardPersistent.ifVersion(username, expectedVersion, change);
+  }
 }
@@ -2,8 +2,13 @@ package server.service;
 
 import app.Flashcard;
 import app.FlashcardDeck;
-import app.FlashcardDeckManager;
+import itp.storage.DeckOperation;
 import itp.storage.FlashcardPersistent;
+import itp.storage.StorageEngine;
+import itp.storage.StorageEngines;
+import itp.storage.UserLockManager;
+import itp.storage.UserLockManager.LockedAction;
+import itp.storage.VersionConflictException;
 import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
@@ -23,39 +28,45 @@ import shared.ApiConstants;
  * index
  * 
  * <p>All operations require a username and deck name to identify the target deck,
- * and use FlashcardPersistent for data storage and DeckService for deck
- * management.
+ * and use the configured {@link StorageEngine} for data storage and DeckService for deck
+ * management. Creating and deleting cards runs under the user's lock from
+ * {@link UserLockManager} so concurrent requests cannot lose each other's updates.
+ * Each operation reads only the deck it works on.
  *
  * @author chrsom
  * @author isamw
- * @see FlashcardPersistent
+ * @see StorageEngine
  * @see DeckService
  * @see ApiConstants
  * 
  */
 @Service
-public class FlashcardService {
+public class FlashcardService implements VersionedService {
 
-  private final FlashcardPersistent persistent;
+  private final StorageEngine persistent;
   private final DeckService deckService;
+  private final UserLockManager lockManager;
 
   /**
-   * Default constructor initializing with a new FlashcardPersistent and DeckService instance.
+   * Default constructor initializing with the configured storage engine and a new
+   * DeckService instance.
    */
   public FlashcardService() {
-    this.persistent = new FlashcardPersistent();
+    this.persistent = StorageEngines.configured();
     this.deckService = new DeckService();
+    this.lockManager = FlashcardPersistent.sharedLockManager();
   }
 
   /**
    * Constructor with dependencies.
    *
-   * @param persistent the FlashcardPersistent instance
+   * @param persistent the storage engine
    * @param deckService the DeckService instance
    */
-  public FlashcardService(FlashcardPersistent persistent, DeckService deckService) {
+  public FlashcardService(StorageEngine persistent, DeckService deckService) {
     this.persistent = Objects.requireNonNull(persistent, "FlashcardPersistent cannot be null");
     this.deckService = Objects.requireNonNull(deckService, "DeckService cannot be null");
+    this.lockManager = FlashcardPersistent.sharedLockManager();
   }
 
   /**
@@ -70,29 +81,35 @@ public class FlashcardService {
    * 
    */
   public Flashcard getFlashcard(String username, String deckname, int number) throws IOException {
-  
-    if (this.persistent.readDeck(username).getDecks().isEmpty()) {
-      throw new IllegalArgumentException(ApiConstants.FLASHCARD_NOT_FOUND);
-    } else if (!this.persistent.readDeck(username)
-              .getDecks()
-              .stream()
-              .map(mapper -> mapper.getDeckName())
-              .anyMatch(name -> name.equals(deckname))) {
-      throw new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND);
+    // A single card is looked up directly, the deck is only read to explain a miss
+    Flashcard card = this.persistent.readCard(username, deckname, number);
+    if (card != null) {
+      return card;
     }
-    
-    FlashcardDeck deck = this.deckService.getDeck(username, deckname);
-    if (deck == null) {
+    if (this.persistent.readDeck(username, deckname) == null
+        && !this.persistent.readDeckNames(username).isEmpty()) {
       throw new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND);
     }
-    
-    int deckSize = deck.getDeck().size();
-    
-    if (number < 1 || number > deckSize) {
+    throw new IllegalArgumentException(ApiConstants.FLASHCARD_NOT_FOUND);
+  }
+
+  /**
+   * Retrieves a flashcard by its id from a given deck for a user.
+   *
+   * @param username the username of the user who owns the deck
+   * @param deckname the name of the deck to retrieve the flashcard from
+   * @param id       the id of the flashcard within the deck
+   * @return the Flashcard object with the id
+   * @throws IOException if an error occurs while reading from persistent storage
+   * @throws IllegalArgumentException if the specified deck or flashcard is not found
+   */
+  public Flashcard getFlashcardById(String username, String deckname, int id)
+      throws IOException {
+    Flashcard card = this.deckService.getDeck(username, deckname).getFlashcardById(id);
+    if (card == null) {
       throw new IllegalArgumentException(ApiConstants.FLASHCARD_NOT_FOUND);
     }
-    
-    return deck.getDeck().get(number - 1);
+    return card;
   }
 
   /**
@@ -126,19 +143,18 @@ public class FlashcardService {
   public Flashcard createFlashcard(String username, String deckname, String answer, String question)
       throws IOException {
     Flashcard flashcard = new Flashcard(question, answer);
-    
-    // Get the manager once and reuse it
-    FlashcardDeckManager manager = this.deckService.getAllDecks(username);
-    FlashcardDeck deck = manager.getDecks().stream()
-        .filter(d -> d.getDeckName().equals(deckname))
-        .findFirst()
-        .orElseThrow(() -> new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND));
-    
-    deck.addFlashcard(flashcard);
-    
-    // Write the updated manager to persistent storage
-    this.persistent.writeDeck(username, manager);
-    return flashcard;
+
+    return lockManager.withLock(username, () -> {
+      // Read only the deck being changed
+      FlashcardDeck deck = this.deckService.getDeck(username, deckname);
+
+      deck.addFlashcard(flashcard);
+
+      // Log only the new card instead of rewriting every deck
+      this.persistent.appendOperation(username,
+          DeckOperation.addCard(deckname, question, answer, flashcard.getId()));
+      return flashcard;
+    });
   }
 
   /**
@@ -151,22 +167,107 @@ public class FlashcardService {
    * 
    */
   public void deleteFlashcard(String username, String deckname, int number) throws IOException {
-    // Get the manager once and reuse it
-    FlashcardDeckManager manager = this.deckService.getAllDecks(username);
-    FlashcardDeck deck = manager.getDecks().stream()
-        .filter(d -> d.getDeckName().equals(deckname))
-        .findFirst()
-        .orElseThrow(() -> new IllegalArgumentException(ApiConstants.DECK_NOT_FOUND));
-    
-    // Convert from 1-indexed (number) to 0-indexed (index)
-    int index = number - 1;
-    if (index < 0 || index >= deck.getDeck().size()) {
-      throw new IllegalArgumentException(ApiConstants.FLASHCARD_NOT_FOUND);
-    }
-    
-    deck.removeFlashcardByIndex(index);
+    lockManager.withLock(username, () -> {
+      // Read only the deck being changed
+      FlashcardDeck deck = this.deckService.getDeck(username, deckname);
+
+      // Convert from 1-indexed (number) to 0-indexed (index)
+      int index = number - 1;
+      if (index < 0 || index >= deck.getDeck().size()) {
+        throw new IllegalArgumentException(ApiConstants.FLASHCARD_NOT_FOUND);
+      }
+
+      deck.removeFlashcardByIndex(index);
 
-    // Write the updated manager to persistent storage
-    this.persistent.writeDeck(username, manager);
+      // Log only the removal instead of rewriting every deck
+      this.persistent.appendOperation(username, DeckOperation.removeCard(deckname, index));
+      return null;
+    });
+  }
+
+  /**
+   * Changes the texts of a flashcard, found by its id.
+   * A null or blank text leaves that side of the card as it is.
+   *
+   * @param username the username of the user who owns the deck
+   * @param deckname the name of the deck containing the flashcard
+   * @param id the id of the flashcard within the deck
+   * @param question the new question text, may be null
+   * @param answer the new answer text, may be null
+   * @return the updated Flashcard object
+   * @throws IOException if an error occurs while writing to persistent storage
+   * @throws IllegalArgumentException if the specified deck or flashcard is not found
+   */
+  public Flashcard updateFlashcard(String username, String deckname, int id, String question,
+      String answer) throws IOException {
+    return lockManager.withLock(username, () -> {
+      Flashcard card = getFlashcardById(username, deckname, id);
+      card.setQuestion(question);
+      card.setAnswer(answer);
+
+      // Log the resulting texts, so replaying the change does not depend on the old ones
+      this.persistent.appendOperation(username,
+          DeckOperation.updateCard(deckname, id, card.getQuestion(), card.getAnswer()));
+      return card;
+    });
+  }
+
+  /**
+   * Deletes a flashcard, found by its id, from a specific deck for a given user.
+   * Unlike deleting by number, the card stays addressable while other cards come and go.
+   *
+   * @param username the username of the user who owns the deck
+   * @param deckname the name of the deck containing the flashcard to delete
+   * @param id the id of the flashcard within the deck
+   * @throws IOException if an error occurs while writing to persistent storage
+   * @throws IllegalArgumentException if the specified deck or flashcard is not found
+   */
+  public void deleteFlashcardById(String username, String deckname, int id)
+      throws IOException {
+    lockManager.withLock(username, () -> {
+      FlashcardDeck deck = this.deckService.getDeck(username, deckname);
+      int index = deck.indexOf(id);
+      if (index < 0) {
+        throw new IllegalArgumentException(ApiConstants.FLASHCARD_NOT_FOUND);
+      }
+      deck.removeFlashcardByIndex(index);
+
+      // The log addresses cards by position, which is fixed while the lock is held
+      this.persistent.appendOperation(username, DeckOperation.removeCard(deckname, index));
+      return null;
+    });
+  }
+
+  /**
+   * Gets the version of a user's decks, which increases with every change.
+   *
+   * @param username the username of the user
+   * @return the current version
+   * @throws IOException if an error occurs while reading from persistent storage
+   * @throws IllegalArgumentException if the user does not exist
+   * @see DeckService#getVersion(String)
+   */
+  @Override
+  public long getVersion(String username) throws IOException {
+    return deckService.getVersion(username);
+  }
+
+  /**
+   * Runs a change only if the user's decks are still at the version the client last saw.
+   *
+   * @param <T> the result type of the change
+   * @param username the username of the user
+   * @param expectedVersion the version the client based the change on
+   * @param change the change, calling the other methods of this service
+   * @return the result of the change
+   * @throws VersionConflictException if the user's decks changed in the meantime
+   * @throws IOException if an error occurs while reading or writing persistent storage
+   * @throws IllegalArgumentException if the user does not exist
+   * @see DeckService#ifVersion(String, long, LockedAction)
+   */
+  @Override
+  public <T> T ifVersion(String username, long expectedVersion, LockedAction<T> change)
+      throws IOException {
+    return deckService.ifVersion(username, expectedVersion, change);
   }
 }
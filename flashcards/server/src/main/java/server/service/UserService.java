@@ -2,7 +2,8 @@ package server.service;
 
 import app.LoginValidator;
 import app.User;
-import itp.storage.FlashcardPersistent;
+import itp.storage.StorageEngine;
+import itp.storage.StorageEngines;
 import java.io.IOException;
 import org.springframework.stereotype.Service;
 import shared.ApiConstants;
@@ -24,23 +25,24 @@ import shared.ApiConstants;
  * 
  * <p>Validate user passwords
  * 
- * <p>All operations utilize FlashcardPersistent for data storage.
+ * <p>All operations utilize the configured {@link StorageEngine} for data storage.
  *
  * @author chrsom
  * @author isamw
- * @see FlashcardPersistent
+ * @see StorageEngine
  * @see ApiConstants
  */
 @Service
 public class UserService {
 
-  private final FlashcardPersistent persistent;
+  private final StorageEngine persistent;
   
   /**
-   * Default constructor initializing with a new FlashcardPersistent instance.
+   * Default constructor initializing with the storage engine selected by
+   * {@code flashcards.storage.engine}.
    */
   public UserService() {
-    this.persistent = new FlashcardPersistent();
+    this.persistent = StorageEngines.configured();
   }
 
   /**
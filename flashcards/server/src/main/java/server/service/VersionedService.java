@@ -0,0 +1,41 @@
+package server.service;
+
+import itp.storage.UserLockManager.LockedAction;
+import itp.storage.VersionConflictException;
+import java.io.IOException;
+
+/**
+ * A service whose changes to a user's decks are versioned, so a client can make its
+ * changes conditional on the version it last saw.
+ *
+ * @see DeckService
+ * @see FlashcardService
+ */
+public interface VersionedService {
+
+  /**
+   * Gets the version of a user's decks, which increases with every change.
+   *
+   * @param username the username of the user
+   * @return the current version
+   * @throws IOException if an error occurs while reading from persistent storage
+   * @throws IllegalArgumentException if the user does not exist
+   */
+  long getVersion(String username) throws IOException;
+
+  /**
+   * Runs a change only if the user's decks are still at the version the client last saw.
+   * The change runs under the user's lock, so it can read the version it leaves behind.
+   *
+   * @param <T> the result type of the change
+   * @param username the username of the user
+   * @param expectedVersion the version the client based the change on
+   * @param change the change, calling the other methods of the service
+   * @return the result of the change
+   * @throws VersionConflictException if the user's decks changed in the meantime
+   * @throws IOException if an error occurs while reading or writing persistent storage
+   * @throws IllegalArgumentException if the user does not exist
+   */
+  <T> T ifVersion(String username, long expectedVersion, LockedAction<T> change)
+      throws IOException;
+}
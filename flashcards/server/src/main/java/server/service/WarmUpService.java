@@ -0,0 +1,220 @@
+package server.service;
+
+import itp.storage.CacheWarmer;
+import itp.storage.CardTextStore;
+import itp.storage.FlashcardPersistent;
+import itp.storage.StorageEngine;
+import itp.storage.StorageEngines;
+import itp.storage.UserTiering;
+import itp.storage.UsernameIndex;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service running the startup warm-up and reporting whether it is done.
+ *
+ * <p>With {@code flashcards.warmup} set, the warm-up builds the in-memory username index
+ * and preloads the most recently active users into the cache on virtual threads.
+ * Preloading stops after {@code flashcards.warmup.budgetMillis} (30 seconds by default)
+ * and loads at most {@code flashcards.warmup.maxUsers} users, the cache capacity by
+ * default.
+ *
+ * <p>Whether or not the warm-up is switched on, the shared card texts are recounted right
+ * away and then every {@code flashcards.texts.collectIntervalHours} (24 by default), so
+ * texts no deck refers to any more are removed and the text store does not only grow.
+ * This runs on a thread of its own so the server does not wait for the scan of every
+ * user's decks. An interval of 0 switches it off.
+ *
+ * <p>With {@code flashcards.tiering} set, it also starts moving users inactive for
+ * {@code flashcards.tiering.inactiveDays} (90 by default) into the cold archive, checking
+ * every {@code flashcards.tiering.intervalMinutes} (6 hours by default).
+ *
+ * <p>All of these steps work on the files of the {@code json} storage engine. With
+ * another engine configured, they are skipped and the server is ready right away.
+ *
+ * <p>The server reports itself ready only once the warm-up has finished, whether it
+ * loaded everything or ran out of time.
+ *
+ * @see CacheWarmer
+ * @see UserTiering
+ */
+@Service
+public class WarmUpService {
+
+  /** Time budget of the preload when none is configured. */
+  public static final long DEFAULT_BUDGET_MILLIS = 30_000;
+
+  /** Hours between card text collections when none is configured. */
+  public static final long DEFAULT_COLLECT_INTERVAL_HOURS = 24;
+
+  private static final Logger LOGGER = Logger.getLogger(WarmUpService.class.getName());
+
+  private final StorageEngine engine;
+  // The engine if it is the file backend, null for engines without files to warm up
+  private final FlashcardPersistent persistent;
+  private ScheduledExecutorService textCollector;
+  private volatile boolean ready;
+  private volatile CacheWarmer.Result lastResult;
+
+  /**
+   * Constructs a WarmUpService for the storage engine selected by
+   * {@code flashcards.storage.engine}.
+   */
+  public WarmUpService() {
+    this(StorageEngines.configured());
+  }
+
+  /**
+   * Constructor for tests.
+   *
+   * @param engine the storage engine to warm up
+   */
+  WarmUpService(StorageEngine engine) {
+    this.engine = engine;
+    this.persistent = engine instanceof FlashcardPersistent files ? files : null;
+  }
+
+  /**
+   * Runs the warm-up and marks the server ready once it is done.
+   * Failures are reported but never keep the server from becoming ready.
+   */
+  public void warmUp() {
+    try {
+      if (persistent == null) {
+        LOGGER.info(() -> "Nothing to warm up for the " + engine.getEngineName()
+            + " storage engine");
+        return;
+      }
+      startCardTextCollection();
+      if (Boolean.getBoolean("flashcards.warmup")) {
+        buildUsernameIndex();
+        preloadUsers();
+      }
+      if (Boolean.getBoolean("flashcards.tiering")) {
+        startTiering();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      ready = true;
+    }
+  }
+
+  /**
+   * Checks whether the warm-up has finished.
+   *
+   * @return true once the server is ready for traffic
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Gets the outcome of the preload.
+   *
+   * @return the result, or null if no preload has run
+   */
+  public CacheWarmer.Result getLastResult() {
+    return lastResult;
+  }
+
+  /**
+   * Builds the username index, so most lookups of unknown usernames are answered from
+   * memory. Until it is done, lookups go to disk as before.
+   *
+   * @throws InterruptedException if interrupted while scanning
+   */
+  private void buildUsernameIndex() throws InterruptedException {
+    try {
+      persistent.rebuildUsernameIndex(Runtime.getRuntime().availableProcessors());
+      UsernameIndex.Stats stats = persistent.getUsernameIndexStats();
+      LOGGER.info(() -> String.format("Username index ready: %d users, %d KiB, expected "
+          + "false-positive rate %.4f, built in %d ms", stats.usernames(),
+          stats.memoryBytes() / 1024, stats.expectedFalsePositiveRate(),
+          stats.lastBuildMillis()));
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to build username index", e);
+    }
+  }
+
+  /**
+   * Starts recounting the shared card texts in the background, now and then
+   * periodically, unless the interval is 0. Calling it again replaces the schedule.
+   */
+  private synchronized void startCardTextCollection() {
+    if (textCollector != null) {
+      textCollector.shutdown();
+      textCollector = null;
+    }
+    long interval = Duration.ofHours(Long.getLong("flashcards.texts.collectIntervalHours",
+        DEFAULT_COLLECT_INTERVAL_HOURS)).toMillis();
+    if (interval <= 0) {
+      LOGGER.info("Card text collection is switched off");
+      return;
+    }
+    textCollector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flashcards-text-collection");
+      thread.setDaemon(true);
+      return thread;
+    });
+    textCollector.scheduleWithFixedDelay(this::collectCardTexts, 0, interval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Recounts the references to shared card texts, removing texts that a crash left
+   * behind without any deck referring to them.
+   */
+  private void collectCardTexts() {
+    try {
+      int removed = persistent.collectCardTexts();
+      CardTextStore.Stats stats = persistent.getCardTextStats();
+      LOGGER.info(() -> String.format("Card texts collected: %d shared texts, "
+          + "%d orphans removed", stats.texts(), removed));
+    } catch (IOException | RuntimeException e) {
+      // Never let a failed collection stop the schedule, the next one tries again
+      LOGGER.log(Level.WARNING, "Failed to collect card texts", e);
+    }
+  }
+
+  /**
+   * Starts archiving inactive users in the background with the configured periods.
+   */
+  private void startTiering() {
+    Duration inactivity = Duration.ofDays(Long.getLong("flashcards.tiering.inactiveDays",
+        UserTiering.DEFAULT_INACTIVITY.toDays()));
+    Duration interval = Duration.ofMinutes(Long.getLong("flashcards.tiering.intervalMinutes",
+        UserTiering.DEFAULT_INTERVAL.toMinutes()));
+    persistent.startTiering(inactivity, interval);
+    LOGGER.info(() -> String.format("Archiving users inactive for %d days, checking every "
+        + "%d minutes", inactivity.toDays(), interval.toMinutes()));
+  }
+
+  /**
+   * Preloads the most recently active users within the configured budget.
+   *
+   * @throws InterruptedException if interrupted while loading
+   */
+  private void preloadUsers() throws InterruptedException {
+    int maxUsers = Integer.getInteger("flashcards.warmup.maxUsers",
+        persistent.getCacheStats().capacity());
+    Duration budget = Duration.ofMillis(
+        Long.getLong("flashcards.warmup.budgetMillis", DEFAULT_BUDGET_MILLIS));
+    try {
+      CacheWarmer.Result result = persistent.preloadRecentUsers(maxUsers, budget);
+      lastResult = result;
+      LOGGER.info(() -> String.format("Preloaded %d of %d users (%d scanned, %d failed) "
+          + "in %d ms%s", result.loaded(), result.selected(), result.scanned(),
+          result.failed(), result.elapsedMillis(),
+          result.completed() ? "" : ", budget exhausted"));
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to preload users", e);
+    }
+  }
+}
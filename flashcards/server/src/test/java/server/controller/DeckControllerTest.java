@@ -2,13 +2,17 @@ package server.controller;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -17,6 +21,8 @@ import app.FlashcardDeckManager;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dto.FlashcardDeckDto;
 import dto.FlashcardDeckManagerDto;
+import itp.storage.UserLockManager.LockedAction;
+import itp.storage.VersionConflictException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,6 +32,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
@@ -437,6 +444,7 @@ public class DeckControllerTest {
       
     mockMvc.perform(put(ApiEndpoints.DECKS)
         .param("username", "testUser")
+        .header(HttpHeaders.IF_MATCH, "*")
         .contentType(Objects.requireNonNull(MediaType.APPLICATION_JSON))
         .content(requestBody))
         .andExpect(status().isOk())
@@ -461,6 +469,7 @@ public class DeckControllerTest {
 
     mockMvc.perform(put(ApiEndpoints.DECKS)
         .param("username", "nonExistent")
+        .header(HttpHeaders.IF_MATCH, "*")
         .contentType(Objects.requireNonNull(MediaType.APPLICATION_JSON))
         .content(requestBody))
         .andExpect(status().isOk())
@@ -485,6 +494,7 @@ public class DeckControllerTest {
 
     mockMvc.perform(put(ApiEndpoints.DECKS)
         .param("username", "testUser")
+        .header(HttpHeaders.IF_MATCH, "*")
         .contentType(Objects.requireNonNull(MediaType.APPLICATION_JSON))
         .content(requestBody))
         .andExpect(status().isOk())
@@ -547,4 +557,97 @@ public class DeckControllerTest {
         .andExpect(jsonPath("$.success").value(false))
         .andExpect(jsonPath("$.message").value(ApiConstants.DECK_OPERATION_FAILED));
   }
+
+  /**
+   * Tests that reads carry the version as ETag and that a client whose copy is current
+   * gets 304 without the decks being read.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testGetAllDecksEtag() throws Exception {
+    when(deckService.getVersion("testUser")).thenReturn(7L);
+    when(deckService.getAllDecks("testUser")).thenReturn(testDeckManager);
+
+    mockMvc.perform(request(HttpMethod.valueOf("REQUEST"), ApiEndpoints.DECKS)
+        .param("username", "testUser"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"7\""));
+
+    mockMvc.perform(request(HttpMethod.valueOf("REQUEST"), ApiEndpoints.DECKS)
+        .param("username", "testUser")
+        .header(HttpHeaders.IF_NONE_MATCH, "\"7\""))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"7\""));
+    verify(deckService).getAllDecks("testUser");
+  }
+
+  /**
+   * Tests that a write with a current If-Match goes through and returns the new ETag.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testConditionalUpdate() throws Exception {
+    when(deckService.ifVersion(eq("testUser"), eq(7L), any()))
+        .thenAnswer(invocation -> invocation.<LockedAction<?>>getArgument(2).run());
+    when(deckService.getVersion("testUser")).thenReturn(8L);
+
+    mockMvc.perform(put(ApiEndpoints.DECKS)
+        .param("username", "testUser")
+        .header(HttpHeaders.IF_MATCH, "\"7\"")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(testDeckManager)))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"8\""))
+        .andExpect(jsonPath("$.success").value(true));
+    verify(deckService).updateAllDecks(eq("testUser"), any(FlashcardDeckManager.class));
+  }
+
+  /**
+   * Tests that a write based on an old version is rejected with 412 and the current
+   * ETag, without changing anything.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testStaleWrite() throws Exception {
+    when(deckService.ifVersion(eq("testUser"), eq(6L), any()))
+        .thenThrow(new VersionConflictException("testUser", 6, 7));
+
+    mockMvc.perform(put(ApiEndpoints.DECKS)
+        .param("username", "testUser")
+        .header(HttpHeaders.IF_MATCH, "\"6\"")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(testDeckManager)))
+        .andExpect(status().isPreconditionFailed())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"7\""))
+        .andExpect(jsonPath("$.success").value(false))
+        .andExpect(jsonPath("$.message").value(ApiConstants.VERSION_CONFLICT));
+
+    mockMvc.perform(delete(ApiEndpoints.DECKS + "/TestDeck")
+        .param("username", "testUser")
+        .header(HttpHeaders.IF_MATCH, "\"6\""))
+        .andExpect(status().isPreconditionFailed());
+    verify(deckService, never()).updateAllDecks(anyString(), any(FlashcardDeckManager.class));
+    verify(deckService, never()).deleteDeck(anyString(), anyString());
+  }
+
+  /**
+   * Tests that replacing all decks without If-Match is refused with 428,
+   * without changing anything.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testUpdateAllDecksRequiresPrecondition() throws Exception {
+    mockMvc.perform(put(ApiEndpoints.DECKS)
+        .param("username", "testUser")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(testDeckManager)))
+        .andExpect(status().isPreconditionRequired())
+        .andExpect(jsonPath("$.success").value(false))
+        .andExpect(jsonPath("$.message").value(ApiConstants.PRECONDITION_REQUIRED));
+    verify(deckService, never()).updateAllDecks(anyString(), any(FlashcardDeckManager.class));
+  }
 }
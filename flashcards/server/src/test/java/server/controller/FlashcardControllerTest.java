@@ -1,24 +1,34 @@
 package server.controller;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import app.Flashcard;
+import itp.storage.UserLockManager.LockedAction;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.web.servlet.MockMvc;
 import server.service.FlashcardService;
 import shared.ApiConstants;
@@ -229,13 +239,10 @@ public class FlashcardControllerTest {
    */
   @Test
   public void testCreateFlashcardSuccess() throws Exception {
+    testFlashcard.setId(12);
     when(flashcardService.createFlashcard(anyString(), anyString(), anyString(), 
         anyString()))
         .thenReturn(testFlashcard);
-    when(flashcardService.getAllFlashcards(anyString(), anyString()))
-        .thenReturn(testFlashcardList);
-    when(flashcardService.getFlashcard(anyString(), anyString(), anyInt()))
-        .thenReturn(testFlashcard);
 
     mockMvc.perform(post(ApiEndpoints.FLASHCARDS + ApiEndpoints.FLASHCARD_CREATE)
         .param("username", "testUser")
@@ -246,7 +253,41 @@ public class FlashcardControllerTest {
         .andExpect(jsonPath("$.success").value(true))
         .andExpect(jsonPath("$.message").value(ApiConstants.FLASHCARD_CREATED))
         .andExpect(jsonPath("$.data.question").value("What is Java?"))
-        .andExpect(jsonPath("$.data.answer").value("A programming language"));
+        .andExpect(jsonPath("$.data.answer").value("A programming language"))
+        .andExpect(jsonPath("$.data.id").value(12));
+    // The created card is returned as it was added, without reading the deck again
+    verify(flashcardService, never()).getAllFlashcards(anyString(), anyString());
+    verify(flashcardService, never()).getFlashcard(anyString(), anyString(), anyInt());
+  }
+
+  /**
+   * Tests that a conditional creation is tagged with the version read under the same
+   * lock as the change.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testConditionalCreateFlashcard() throws Exception {
+    when(flashcardService.ifVersion(eq("testUser"), eq(3L), any()))
+        .thenAnswer(invocation -> invocation.<LockedAction<?>>getArgument(2).run());
+    when(flashcardService.createFlashcard(anyString(), anyString(), anyString(),
+        anyString())).thenReturn(testFlashcard);
+    when(flashcardService.getVersion("testUser")).thenReturn(4L);
+
+    mockMvc.perform(post(ApiEndpoints.FLASHCARDS + ApiEndpoints.FLASHCARD_CREATE)
+        .param("username", "testUser")
+        .param("deckname", "TestDeck")
+        .param("question", "What is Java?")
+        .param("answer", "A programming language")
+        .header(HttpHeaders.IF_MATCH, "\"3\""))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+        .andExpect(jsonPath("$.data.question").value("What is Java?"));
+    InOrder order = inOrder(flashcardService);
+    order.verify(flashcardService).ifVersion(eq("testUser"), eq(3L), any());
+    order.verify(flashcardService).createFlashcard("testUser", "TestDeck",
+        "A programming language", "What is Java?");
+    order.verify(flashcardService).getVersion("testUser");
   }
 
   /**
@@ -418,4 +459,48 @@ public class FlashcardControllerTest {
         .andExpect(jsonPath("$.success").value(false))
         .andExpect(jsonPath("$.message").value(ApiConstants.FLASHCARD_OPERATION_FAILED));
   }
+
+  /**
+   * Tests updating and deleting a flashcard by its id.
+   * Verifies that the update returns the changed card with its id, and that a
+   * missing card gives an error response.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testUpdateAndDeleteById() throws Exception {
+    Flashcard updated = new Flashcard("What is Kotlin?", "A programming language");
+    updated.setId(7);
+    when(flashcardService.updateFlashcard("testUser", "TestDeck", 7, "What is Kotlin?", null))
+        .thenReturn(updated);
+
+    mockMvc.perform(put(ApiEndpoints.FLASHCARDS + ApiEndpoints.FLASHCARD_UPDATE)
+        .param("username", "testUser")
+        .param("deckname", "TestDeck")
+        .param("id", "7")
+        .param("question", "What is Kotlin?"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.success").value(true))
+        .andExpect(jsonPath("$.message").value(ApiConstants.FLASHCARD_UPDATED))
+        .andExpect(jsonPath("$.data.id").value(7))
+        .andExpect(jsonPath("$.data.question").value("What is Kotlin?"));
+
+    doNothing().when(flashcardService).deleteFlashcardById("testUser", "TestDeck", 7);
+    mockMvc.perform(delete(ApiEndpoints.FLASHCARDS + ApiEndpoints.FLASHCARD_DELETE_BY_ID)
+        .param("username", "testUser")
+        .param("deckname", "TestDeck")
+        .param("id", "7"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.message").value(ApiConstants.FLASHCARD_DELETED));
+
+    when(flashcardService.getFlashcardById("testUser", "TestDeck", 8))
+        .thenThrow(new IllegalArgumentException("Flashcard not found"));
+    mockMvc.perform(get(ApiEndpoints.FLASHCARDS + ApiEndpoints.FLASHCARD_GET_BY_ID)
+        .param("username", "testUser")
+        .param("deckname", "TestDeck")
+        .param("id", "8"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.success").value(false))
+        .andExpect(jsonPath("$.message").value(ApiConstants.FLASHCARD_OPERATION_FAILED));
+  }
 }
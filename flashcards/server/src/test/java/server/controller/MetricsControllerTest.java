@@ -0,0 +1,44 @@
+package server.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import itp.storage.FlashcardPersistent;
+import itp.storage.StorageMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.web.servlet.MockMvc;
+import shared.ApiConstants;
+import shared.ApiEndpoints;
+
+/**
+ * Test class for the MetricsController endpoint.
+ *
+ * @see MetricsController
+ */
+@WebMvcTest(MetricsController.class)
+public class MetricsControllerTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  /**
+   * Tests that the endpoint reports every storage operation with its histograms.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testStorage() throws Exception {
+    FlashcardPersistent.sharedMetrics().start(StorageMetrics.Operation.USER_EXISTS).close();
+
+    mockMvc.perform(get(ApiEndpoints.STORAGE_METRICS))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.success").value(true))
+        .andExpect(jsonPath("$.message").value(ApiConstants.METRICS_RETRIEVED))
+        .andExpect(jsonPath("$.data.operations.READ_DECK.total.count").exists())
+        .andExpect(jsonPath("$.data.operations.USER_EXISTS.io.p99").exists())
+        .andExpect(jsonPath("$.data.writtenSizes.max").exists());
+  }
+}
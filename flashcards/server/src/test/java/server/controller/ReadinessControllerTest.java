@@ -0,0 +1,60 @@
+package server.controller;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import server.service.WarmUpService;
+import shared.ApiConstants;
+import shared.ApiEndpoints;
+
+/**
+ * Test class for the ReadinessController endpoint.
+ *
+ * @see ReadinessController
+ */
+@WebMvcTest(ReadinessController.class)
+public class ReadinessControllerTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private WarmUpService warmUpService;
+
+  /**
+   * Tests that the endpoint answers 503 while warming up.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testWarmingUp() throws Exception {
+    when(warmUpService.isReady()).thenReturn(false);
+
+    mockMvc.perform(get(ApiEndpoints.READY))
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(jsonPath("$.success").value(false))
+        .andExpect(jsonPath("$.message").value(ApiConstants.SERVER_WARMING_UP));
+  }
+
+  /**
+   * Tests that the endpoint answers 200 once the warm-up is done.
+   *
+   * @throws Exception if the MockMvc request fails
+   */
+  @Test
+  public void testReady() throws Exception {
+    when(warmUpService.isReady()).thenReturn(true);
+
+    mockMvc.perform(get(ApiEndpoints.READY))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.success").value(true))
+        .andExpect(jsonPath("$.message").value(ApiConstants.SERVER_READY));
+  }
+}
@@ -4,12 +4,17 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 
 import app.FlashcardDeck;
 import app.FlashcardDeckManager;
+import itp.storage.DeckOperation;
 import itp.storage.FlashcardPersistent;
+import itp.storage.VersionConflictException;
 import java.io.IOException;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -137,13 +142,11 @@ public class DeckServiceTest {
     String username = "existingUser";
     String deckname = "TestDeck";
 
-    FlashcardDeckManager manager = new FlashcardDeckManager();
     FlashcardDeck deck = new FlashcardDeck(deckname);
-    manager.addDeck(deck);
 
     try {
       org.mockito.Mockito.when(flashcardPersistent.userExists(username)).thenReturn(true);
-      org.mockito.Mockito.when(flashcardPersistent.readDeck(username)).thenReturn(manager);
+      org.mockito.Mockito.when(flashcardPersistent.readDeck(username, deckname)).thenReturn(deck);
 
       FlashcardDeck result = deckService.getDeck(username, deckname);
 
@@ -178,11 +181,10 @@ public class DeckServiceTest {
     String username = "existingUser";
     String deckName = "NewDeck";
 
-    FlashcardDeckManager manager = new FlashcardDeckManager();
-
     try {
       org.mockito.Mockito.when(flashcardPersistent.userExists(username)).thenReturn(true);
-      org.mockito.Mockito.when(flashcardPersistent.readDeck(username)).thenReturn(manager);
+      org.mockito.Mockito.when(flashcardPersistent.readDeckNames(username))
+          .thenReturn(List.of("OtherDeck"));
 
       FlashcardDeck result = deckService.createDeck(username, deckName);
 
@@ -190,7 +192,15 @@ public class DeckServiceTest {
       assertEquals(deckName, result.getDeckName());
       assertEquals(0, result.getDeck().size());
 
-      org.mockito.Mockito.verify(flashcardPersistent).writeDeck(username, manager);
+      org.mockito.Mockito.verify(flashcardPersistent).appendOperation(eq(username),
+          argThat(op -> op.getType() == DeckOperation.Type.CREATE_DECK
+              && deckName.equals(op.getDeckName())));
+
+      // test createDeck with a name that is already taken
+      IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+          () -> deckService.createDeck(username, "OtherDeck"));
+
+      assertEquals("Deckname must be unique", exception.getMessage());
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -211,29 +221,22 @@ public class DeckServiceTest {
     String username = "existingUser";
     String deckname = "TestDeck";
 
-    FlashcardDeckManager manager = new FlashcardDeckManager();
-    FlashcardDeck deck = new FlashcardDeck(deckname);
-    manager.addDeck(deck);
-
     String username2 = "existingUser";
     String deckname2 = "NonExistingDeck";
 
-    FlashcardDeckManager manager2 = new FlashcardDeckManager();
-
     try {
       org.mockito.Mockito.when(flashcardPersistent.userExists(username)).thenReturn(true);
-      org.mockito.Mockito.when(flashcardPersistent.readDeck(username)).thenReturn(manager);
-
-      assertEquals(1, manager.getDecks().size());
+      org.mockito.Mockito.when(flashcardPersistent.readDeckNames(username))
+          .thenReturn(List.of(deckname));
 
       deckService.deleteDeck(username, deckname);
 
-      assertEquals(0, manager.getDecks().size());
-
-      org.mockito.Mockito.verify(flashcardPersistent).writeDeck(username, manager);
-
-      org.mockito.Mockito.when(flashcardPersistent.userExists(username2)).thenReturn(true);
-      org.mockito.Mockito.when(flashcardPersistent.readDeck(username2)).thenReturn(manager2);
+      org.mockito.Mockito.verify(flashcardPersistent).appendOperation(eq(username),
+          argThat(op -> op.getType() == DeckOperation.Type.DELETE_DECK
+              && deckname.equals(op.getDeckName())));
+      // Checking that the deck exists does not load its cards
+      org.mockito.Mockito.verify(flashcardPersistent, org.mockito.Mockito.never())
+          .readDeck(username, deckname);
 
       IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, 
           () -> deckService.deleteDeck(username2, deckname2));
@@ -273,4 +276,30 @@ public class DeckServiceTest {
     org.mockito.Mockito.verify(flashcardPersistent).writeDeck(eq(username),
         any(FlashcardDeckManager.class));
   }
+
+  /**
+   * Tests reading the version and conditional changes.
+   *
+   * <p>A change runs only while the stored version is the expected one, and versions of
+   * users that do not exist are reported as such rather than as a conflict.
+   *
+   * @throws IOException if persistence operations fail during test execution
+   */
+  @Test
+  public void testVersions() throws IOException {
+    org.mockito.Mockito.when(flashcardPersistent.readVersion("existingUser")).thenReturn(3L);
+    org.mockito.Mockito.when(flashcardPersistent.readVersion("ghost")).thenReturn(-1L);
+    assertEquals(3, deckService.getVersion("existingUser"));
+    assertThrows(IllegalArgumentException.class, () -> deckService.getVersion("ghost"));
+
+    org.mockito.Mockito.when(flashcardPersistent.userExists("existingUser")).thenReturn(true);
+    org.mockito.Mockito.when(flashcardPersistent.ifVersion(eq("existingUser"), anyLong(),
+        any())).thenCallRealMethod();
+    assertEquals("changed", deckService.ifVersion("existingUser", 3, () -> "changed"));
+    VersionConflictException conflict = assertThrows(VersionConflictException.class,
+        () -> deckService.ifVersion("existingUser", 2, () -> "changed"));
+    assertEquals(3, conflict.getActualVersion());
+    assertThrows(IllegalArgumentException.class,
+        () -> deckService.ifVersion("ghost", 0, () -> "changed"));
+  }
 }
@@ -2,15 +2,18 @@ package server.service;
 
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import app.Flashcard;
 import app.FlashcardDeck;
-import app.FlashcardDeckManager;
+import itp.storage.DeckOperation;
 import itp.storage.FlashcardPersistent;
 import java.io.IOException;
 import java.util.Arrays;
@@ -82,33 +85,27 @@ class FlashcardServiceTest {
   public void testGetFlashcard() throws IOException {
     Flashcard card1 = new Flashcard("Q1", "A1");
     FlashcardDeck deck = mock(FlashcardDeck.class);
-    FlashcardDeckManager manager = mock(FlashcardDeckManager.class);
 
     when(deck.getDeckName()).thenReturn("deck1");
     when(deck.getDeck()).thenReturn(Arrays.asList(card1));
-    when(manager.getDecks()).thenReturn(Arrays.asList(deck));
-    when(persistent.readDeck("user")).thenReturn(manager);
-    when(deckService.getDeck("user", "deck1")).thenReturn(deck);
-    when(deckService.getAllDecks("user")).thenReturn(manager);
+    when(persistent.readCard("user", "deck1", 1)).thenReturn(card1);
+    when(persistent.readDeck("user", "deck1")).thenReturn(deck);
+    when(persistent.readDeckNames("user")).thenReturn(List.of("deck1"));
 
     Flashcard result = flashcardService.getFlashcard("user", "deck1", 1);
     assertEquals("Q1", result.getQuestion());
     assertEquals("A1", result.getAnswer());
 
-    FlashcardDeckManager emptyManager = mock(FlashcardDeckManager.class);
-    when(emptyManager.getDecks()).thenReturn(Collections.emptyList());
-    when(persistent.readDeck("user")).thenReturn(emptyManager);
+    when(persistent.readCard("user", "deck1", 1)).thenReturn(null);
+    when(persistent.readDeck("user", "deck1")).thenReturn(null);
+    when(persistent.readDeckNames("user")).thenReturn(Collections.emptyList());
 
     var ex = assertThrows(IllegalArgumentException.class, () ->
         flashcardService.getFlashcard("user", "deck1", 1));
 
     assertEquals(ApiConstants.FLASHCARD_NOT_FOUND, ex.getMessage());
 
-    FlashcardDeckManager manager2 = mock(FlashcardDeckManager.class);
-    FlashcardDeck deck2 = mock(FlashcardDeck.class);
-    when(deck2.getDeckName()).thenReturn("anotherDeck");
-    when(manager2.getDecks()).thenReturn(Arrays.asList(deck2));
-    when(persistent.readDeck("user")).thenReturn(manager2);
+    when(persistent.readDeckNames("user")).thenReturn(List.of("anotherDeck"));
 
     var ex2 = assertThrows(IllegalArgumentException.class, () ->
         flashcardService.getFlashcard("user", "missingDeck", 1));
@@ -130,11 +127,7 @@ class FlashcardServiceTest {
    */
   @Test
   public void testGetFlashcardThrows() throws IOException {
-    FlashcardDeckManager manager = mock(FlashcardDeckManager.class);
-    FlashcardDeck deck = mock(FlashcardDeck.class);
-    when(deck.getDeckName()).thenReturn("anotherDeck");
-    when(manager.getDecks()).thenReturn(Arrays.asList(deck));
-    when(persistent.readDeck("user")).thenReturn(manager);
+    when(persistent.readDeckNames("user")).thenReturn(List.of("anotherDeck"));
 
     var ex = assertThrows(IllegalArgumentException.class, () ->
         flashcardService.getFlashcard("user", "missingDeck", 1));
@@ -142,13 +135,10 @@ class FlashcardServiceTest {
     assertEquals(ApiConstants.DECK_NOT_FOUND, ex.getMessage());
 
     // invalid index
-    FlashcardDeckManager manager2 = mock(FlashcardDeckManager.class);
     FlashcardDeck deck2 = mock(FlashcardDeck.class);
     when(deck2.getDeckName()).thenReturn("deck1");
     when(deck2.getDeck()).thenReturn(Collections.singletonList(new Flashcard("Q", "A")));
-    when(manager2.getDecks()).thenReturn(Arrays.asList(deck2));
-    when(persistent.readDeck("user")).thenReturn(manager2);
-    when(deckService.getDeck("user", "deck1")).thenReturn(deck2);
+    when(persistent.readDeck("user", "deck1")).thenReturn(deck2);
     
     var ex2 = assertThrows(IllegalArgumentException.class, () ->
         flashcardService.getFlashcard("user", "deck1", 0));
@@ -157,13 +147,10 @@ class FlashcardServiceTest {
 
     // deck smaller than index
     FlashcardDeck deck3 = mock(FlashcardDeck.class);
-    FlashcardDeckManager manager3 = mock(FlashcardDeckManager.class);
     when(deck3.getDeckName()).thenReturn("deck1");
     when(deck3.getDeck()).thenReturn(Collections.singletonList(new Flashcard("Q", "A")));
-    when(manager3.getDecks()).thenReturn(Arrays.asList(deck3));
     
-    when(persistent.readDeck("user")).thenReturn(manager3);
-    when(deckService.getDeck("user", "deck1")).thenReturn(deck3);
+    when(persistent.readDeck("user", "deck1")).thenReturn(deck3);
     
     var ex3 = assertThrows(IllegalArgumentException.class, () ->
         flashcardService.getFlashcard("user", "deck1", 5));
@@ -211,17 +198,34 @@ class FlashcardServiceTest {
   @Test
   public void testCreateFlashcard() throws IOException {
     FlashcardDeck deck = mock(FlashcardDeck.class);
-    FlashcardDeckManager manager = mock(FlashcardDeckManager.class);
 
     when(deck.getDeckName()).thenReturn("deck1");
-    when(manager.getDecks()).thenReturn(Arrays.asList(deck));
-    when(deckService.getAllDecks("user")).thenReturn(manager);
+    when(deckService.getDeck("user", "deck1")).thenReturn(deck);
 
     Flashcard newCard = flashcardService.createFlashcard("user", "deck1", "A", "Q");
 
     assertEquals("Q", newCard.getQuestion());
     verify(deck).addFlashcard(any(Flashcard.class));
-    verify(persistent).writeDeck("user", manager);
+    verify(persistent).appendOperation(eq("user"),
+        argThat(op -> op.getType() == DeckOperation.Type.ADD_CARD));
+  }
+
+  /**
+   * Tests that a created flashcard carries the id its deck gave it, so the client can
+   * address it by id right away.
+   *
+   * @throws IOException if persistence operations fail during test execution
+   */
+  @Test
+  public void testCreatedFlashcardHasId() throws IOException {
+    FlashcardDeck deck = new FlashcardDeck("deck1");
+    deck.addFlashcard(new Flashcard("Q1", "A1"));
+    when(deckService.getDeck("user", "deck1")).thenReturn(deck);
+
+    Flashcard newCard = flashcardService.createFlashcard("user", "deck1", "A2", "Q2");
+
+    assertEquals(deck.getDeck().get(1).getId(), newCard.getId());
+    assertNotEquals(deck.getDeck().get(0).getId(), newCard.getId());
   }
 
  
@@ -238,16 +242,43 @@ class FlashcardServiceTest {
   @Test
   public void testDeleteFlashcard() throws IOException {
     FlashcardDeck deck = mock(FlashcardDeck.class);
-    FlashcardDeckManager manager = mock(FlashcardDeckManager.class);
         
     when(deck.getDeckName()).thenReturn("deck1");
     when(deck.getDeck()).thenReturn(Arrays.asList(new Flashcard("Q", "A")));
-    when(manager.getDecks()).thenReturn(Arrays.asList(deck));
-    when(deckService.getAllDecks("user")).thenReturn(manager);
+    when(deckService.getDeck("user", "deck1")).thenReturn(deck);
 
     flashcardService.deleteFlashcard("user", "deck1", 1);
 
     verify(deck).removeFlashcardByIndex(0);
-    verify(persistent).writeDeck("user", manager);
+    verify(persistent).appendOperation(eq("user"),
+        argThat(op -> op.getType() == DeckOperation.Type.REMOVE_CARD));
+  }
+
+  /**
+   * Tests that cards are updated and deleted by their id, whatever their position.
+   *
+   * @throws IOException if persistence operations fail during test execution
+   */
+  @Test
+  public void testUpdateAndDeleteById() throws IOException {
+    FlashcardDeck deck = new FlashcardDeck("deck1");
+    deck.addFlashcard(new Flashcard("Q1", "A1"));
+    deck.addFlashcard(0, new Flashcard("Q2", "A2"));
+    when(deckService.getDeck("user", "deck1")).thenReturn(deck);
+
+    Flashcard updated = flashcardService.updateFlashcard("user", "deck1", 1, "New", null);
+    assertEquals("New", updated.getQuestion());
+    assertEquals("A1", updated.getAnswer());
+    verify(persistent).appendOperation(eq("user"),
+        argThat(op -> op.getType() == DeckOperation.Type.UPDATE_CARD));
+
+    flashcardService.deleteFlashcardById("user", "deck1", 1);
+    assertEquals(List.of("Q2"), deck.getDeck().stream().map(Flashcard::getQuestion).toList());
+    verify(persistent).appendOperation(eq("user"),
+        argThat(op -> op.getType() == DeckOperation.Type.REMOVE_CARD));
+
+    IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+        () -> flashcardService.deleteFlashcardById("user", "deck1", 1));
+    assertEquals(ApiConstants.FLASHCARD_NOT_FOUND, exception.getMessage());
   }
 }
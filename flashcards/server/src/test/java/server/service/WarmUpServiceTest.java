@@ -0,0 +1,179 @@
+package server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import itp.storage.CacheWarmer;
+import itp.storage.CardTextStore;
+import itp.storage.FlashcardPersistent;
+import itp.storage.StorageEngine;
+import itp.storage.UserDataCache;
+import itp.storage.UserTiering;
+import itp.storage.UsernameIndex;
+import java.io.IOException;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+/**
+ * Unit tests for the {@link WarmUpService} class.
+ * The persistence layer is mocked, so only the order of the steps, the configuration
+ * and the readiness flag are tested.
+ *
+ * @see WarmUpService
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class WarmUpServiceTest {
+
+  @Mock
+  private FlashcardPersistent persistent;
+
+  private WarmUpService warmUpService;
+
+  /**
+   * Sets up the service with statistics for the log lines.
+   */
+  @BeforeEach
+  public void setUp() {
+    warmUpService = new WarmUpService(persistent);
+    when(persistent.getUsernameIndexStats())
+        .thenReturn(new UsernameIndex.Stats(true, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+    when(persistent.getCardTextStats()).thenReturn(new CardTextStore.Stats(0, 0, 0, 0, 0));
+    when(persistent.getCacheStats()).thenReturn(new UserDataCache.Stats(0, 0, 0, 0, 256));
+  }
+
+  /**
+   * Clears the configuration set by the tests.
+   */
+  @AfterEach
+  public void tearDown() {
+    System.clearProperty("flashcards.warmup");
+    System.clearProperty("flashcards.warmup.maxUsers");
+    System.clearProperty("flashcards.tiering");
+    System.clearProperty("flashcards.tiering.inactiveDays");
+    System.clearProperty("flashcards.texts.collectIntervalHours");
+  }
+
+  /**
+   * Tests that no warm-up step runs and the service still becomes ready when the
+   * warm-up is not switched on, while card texts are still collected.
+   *
+   * @throws Exception if the mocks fail
+   */
+  @Test
+  public void testDisabled() throws Exception {
+    assertFalse(warmUpService.isReady());
+    warmUpService.warmUp();
+
+    assertTrue(warmUpService.isReady());
+    verify(persistent, never()).rebuildUsernameIndex(anyInt());
+    verify(persistent, never()).preloadRecentUsers(anyInt(), any());
+    verify(persistent, never()).startTiering(any(), any());
+    assertNull(warmUpService.getLastResult());
+    // Card texts are collected in the background without the warm-up
+    verify(persistent, timeout(5_000)).collectCardTexts();
+  }
+
+  /**
+   * Tests that an interval of 0 switches the card text collection off.
+   *
+   * @throws Exception if the mocks fail
+   */
+  @Test
+  public void testCollectionSwitchedOff() throws Exception {
+    System.setProperty("flashcards.texts.collectIntervalHours", "0");
+
+    warmUpService.warmUp();
+    assertTrue(warmUpService.isReady());
+    verify(persistent, never()).collectCardTexts();
+  }
+
+  /**
+   * Tests that the indexes are built and the preload runs with the configured number
+   * of users.
+   *
+   * @throws Exception if the mocks fail
+   */
+  @Test
+  public void testPreload() throws Exception {
+    System.setProperty("flashcards.warmup", "true");
+    System.setProperty("flashcards.warmup.maxUsers", "10");
+    CacheWarmer.Result result = new CacheWarmer.Result(20, 10, 10, 0, true, 5);
+    when(persistent.preloadRecentUsers(eq(10), any(Duration.class))).thenReturn(result);
+
+    warmUpService.warmUp();
+    assertTrue(warmUpService.isReady());
+    assertEquals(result, warmUpService.getLastResult());
+    verify(persistent).rebuildUsernameIndex(anyInt());
+    // Card texts are collected in the background
+    verify(persistent, timeout(5_000)).collectCardTexts();
+  }
+
+  /**
+   * Tests that tiering starts with the configured inactivity and the default interval.
+   */
+  @Test
+  public void testTiering() {
+    System.setProperty("flashcards.tiering", "true");
+    System.setProperty("flashcards.tiering.inactiveDays", "30");
+
+    warmUpService.warmUp();
+    verify(persistent).startTiering(Duration.ofDays(30), UserTiering.DEFAULT_INTERVAL);
+  }
+
+  /**
+   * Tests that the steps for the file backend are skipped on other storage engines and
+   * the service is ready right away.
+   */
+  @Test
+  public void testOtherEngine() {
+    System.setProperty("flashcards.warmup", "true");
+    System.setProperty("flashcards.tiering", "true");
+    StorageEngine engine = mock(StorageEngine.class);
+    when(engine.getEngineName()).thenReturn("h2");
+    WarmUpService other = new WarmUpService(engine);
+
+    other.warmUp();
+    assertTrue(other.isReady());
+    assertNull(other.getLastResult());
+    verify(engine).getEngineName();
+    verifyNoMoreInteractions(engine);
+  }
+
+  /**
+   * Tests that failing steps do not keep the service from becoming ready.
+   *
+   * @throws Exception if the mocks fail
+   */
+  @Test
+  public void testReadyAfterFailure() throws Exception {
+    System.setProperty("flashcards.warmup", "true");
+    doThrow(new IOException("disk gone")).when(persistent).rebuildUsernameIndex(anyInt());
+    when(persistent.collectCardTexts()).thenThrow(new IOException("disk gone"));
+    when(persistent.preloadRecentUsers(anyInt(), any(Duration.class)))
+        .thenThrow(new IOException("disk gone"));
+
+    warmUpService.warmUp();
+    assertTrue(warmUpService.isReady());
+    assertNull(warmUpService.getLastResult());
+  }
+}
@@ -2,14 +2,14 @@ package dto;
 
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import jakarta.validation.constraints.Max;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A Data Transfer Object (DTO) representing a manager for multiple flashcard decks.
  * This class is used to transfer data between different layers of the application.
- * It includes a list of flashcard decks with a maximum limit of 8 decks.
+ * It includes a list of flashcard decks, limited in number by
+ * {@link app.FlashcardDeckManager}.
  *
  * @author marieroe
  * @author isamw
@@ -18,9 +18,7 @@ public class FlashcardDeckManagerDto {
 
   /**
    * The list of flashcard decks managed by this DTO.
-   * The list can contain at most 8 decks.
    */
-  @Max(8)
   @JsonProperty("decks")
   private final List<FlashcardDeckDto> decks;
 
@@ -35,7 +33,7 @@ public class FlashcardDeckManagerDto {
   /**
    * Constructs a new FlashcardDeckManagerDto with the specified list of decks.
    *
-   * @param decks the list of flashcard decks; must not exceed 8 decks
+   * @param decks the list of flashcard decks
    */
   public FlashcardDeckManagerDto(List<FlashcardDeckDto> decks) {
     this.decks = List.copyOf(decks);
@@ -38,6 +38,13 @@ public class FlashcardDto {
   @JsonProperty("number")
   private int number;
 
+  /**
+   * The id of the flashcard, which stays the same when the card moves in its deck.
+   * 0 if the card has not been in a deck.
+   */
+  @JsonProperty("id")
+  private int id;
+
   /**
    * Default constructor for FlashcardDto.
    * Required for frameworks that use reflection, such as Jackson.
@@ -59,6 +66,19 @@ public class FlashcardDto {
     this.number = number;
   }
 
+  /**
+   * Constructs a new FlashcardDto with the specified question, answer, number and id.
+   *
+   * @param question the question on the flashcard; must not be null or blank
+   * @param answer the answer on the flashcard; must not be null or blank
+   * @param number the unique number of the flashcard; must be at least 1
+   * @param id the id of the flashcard within its deck
+   */
+  public FlashcardDto(String question, String answer, int number, int id) {
+    this(question, answer, number);
+    this.id = id;
+  }
+
   /**
    * Gets the question on the flashcard.
    *
@@ -87,6 +107,15 @@ public class FlashcardDto {
     return number;
   }
 
+  /**
+   * Gets the id of the flashcard within its deck.
+   *
+   * @return the id, 0 if the card has not been in a deck
+   */
+  public int getId() {
+    return id;
+  }
+
   /**
    * Returns a string representation of the flashcard showing question and answer.
    *
@@ -23,7 +23,8 @@ public class FlashcardMapper {
       throw new IllegalArgumentException("Flashcard cannot be null");
     }
 
-    return new FlashcardDto(flashcard.getQuestion(), flashcard.getAnswer(), flashcard.getNumber());
+    return new FlashcardDto(flashcard.getQuestion(), flashcard.getAnswer(), flashcard.getNumber(),
+        flashcard.getId());
   }
 
   /**
@@ -37,9 +38,11 @@ public class FlashcardMapper {
       throw new IllegalArgumentException("FlashcardDto cannot be null");
     }
 
-    return new Flashcard(flashcardDto.getNumber(), 
-      flashcardDto.getQuestion(), 
-      flashcardDto.getAnswer());
+    Flashcard flashcard = new Flashcard(flashcardDto.getNumber(), 
+        flashcardDto.getQuestion(), 
+        flashcardDto.getAnswer());
+    flashcard.setId(flashcardDto.getId());
+    return flashcard;
   }
 
   /**
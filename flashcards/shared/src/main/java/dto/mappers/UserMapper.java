@@ -55,7 +55,8 @@ public class UserMapper {
       for (FlashcardDeck deck : userData.getDeckManager().getDecks()) {
         List<FlashcardDto> cardDtos = new ArrayList<>();
         for (Flashcard card : deck.getDeck()) {
-          cardDtos.add(new FlashcardDto(card.getQuestion(), card.getAnswer(), card.getNumber()));
+          cardDtos.add(new FlashcardDto(card.getQuestion(), card.getAnswer(), card.getNumber(),
+              card.getId()));
         }
         deckDtos.add(new FlashcardDeckDto(deck.getDeckName(), cardDtos));
       }
@@ -80,7 +81,9 @@ public class UserMapper {
         for (FlashcardDeckDto deckDto : managerDto.getDecks()) {
           FlashcardDeck deck = new FlashcardDeck(deckDto.getDeckName());
           for (FlashcardDto cardDto : deckDto.getDeck()) {
-            deck.addFlashcard(new Flashcard(cardDto.getQuestion(), cardDto.getAnswer()));
+            Flashcard card = new Flashcard(cardDto.getQuestion(), cardDto.getAnswer());
+            card.setId(cardDto.getId());
+            deck.addFlashcard(card);
           }
           deckManager.addDeck(deck);
         }
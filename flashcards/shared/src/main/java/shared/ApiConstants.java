@@ -53,6 +53,7 @@ public class ApiConstants {
   /** Flashcard operation success messages. */
   public static final String FLASHCARD_CREATED = "Flashcard created successfully";
   public static final String FLASHCARD_DELETED = "Flashcard deleted successfully";
+  public static final String FLASHCARD_UPDATED = "Flashcard updated successfully";
   public static final String FLASHCARD_RETRIEVED = "Flashcard retrieved successfully";
   public static final String FLASHCARDS_RETRIEVED = "Flashcards retrieved successfully";
   
@@ -61,6 +62,7 @@ public class ApiConstants {
   public static final String FLASHCARD_FAILED = "Flashcard failed";
   public static final String FLASHCARD_FAILED_TO_DELETE = "Failed to delete flashcard";
   public static final String FLASHCARD_FAILED_TO_CREATE = "Failed to create flashcard";
+  public static final String FLASHCARD_FAILED_TO_UPDATE = "Failed to update flashcard";
   public static final String FLASHCARD_RETRIEVED_FAILED = "Failed to retrieve flashcard";
   public static final String FLASHCARDS_RETRIEVED_FAILED = "Failed to retrieve flashcards";
   public static final String FLASHCARD_OPERATION_FAILED = 
@@ -104,9 +106,20 @@ public class ApiConstants {
   public static final String UNEXPECTED_ERROR = "An unexpected error occurred - Please try again";
   public static final String LOG_UNEXPECTED_ERROR = "Unexpected error";
   
+  /** Readiness messages. */
+  public static final String SERVER_READY = "Server ready";
+  public static final String SERVER_WARMING_UP = "Server is warming up";
+
+  /** Metrics messages. */
+  public static final String METRICS_RETRIEVED = "Metrics retrieved successfully";
+
   /** Connection and data messages. */
   public static final String INVALID_REQUEST = "Invalid request";
   public static final String FAILED_TO_LOAD_DATA = "Could not load data";
+  public static final String VERSION_CONFLICT =
+      "Your data was changed elsewhere - Please reload and try again";
+  public static final String PRECONDITION_REQUIRED =
+      "Please reload your data before saving all of it";
   public static final String NO_RESPONSE_FROM_SERVER = "No response from server";
   public static final String SERVER_CONNECTION_ERROR = 
       "Could not connect to server - Please check that the server is running";
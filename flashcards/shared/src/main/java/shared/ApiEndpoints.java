@@ -30,6 +30,9 @@ public class ApiEndpoints {
   public static final String FLASHCARD_GET = "/get";
   public static final String FLASHCARD_GET_ALL = "/get-all";
   public static final String FLASHCARD_DELETE = "/delete";
+  public static final String FLASHCARD_GET_BY_ID = "/get-by-id";
+  public static final String FLASHCARD_UPDATE = "/update";
+  public static final String FLASHCARD_DELETE_BY_ID = "/delete-by-id";
 
   // Deck endpoints
   public static final String DECKS = BASE + "/v1/decks";
@@ -38,6 +41,12 @@ public class ApiEndpoints {
   public static final String DECK_GET_ALL = "/get-all";
   public static final String DECK_DELETE = "/delete";
 
+  // Readiness endpoint, answers 503 until the startup warm-up is done
+  public static final String READY = BASE + "/v1/ready";
+
+  // Storage metrics endpoint, latency histograms and byte counters of the storage layer
+  public static final String STORAGE_METRICS = BASE + "/v1/metrics/storage";
+
   // User endpoints
   public static final String USERS_V1 = BASE + "/v1/users";
   public static final String USER_REGISTER = "/register";
@@ -89,6 +89,7 @@ public class ApiConstantsTest {
     // Flashcard operation success messages
     assertEquals("Flashcard created successfully", ApiConstants.FLASHCARD_CREATED);
     assertEquals("Flashcard deleted successfully", ApiConstants.FLASHCARD_DELETED);
+    assertEquals("Flashcard updated successfully", ApiConstants.FLASHCARD_UPDATED);
     assertEquals("Flashcard retrieved successfully", ApiConstants.FLASHCARD_RETRIEVED);
     assertEquals("Flashcards retrieved successfully", ApiConstants.FLASHCARDS_RETRIEVED);
     
@@ -97,6 +98,7 @@ public class ApiConstantsTest {
     assertEquals("Flashcard failed", ApiConstants.FLASHCARD_FAILED);
     assertEquals("Failed to delete flashcard", ApiConstants.FLASHCARD_FAILED_TO_DELETE);
     assertEquals("Failed to create flashcard", ApiConstants.FLASHCARD_FAILED_TO_CREATE);
+    assertEquals("Failed to update flashcard", ApiConstants.FLASHCARD_FAILED_TO_UPDATE);
     assertEquals("Failed to retrieve flashcard", ApiConstants.FLASHCARD_RETRIEVED_FAILED);
     assertEquals("Failed to retrieve flashcards", ApiConstants.FLASHCARDS_RETRIEVED_FAILED);
     assertEquals("Could not complete flashcard operation - Please try again", 
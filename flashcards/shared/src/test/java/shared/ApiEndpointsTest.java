@@ -49,6 +49,9 @@ public class ApiEndpointsTest {
     assertEquals("/get", ApiEndpoints.FLASHCARD_GET);
     assertEquals("/get-all", ApiEndpoints.FLASHCARD_GET_ALL);
     assertEquals("/delete", ApiEndpoints.FLASHCARD_DELETE);
+    assertEquals("/get-by-id", ApiEndpoints.FLASHCARD_GET_BY_ID);
+    assertEquals("/update", ApiEndpoints.FLASHCARD_UPDATE);
+    assertEquals("/delete-by-id", ApiEndpoints.FLASHCARD_DELETE_BY_ID);
   }
 
   /**
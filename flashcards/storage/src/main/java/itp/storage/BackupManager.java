@@ -0,0 +1,634 @@
+package itp.storage;
+
+import itp.storage.UserFileLayout.UserFiles;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Takes point-in-time backups of the users directory without stopping writes, and
+ * restores them.
+ *
+ * <p>Snapshots and deck files are never changed in place, only replaced by renames or
+ * written under new names, so a backup hard-links them instead of copying their content.
+ * Only operation logs, which are appended to, are copied. Each user is linked under its
+ * lock, which only waits for that one user's write in progress, so every user is backed
+ * up in a consistent state while the others keep being written. The shared card texts
+ * are kept from being removed or compacted during a backup, and their segments are
+ * linked as well except for the newest one, which is still appended to and copied.
+ * Compression dictionaries never change and are linked, and so are the files of users
+ * moved to the {@link ColdArchive}, which are backed up in place of the user's files.
+ *
+ * <p>A full backup covers every user. An incremental backup covers only the users the
+ * {@link ChangeJournal} recorded as changed since the previous backup, plus the users
+ * that no longer exist, and refers to that backup as its base. Restoring replays the
+ * chain from the last full backup onwards into an empty data directory.
+ *
+ * <p>Backups are directories named by their creation time in the {@code backups}
+ * directory next to the users directory, or in {@code flashcards.backup.path}. A backup
+ * is written under a temporary name and renamed when complete. Backups cover the files
+ * of the {@code json} storage engine.
+ *
+ * @see ChangeJournal
+ */
+public final class BackupManager {
+
+  private static final String USERS = "users";
+  private static final String TEXTS = "texts";
+  private static final String COLD = "cold";
+  private static final String DICTIONARIES = "dictionaries";
+  private static final String PROPERTIES = "backup.properties";
+  private static final String DELETED = "deleted.txt";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final DateTimeFormatter ID_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'").withZone(ZoneOffset.UTC);
+
+  private final UserFileLayout layout;
+  private final Path directory;
+  private final UserLockManager locks;
+
+  /**
+   * The kind of a backup.
+   */
+  public enum Type {
+    /** Every user. */
+    FULL,
+    /** The users changed since the base backup. */
+    INCREMENTAL
+  }
+
+  /**
+   * A backup.
+   *
+   * @param id the name of the backup directory
+   * @param type whether the backup is full or incremental
+   * @param base the backup an incremental backup builds on, null for a full backup
+   * @param created when the backup was taken
+   * @param users the number of users in the backup
+   * @param deleted the number of users recorded as gone since the base backup
+   * @param linkedFiles the number of files hard-linked
+   * @param copiedBytes the number of bytes copied
+   * @param elapsedMillis how long the backup took
+   */
+  public record Backup(String id, Type type, String base, Instant created, int users,
+      int deleted, long linkedFiles, long copiedBytes, long elapsedMillis) {}
+
+  /**
+   * Counts what a backup linked and copied.
+   */
+  private static final class Copier {
+    private long linked;
+    private long copiedBytes;
+
+    /**
+     * Hard-links a file that is never changed in place, copying it where the file
+     * system cannot link.
+     *
+     * @param source the file
+     * @param target the link to create
+     * @throws IOException if neither linking nor copying works
+     */
+    void link(Path source, Path target) throws IOException {
+      try {
+        Files.createLink(target, source);
+        linked++;
+      } catch (NoSuchFileException e) {
+        throw e;
+      } catch (UnsupportedOperationException | FileSystemException e) {
+        copy(source, target);
+      }
+    }
+
+    /**
+     * Copies a file that may be changed in place.
+     *
+     * @param source the file
+     * @param target the copy to create
+     * @throws IOException if copying fails
+     */
+    void copy(Path source, Path target) throws IOException {
+      Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+      copiedBytes += Files.size(target);
+    }
+  }
+
+  /**
+   * Creates a manager for the users directory of the current working directory, using
+   * the locks of the running process.
+   */
+  public BackupManager() {
+    this(UserFileLayout.current());
+  }
+
+  /**
+   * Creates a manager for a users directory, keeping the backups in its backup
+   * directory and using the locks of the running process.
+   *
+   * @param layout the layout of the users directory
+   */
+  public BackupManager(UserFileLayout layout) {
+    this(layout, backupsPath(layout), FlashcardPersistent.sharedLockManager());
+  }
+
+  /**
+   * Creates a manager for a users directory.
+   *
+   * @param layout the layout of the users directory
+   * @param directory the directory to keep the backups in
+   * @param locks the locks writers take for each user
+   */
+  BackupManager(UserFileLayout layout, Path directory, UserLockManager locks) {
+    this.layout = layout;
+    this.directory = directory;
+    this.locks = locks;
+  }
+
+  /**
+   * Gets the backup directory, from {@code flashcards.backup.path}.
+   *
+   * @return the backup directory, next to the users directory by default
+   */
+  public static Path backupsPath() {
+    return backupsPath(UserFileLayout.current());
+  }
+
+  /**
+   * Gets the backup directory of a users directory, from {@code flashcards.backup.path}.
+   *
+   * @param layout the layout of the users directory
+   * @return the backup directory, next to the users directory by default
+   */
+  public static Path backupsPath(UserFileLayout layout) {
+    String configured = System.getProperty("flashcards.backup.path");
+    if (configured != null) {
+      return Path.of(configured);
+    }
+    return layout.root().resolveSibling("backups");
+  }
+
+  /**
+   * Takes a backup of every user.
+   *
+   * @return the backup
+   * @throws IOException if the backup cannot be written
+   */
+  public Backup full() throws IOException {
+    return backup(Type.FULL);
+  }
+
+  /**
+   * Takes a backup of the users changed since the latest backup.
+   *
+   * @return the backup
+   * @throws IOException if there is no earlier backup or the backup cannot be written
+   */
+  public Backup incremental() throws IOException {
+    return backup(Type.INCREMENTAL);
+  }
+
+  /**
+   * Lists the complete backups.
+   *
+   * @return the backups, oldest first
+   * @throws IOException if the backup directory cannot be read
+   */
+  public List<Backup> list() throws IOException {
+    List<Backup> backups = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return backups;
+    }
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        if (Files.isRegularFile(entry.resolve(PROPERTIES))) {
+          backups.add(read(entry.toFile().getName()));
+        }
+      }
+    }
+    backups.sort(Comparator.comparing(Backup::id));
+    return backups;
+  }
+
+  /**
+   * Restores a backup into an empty data directory. Incremental backups are restored
+   * together with the backups they build on. Run only while the server is stopped, then
+   * point the server at the restored directory or move its content into place.
+   *
+   * @param id the backup to restore
+   * @param dataDirectory the directory to restore the users, archived users, card texts
+   *     and dictionaries into, next to each other as the server expects them
+   * @return the number of users restored
+   * @throws IOException if the backup is incomplete or the target is not empty
+   */
+  public int restore(String id, Path dataDirectory) throws IOException {
+    List<Backup> chain = new ArrayList<>();
+    for (Backup backup = read(id); ; backup = read(backup.base())) {
+      chain.add(0, backup);
+      if (backup.type() == Type.FULL) {
+        break;
+      }
+    }
+    Path users = dataDirectory.resolve(USERS);
+    if (Files.isDirectory(users)) {
+      try (Stream<Path> entries = Files.list(users)) {
+        if (entries.findAny().isPresent()) {
+          throw new IOException("Restore target is not empty: " + users);
+        }
+      }
+    }
+
+    UserFileLayout target = new UserFileLayout(users);
+    ColdArchive targetArchive = new ColdArchive(dataDirectory.resolve(COLD));
+    Copier copier = new Copier();
+    for (Backup backup : chain) {
+      Path source = directory.resolve(backup.id());
+      if (backup.type() == Type.FULL) {
+        copyTree(source.resolve(USERS), users, copier);
+        copyTree(source.resolve(COLD), targetArchive.directory(), copier);
+        continue;
+      }
+      UserFileLayout changed = new UserFileLayout(source.resolve(USERS));
+      for (String username : changed.listUsernames()) {
+        deleteUser(target, targetArchive, username);
+        UserFiles files = changed.locate(username);
+        Path relative = changed.root().relativize(files.directory());
+        copyTree(files.directory(), users.resolve(relative), copier, username);
+      }
+      ColdArchive changedArchive = new ColdArchive(source.resolve(COLD));
+      for (String username : changedArchive.listUsernames()) {
+        deleteUser(target, targetArchive, username);
+        Files.createDirectories(targetArchive.shardOf(username));
+        copier.copy(changedArchive.fileOf(username), targetArchive.fileOf(username));
+      }
+      for (String username : readDeleted(source)) {
+        deleteUser(target, targetArchive, username);
+      }
+    }
+    Path latest = directory.resolve(chain.get(chain.size() - 1).id());
+    copyTree(latest.resolve(TEXTS), dataDirectory.resolve(TEXTS), copier);
+    copyTree(latest.resolve(DICTIONARIES), dataDirectory.resolve(DICTIONARIES), copier);
+    Set<String> restored = new LinkedHashSet<>(target.listUsernames());
+    restored.addAll(targetArchive.listUsernames());
+    return restored.size();
+  }
+
+  /**
+   * Takes a backup.
+   *
+   * @param type whether to back up every user or only the changed ones
+   * @return the backup
+   * @throws IOException if the backup cannot be written
+   */
+  private Backup backup(Type type) throws IOException {
+    final long start = System.nanoTime();
+    String base = null;
+    if (type == Type.INCREMENTAL) {
+      List<Backup> backups = list();
+      if (backups.isEmpty()) {
+        throw new IOException("No backup to base an incremental backup on, take a full one");
+      }
+      base = backups.get(backups.size() - 1).id();
+    }
+    ChangeJournal journal = ChangeJournal.at(directory);
+    Set<String> changed = journal.startBackup();
+    Instant created = Instant.now();
+    String id = newId(created);
+    Path temp = directory.resolve(id + TEMP_SUFFIX);
+    Files.createDirectories(temp.resolve(USERS));
+
+    Copier copier = new Copier();
+    List<String> users = new ArrayList<>();
+    List<String> deleted = new ArrayList<>();
+    CardTextStore texts = CardTextStore.at(layout.root().resolveSibling(TEXTS));
+    ColdArchive archive = ColdArchive.of(layout);
+    texts.withoutRemovals(() -> {
+      Collection<String> candidates = new TreeSet<>(changed);
+      if (type == Type.FULL) {
+        candidates = new LinkedHashSet<>(layout.listUsernames());
+        candidates.addAll(archive.listUsernames());
+      }
+      for (String username : candidates) {
+        boolean exists = locks.withLock(username,
+            () -> backUpUser(username, temp, copier));
+        (exists ? users : deleted).add(username);
+      }
+      // Every text a linked deck file refers to is in the segments by now
+      backUpTexts(layout.root().resolveSibling(TEXTS), temp.resolve(TEXTS), copier);
+      return null;
+    });
+    Path dictionaries = CompressionDictionaries.directoryOf(layout);
+    if (Files.isDirectory(dictionaries)) {
+      Files.createDirectories(temp.resolve(DICTIONARIES));
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dictionaries, "*.bin")) {
+        for (Path file : files) {
+          copier.link(file, temp.resolve(DICTIONARIES).resolve(file.toFile().getName()));
+        }
+      }
+    }
+
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Backup backup = new Backup(id, type, base, created, users.size(), deleted.size(),
+        copier.linked, copier.copiedBytes, elapsedMillis);
+    if (!deleted.isEmpty()) {
+      Files.write(temp.resolve(DELETED), deleted, StandardCharsets.UTF_8);
+    }
+    write(temp, backup);
+    Files.move(temp, directory.resolve(id), StandardCopyOption.ATOMIC_MOVE);
+    journal.finishBackup();
+    return backup;
+  }
+
+  /**
+   * Links a user's files, or the user's archive file, into a backup. Runs under the
+   * user's lock.
+   *
+   * @param username the user
+   * @param backup the directory of the backup
+   * @param copier links and copies the files
+   * @return false if the user no longer exists
+   * @throws IOException if linking fails
+   */
+  private boolean backUpUser(String username, Path backup, Copier copier) throws IOException {
+    UserFiles files = layout.locate(username);
+    if (!Files.exists(files.snapshot())) {
+      ColdArchive archive = ColdArchive.of(layout);
+      if (!archive.contains(username)) {
+        return false;
+      }
+      ColdArchive copy = new ColdArchive(backup.resolve(COLD));
+      Files.createDirectories(copy.shardOf(username));
+      copier.link(archive.fileOf(username), copy.fileOf(username));
+      return true;
+    }
+    Path target = backup.resolve(USERS).resolve(layout.root().relativize(files.directory()));
+    Files.createDirectories(target);
+    copier.link(files.snapshot(), target.resolve(files.snapshot().toFile().getName()));
+    if (Files.exists(files.log())) {
+      copier.copy(files.log(), target.resolve(files.log().toFile().getName()));
+    }
+    if (Files.isDirectory(files.decks())) {
+      Path decks = Files.createDirectories(target.resolve(files.decks().toFile().getName()));
+      try (DirectoryStream<Path> deckFiles = Files.newDirectoryStream(files.decks())) {
+        for (Path file : deckFiles) {
+          copier.link(file, decks.resolve(file.toFile().getName()));
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Links the card text segments into a backup, copying the newest one, which is still
+   * appended to.
+   *
+   * @param source the segment directory
+   * @param target the segment directory of the backup
+   * @param copier links and copies the files
+   * @throws IOException if linking fails
+   */
+  private static void backUpTexts(Path source, Path target, Copier copier)
+      throws IOException {
+    if (!Files.isDirectory(source)) {
+      return;
+    }
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(source, "segment-*.dat")) {
+      files.forEach(segments::add);
+    }
+    // Segment ids are zero-padded, so names sort by age
+    segments.sort(Comparator.comparing(file -> file.toFile().getName()));
+    Files.createDirectories(target);
+    for (int i = 0; i < segments.size(); i++) {
+      Path segment = segments.get(i);
+      Path copy = target.resolve(segment.toFile().getName());
+      if (i == segments.size() - 1) {
+        copier.copy(segment, copy);
+      } else {
+        copier.link(segment, copy);
+      }
+    }
+  }
+
+  /**
+   * Copies a directory tree, creating the target directories.
+   *
+   * @param source the tree to copy, nothing is copied if it does not exist
+   * @param target the directory to copy into
+   * @param copier copies the files
+   * @throws IOException if copying fails
+   */
+  private static void copyTree(Path source, Path target, Copier copier) throws IOException {
+    copyTree(source, target, copier, null);
+  }
+
+  /**
+   * Copies a directory tree, or the files of one user in it.
+   *
+   * @param source the tree to copy, nothing is copied if it does not exist
+   * @param target the directory to copy into
+   * @param copier copies the files
+   * @param username the user whose files to copy from the top level, null for all files
+   * @throws IOException if copying fails
+   */
+  private static void copyTree(Path source, Path target, Copier copier, String username)
+      throws IOException {
+    if (!Files.isDirectory(source)) {
+      return;
+    }
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(source)) {
+      files = walk.toList();
+    }
+    for (Path file : files) {
+      Path relative = source.relativize(file);
+      if (username != null && !relative.toString().isEmpty()
+          && !isOwnedBy(relative.getName(0).toString(), username)) {
+        continue;
+      }
+      Path copy = target.resolve(relative.toString());
+      if (Files.isDirectory(file)) {
+        Files.createDirectories(copy);
+      } else {
+        copier.copy(file, copy);
+      }
+    }
+  }
+
+  /**
+   * Checks whether a file in a user directory belongs to a user, since flat users share
+   * their directory with everyone else.
+   *
+   * @param name the name of the file or deck directory
+   * @param username the user
+   * @return true for the user's snapshot, log and deck directory
+   */
+  private static boolean isOwnedBy(String name, String username) {
+    return name.equals(username + ".json") || name.equals(username + ".log")
+        || name.equals(username + ".decks");
+  }
+
+  /**
+   * Deletes a user's files from a restored users directory, in both layouts, and from the
+   * restored archive.
+   *
+   * @param target the layout of the restored directory
+   * @param archive the restored archive
+   * @param username the user
+   * @throws IOException if a file cannot be deleted
+   */
+  private static void deleteUser(UserFileLayout target, ColdArchive archive, String username)
+      throws IOException {
+    archive.delete(username);
+    for (UserFiles files : List.of(target.flat(username), target.sharded(username))) {
+      Files.deleteIfExists(files.snapshot());
+      Files.deleteIfExists(files.log());
+      if (Files.isDirectory(files.decks())) {
+        try (Stream<Path> walk = Files.walk(files.decks())) {
+          for (Path file : walk.sorted(Comparator.reverseOrder()).toList()) {
+            Files.delete(file);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Picks the id of a new backup.
+   *
+   * @param created the creation time
+   * @return a name that sorts after every earlier backup
+   */
+  private String newId(Instant created) {
+    Instant time = created;
+    String id = ID_FORMAT.format(time);
+    while (Files.exists(directory.resolve(id)) || Files.exists(directory.resolve(id
+        + TEMP_SUFFIX))) {
+      time = time.plusMillis(1);
+      id = ID_FORMAT.format(time);
+    }
+    return id;
+  }
+
+  /**
+   * Reads the description of a backup.
+   *
+   * @param id the backup
+   * @return the backup
+   * @throws IOException if there is no such complete backup
+   */
+  private Backup read(String id) throws IOException {
+    Properties properties = new Properties();
+    Path file = directory.resolve(id).resolve(PROPERTIES);
+    try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      properties.load(in);
+    } catch (NoSuchFileException e) {
+      throw new IOException("No such backup: " + id, e);
+    }
+    try {
+      return new Backup(id, Type.valueOf(properties.getProperty("type")),
+          properties.getProperty("base"), Instant.parse(properties.getProperty("created")),
+          Integer.parseInt(properties.getProperty("users")),
+          Integer.parseInt(properties.getProperty("deleted")),
+          Long.parseLong(properties.getProperty("linkedFiles")),
+          Long.parseLong(properties.getProperty("copiedBytes")),
+          Long.parseLong(properties.getProperty("elapsedMillis")));
+    } catch (RuntimeException e) {
+      throw new IOException("Malformed description of backup " + id + ": " + e, e);
+    }
+  }
+
+  /**
+   * Writes the description of a backup.
+   *
+   * @param backupDirectory the directory of the backup
+   * @param backup the backup
+   * @throws IOException if writing fails
+   */
+  private static void write(Path backupDirectory, Backup backup) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("type", backup.type().name());
+    if (backup.base() != null) {
+      properties.setProperty("base", backup.base());
+    }
+    properties.setProperty("created", backup.created().toString());
+    properties.setProperty("users", Integer.toString(backup.users()));
+    properties.setProperty("deleted", Integer.toString(backup.deleted()));
+    properties.setProperty("linkedFiles", Long.toString(backup.linkedFiles()));
+    properties.setProperty("copiedBytes", Long.toString(backup.copiedBytes()));
+    properties.setProperty("elapsedMillis", Long.toString(backup.elapsedMillis()));
+    try (Writer out = Files.newBufferedWriter(backupDirectory.resolve(PROPERTIES),
+        StandardCharsets.UTF_8)) {
+      properties.store(out, "Flashcards backup");
+    }
+  }
+
+  /**
+   * Reads the users an incremental backup records as gone.
+   *
+   * @param backupDirectory the directory of the backup
+   * @return the usernames
+   * @throws IOException if the list cannot be read
+   */
+  private static List<String> readDeleted(Path backupDirectory) throws IOException {
+    Path file = backupDirectory.resolve(DELETED);
+    return Files.exists(file) ? Files.readAllLines(file, StandardCharsets.UTF_8) : List.of();
+  }
+
+  /**
+   * Backs up or restores the users directory of the current working directory.
+   * Takes {@code full}, {@code incremental}, {@code list} or
+   * {@code restore <id> <data directory>}. Backups taken from the command line do not
+   * share locks with a running server, so take them from within the server or while
+   * it is stopped.
+   *
+   * @param args command line arguments
+   * @throws Exception if the command fails
+   */
+  public static void main(String[] args) throws Exception {
+    BackupManager manager = new BackupManager();
+    String command = args.length > 0 ? args[0] : "";
+    switch (command) {
+      case "full", "incremental" -> {
+        Backup backup = command.equals("full") ? manager.full() : manager.incremental();
+        System.out.printf("Backup %s: %d users, %d gone, %d files linked, %d bytes copied, "
+            + "in %d ms%n", backup.id(), backup.users(), backup.deleted(),
+            backup.linkedFiles(), backup.copiedBytes(), backup.elapsedMillis());
+      }
+      case "list" -> {
+        for (Backup backup : manager.list()) {
+          System.out.printf("%s %-11s %6d users%s%n", backup.id(), backup.type(),
+              backup.users(), backup.base() == null ? "" : " on " + backup.base());
+        }
+      }
+      case "restore" -> {
+        if (args.length < 3) {
+          System.err.println("Usage: BackupManager restore <id> <data directory>");
+          return;
+        }
+        int users = manager.restore(args[1], Path.of(args[2]));
+        System.out.printf("Restored %d users into %s%n", users, args[2]);
+      }
+      default -> System.err.println(
+          "Usage: BackupManager full | incremental | list | restore <id> <data directory>");
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package itp.storage;
+
+import itp.storage.UserFileLayout.UserFiles;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preloads the most recently active users into memory, so their first requests after a
+ * restart do not pay for reading and parsing their files.
+ *
+ * <p>Every user's files are checked for their last change on a virtual thread of its
+ * own, and the most recent users are then loaded the same way, a bounded number at a
+ * time so the open files stay within limits. Whatever has not finished when the time
+ * budget runs out is cancelled.
+ *
+ * @see FlashcardPersistent#preloadRecentUsers(int, Duration)
+ */
+public final class CacheWarmer {
+
+  // Loads hold files open, stats do not
+  private static final int MAX_CONCURRENT_LOADS = 64;
+
+  private final UserFileLayout layout;
+  private final Loader loader;
+
+  /**
+   * Loads one user into memory.
+   */
+  @FunctionalInterface
+  public interface Loader {
+
+    /**
+     * Loads a user.
+     *
+     * @param username the user to load
+     * @return true if the user was loaded, false if it does not exist
+     * @throws IOException if the user's files cannot be read
+     */
+    boolean load(String username) throws IOException;
+  }
+
+  /**
+   * The outcome of a warm-up.
+   *
+   * @param scanned the number of users whose last activity was checked
+   * @param selected the number of most recent users chosen to load
+   * @param loaded the number of users loaded
+   * @param failed the number of users whose files could not be read
+   * @param completed whether everything finished within the time budget
+   * @param elapsedMillis how long the warm-up took
+   */
+  public record Result(int scanned, int selected, int loaded, int failed, boolean completed,
+      long elapsedMillis) {}
+
+  /**
+   * A user and the time its files last changed.
+   *
+   * @param username the username
+   * @param lastActive the last modification time in milliseconds, 0 if unknown
+   */
+  private record Activity(String username, long lastActive) {}
+
+  /**
+   * Creates a warmer for the users of a layout.
+   *
+   * @param layout the layout to scan
+   * @param loader loads one user into memory
+   */
+  public CacheWarmer(UserFileLayout layout, Loader loader) {
+    this.layout = layout;
+    this.loader = loader;
+  }
+
+  /**
+   * Loads the most recently active users until all are loaded or the budget runs out.
+   *
+   * @param maxUsers the number of users to load at most
+   * @param budget the time the warm-up may take
+   * @return what was loaded
+   * @throws IOException if the users directory cannot be listed
+   * @throws InterruptedException if interrupted while waiting for the threads
+   */
+  public Result warm(int maxUsers, Duration budget) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    long deadline = start + budget.toNanos();
+    List<String> usernames = List.copyOf(new LinkedHashSet<>(layout.listUsernames()));
+    boolean completed = true;
+    int loaded = 0;
+    int failed = 0;
+    List<Activity> recent = new ArrayList<>();
+
+    try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Callable<Activity>> scans = new ArrayList<>(usernames.size());
+      for (String username : usernames) {
+        scans.add(() -> new Activity(username, lastActive(layout.locate(username))));
+      }
+      for (Future<Activity> scan : threads.invokeAll(scans, remaining(deadline),
+          TimeUnit.NANOSECONDS)) {
+        try {
+          recent.add(scan.get());
+        } catch (CancellationException | ExecutionException e) {
+          completed = false;
+        }
+      }
+      recent.sort(Comparator.comparingLong(Activity::lastActive).reversed());
+      recent = recent.subList(0, Math.min(Math.max(maxUsers, 0), recent.size()));
+
+      Semaphore permits = new Semaphore(MAX_CONCURRENT_LOADS);
+      List<Callable<Boolean>> loads = new ArrayList<>(recent.size());
+      for (Activity activity : recent) {
+        loads.add(() -> {
+          permits.acquire();
+          try {
+            return loader.load(activity.username());
+          } finally {
+            permits.release();
+          }
+        });
+      }
+      for (Future<Boolean> load : threads.invokeAll(loads, remaining(deadline),
+          TimeUnit.NANOSECONDS)) {
+        try {
+          if (load.get()) {
+            loaded++;
+          }
+        } catch (CancellationException e) {
+          completed = false;
+        } catch (ExecutionException e) {
+          failed++;
+        }
+      }
+    }
+    return new Result(usernames.size(), recent.size(), loaded, failed, completed,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Gets the time a user's snapshot or log last changed.
+   *
+   * @param files the user's files
+   * @return the later modification time in milliseconds, 0 if neither file exists
+   * @throws IOException if a file cannot be checked
+   */
+  private static long lastActive(UserFiles files) throws IOException {
+    return Math.max(modified(files.snapshot()), modified(files.log()));
+  }
+
+  /**
+   * Gets the modification time of a file.
+   *
+   * @param file the file
+   * @return the modification time in milliseconds, 0 if the file does not exist
+   * @throws IOException if the file cannot be checked
+   */
+  private static long modified(Path file) throws IOException {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Gets the time left until a deadline.
+   *
+   * @param deadline the deadline in {@link System#nanoTime()} terms
+   * @return the nanoseconds left, never negative
+   */
+  private static long remaining(long deadline) {
+    return Math.max(0, deadline - System.nanoTime());
+  }
+}
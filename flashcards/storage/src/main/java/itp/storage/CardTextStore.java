@@ -0,0 +1,446 @@
+package itp.storage;
+
+import itp.storage.UserLockManager.LockedAction;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content-addressed store of card texts shared by all users of one users directory.
+ *
+ * <p>Each long question or answer is stored once, keyed by the SHA-256 hash of its text,
+ * and deck files refer to it by that hash, see {@link StoredDeck}. Every entry carries
+ * the number of deck files that refer to it. Counts are raised before a deck file
+ * referring to the text is written and lowered only after the file that referred to it
+ * is gone, so a crash can only leave a count too high, never too low. An entry whose
+ * count drops to zero is removed. {@link #collectGarbage(ReferenceScan)} recounts all
+ * references from the deck files, which removes entries leaked by crashes.
+ *
+ * <p>Texts read from the store are handed out as one shared String per hash for as long
+ * as any deck still holds it, so popular cards take heap space once however many users
+ * have them loaded.
+ *
+ * <p>Entries live in a {@link SegmentStore} in the {@code texts} directory next to the
+ * users directory, opened when the first text is written.
+ *
+ * @see StoredDeck
+ * @see FlashcardPersistent#collectCardTexts()
+ */
+public final class CardTextStore {
+
+  /** Texts shorter than this stay inline in the deck file. */
+  public static final int MIN_SHARED_LENGTH = 48;
+
+  // Card texts are small, so segments can be much smaller than for whole users
+  private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+  private static final double COMPACT_RATIO = 0.5;
+  private static final Map<Path, CardTextStore> OPEN = new ConcurrentHashMap<>();
+
+  private final Path directory;
+  // Deck writers share it, a garbage collection takes it briefly to wait for them
+  private final ReentrantReadWriteLock collection = new ReentrantReadWriteLock();
+  // Lets one garbage collection run at a time
+  private final Lock collecting = new ReentrantLock();
+  private final Map<String, InternedText> interned = new ConcurrentHashMap<>();
+  private final ReferenceQueue<String> cleared = new ReferenceQueue<>();
+  private final AtomicLong removed = new AtomicLong();
+  private volatile SegmentStore segments;
+  // Guarded by this, texts are kept at a count of zero while above zero
+  private int removalHolds;
+  // Guarded by this, hashes retained while a garbage collection counts references
+  private Set<String> retainedDuringCollection;
+
+  /**
+   * Statistics of the store.
+   *
+   * @param texts the number of stored texts
+   * @param usedBytes the bytes written to segments, live and dead
+   * @param deadBytes the bytes held by overwritten or removed entries
+   * @param interned the number of texts currently shared on the heap
+   * @param removed the number of entries removed since the store was opened
+   */
+  public record Stats(int texts, long usedBytes, long deadBytes, int interned, long removed) {}
+
+  /**
+   * Counts the references held by all deck files.
+   */
+  @FunctionalInterface
+  public interface ReferenceScan {
+
+    /**
+     * Scans the deck files.
+     *
+     * @return the number of references per hash
+     * @throws IOException if a deck file cannot be read
+     */
+    Map<String, Integer> scan() throws IOException;
+  }
+
+  /**
+   * A weakly held shared text that remembers its hash, so its map entry can be
+   * dropped once the text is collected.
+   */
+  private static final class InternedText extends WeakReference<String> {
+    private final String hash;
+
+    InternedText(String hash, String text, ReferenceQueue<String> queue) {
+      super(text, queue);
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * Creates a store over a directory, which is only created when a text is written.
+   *
+   * @param directory the directory of the segment files
+   */
+  CardTextStore(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Gets the store of a directory, shared by everyone in the process.
+   *
+   * @param directory the directory of the segment files
+   * @return the store
+   */
+  public static CardTextStore at(Path directory) {
+    return OPEN.computeIfAbsent(directory.toAbsolutePath().normalize(), CardTextStore::new);
+  }
+
+  /**
+   * Checks whether a text is long enough to be stored by reference.
+   *
+   * @param text the text, may be null
+   * @return true if the text goes into the store
+   */
+  public static boolean isShared(String text) {
+    return text != null && text.length() >= MIN_SHARED_LENGTH;
+  }
+
+  /**
+   * Computes the key of a text.
+   *
+   * @param text the text
+   * @return the URL-safe Base64 SHA-256 hash of the UTF-8 text
+   */
+  public static String hashOf(String text) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(text.getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Reads a text by its hash.
+   *
+   * @param hash the hash
+   * @return the text, the same instance for every caller while it is in use
+   * @throws NoSuchFileException if there is no such text, which means the deck file
+   *     referring to it was replaced while it was being read
+   * @throws IOException if the store cannot be opened
+   */
+  public String text(String hash) throws IOException {
+    expungeCleared();
+    InternedText reference = interned.get(hash);
+    String text = reference == null ? null : reference.get();
+    if (text != null) {
+      return text;
+    }
+    SegmentStore store = open(false);
+    ByteBuffer entry = store == null ? null : store.get(hash);
+    if (entry == null) {
+      throw new NoSuchFileException(directory.toString(), null, "No card text " + hash);
+    }
+    text = new String(textBytes(entry), StandardCharsets.UTF_8);
+    // Whoever interns first wins, later readers get that instance
+    InternedText mine = new InternedText(hash, text, cleared);
+    InternedText winner = interned.merge(hash, mine,
+        (current, added) -> current.get() == null ? added : current);
+    String shared = winner.get();
+    return shared == null ? text : shared;
+  }
+
+  /**
+   * Gets the number of deck files referring to a text.
+   *
+   * @param hash the hash
+   * @return the reference count, 0 if there is no such text
+   * @throws IOException if the store cannot be opened
+   */
+  public int referenceCount(String hash) throws IOException {
+    SegmentStore store = open(false);
+    ByteBuffer entry = store == null ? null : store.get(hash);
+    return entry == null ? 0 : entry.getInt(0);
+  }
+
+  /**
+   * Adds one reference per occurrence of each text, storing texts not seen before.
+   * Call before writing the deck file that refers to them.
+   *
+   * @param texts the texts
+   * @throws IOException if the store cannot be written
+   */
+  public synchronized void retain(Collection<String> texts) throws IOException {
+    if (texts.isEmpty()) {
+      return;
+    }
+    Map<String, String> byHash = new HashMap<>();
+    Map<String, Integer> added = new HashMap<>();
+    for (String text : texts) {
+      String hash = hashOf(text);
+      byHash.putIfAbsent(hash, text);
+      added.merge(hash, 1, Integer::sum);
+    }
+    SegmentStore store = open(true);
+    if (retainedDuringCollection != null) {
+      retainedDuringCollection.addAll(added.keySet());
+    }
+    for (Map.Entry<String, Integer> entry : added.entrySet()) {
+      ByteBuffer current = store.get(entry.getKey());
+      int count = current == null ? 0 : current.getInt(0);
+      store.put(entry.getKey(), entry(count + entry.getValue(),
+          byHash.get(entry.getKey()).getBytes(StandardCharsets.UTF_8)));
+    }
+  }
+
+  /**
+   * Drops one reference per occurrence of each hash and removes texts no longer
+   * referred to. Call only once the deck file that referred to them is gone.
+   *
+   * @param hashes the hashes
+   * @throws IOException if the store cannot be written
+   */
+  public synchronized void release(Collection<String> hashes) throws IOException {
+    SegmentStore store = open(false);
+    if (hashes.isEmpty() || store == null) {
+      return;
+    }
+    Map<String, Integer> dropped = new HashMap<>();
+    for (String hash : hashes) {
+      dropped.merge(hash, 1, Integer::sum);
+    }
+    for (Map.Entry<String, Integer> entry : dropped.entrySet()) {
+      setCount(store, entry.getKey(), -entry.getValue(), false);
+    }
+  }
+
+  /**
+   * Runs an action that retains texts and writes or deletes deck files, so that a
+   * garbage collection starting meanwhile waits for it to finish.
+   *
+   * @param <T> the result type
+   * @param action the action
+   * @return the result of the action
+   * @throws IOException if the action fails
+   */
+  public <T> T referencing(LockedAction<T> action) throws IOException {
+    Lock lock = collection.readLock();
+    lock.lock();
+    try {
+      return action.run();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Runs an action during which no text is removed and the segments are not compacted,
+   * so the segment files only grow. Texts whose count drops to zero meanwhile are kept
+   * and removed by the next garbage collection. Used to copy the store consistently
+   * while deck writes go on.
+   *
+   * @param <T> the result type
+   * @param action the action
+   * @return the result of the action
+   * @throws IOException if the action fails
+   * @see BackupManager
+   */
+  public <T> T withoutRemovals(LockedAction<T> action) throws IOException {
+    synchronized (this) {
+      removalHolds++;
+    }
+    try {
+      return action.run();
+    } finally {
+      synchronized (this) {
+        removalHolds--;
+      }
+    }
+  }
+
+  /**
+   * Recounts the references of every text and removes the texts no deck file refers
+   * to, then compacts the segments.
+   *
+   * <p>Deck writes go on while the references are counted; the collection only waits
+   * for the writes already running when it starts. Texts retained after that may be
+   * missing from the count, so they are neither removed nor recounted this time. Counts
+   * can only end up too high that way, never too low, and the next collection fixes them.
+   *
+   * @param scan counts the references held by all deck files
+   * @return the number of texts removed
+   * @throws IOException if the deck files cannot be scanned or the store written
+   */
+  public int collectGarbage(ReferenceScan scan) throws IOException {
+    collecting.lock();
+    try {
+      SegmentStore store = open(false);
+      if (store == null) {
+        return 0;
+      }
+      // Every write from here on either finds its deck file counted or is remembered
+      Lock lock = collection.writeLock();
+      lock.lock();
+      try {
+        synchronized (this) {
+          retainedDuringCollection = new HashSet<>();
+        }
+      } finally {
+        lock.unlock();
+      }
+      try {
+        Map<String, Integer> live = scan.scan();
+        int collected = 0;
+        synchronized (this) {
+          for (String hash : store.keys()) {
+            if (!retainedDuringCollection.contains(hash)
+                && setCount(store, hash, live.getOrDefault(hash, 0), true)) {
+              collected++;
+            }
+          }
+          if (removalHolds == 0) {
+            store.compact(COMPACT_RATIO);
+          }
+        }
+        return collected;
+      } finally {
+        synchronized (this) {
+          retainedDuringCollection = null;
+        }
+      }
+    } finally {
+      collecting.unlock();
+    }
+  }
+
+  /**
+   * Gets the current statistics of the store.
+   *
+   * @return a snapshot of the statistics
+   */
+  public Stats stats() {
+    expungeCleared();
+    SegmentStore store = segments;
+    SegmentStore.Stats stored = store == null
+        ? new SegmentStore.Stats(0, 0, 0, 0, 0, 0) : store.stats();
+    return new Stats(stored.records(), stored.usedBytes(), stored.deadBytes(),
+        interned.size(), removed.get());
+  }
+
+  /**
+   * Changes the reference count of a stored text, removing it at zero unless removals
+   * are held.
+   *
+   * @param store the open store
+   * @param hash the hash
+   * @param count the new count, or the change if {@code absolute} is false
+   * @param absolute whether {@code count} replaces the stored count
+   * @return true if the text was removed
+   * @throws IOException if the store cannot be written
+   */
+  private boolean setCount(SegmentStore store, String hash, int count, boolean absolute)
+      throws IOException {
+    ByteBuffer current = store.get(hash);
+    if (current == null) {
+      return false;
+    }
+    int stored = current.getInt(0);
+    int updated = Math.max(0, absolute ? count : stored + count);
+    if (updated == 0 && removalHolds == 0) {
+      store.remove(hash);
+      removed.incrementAndGet();
+      return true;
+    }
+    if (updated != stored) {
+      store.put(hash, entry(updated, textBytes(current)));
+    }
+    return false;
+  }
+
+  /**
+   * Opens the segments on first use.
+   *
+   * @param create whether to create the directory if there is none yet
+   * @return the segments, or null if there are none and {@code create} is false
+   * @throws IOException if the segments cannot be opened
+   */
+  private SegmentStore open(boolean create) throws IOException {
+    SegmentStore store = segments;
+    if (store != null) {
+      return store;
+    }
+    synchronized (this) {
+      if (segments == null && (create || Files.isDirectory(directory))) {
+        segments = new SegmentStore(directory, SEGMENT_SIZE);
+      }
+      return segments;
+    }
+  }
+
+  /**
+   * Drops the map entries of shared texts that were garbage collected.
+   */
+  private void expungeCleared() {
+    for (Reference<? extends String> reference = cleared.poll(); reference != null;
+        reference = cleared.poll()) {
+      InternedText text = (InternedText) reference;
+      interned.remove(text.hash, text);
+    }
+  }
+
+  /**
+   * Builds a stored entry.
+   *
+   * @param count the reference count
+   * @param text the UTF-8 text
+   * @return the entry
+   */
+  private static byte[] entry(int count, byte[] text) {
+    return ByteBuffer.allocate(Integer.BYTES + text.length).putInt(count).put(text).array();
+  }
+
+  /**
+   * Copies the text out of a stored entry.
+   *
+   * @param entry the entry
+   * @return the UTF-8 text
+   */
+  private static byte[] textBytes(ByteBuffer entry) {
+    byte[] text = new byte[entry.remaining() - Integer.BYTES];
+    entry.get(entry.position() + Integer.BYTES, text);
+    return text;
+  }
+}
@@ -0,0 +1,176 @@
+package itp.storage;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Journal of the users whose files changed since the last backup, so an incremental
+ * backup knows what to copy without scanning every user.
+ *
+ * <p>The first time a user's files change after a backup, the user is remembered in
+ * memory and queued for {@code changes.journal} in the backup directory. Later changes
+ * are answered from memory, so recording costs writers no I/O. The queue is written out
+ * at the start of every {@link GroupCommitSync} flush, before the files of that flush
+ * are forced, and on shutdown. Nothing is recorded until the backup directory exists,
+ * that is before the first backup.
+ *
+ * <p>A backup moves the journal aside as {@code changes.journal.pending} and deletes it
+ * once the backup is complete. A pending journal left by a failed backup is merged into
+ * the next one, so no change is lost. The journal is not synced, and users still queued
+ * are lost if the process dies, so take a full backup after a crash.
+ *
+ * @see BackupManager
+ */
+final class ChangeJournal implements Flushable {
+
+  private static final Map<Path, ChangeJournal> OPEN = new ConcurrentHashMap<>();
+  private static final String FILE = "changes.journal";
+  private static final String PENDING = FILE + ".pending";
+
+  private final Path directory;
+  private final Set<String> changed = ConcurrentHashMap.newKeySet();
+  private volatile boolean active;
+  // Guarded by this
+  private final List<String> unwritten = new ArrayList<>();
+  private FileChannel channel;
+
+  /**
+   * Creates a journal in a backup directory.
+   *
+   * @param directory the backup directory
+   */
+  private ChangeJournal(Path directory) {
+    this.directory = directory;
+    this.active = Files.isDirectory(directory);
+  }
+
+  /**
+   * Gets the journal of a backup directory, shared by everyone in the process.
+   *
+   * @param directory the backup directory
+   * @return the journal
+   */
+  static ChangeJournal at(Path directory) {
+    return OPEN.computeIfAbsent(directory.toAbsolutePath().normalize(), ChangeJournal::new);
+  }
+
+  /**
+   * Records that a user's files are about to change. Call before changing them, so a
+   * crash in between can only record a change too many.
+   *
+   * @param username the user
+   */
+  void record(String username) {
+    if (!active || changed.contains(username)) {
+      return;
+    }
+    synchronized (this) {
+      if (changed.add(username)) {
+        unwritten.add(username);
+      }
+    }
+  }
+
+  /**
+   * Appends the users recorded since the last flush to the journal file. If that fails,
+   * they stay queued for the next flush.
+   *
+   * @throws IOException if the journal cannot be written
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (unwritten.isEmpty()) {
+      return;
+    }
+    if (channel == null) {
+      channel = FileChannel.open(directory.resolve(FILE), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    StringBuilder lines = new StringBuilder();
+    for (String username : unwritten) {
+      lines.append(username).append('\n');
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    unwritten.clear();
+  }
+
+  /**
+   * Starts a backup: switches recording on and hands over the users changed since the
+   * last completed backup. Changes from here on go into a fresh journal.
+   *
+   * @return the changed users, including those of a backup that did not complete
+   * @throws IOException if the journal cannot be moved aside
+   */
+  synchronized Set<String> startBackup() throws IOException {
+    Files.createDirectories(directory);
+    active = true;
+    // Users still queued are handed over from memory
+    unwritten.clear();
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+    Path current = directory.resolve(FILE);
+    Path pending = directory.resolve(PENDING);
+    Set<String> users = new HashSet<>(changed);
+    changed.clear();
+    if (Files.exists(current)) {
+      if (Files.exists(pending)) {
+        // Keep the users of the backup that failed as well
+        Files.write(pending, Files.readAllBytes(current), StandardOpenOption.APPEND);
+        Files.delete(current);
+      } else {
+        Files.move(current, pending, StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+    users.addAll(read(pending));
+    return users;
+  }
+
+  /**
+   * Completes a backup, forgetting the users it covered.
+   *
+   * @throws IOException if the pending journal cannot be deleted
+   */
+  synchronized void finishBackup() throws IOException {
+    Files.deleteIfExists(directory.resolve(PENDING));
+  }
+
+  /**
+   * Reads the users listed in a journal file.
+   *
+   * @param file the file
+   * @return the users, empty if there is no such file
+   * @throws IOException if the file cannot be read
+   */
+  private static Set<String> read(Path file) throws IOException {
+    Set<String> users = new HashSet<>();
+    try {
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        if (!line.isEmpty()) {
+          users.add(line);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing recorded yet
+    }
+    return users;
+  }
+}
@@ -0,0 +1,203 @@
+package itp.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compressed archive of users moved out of the users directory for being inactive.
+ *
+ * <p>Each archived user is a single file {@code <username>.cold} in the same shard
+ * directories as the users directory, holding the credentials, every deck with its
+ * card texts inline and the log sequence. Files are written in the deflated Smile
+ * format to a temporary file first and then renamed into place, so a reader sees
+ * either the whole archive or none.
+ *
+ * <p>The archive lives in the {@code cold} directory next to the users directory.
+ * Callers hold the user's lock.
+ *
+ * @see UserTiering
+ */
+final class ColdArchive {
+
+  private static final String SUFFIX = ".cold";
+
+  private final Path directory;
+
+  /**
+   * Creates an archive in a directory.
+   *
+   * @param directory the archive directory, created on the first write
+   */
+  ColdArchive(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Gets the archive that belongs to a users directory.
+   *
+   * @param layout the layout of the users directory
+   * @return the archive in the {@code cold} directory next to it
+   */
+  static ColdArchive of(UserFileLayout layout) {
+    return new ColdArchive(layout.root().resolveSibling("cold"));
+  }
+
+  /**
+   * Gets the archive directory.
+   *
+   * @return the directory
+   */
+  Path directory() {
+    return directory;
+  }
+
+  /**
+   * Gets the archive file of a user.
+   *
+   * @param username the user
+   * @return the file, which need not exist
+   */
+  Path fileOf(String username) {
+    return shardOf(username).resolve(username + SUFFIX);
+  }
+
+  /**
+   * Gets the shard directory that holds the archive file of a user.
+   *
+   * @param username the user
+   * @return the directory, which need not exist
+   */
+  Path shardOf(String username) {
+    return directory.resolve(UserFileLayout.shardOf(username));
+  }
+
+  /**
+   * Checks whether a user is archived.
+   *
+   * @param username the user
+   * @return true if the user has an archive file
+   */
+  boolean contains(String username) {
+    return Files.exists(fileOf(username));
+  }
+
+  /**
+   * Archives a user's data, replacing an earlier archive of the same user.
+   *
+   * @param userData the complete data, with the log already applied
+   * @return the size of the archive file in bytes
+   * @throws IOException if writing fails
+   */
+  long write(StoredUserData userData) throws IOException {
+    String username = userData.getUser().getUsername();
+    Path shard = Files.createDirectories(shardOf(username));
+    Path file = shard.resolve(username + SUFFIX);
+    Path temp = Files.createTempFile(shard, username + "-", ".tmp");
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+        UserDataCodecs.SMILE_DEFLATE.write(out, userData);
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    return Files.size(file);
+  }
+
+  /**
+   * Reads an archived user.
+   *
+   * @param username the user
+   * @return the data, or null if the user is not archived
+   * @throws IOException if the archive cannot be read
+   */
+  StoredUserData read(String username) throws IOException {
+    BufferedInputStream in;
+    try {
+      in = UserDataCodecs.buffered(Files.newInputStream(fileOf(username)));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    try (in) {
+      return UserDataCodecs.detect(in).read(in, StoredUserData.class);
+    }
+  }
+
+  /**
+   * Removes a user from the archive.
+   *
+   * @param username the user
+   * @throws IOException if the file cannot be deleted
+   */
+  void delete(String username) throws IOException {
+    Files.deleteIfExists(fileOf(username));
+  }
+
+  /**
+   * Lists the archived users.
+   *
+   * @return the usernames
+   * @throws IOException if the archive cannot be listed
+   */
+  List<String> listUsernames() throws IOException {
+    List<String> usernames = new ArrayList<>();
+    for (Path file : files()) {
+      String name = file.toFile().getName();
+      usernames.add(name.substring(0, name.length() - SUFFIX.length()));
+    }
+    return usernames;
+  }
+
+  /**
+   * Adds up the size of the archive files.
+   *
+   * @return the size in bytes
+   * @throws IOException if the archive cannot be listed
+   */
+  long sizeInBytes() throws IOException {
+    long bytes = 0;
+    for (Path file : files()) {
+      try {
+        bytes += Files.size(file);
+      } catch (NoSuchFileException e) {
+        // Rehydrated while counting
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Lists the archive files in every shard directory.
+   *
+   * @return the files
+   * @throws IOException if the archive cannot be listed
+   */
+  private List<Path> files() throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.find(directory, 3,
+        (file, attributes) -> attributes.isRegularFile()
+            && file.toFile().getName().endsWith(SUFFIX))) {
+      return files.toList();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned preset dictionaries for the compressed storage formats.
+ *
+ * <p>Each dictionary is a file {@code dictionary-<id>.bin} in the {@code dictionaries}
+ * directory next to the users directory, or in {@code flashcards.storage.dictionaryPath}.
+ * Ids count up from 1 and a dictionary never changes once written, since every
+ * compressed file records the id of the dictionary it was written with and needs
+ * exactly that dictionary to be read back. Id 0 stands for no dictionary.
+ *
+ * <p>New files are written with the dictionary in {@code flashcards.storage.dictionary},
+ * or with the newest one if none is set. Dictionaries are added with
+ * {@link DictionaryTrainer}; a process picks up a dictionary added by another process
+ * only after a restart.
+ *
+ * @see DeflateUserDataCodec
+ * @see DictionaryTrainer
+ */
+public final class CompressionDictionaries {
+
+  /** The id recorded by files compressed without a dictionary. */
+  public static final int NONE = 0;
+
+  private static final Map<Path, CompressionDictionaries> OPEN = new ConcurrentHashMap<>();
+  private static final String PREFIX = "dictionary-";
+  private static final String SUFFIX = ".bin";
+
+  private final Path directory;
+  private final Map<Integer, byte[]> loaded = new ConcurrentHashMap<>();
+  private volatile int latest = -1;
+
+  /**
+   * Creates a registry over a directory, which is only created when a dictionary is added.
+   *
+   * @param directory the directory of the dictionary files
+   */
+  private CompressionDictionaries(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Gets the registry of a directory, shared by everyone in the process.
+   *
+   * @param directory the directory of the dictionary files
+   * @return the registry
+   */
+  public static CompressionDictionaries at(Path directory) {
+    return OPEN.computeIfAbsent(directory.toAbsolutePath().normalize(),
+        CompressionDictionaries::new);
+  }
+
+  /**
+   * Gets the registry of the configured directory.
+   *
+   * @return the registry
+   */
+  public static CompressionDictionaries current() {
+    return at(directoryPath());
+  }
+
+  /**
+   * Gets the dictionary directory, from {@code flashcards.storage.dictionaryPath}.
+   *
+   * @return the dictionary directory, next to the users directory by default
+   */
+  public static Path directoryPath() {
+    return directoryOf(UserFileLayout.current());
+  }
+
+  /**
+   * Gets the dictionary directory of a users directory, from
+   * {@code flashcards.storage.dictionaryPath}.
+   *
+   * @param layout the layout of the users directory
+   * @return the dictionary directory, next to the users directory by default
+   */
+  public static Path directoryOf(UserFileLayout layout) {
+    String configured = System.getProperty("flashcards.storage.dictionaryPath");
+    if (configured != null) {
+      return Path.of(configured);
+    }
+    return layout.root().resolveSibling("dictionaries");
+  }
+
+  /**
+   * Gets a dictionary by id, reading it from disk on first use.
+   *
+   * @param id the id recorded in a compressed file
+   * @return the dictionary, null for {@link #NONE}
+   * @throws IOException if the dictionary is missing or cannot be read
+   */
+  byte[] get(int id) throws IOException {
+    if (id == NONE) {
+      return null;
+    }
+    byte[] dictionary = loaded.get(id);
+    if (dictionary == null) {
+      try {
+        dictionary = Files.readAllBytes(fileOf(id));
+      } catch (NoSuchFileException e) {
+        throw new IOException("Missing compression dictionary " + id + " in " + directory, e);
+      }
+      byte[] racing = loaded.putIfAbsent(id, dictionary);
+      if (racing != null) {
+        dictionary = racing;
+      }
+    }
+    return dictionary;
+  }
+
+  /**
+   * Gets the id new files are written with.
+   *
+   * @return the configured id, the newest one if none is configured
+   * @throws IOException if the directory cannot be listed
+   */
+  int writeId() throws IOException {
+    Integer configured = Integer.getInteger("flashcards.storage.dictionary");
+    return configured != null ? configured : latest();
+  }
+
+  /**
+   * Gets the id of the newest dictionary.
+   *
+   * @return the highest id, {@link #NONE} if there is no dictionary yet
+   * @throws IOException if the directory cannot be listed
+   */
+  public int latest() throws IOException {
+    int current = latest;
+    if (current < 0) {
+      List<Integer> ids = ids();
+      current = ids.isEmpty() ? NONE : ids.get(ids.size() - 1);
+      latest = current;
+    }
+    return current;
+  }
+
+  /**
+   * Lists the ids of all dictionaries.
+   *
+   * @return the ids in ascending order
+   * @throws IOException if the directory cannot be listed
+   */
+  public List<Integer> ids() throws IOException {
+    List<Integer> ids = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return ids;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+        PREFIX + "*" + SUFFIX)) {
+      for (Path file : files) {
+        String name = file.toFile().getName();
+        try {
+          ids.add(Integer.parseInt(name.substring(PREFIX.length(),
+              name.length() - SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // Not one of ours
+        }
+      }
+    }
+    ids.sort(null);
+    return ids;
+  }
+
+  /**
+   * Stores a new dictionary under the next free id, which new files are then written with.
+   * The file is written to a temporary file first and renamed, so a dictionary is never
+   * seen half written.
+   *
+   * @param dictionary the dictionary content
+   * @return the id of the new dictionary
+   * @throws IOException if the dictionary cannot be written
+   */
+  public synchronized int add(byte[] dictionary) throws IOException {
+    int id = latest() + 1;
+    Files.createDirectories(directory);
+    Path temp = directory.resolve(PREFIX + id + SUFFIX + ".tmp");
+    Files.write(temp, dictionary);
+    Files.move(temp, fileOf(id), StandardCopyOption.ATOMIC_MOVE);
+    loaded.put(id, dictionary.clone());
+    latest = id;
+    return id;
+  }
+
+  /**
+   * Gets the file of a dictionary.
+   *
+   * @param id the id
+   * @return the file
+   */
+  private Path fileOf(int id) {
+    return directory.resolve(PREFIX + id + SUFFIX);
+  }
+}
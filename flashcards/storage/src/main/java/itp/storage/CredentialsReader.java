@@ -0,0 +1,98 @@
+package itp.storage;
+
+import app.User;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Reads only the credentials from a user's snapshot file with a streaming parser.
+ *
+ * <p>Login and existence checks only need the unwrapped {@code username} and
+ * {@code password} fields. This reader stops as soon as both are found and skips
+ * any other value token by token, so decks and cards are never turned into objects.
+ * Snapshots write the credentials first, which makes the cost independent of the
+ * size of the user's library. Works the same for every snapshot format.
+ *
+ * @see StoredUserData
+ * @see FlashcardPersistent#readUserData(String)
+ */
+public class CredentialsReader {
+
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Creates a credentials reader.
+   *
+   * @param objectMapper the mapper used to build the returned user
+   */
+  public CredentialsReader(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper.copy();
+  }
+
+  /**
+   * Reads the credentials of a snapshot file.
+   * A field that is missing from the file is left null in the returned user.
+   *
+   * @param file the snapshot file
+   * @return the stored user with its encoded password, or null if the file does not exist
+   * @throws IOException if the file cannot be read or is not a JSON object
+   */
+  public User read(Path file) throws IOException {
+    String username = null;
+    String password = null;
+    BufferedInputStream in;
+    try {
+      in = UserDataCodecs.buffered(StorageMetrics.meter(Files.newInputStream(file)));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    try (in; JsonParser parser = UserDataCodecs.detect(in).createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Expected a JSON object in " + file.getFileName());
+      }
+      while ((username == null || password == null)
+          && parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("username".equals(field)) {
+          username = textOf(parser, value);
+        } else if ("password".equals(field)) {
+          password = textOf(parser, value);
+        } else {
+          // Walks past nested decks without building them
+          parser.skipChildren();
+        }
+      }
+    }
+
+    ObjectNode node = objectMapper.createObjectNode();
+    node.put("username", username);
+    node.put("password", password);
+    return objectMapper.treeToValue(node, User.class);
+  }
+
+  /**
+   * Reads a string value, treating JSON null as missing.
+   *
+   * @param parser the parser positioned on the value
+   * @param value the current value token
+   * @return the text, or null for a JSON null
+   * @throws IOException if the value is not a string
+   */
+  private static String textOf(JsonParser parser, JsonToken value) throws IOException {
+    if (value == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (value != JsonToken.VALUE_STRING) {
+      throw new IOException("Expected a string for '" + parser.currentName() + "'");
+    }
+    return parser.getText();
+  }
+}
@@ -0,0 +1,251 @@
+package itp.storage;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * A single change to a user's decks, recorded as one line in the user's operation log.
+ * Replaying all operations of a log on top of the last snapshot gives the current state,
+ * so a mutation only has to write the change itself instead of the whole user file.
+ *
+ * @see OperationLog
+ */
+@JsonPropertyOrder({"seq", "type", "deck", "id", "question", "answer", "index"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeckOperation {
+
+  /**
+   * The kinds of operations that can be logged.
+   */
+  public enum Type {
+    CREATE_DECK,
+    DELETE_DECK,
+    ADD_CARD,
+    REMOVE_CARD,
+    UPDATE_CARD
+  }
+
+  @JsonProperty("seq")
+  private long sequence;
+
+  @JsonProperty("type")
+  private Type type;
+
+  @JsonProperty("deck")
+  private String deckName;
+
+  // Null for cards added before cards had ids, which get the next free id on replay
+  @JsonProperty("id")
+  private Integer cardId;
+
+  @JsonProperty("question")
+  private String question;
+
+  @JsonProperty("answer")
+  private String answer;
+
+  @JsonProperty("index")
+  private Integer index;
+
+  /**
+   * Default constructor for JSON deserialization.
+   */
+  public DeckOperation() {
+  }
+
+  private DeckOperation(Type type, String deckName, String question, String answer,
+      Integer index) {
+    this.type = type;
+    this.deckName = deckName;
+    this.question = question;
+    this.answer = answer;
+    this.index = index;
+  }
+
+  private DeckOperation(Type type, String deckName, int cardId, String question,
+      String answer) {
+    this(type, deckName, question, answer, null);
+    this.cardId = cardId;
+  }
+
+  /**
+   * Creates an operation that adds an empty deck.
+   *
+   * @param deckName the name of the new deck
+   * @return the operation
+   */
+  public static DeckOperation createDeck(String deckName) {
+    return new DeckOperation(Type.CREATE_DECK, deckName, null, null, null);
+  }
+
+  /**
+   * Creates an operation that removes a deck.
+   *
+   * @param deckName the name of the deck to remove
+   * @return the operation
+   */
+  public static DeckOperation deleteDeck(String deckName) {
+    return new DeckOperation(Type.DELETE_DECK, deckName, null, null, null);
+  }
+
+  /**
+   * Creates an operation that appends a card to a deck.
+   *
+   * @param deckName the name of the deck
+   * @param question the question text
+   * @param answer the answer text
+   * @return the operation
+   */
+  public static DeckOperation addCard(String deckName, String question, String answer) {
+    return new DeckOperation(Type.ADD_CARD, deckName, question, answer, null);
+  }
+
+  /**
+   * Creates an operation that appends a card with a known id to a deck, so that
+   * replaying the log gives the card the same id.
+   *
+   * @param deckName the name of the deck
+   * @param question the question text
+   * @param answer the answer text
+   * @param cardId the id the deck gave the card
+   * @return the operation
+   */
+  public static DeckOperation addCard(String deckName, String question, String answer,
+      int cardId) {
+    return new DeckOperation(Type.ADD_CARD, deckName, cardId, question, answer);
+  }
+
+  /**
+   * Creates an operation that changes the texts of a card.
+   *
+   * @param deckName the name of the deck
+   * @param cardId the id of the card
+   * @param question the new question text
+   * @param answer the new answer text
+   * @return the operation
+   */
+  public static DeckOperation updateCard(String deckName, int cardId, String question,
+      String answer) {
+    return new DeckOperation(Type.UPDATE_CARD, deckName, cardId, question, answer);
+  }
+
+  /**
+   * Creates an operation that removes a card from a deck.
+   *
+   * @param deckName the name of the deck
+   * @param index the 0-based index of the card to remove
+   * @return the operation
+   */
+  public static DeckOperation removeCard(String deckName, int index) {
+    return new DeckOperation(Type.REMOVE_CARD, deckName, null, null, index);
+  }
+
+  /**
+   * Applies this operation to a deck manager.
+   *
+   * @param manager the deck manager to change
+   * @throws IllegalArgumentException if the operation does not fit the current state,
+   *     e.g. the deck does not exist or the card index is out of range
+   */
+  public void applyTo(FlashcardDeckManager manager) {
+    switch (type) {
+      case CREATE_DECK -> manager.addDeck(new FlashcardDeck(deckName));
+      case DELETE_DECK -> manager.removeDeck(findDeck(manager));
+      case ADD_CARD -> {
+        Flashcard card = new Flashcard(question, answer);
+        if (cardId != null) {
+          card.setId(cardId);
+        }
+        findDeck(manager).addFlashcard(card);
+      }
+      case REMOVE_CARD -> {
+        if (index == null || !findDeck(manager).removeFlashcardByIndex(index)) {
+          throw new IllegalArgumentException("Card index out of range: " + index);
+        }
+      }
+      case UPDATE_CARD -> {
+        Flashcard card = cardId == null ? null : findDeck(manager).getFlashcardById(cardId);
+        if (card == null) {
+          throw new IllegalArgumentException("Card not found: " + cardId);
+        }
+        card.setQuestion(question);
+        card.setAnswer(answer);
+      }
+      default -> throw new IllegalArgumentException("Unknown operation: " + type);
+    }
+  }
+
+  /**
+   * Finds the deck this operation targets.
+   *
+   * @param manager the deck manager to search
+   * @return the deck
+   * @throws IllegalArgumentException if there is no deck with the name
+   */
+  private FlashcardDeck findDeck(FlashcardDeckManager manager) {
+    FlashcardDeck deck = manager.getDeck(deckName);
+    if (deck == null) {
+      throw new IllegalArgumentException("Deck not found: " + deckName);
+    }
+    return deck;
+  }
+
+  /**
+   * Gets the position of this operation in the user's log.
+   *
+   * @return the sequence number
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Sets the position of this operation in the user's log.
+   *
+   * @param sequence the sequence number
+   */
+  void setSequence(long sequence) {
+    this.sequence = sequence;
+  }
+
+  /**
+   * Gets the operation type.
+   *
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Gets the name of the deck the operation targets.
+   *
+   * @return the deck name
+   */
+  public String getDeckName() {
+    return deckName;
+  }
+
+  /**
+   * Gets the id of the card an {@link Type#ADD_CARD} or {@link Type#UPDATE_CARD}
+   * operation targets.
+   *
+   * @return the card id, or null for other operations and cards added without one
+   */
+  Integer getCardId() {
+    return cardId;
+  }
+
+  /**
+   * Gets the index of the card a {@link Type#REMOVE_CARD} operation removes.
+   *
+   * @return the 0-based card index, or null for other operations
+   */
+  Integer getIndex() {
+    return index;
+  }
+}
@@ -0,0 +1,266 @@
+package itp.storage;
+
+import itp.storage.UserFileLayout.UserFiles;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Trains a preset dictionary for the compressed storage formats from the existing users.
+ *
+ * <p>The files of a sample of users are decoded and encoded again in the configured
+ * format without compression, so the dictionary matches the bytes that are compressed.
+ * Every word-aligned fragment of each user's files is counted once per user, and the
+ * fragments shared by the most users go into the dictionary, the most common ones last
+ * since Deflate reaches recent bytes with the shortest distances. Fragments found with
+ * only one user are never used, so nothing specific to a single user, such as a
+ * password hash, ends up in the dictionary.
+ *
+ * <p>The dictionary is stored as a new version in {@link CompressionDictionaries}, and
+ * files written from then on use it. Files already written keep the dictionary they
+ * were written with until they are next rewritten.
+ *
+ * @see CompressionDictionaries
+ * @see DeflateUserDataCodec
+ */
+public final class DictionaryTrainer {
+
+  /** The largest useful dictionary, the size of the Deflate window. */
+  public static final int MAX_SIZE = 32 * 1024;
+
+  private static final int FRAGMENT_LENGTH = 24;
+  private static final int MIN_USERS = 2;
+  // Bounds the memory of the fragment counts for users with huge libraries
+  private static final int MAX_SAMPLE_BYTES = 256 * 1024;
+
+  private final UserFileLayout layout;
+  private final UserDataCodec format;
+
+  /**
+   * The outcome of training.
+   *
+   * @param samples the number of users sampled
+   * @param sampleBytes the uncompressed size of the samples
+   * @param dictionaryId the id the dictionary was stored under
+   * @param dictionarySize the size of the dictionary
+   * @param plainBytes the size of the samples compressed without a dictionary
+   * @param trainedBytes the size of the samples compressed with the new dictionary
+   * @param elapsedMillis the time training took
+   */
+  public record Result(int samples, long sampleBytes, int dictionaryId, int dictionarySize,
+      long plainBytes, long trainedBytes, long elapsedMillis) {}
+
+  /**
+   * Creates a trainer for the users directory of the current working directory.
+   */
+  public DictionaryTrainer() {
+    this(UserFileLayout.current());
+  }
+
+  /**
+   * Creates a trainer for a users directory.
+   *
+   * @param layout the layout of the users directory to sample
+   */
+  public DictionaryTrainer(UserFileLayout layout) {
+    UserDataCodec configured = UserDataCodecs.configured();
+    this.layout = layout;
+    this.format = configured instanceof DeflateUserDataCodec deflate ? deflate.inner()
+        : configured;
+  }
+
+  /**
+   * Trains a dictionary from a sample of users and stores it as a new version.
+   *
+   * @param maxUsers the number of users to sample at most
+   * @return the outcome, with a dictionary id of {@link CompressionDictionaries#NONE}
+   *     if the users had nothing in common to train on
+   * @throws IOException if the users directory cannot be listed or the dictionary
+   *     cannot be stored
+   */
+  public Result train(int maxUsers) throws IOException {
+    final long start = System.nanoTime();
+    List<byte[]> samples = new ArrayList<>();
+    long sampleBytes = 0;
+    for (String username : new LinkedHashSet<>(layout.listUsernames())) {
+      if (samples.size() >= maxUsers) {
+        break;
+      }
+      byte[] sample = sampleOf(layout.locate(username));
+      if (sample.length > 0) {
+        samples.add(sample);
+        sampleBytes += sample.length;
+      }
+    }
+
+    byte[] dictionary = train(samples, MAX_SIZE);
+    int id = CompressionDictionaries.NONE;
+    if (dictionary.length > 0) {
+      id = CompressionDictionaries.at(CompressionDictionaries.directoryOf(layout)).add(dictionary);
+    }
+    long plainBytes = 0;
+    long trainedBytes = 0;
+    for (byte[] sample : samples) {
+      plainBytes += compressedSize(sample, null);
+      trainedBytes += compressedSize(sample, dictionary.length > 0 ? dictionary : null);
+    }
+    return new Result(samples.size(), sampleBytes, id, dictionary.length, plainBytes,
+        trainedBytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Builds a dictionary from the fragments most samples have in common.
+   *
+   * @param samples the samples, one per user
+   * @param maxSize the size of the dictionary at most
+   * @return the dictionary, empty if no fragment occurs in two samples
+   */
+  static byte[] train(List<byte[]> samples, int maxSize) {
+    Map<String, Integer> users = new HashMap<>();
+    for (byte[] sample : samples) {
+      // Latin-1 maps every byte to one char, so fragments stay byte-exact
+      String text = new String(sample, 0, Math.min(sample.length, MAX_SAMPLE_BYTES),
+          StandardCharsets.ISO_8859_1);
+      Set<String> seen = new HashSet<>();
+      for (int i = 0; i + FRAGMENT_LENGTH <= text.length(); i++) {
+        if (startsWord(text, i)) {
+          seen.add(text.substring(i, i + FRAGMENT_LENGTH));
+        }
+      }
+      for (String fragment : seen) {
+        users.merge(fragment, 1, Integer::sum);
+      }
+    }
+
+    List<Map.Entry<String, Integer>> common = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : users.entrySet()) {
+      if (entry.getValue() >= MIN_USERS) {
+        common.add(entry);
+      }
+    }
+    common.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+        .thenComparing(Map.Entry.comparingByKey()));
+    List<String> chosen = new ArrayList<>(common.subList(0,
+        Math.min(common.size(), maxSize / FRAGMENT_LENGTH)).stream()
+        .map(Map.Entry::getKey).toList());
+    chosen.sort(Comparator.comparingInt(users::get));
+
+    StringBuilder dictionary = new StringBuilder(chosen.size() * FRAGMENT_LENGTH);
+    chosen.forEach(dictionary::append);
+    return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Checks whether a word, a number or a quoted string starts at a position.
+   *
+   * @param text the sample
+   * @param index the position
+   * @return true if the character before is no letter or digit and this one is
+   */
+  private static boolean startsWord(String text, int index) {
+    char current = text.charAt(index);
+    if (!Character.isLetterOrDigit(current) && current != '"') {
+      return false;
+    }
+    return index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1));
+  }
+
+  /**
+   * Encodes a user's manifest and decks again without compression.
+   *
+   * @param files the user's files
+   * @return the encoded files one after another, empty if they could not be read
+   */
+  private byte[] sampleOf(UserFiles files) {
+    ByteArrayOutputStream sample = new ByteArrayOutputStream();
+    try {
+      UserManifest manifest = read(files, null, UserManifest.class);
+      format.write(sample, manifest);
+      if (manifest.getDecks() != null) {
+        for (UserManifest.DeckEntry entry : manifest.getDecks()) {
+          format.write(sample, read(files, entry.file(), StoredDeck.class));
+        }
+      }
+    } catch (IOException e) {
+      // Changed or removed while sampling, the others are enough
+      return new byte[0];
+    }
+    return sample.toByteArray();
+  }
+
+  /**
+   * Reads one of a user's files in whichever format it was written.
+   *
+   * @param <T> the type of the content
+   * @param files the user's files
+   * @param deckFile the deck file, null for the manifest
+   * @param type the class of the content
+   * @return the content
+   * @throws IOException if the file cannot be read
+   */
+  private static <T> T read(UserFiles files, String deckFile, Class<T> type)
+      throws IOException {
+    try (BufferedInputStream in = UserDataCodecs.buffered(Files.newInputStream(
+        deckFile == null ? files.snapshot() : files.deck(deckFile)))) {
+      return UserDataCodecs.detect(in).read(in, type);
+    }
+  }
+
+  /**
+   * Compresses a sample to measure the effect of a dictionary.
+   *
+   * @param sample the sample
+   * @param dictionary the dictionary, null for none
+   * @return the compressed size
+   */
+  private static long compressedSize(byte[] sample, byte[] dictionary) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    try {
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(sample);
+      deflater.finish();
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        deflater.deflate(buffer);
+      }
+      return deflater.getBytesWritten();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Trains a dictionary for the users directory of the current working directory.
+   * Takes the number of users to sample as optional argument, 1000 by default.
+   *
+   * @param args command line arguments
+   * @throws Exception if training fails
+   */
+  public static void main(String[] args) throws Exception {
+    int maxUsers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    Result result = new DictionaryTrainer().train(maxUsers);
+    if (result.dictionaryId() == CompressionDictionaries.NONE) {
+      System.out.printf("Sampled %d users, nothing in common to train on%n", result.samples());
+      return;
+    }
+    System.out.printf("Stored dictionary %d (%d bytes) trained on %d users (%d bytes) in %d ms%n",
+        result.dictionaryId(), result.dictionarySize(), result.samples(), result.sampleBytes(),
+        result.elapsedMillis());
+    System.out.printf("Compressed sample: %d bytes without dictionary, %d bytes with it%n",
+        result.plainBytes(), result.trainedBytes());
+  }
+}
@@ -1,81 +1,615 @@
 package itp.storage;
 
+import app.FlashcardDeck;
 import app.FlashcardDeckManager;
 import app.User;
 import app.UserData;
-import app.UserPersistence;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.File;
+import itp.storage.StorageMetrics.Operation;
+import itp.storage.UserDataCache.FileStamp;
+import itp.storage.UserFileLayout.UserFiles;
+import itp.storage.UserManifest.DeckEntry;
+import itp.storage.WriteBehindBuffer.PendingWrite;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Handles saving and loading user data (credentials and flashcards) to/from JSON files.
  * Implements UserPersistence interface and ensures user credentials are preserved 
  * when updating flashcard data.
  *
+ * <p>Each user has a snapshot file ({@code <username>.json}) and an optional operation
+ * log ({@code <username>.log}). Single deck and card changes are appended to the log,
+ * reads replay it on top of the snapshot, and a background compactor folds it back
+ * into the snapshot once it grows past a threshold. Both files live in hash-sharded
+ * directories, see {@link UserFileLayout}.
+ *
+ * <p>The snapshot itself is a small manifest with the credentials and an index of deck
+ * files, one file per deck, see {@link UserManifest}. Reads and changes that concern
+ * one deck only load that deck, and a snapshot only rewrites the decks that changed,
+ * so their cost depends on the size of one deck rather than the whole library.
+ *
+ * <p>Snapshots are written to a temporary file and renamed over the old one, so a crash
+ * never leaves a half-written snapshot behind. Snapshots and log appends are made durable
+ * through a group-commit scheduler that batches the fsync calls of concurrent writers.
+ *
+ * <p>Long card texts are kept once in a {@link CardTextStore} shared by all users, and
+ * deck files refer to them by hash, see {@link StoredDeck}.
+ *
+ * <p>Snapshots are written in the format set by {@code flashcards.storage.format}, JSON
+ * by default. The format of each file is detected when it is read, so snapshots in
+ * different formats can live side by side, see {@link UserDataCodecs}.
+ *
+ * <p>With {@code flashcards.storage.writeBehind} set, deck and card changes are only
+ * recorded in memory and written in the background, see {@link WriteBehindBuffer}.
+ *
+ * <p>The files themselves are read and written by a {@link UserFileStore}, and checked
+ * and repaired by a {@link UserChecker}. This class decides what to write under which
+ * user's lock and keeps the cache, the write-behind buffer, the username index and the
+ * tiers in step with the files.
+ *
+ * <p>This is the {@code json} backend of {@link StorageEngine} and the default one.
+ *
  * @author sofietw
  * @author ailinat
  * @author marennod
  * @author chrsom
  * @see "docs/release_3/ai_tools.md"
  */
-public class FlashcardPersistent implements UserPersistence {
+public class FlashcardPersistent implements StorageEngine {
+
+  // Shared by all default instances, since every service creates its own FlashcardPersistent
+  private static final Logger LOGGER = Logger.getLogger(FlashcardPersistent.class.getName());
+  private static final UserDataCache SHARED_CACHE = new UserDataCache(
+      Integer.getInteger("flashcards.storage.cacheSize", UserDataCache.DEFAULT_CAPACITY));
+  private static final UserLockManager SHARED_LOCKS = new UserLockManager();
+  private static final LogCompactor SHARED_COMPACTOR = new LogCompactor(
+      Long.getLong("flashcards.storage.compactThreshold", LogCompactor.DEFAULT_THRESHOLD_BYTES));
+  private static final GroupCommitSync SHARED_SYNC = new GroupCommitSync(
+      Long.getLong("flashcards.storage.syncLatencyMillis",
+          GroupCommitSync.DEFAULT_MAX_LATENCY_MILLIS), TimeUnit.MILLISECONDS);
+  private static final UsernameIndex SHARED_USERNAMES = new UsernameIndex(
+      UsernameIndex.DEFAULT_FALSE_POSITIVE_RATE);
+  private static final UserTiering SHARED_TIERING = new UserTiering();
+  private static final StorageMetrics SHARED_METRICS = new StorageMetrics();
+
+  private static final Predicate<String> ALL_DECKS = name -> true;
 
+  private final UserFileLayout layout;
   private final ObjectMapper objectMapper;
+  private final UserDataCache cache;
+  private final UserLockManager lockManager;
+  private final OperationLog operationLog;
+  private final UserFileStore store;
+  private final UserChecker checker;
+  private final CredentialsReader credentialsReader;
+  private final LogCompactor compactor;
+  private final GroupCommitSync sync;
+  private final UsernameIndex usernames;
+  private final WriteBehindBuffer writeBehind;
+  private final UserTiering tiering;
+  private final StorageMetrics metrics;
+  private final UserDataCodec codec;
+  private final ChangeJournal journal;
+
+  /**
+   * Holds the process-wide write-behind buffer, which is only created when write-behind
+   * is switched on. It is flushed through one instance built from the shared cache and
+   * compactor, bound once when the buffer is built, so creating more instances does not
+   * change where pending writes go.
+   */
+  private static final class SharedWriteBehind {
+    private static final WriteBehindBuffer BUFFER = create();
+
+    private static WriteBehindBuffer create() {
+      if (!Boolean.getBoolean("flashcards.storage.writeBehind")) {
+        return null;
+      }
+      WriteBehindBuffer buffer = new WriteBehindBuffer(
+          Long.getLong("flashcards.storage.writeBehindIntervalMillis",
+              WriteBehindBuffer.DEFAULT_INTERVAL_MILLIS), TimeUnit.MILLISECONDS,
+          Integer.getInteger("flashcards.storage.writeBehindMaxPending",
+              WriteBehindBuffer.DEFAULT_MAX_PENDING));
+      writingBehind(UserFileLayout.current(), SHARED_CACHE, SHARED_COMPACTOR, buffer);
+      return buffer;
+    }
+  }
+
+  /**
+   * Lets a repair rewrite a user through this instance, so the cache and the change
+   * journal stay in step with the repaired files.
+   */
+  private final class CheckerRepairs implements UserChecker.Repairs {
+
+    @Override
+    public void changing(String username) throws IOException {
+      journal.record(username);
+      cache.invalidate(username);
+    }
+
+    @Override
+    public void rewrite(StoredUserData userData) throws IOException {
+      writeSnapshot(userData, codec, null);
+    }
+  }
 
   /**
    * Constructs a new FlashcardPersistent instance.
-   * Initializes the ObjectMapper for JSON serialization/deserialization.
+   * Initializes the ObjectMapper for JSON serialization/deserialization
+   * and uses the process-wide user data cache.
    */
   public FlashcardPersistent() {
+    this(SHARED_CACHE);
+  }
+
+  /**
+   * Constructs a new FlashcardPersistent instance with its own cache.
+   *
+   * @param cache the cache to keep parsed user data in
+   */
+  public FlashcardPersistent(UserDataCache cache) {
+    this(cache, SHARED_COMPACTOR);
+  }
+
+  /**
+   * Constructs a new FlashcardPersistent instance with its own cache and log compactor.
+   *
+   * @param cache the cache to keep parsed user data in
+   * @param compactor the compactor that folds operation logs into snapshots
+   */
+  public FlashcardPersistent(UserDataCache cache, LogCompactor compactor) {
+    this(UserFileLayout.current(), cache, compactor, SharedWriteBehind.BUFFER);
+  }
+
+  /**
+   * Constructs a new FlashcardPersistent instance over a given users directory.
+   * Changes are written immediately, since the write-behind buffer only serves the
+   * users directory of the working directory.
+   *
+   * @param layout the layout of the users directory
+   * @param cache the cache to keep parsed user data in, used for no other directory
+   */
+  public FlashcardPersistent(UserFileLayout layout, UserDataCache cache) {
+    this(layout, cache, SHARED_COMPACTOR);
+  }
+
+  /**
+   * Constructs a new FlashcardPersistent instance over a given users directory, with
+   * its own log compactor.
+   *
+   * @param layout the layout of the users directory
+   * @param cache the cache to keep parsed user data in, used for no other directory
+   * @param compactor the compactor that folds operation logs into snapshots
+   */
+  public FlashcardPersistent(UserFileLayout layout, UserDataCache cache,
+      LogCompactor compactor) {
+    this(layout, cache, compactor, null);
+  }
+
+  /**
+   * Constructs a new FlashcardPersistent instance that writes deck and card changes
+   * through a write-behind buffer flushed elsewhere.
+   *
+   * @param layout the layout of the users directory
+   * @param cache the cache to keep parsed user data in
+   * @param compactor the compactor that folds operation logs into snapshots
+   * @param writeBehind the buffer to record changes in, or null to write them immediately
+   */
+  private FlashcardPersistent(UserFileLayout layout, UserDataCache cache,
+      LogCompactor compactor, WriteBehindBuffer writeBehind) {
+    this.layout = Objects.requireNonNull(layout, "layout cannot be null");
     this.objectMapper = new ObjectMapper();
+    this.cache = Objects.requireNonNull(cache, "cache cannot be null");
+    this.compactor = Objects.requireNonNull(compactor, "compactor cannot be null");
+    this.lockManager = SHARED_LOCKS;
+    this.sync = SHARED_SYNC;
+    this.usernames = SHARED_USERNAMES;
+    this.writeBehind = writeBehind;
+    this.tiering = SHARED_TIERING;
+    this.metrics = SHARED_METRICS;
+    this.codec = UserDataCodecs.configured();
+    this.operationLog = new OperationLog(objectMapper);
+    this.credentialsReader = new CredentialsReader(objectMapper);
+    this.store = new UserFileStore(layout, operationLog, sync);
+    this.checker = new UserChecker(store, operationLog, new CheckerRepairs());
+    // Written out by the group commit, so writers only note the user in memory
+    this.journal = ChangeJournal.at(BackupManager.backupsPath(layout));
+    sync.flushWith(journal);
+  }
+
+  /**
+   * Creates an instance that writes deck and card changes through its own write-behind
+   * buffer, and makes the buffer flush through it.
+   *
+   * @param layout the layout of the users directory
+   * @param cache the cache to keep parsed user data in
+   * @param compactor the compactor that folds operation logs into snapshots
+   * @param writeBehind the buffer to record changes in, used by no other instance
+   * @return the instance
+   */
+  static FlashcardPersistent writingBehind(UserFileLayout layout, UserDataCache cache,
+      LogCompactor compactor, WriteBehindBuffer writeBehind) {
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, cache, compactor,
+        Objects.requireNonNull(writeBehind, "writeBehind cannot be null"));
+    writeBehind.setFlush(persistent::flushPending);
+    return persistent;
+  }
+
+  @Override
+  public String getEngineName() {
+    return StorageEngines.JSON;
+  }
+
+  /**
+   * Gets the process-wide lock manager used by all FlashcardPersistent instances.
+   * Services take the same locks around their read-modify-write cycles.
+   *
+   * @return the shared lock manager
+   */
+  public static UserLockManager sharedLockManager() {
+    return SHARED_LOCKS;
+  }
+
+  /**
+   * Gets the layout of the users directory this instance works in.
+   *
+   * @return the layout
+   */
+  public UserFileLayout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Gets the hit, miss and eviction counters of the cache used by this instance.
+   *
+   * @return a snapshot of the cache statistics
+   */
+  public UserDataCache.Stats getCacheStats() {
+    return cache.stats();
+  }
+
+  /**
+   * Gets the process-wide registry of latency histograms and byte counters that all
+   * FlashcardPersistent instances record their storage operations in.
+   *
+   * @return the shared metrics registry
+   */
+  public static StorageMetrics sharedMetrics() {
+    return SHARED_METRICS;
+  }
+
+  /**
+   * Builds the in-memory username index from the users on disk.
+   * Until it is built, existence checks always go to disk. Meant to run once at startup.
+   *
+   * @param parallelism the number of directories to scan at the same time
+   * @throws IOException if the users directory cannot be listed
+   * @throws InterruptedException if interrupted while scanning
+   */
+  public void rebuildUsernameIndex(int parallelism) throws IOException, InterruptedException {
+    usernames.rebuild(layout, parallelism);
+    // Archived users exist too, they only live elsewhere
+    for (String username : ColdArchive.of(layout).listUsernames()) {
+      usernames.add(layout.root(), username);
+    }
+  }
+
+  /**
+   * Loads the most recently active users into the cache, each on a virtual thread.
+   * Meant to run once at startup, before the first requests arrive.
+   *
+   * @param maxUsers the number of users to load at most, beyond the cache capacity
+   *     the earliest loaded are evicted again
+   * @param budget the time the warm-up may take, unfinished loads are cancelled
+   * @return what was loaded
+   * @throws IOException if the users directory cannot be listed
+   * @throws InterruptedException if interrupted while loading
+   * @see CacheWarmer
+   */
+  public CacheWarmer.Result preloadRecentUsers(int maxUsers, Duration budget)
+      throws IOException, InterruptedException {
+    return new CacheWarmer(layout, this::preload).warm(maxUsers, budget);
+  }
+
+  /**
+   * Loads a user's data into the cache without returning it.
+   *
+   * @param username the username to load
+   * @return true if the user exists
+   */
+  public boolean preload(String username) {
+    return readUserDataInternal(username) != null;
+  }
+
+  /**
+   * Gets the size, false-positive rate and lookup counters of the username index.
+   *
+   * @return a snapshot of the index statistics
+   */
+  public UsernameIndex.Stats getUsernameIndexStats() {
+    return usernames.stats();
   }
 
   /**
    * Updates the flashcard deck data for an existing user while preserving
    * their login credentials and other user information.
+   * Runs under the user's lock so concurrent writers cannot interleave.
+   * Writes a full snapshot, so any pending operation log is folded in and removed.
    *
    * @param username the username to save deck data for
    * @param deckManager the flashcard deck manager to save
    * @throws IOException if file writing fails or user does not exist
    * 
    */
+  @Override
   public void writeDeck(String username, FlashcardDeckManager deckManager) throws IOException {
+    if (writeBehind != null) {
+      writeBehind.awaitCapacity();
+    }
+    try (StorageMetrics.Sample sample = metrics.start(Operation.WRITE_DECK)) {
+      lockManager.withLock(username, () -> {
+        //Read existing user data first
+        StoredUserData userData = readUserDataInternal(username);
+
+        if (userData == null) {
+          throw new IOException("User does not exist: " + username);
+        }
+
+        // Update only the deck manager, keep credentials, and count it as a change. The
+        // caller keeps its decks, so the cache and the files get copies of them
+        userData.setDeckManager(deckManager);
+        userData.setLogSequence(userData.getLogSequence() + 1);
+        userData = UserDataCache.copyOf(userData);
+
+        // Write back the complete user data
+        if (writeBehind != null) {
+          writeBehind.recordSnapshot(username, userData);
+        } else {
+          writeSnapshot(userData);
+        }
+        return null;
+      });
+    }
+  }
+
+  /**
+   * Records a single deck or card change for an existing user.
+   * Only the operation is appended to the user's log, so the cost is proportional
+   * to the change instead of the user's whole library. The operation is validated
+   * against the current state before anything is written.
+   *
+   * @param username the username whose decks to change
+   * @param operation the change to apply
+   * @throws IOException if the user does not exist or writing the log fails
+   * @throws IllegalArgumentException if the operation does not fit the current decks
+   */
+  @Override
+  public void appendOperation(String username, DeckOperation operation) throws IOException {
+    if (writeBehind != null) {
+      writeBehind.awaitCapacity();
+    }
+    try (StorageMetrics.Sample sample = metrics.start(Operation.WRITE_DECK)) {
+      lockManager.withLock(username, () -> {
+        if (writeBehind != null) {
+          StoredUserData current = readUserDataInternal(username);
+          if (current == null) {
+            throw new IOException("User does not exist: " + username);
+          }
+          // Only the target deck is copied, the others stay shared with the cache
+          StoredUserData userData = UserDataCache.forChange(current, operation.getDeckName());
+          FlashcardDeckManager manager = userData.getDeckManager();
+          operation.applyTo(manager);
+          operation.setSequence(userData.getLogSequence() + 1);
+          userData.setDeckManager(manager);
+          userData.setLogSequence(operation.getSequence());
+          writeBehind.recordOperation(username, userData, operation);
+          return null;
+        }
+
+        // Only the target deck is loaded, the other decks are checked by name
+        final FileStamp before = stampOf(username);
+        StoredUserData view = readDeckView(username, operation.getDeckName());
+        if (view == null) {
+          throw new IOException("User does not exist: " + username);
+        }
+        FlashcardDeckManager manager = view.getDeckManager();
+        operation.applyTo(manager);
+        operation.setSequence(view.getLogSequence() + 1);
+
+        long logSize;
+        try {
+          Path log = filesOf(username).log();
+          journal.record(username);
+          logSize = operationLog.append(log, operation);
+          sync.sync(log);
+        } catch (IOException e) {
+          cache.invalidate(username);
+          throw e;
+        }
 
-    //Read existing user data first
-    UserData userData = readUserDataInternal(username);
-    
-    if (userData == null) {
-      throw new IOException("User does not exist: " + username);
+        cache.apply(username, before, stampOf(username), operation);
+        compactor.compactIfNeeded(username, logSize, this::compactLog);
+        return null;
+      });
+    }
+  }
+
+  /**
+   * Writes all changes still held by the write-behind buffer and waits until they are
+   * on disk, then writes out the users still queued for the change journal. Called on
+   * shutdown so that no recorded change is lost.
+   *
+   * @return the number of users whose changes could not be written
+   */
+  @Override
+  public int flushPendingWrites() {
+    int failed = writeBehind == null ? 0 : writeBehind.flushAll();
+    try {
+      journal.flush();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to write the change journal", e);
     }
-    
-    // Update only the deck manager, keep credentials
-    userData.setDeckManager(deckManager);
-    
-    // Write back the complete user data
-    writeUserDataInternal(userData);
+    return failed;
+  }
+
+  /**
+   * Gets the queue depth and flush counters of the write-behind buffer.
+   *
+   * @return a snapshot of the buffer statistics, or null if write-behind is disabled
+   */
+  public WriteBehindBuffer.Stats getWriteBehindStats() {
+    return writeBehind == null ? null : writeBehind.stats();
+  }
+
+  /**
+   * Writes the changes the write-behind buffer holds for one user, as one log append
+   * or as one snapshot if the decks were replaced as a whole.
+   *
+   * @param username the user to flush
+   * @throws IOException if writing fails, the changes stay pending in that case
+   */
+  private void flushPending(String username) throws IOException {
+    lockManager.withLock(username, () -> {
+      PendingWrite pending = writeBehind.pending(username);
+      if (pending == null) {
+        return null;
+      }
+      if (pending.snapshot()) {
+        writeSnapshot(pending.data());
+      } else {
+        long logSize;
+        try {
+          Path log = filesOf(username).log();
+          journal.record(username);
+          logSize = operationLog.appendAll(log, pending.operations());
+          sync.sync(log);
+        } catch (IOException e) {
+          cache.invalidate(username);
+          throw e;
+        }
+        cache.put(username, stampOf(username), pending.data());
+        compactor.compactIfNeeded(username, logSize, this::compactLog);
+      }
+      writeBehind.written(username, pending);
+      return null;
+    });
+  }
+
+  /**
+   * Folds a user's operation log into a fresh snapshot and removes the log.
+   * Normally triggered in the background once the log passes the compaction threshold.
+   * Only the decks changed by the log are rewritten.
+   *
+   * @param username the username whose log to compact
+   * @throws IOException if writing the snapshot fails
+   */
+  public void compactLog(String username) throws IOException {
+    lockManager.withLock(username, () -> {
+      Path log = filesOf(username).log();
+      if (operationLog.size(log) == 0) {
+        return null;
+      }
+      // Decks the log never touched keep their files
+      Set<String> changedDecks = new HashSet<>();
+      for (DeckOperation operation : operationLog.read(log)) {
+        changedDecks.add(operation.getDeckName());
+      }
+      StoredUserData userData = readUserDataInternal(username);
+      if (userData != null) {
+        writeSnapshot(userData, codec, changedDecks);
+      }
+      return null;
+    });
   }
 
   /**
    * Loads flashcard deck manager for a user.
    * Returns the user's deck manager if user data exists, otherwise returns empty deck manager.
+   * The decks are copies the caller may change, taken from the cache when possible.
    *
    * @param username the username to load deck data for
    * @return the user's FlashcardDeckManager or empty one if user doesn't exist
    * @throws IOException if file reading fails
    * 
    */
+  @Override
   public FlashcardDeckManager readDeck(String username) throws IOException {
-    
-    UserData userData = readUserDataInternal(username);
-    
-    if (userData != null) {
-      return userData.getDeckManager();
-    } else {
-      return new FlashcardDeckManager();
+    try (StorageMetrics.Sample sample = metrics.start(Operation.READ_DECK)) {
+      StoredUserData userData = readUserDataInternal(username);
+
+      if (userData != null) {
+        return UserDataCache.copyOf(userData).getDeckManager();
+      } else {
+        return new FlashcardDeckManager();
+      }
     }
   }
 
+  /**
+   * Loads a single deck of a user without reading the user's other decks.
+   *
+   * @param username the username to load the deck for
+   * @param deckName the name of the deck
+   * @return the deck, or null if the user or the deck does not exist
+   * @throws IOException if file reading fails
+   */
+  @Override
+  public FlashcardDeck readDeck(String username, String deckName) throws IOException {
+    try (StorageMetrics.Sample sample = metrics.start(Operation.READ_DECK)) {
+      StoredUserData view = readDeckView(username, deckName);
+      if (view == null) {
+        return null;
+      }
+      return view.getDeckManager().getDeck(deckName);
+    }
+  }
+
+  /**
+   * Lists the names of a user's decks without reading any cards.
+   *
+   * @param username the username to list the decks of
+   * @return the deck names in order, empty if the user does not exist
+   * @throws IOException if file reading fails
+   */
+  @Override
+  public List<String> readDeckNames(String username) throws IOException {
+    StoredUserData view = readDeckView(username, null);
+    if (view == null) {
+      return List.of();
+    }
+    return view.getDeckManager().getDecks().stream()
+        .map(FlashcardDeck::getDeckName)
+        .toList();
+  }
+
+  /**
+   * Reads the version of a user's data, the sequence number of the last change.
+   * Served from the cache when possible, otherwise only the manifest and the log are read.
+   *
+   * @param username the username to read the version of
+   * @return the version, or -1 if the user does not exist
+   * @throws IOException if file reading fails
+   */
+  @Override
+  public long readVersion(String username) throws IOException {
+    StoredUserData view = readDeckView(username, null);
+    return view == null ? -1 : view.getLogSequence();
+  }
+
   /**
    * Checks if user data file exists.
    * Verifies if a JSON file exists for the given username.
@@ -85,14 +619,14 @@ public class FlashcardPersistent implements UserPersistence {
    * 
    */
   public boolean dataExists(String username) {
-    File file = getUserFile(username);
-    boolean exists = file.exists();
+    Path file = filesOf(username).snapshot();
+    boolean exists = Files.exists(file);
     return exists;
   }
 
   /**
    * Reads user data and returns as User object.
-   * Converts UserData to User object for authentication purposes.
+   * Only the credentials are read from the file, the decks are skipped.
    *
    * @param username the username to read data for
    * @return User object if found, null otherwise
@@ -100,20 +634,16 @@ public class FlashcardPersistent implements UserPersistence {
    */
   @Override
   public User readUserData(String username) {        
-    UserData userData = readUserDataInternal(username);
-    User result = null;
-
-    if (userData != null) {
-      result = userData.getUser();
+    try (StorageMetrics.Sample sample = metrics.start(Operation.READ_USER_DATA)) {
+      return readCredentials(username);
     }
-
-    return result;
   }
 
   /**
    * Writes user credentials to file.
    * If user exists, updates credentials while preserving deck data.
    * If user is new, creates fresh user data with encoded password.
+   * The existence check and the write happen under the user's lock.
    *
    * @param user the User object containing username and password
    * @throws IOException if file writing fails
@@ -121,20 +651,32 @@ public class FlashcardPersistent implements UserPersistence {
    */
   @Override
   public void writeUserData(User user) throws IOException {        
-    UserData existingData = readUserDataInternal(user.getUsername());
+    try (StorageMetrics.Sample sample = metrics.start(Operation.WRITE_USER_DATA)) {
+      lockManager.withLock(user.getUsername(), () -> {
+        UserData existingData = readUserDataInternal(user.getUsername());
 
-    if (existingData != null) {
-      throw new IOException("User already exists: " + user.getUsername());
-    } else {
-      // New user, create fresh user data
-      UserData userData = new UserData(user);
-      writeUserDataInternal(userData);
+        if (existingData != null) {
+          throw new IOException("User already exists: " + user.getUsername());
+        } else {
+          // New user, create fresh user data. Indexed before and after the write, so an
+          // index build running at the same time either scans the file or sees the add
+          Path root = layout.root();
+          usernames.add(root, user.getUsername());
+          StoredUserData userData = new StoredUserData(user, new FlashcardDeckManager(), 0);
+          writeSnapshot(userData);
+          usernames.add(root, user.getUsername());
+        }
+        return null;
+      });
     }
   }
 
   /**
    * Checks if a user exists with valid credentials.
    * Verifies that user data exists and contains both username and password.
+   * Only the credentials are read from the file, the decks are skipped.
+   * Most usernames that do not exist are answered by the username index without
+   * touching the disk.
    *
    * @param username the username to check existence for
    * @return true if user exists with valid credentials, false otherwise
@@ -142,70 +684,466 @@ public class FlashcardPersistent implements UserPersistence {
    */
   @Override
   public boolean userExists(String username) {
-    UserData userData = readUserDataInternal(username);
+    try (StorageMetrics.Sample sample = metrics.start(Operation.USER_EXISTS)) {
+      Path root = layout.root();
+      if (!usernames.mightExist(root, username)) {
+        return false;
+      }
+      User user = readCredentials(username);
+      if (user == null) {
+        usernames.recordFalsePositive(root);
+      }
 
-    boolean exists = false;
-    if (userData != null && userData.getUser().getUsername() != null && userData.getUser()
-        .getPassword() != null) {
-      exists = true;
+      boolean exists = false;
+      if (user != null && user.getUsername() != null && user.getPassword() != null) {
+        exists = true;
+      }
+
+      return exists;
+    }
+  }
+
+  /**
+   * Internal method to read only the credentials of a user.
+   * Streams the snapshot and stops after the username and password, so the cost
+   * does not grow with the number of decks and cards.
+   *
+   * @param username the username to read credentials for
+   * @return the stored User, or null if the user has no data file
+   */
+  private User readCredentials(String username) {
+    tiering.recordAccess(username);
+    try {
+      User user = credentialsReader.read(filesOf(username).snapshot());
+      if (user == null && rehydrate(username)) {
+        user = credentialsReader.read(filesOf(username).snapshot());
+      }
+      return user;
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read user data file for user '" + username + "': "
+          + e.getMessage(), e);
     }
-    
-    return exists;
   }
 
   /**
    * Internal method to read complete user data from file.
+   * Loads the last snapshot and replays the operation log on top of it.
+   * Served from the cache when neither file has changed since they were last parsed.
+   * A user in the cold archive is moved back into the users directory first.
+   * The decks may be shared with the cache, so they are not changed in place: a change
+   * works on {@link UserDataCache#forChange}, and decks handed to callers are copied.
    *
    * @param username the username to read data for
    * @return UserData object if found and valid, null otherwise
    * @see "docs/release_3/ai_tools.md"
    */
-  private UserData readUserDataInternal(String username) {        
-    File file = getUserFile(username);
+  private StoredUserData readUserDataInternal(String username) {        
+    tiering.recordAccess(username);
+    if (writeBehind != null) {
+      // Changes not yet on disk win over the files
+      PendingWrite pending = writeBehind.pending(username);
+      if (pending != null) {
+        return UserDataCache.shareOf(pending.data());
+      }
+    }
+    UserFiles files = filesOf(username);
+    // Stat before parsing so a concurrent write shows up as a stale entry
+    FileStamp stamp = FileStamp.of(files.snapshot(), files.log());
+
+    StoredUserData cached = cache.get(username, stamp);
+    if (cached != null) {
+      return cached;
+    }
+
+    try {
+      // Try reading as UserData, in whichever format the files were written
+      StoredUserData userData = store.readSnapshot(files, ALL_DECKS);
+      if (userData == null) {
+        return rehydrate(username) ? readUserDataInternal(username) : null;
+      }
+      store.replayLog(files.log(), userData, ALL_DECKS);
+      cache.put(username, stamp, userData);
+      return userData;
+    } catch (IOException | IllegalArgumentException e) {
+      // Throw the error so it can be properly handled by calling methods
+      throw new RuntimeException("Failed to read user data file for user '" + username + "': "
+          + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Reads the part of a user's data needed for one deck: the credentials, the names of
+   * all decks and the cards of the given deck. Other decks are present without cards.
+   * Served from the cache or the write-behind buffer when possible, otherwise only the
+   * manifest, the one deck file and the log are read.
+   *
+   * @param username the username to read data for
+   * @param deckName the deck to load with its cards, or null for deck names only
+   * @return the partial data, or null if the user does not exist
+   * @throws IOException if reading fails
+   */
+  private StoredUserData readDeckView(String username, String deckName) throws IOException {
+    tiering.recordAccess(username);
+    if (writeBehind != null) {
+      PendingWrite pending = writeBehind.pending(username);
+      if (pending != null) {
+        return UserDataCache.viewOf(pending.data(), deckName);
+      }
+    }
+    UserFiles files = filesOf(username);
+    FileStamp stamp = FileStamp.of(files.snapshot(), files.log());
+    StoredUserData cached = cache.getDeckView(username, stamp, deckName);
+    if (cached != null) {
+      return cached;
+    }
 
-    if (file.exists()) {            
+    Predicate<String> loaded = name -> name.equals(deckName);
+    for (int attempt = 1; ; attempt++) {
+      UserManifest manifest = store.readManifest(files.snapshot());
+      if (manifest == null) {
+        return rehydrate(username) ? readDeckView(username, deckName) : null;
+      }
+      if (manifest.isInline()) {
+        // Old snapshots are parsed whole anyway, so let the cache keep the result
+        StoredUserData userData = readUserDataInternal(username);
+        return userData == null ? null : UserDataCache.viewOf(userData, deckName);
+      }
       try {
-        // Try reading as UserData
-        UserData userData = objectMapper.readValue(file, UserData.class);
-        return userData;
-      } catch (IOException e) {
-        // Throw the error so it can be properly handled by calling methods
-        throw new RuntimeException("Failed to read user data file for user '" + username + "': "
-            + e.getMessage(), e);
+        StoredUserData view = new StoredUserData(manifest.getUser(),
+            store.loadDecks(files, manifest, loaded), manifest.getLogSequence());
+        store.replayLog(files.log(), view, loaded);
+        return view;
+      } catch (NoSuchFileException e) {
+        if (attempt >= UserFileStore.MAX_READ_ATTEMPTS) {
+          throw e;
+        }
       }
     }
-        
-    return null;
   }
 
   /**
-   * Internal method to write complete user data to file.
-   * Creates the user data directory if it doesn't exist and writes UserData as JSON.
+   * Writes a full snapshot of a user's data and drops the operation log it supersedes.
+   * The snapshot records the last log sequence number first, so a crash before the
+   * log is deleted cannot apply any operation twice. Snapshots are always written to
+   * the sharded layout, so a user still in the flat layout is moved along the way.
    *
-   * @param userData the UserData object to write
-   * @throws IOException if file writing fails
-   * @see "docs/release_3/ai_tools.md"
+   * @param userData the data to write
+   * @throws IOException if writing fails
    */
-  private void writeUserDataInternal(UserData userData) throws IOException {
-    File dataDir = new File(System.getProperty("user.dir") + "/../storage/data/users");
-    if (!dataDir.exists() && !dataDir.mkdirs()) {
-      throw new IOException("Failed to create directory: " + dataDir.getPath());
+  private void writeSnapshot(StoredUserData userData) throws IOException {
+    writeSnapshot(userData, codec, null);
+  }
+
+  /**
+   * Writes a snapshot of a user's data in a given format, rewriting only some decks,
+   * and keeps the cache and the change journal in step.
+   *
+   * @param userData the data to write
+   * @param format the format to write the snapshot in
+   * @param changedDecks the decks to rewrite, or null to rewrite every deck
+   * @throws IOException if writing fails
+   * @see UserFileStore#write(StoredUserData, UserDataCodec, Set)
+   */
+  private void writeSnapshot(StoredUserData userData, UserDataCodec format,
+      Set<String> changedDecks) throws IOException {
+    String username = userData.getUser().getUsername();
+    UserFiles target;
+    try {
+      journal.record(username);
+      target = store.write(userData, format, changedDecks);
+    } catch (IOException e) {
+      cache.invalidate(username);
+      throw e;
     }
+    cache.put(username, FileStamp.of(target.snapshot(), target.log()), userData);
+  }
 
-    File file = getUserFile(userData.getUser().getUsername());
-    objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, userData);
+  /**
+   * Collects the card texts no deck refers to any more, including those leaked by
+   * crashes, and compacts the text store. Each user's files are counted under that
+   * user's lock, so writes of other users go on. Reads every user's deck files, so it is
+   * meant to run occasionally in the background.
+   *
+   * @return the number of texts removed
+   * @throws IOException if a manifest or deck file cannot be read
+   * @see CardTextStore#collectGarbage(CardTextStore.ReferenceScan)
+   */
+  public int collectCardTexts() throws IOException {
+    return UserFileStore.textsOf(layout).collectGarbage(() -> countReferences(layout));
   }
 
   /**
-   * Gets the file for a specific username.
-   * Constructs the file path for the user's JSON data file.
+   * Gets the size and sharing counters of the card text store.
    *
-   * @param username the username to get file for
-   * @return File object pointing to the user's data file
-   * 
+   * @return a snapshot of the store statistics
+   */
+  public CardTextStore.Stats getCardTextStats() {
+    return UserFileStore.textsOf(layout).stats();
+  }
+
+  /**
+   * Counts the card text references of the deck files every user's manifest lists,
+   * holding each user's lock only while that user is counted.
+   *
+   * @param layout the layout to scan
+   * @return the number of references per hash
+   * @throws IOException if a manifest or deck file cannot be read
+   */
+  private Map<String, Integer> countReferences(UserFileLayout layout) throws IOException {
+    Map<String, Integer> counts = new HashMap<>();
+    for (String username : new HashSet<>(layout.listUsernames())) {
+      lockManager.withLock(username, () -> {
+        for (String reference : store.deckReferences(layout.locate(username))) {
+          counts.merge(reference, 1, Integer::sum);
+        }
+        return null;
+      });
+    }
+    return counts;
+  }
+
+  /**
+   * Moves a user into the cold archive, leaving nothing in the users directory.
+   * Runs under the user's lock, so it is safe while the server is serving requests.
+   * Pending writes and the operation log are folded into the archive, and the card
+   * texts the user's deck files referred to are released. The next read moves the
+   * user back. Should a crash leave the user in both places, the files in the users
+   * directory win.
+   *
+   * @param username the username to archive
+   * @return true if the user was archived, false if it has no files to archive
+   * @throws IOException if archiving fails
+   * @see UserTiering
+   */
+  public boolean archiveUser(String username) throws IOException {
+    CardTextStore texts = UserFileStore.textsOf(layout);
+    return lockManager.withLock(username, () -> texts.referencing(() -> {
+      if (writeBehind != null) {
+        flushPending(username);
+      }
+      UserFiles files = layout.locate(username);
+      UserManifest manifest = store.readManifest(files.snapshot());
+      if (manifest == null) {
+        return false;
+      }
+      StoredUserData userData = readUserDataInternal(username);
+      journal.record(username);
+      ColdArchive.of(layout).write(userData);
+
+      List<String> released = new ArrayList<>();
+      if (!manifest.isInline()) {
+        for (DeckEntry entry : manifest.getDecks()) {
+          released.addAll(store.referencesOf(files.deck(entry.file())));
+        }
+      }
+      store.delete(files);
+      texts.release(released);
+      cache.invalidate(username);
+      tiering.recordArchived(username);
+      return true;
+    }));
+  }
+
+  /**
+   * Archives every user that has been neither read nor written for a given time, and
+   * measures the size of both tiers.
+   *
+   * @param inactivity the time after which a user is archived
+   * @return what was archived
+   * @throws IOException if the users directory or the archive cannot be listed
+   * @see #archiveUser(String)
+   */
+  public UserTiering.Result archiveInactiveUsers(Duration inactivity) throws IOException {
+    return tiering.sweep(layout, ColdArchive.of(layout), inactivity, this::archiveUser);
+  }
+
+  /**
+   * Starts archiving inactive users in the background.
+   *
+   * @param inactivity the time after which a user is archived
+   * @param interval the time between sweeps
+   */
+  public void startTiering(Duration inactivity, Duration interval) {
+    tiering.start(interval, () -> archiveInactiveUsers(inactivity));
+  }
+
+  /**
+   * Stops archiving inactive users in the background.
+   */
+  public void stopTiering() {
+    tiering.stop();
+  }
+
+  /**
+   * Gets the tier sizes, archive counters and rehydration latency.
+   *
+   * @return a snapshot of the tiering statistics
+   */
+  public UserTiering.Stats getTieringStats() {
+    return tiering.stats();
+  }
+
+  /**
+   * Moves an archived user back into the users directory, as a fresh snapshot in the
+   * configured format. Called when a read finds no snapshot.
+   *
+   * @param username the username to move back
+   * @return true if the user is in the users directory now, false if it is not archived
+   *     either
+   * @throws IOException if reading the archive or writing the snapshot fails
+   */
+  private boolean rehydrate(String username) throws IOException {
+    ColdArchive archive = ColdArchive.of(layout);
+    if (!archive.contains(username)) {
+      return false;
+    }
+    return lockManager.withLock(username, () -> {
+      if (Files.exists(layout.locate(username).snapshot())) {
+        // Someone else moved it back while this reader waited for the lock
+        return true;
+      }
+      final long start = System.nanoTime();
+      StoredUserData userData = archive.read(username);
+      if (userData == null) {
+        return false;
+      }
+      writeSnapshot(userData);
+      archive.delete(username);
+      tiering.recordRehydration(System.nanoTime() - start);
+      return true;
+    });
+  }
+
+  /**
+   * Moves a user from the flat layout into the sharded layout.
+   * Runs under the user's lock, so it is safe while the server is serving requests.
+   * A user without an operation log is moved with a single rename, otherwise the
+   * log is folded into a fresh snapshot in the new location.
+   *
+   * @param username the username to move
+   * @return true if the user was moved, false if it was not in the flat layout
+   * @throws IOException if moving fails
+   * @see LayoutMigrator
+   */
+  public boolean migrateUser(String username) throws IOException {
+    return lockManager.withLock(username, () -> UserFileStore.textsOf(layout).referencing(() -> {
+      UserFiles flat = layout.flat(username);
+      UserFiles sharded = layout.sharded(username);
+      if (!Files.exists(flat.snapshot())) {
+        return false;
+      }
+      journal.record(username);
+      if (Files.exists(sharded.snapshot())) {
+        // Leftovers of an interrupted migration, the sharded snapshot is newer
+        operationLog.delete(flat.log());
+        Files.deleteIfExists(flat.snapshot());
+        return true;
+      }
+
+      if (operationLog.size(flat.log()) > 0) {
+        StoredUserData userData = readUserDataInternal(username);
+        writeSnapshot(userData);
+      } else {
+        Path directory = sharded.directory();
+        if (!Files.isDirectory(directory) && !directory.toFile().mkdirs()) {
+          throw new IOException("Failed to create directory: " + directory);
+        }
+        if (Files.isDirectory(flat.decks())) {
+          store.replaceAtomically(flat.decks(), sharded.decks());
+        }
+        store.replaceAtomically(flat.snapshot(), sharded.snapshot());
+        operationLog.delete(flat.log());
+        sync.sync(directory);
+      }
+      return true;
+    }));
+  }
+
+  /**
+   * Rewrites a user's snapshot and deck files in another format.
+   * Runs under the user's lock, so it is safe while the server is serving requests.
+   * Snapshots that still have their decks inline are split into deck files as well.
+   * Pending writes and the operation log are folded into the new snapshot. Later
+   * writes use the configured format again, so set {@code flashcards.storage.format}
+   * to the target format before converting.
+   *
+   * @param username the username to convert
+   * @param target the format to convert to
+   * @return true if the snapshot was rewritten, false if it was already in that format
+   *     or the user does not exist
+   * @throws IOException if reading or writing fails
+   * @see FormatConverter
+   */
+  public boolean convertUser(String username, UserDataCodec target) throws IOException {
+    Objects.requireNonNull(target, "target cannot be null");
+    return lockManager.withLock(username, () -> {
+      if (writeBehind != null) {
+        flushPending(username);
+      }
+      UserFiles files = filesOf(username);
+      if (!Files.exists(files.snapshot())) {
+        return false;
+      }
+      if (operationLog.size(files.log()) == 0 && store.isStoredIn(files, target)) {
+        return false;
+      }
+      StoredUserData userData = readUserDataInternal(username);
+      if (userData == null) {
+        return false;
+      }
+      writeSnapshot(userData, target, null);
+      return true;
+    });
+  }
+
+  /**
+   * Checks the integrity of a user's files and optionally repairs them.
+   * Runs under the user's lock, so it is safe while the server is serving requests.
+   *
+   * <p>The manifest, every deck file and the operation log must parse and the log must
+   * apply cleanly. The credentials must be present and belong to the user, deck names
+   * must be unique and cards numbered 1 to n, and the deck directory must not hold files
+   * the manifest does not list. On repair, the broken files are copied to the quarantine
+   * and everything that could be read is written back as a fresh snapshot: unreadable
+   * decks, duplicate decks and log entries that do not apply are dropped, and cards are
+   * renumbered. A user whose manifest or credentials are broken cannot be rebuilt and
+   * is moved to the quarantine as a whole.
+   *
+   * @param username the username to check
+   * @param repair whether to repair or quarantine the user if it is broken
+   * @return what was found and done, or null if the user does not exist
+   * @throws IOException if the repair fails
+   * @see StoreChecker
+   */
+  public StoreChecker.UserReport checkUser(String username, boolean repair)
+      throws IOException {
+    return lockManager.withLock(username, () -> {
+      if (writeBehind != null) {
+        flushPending(username);
+      }
+      return checker.check(filesOf(username), repair);
+    });
+  }
+
+  /**
+   * Captures the current state of a user's snapshot and log for cache validation.
+   *
+   * @param username the username
+   * @return the stamp, or null if the user has no snapshot
+   */
+  private FileStamp stampOf(String username) {
+    UserFiles files = filesOf(username);
+    return FileStamp.of(files.snapshot(), files.log());
+  }
+
+  /**
+   * Gets the files for a specific username.
+   * Looks in the sharded layout first and falls back to the flat layout.
+   *
+   * @param username the username to get files for
+   * @return the user's snapshot and operation log
    */
-  private File getUserFile(String username) {
-    String path = System.getProperty("user.dir") + "/../storage/data/users/" + username + ".json";
-    return new File(path);
+  private UserFiles filesOf(String username) {
+    return layout.locate(username);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,148 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rewrites every user's snapshot in another storage format.
+ *
+ * <p>Users are converted in parallel through
+ * {@link FlashcardPersistent#convertUser(String, UserDataCodec)}, which takes the same
+ * per-user lock as every write. Since the format of each file is detected when it is
+ * read, the server keeps working while only part of the users are converted. Set
+ * {@code flashcards.storage.format} to the target format first, so that users written
+ * during the conversion are not written back in the old one. Run from the command line
+ * with {@link #main(String[])} only while the server is stopped, since locks are not
+ * shared between processes.
+ *
+ * @see UserDataCodecs
+ */
+public final class FormatConverter {
+
+  private static final Logger LOGGER = Logger.getLogger(FormatConverter.class.getName());
+
+  private final FlashcardPersistent persistent;
+  private final UserFileLayout layout;
+  private final UserDataCodec target;
+  private final int parallelism;
+
+  /**
+   * The outcome of a conversion.
+   *
+   * @param total the number of users found
+   * @param converted the number of users rewritten in the target format
+   * @param failed the number of users that could not be converted
+   * @param elapsedMillis the time the conversion took
+   */
+  public record Result(long total, long converted, long failed, long elapsedMillis) {}
+
+  /**
+   * Creates a converter for the users directory of the current working directory.
+   *
+   * @param format the name of the format to convert to, such as {@code smile}
+   * @param parallelism the number of users to convert at the same time
+   * @throws IllegalArgumentException if the format is unknown or parallelism below one
+   */
+  public FormatConverter(String format, int parallelism) {
+    this(new FlashcardPersistent(), format, parallelism);
+  }
+
+  /**
+   * Creates a converter for the users directory of a persistence layer, rewriting
+   * users through it.
+   *
+   * @param persistent the persistence layer whose users to convert
+   * @param format the name of the format to convert to, such as {@code smile}
+   * @param parallelism the number of users to convert at the same time
+   * @throws IllegalArgumentException if the format is unknown or parallelism below one
+   */
+  public FormatConverter(FlashcardPersistent persistent, String format, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    this.target = UserDataCodecs.forName(format);
+    this.persistent = persistent;
+    this.layout = persistent.getLayout();
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Converts every user found in the users directory.
+   *
+   * @param listener receives progress roughly every percent and once at the end
+   * @return the outcome of the conversion
+   * @throws IOException if the users directory cannot be listed
+   * @throws InterruptedException if interrupted while waiting for the workers
+   */
+  public Result convert(ProgressListener listener) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    // A user left in both layouts is converted once, in the location that wins
+    List<String> usernames = List.copyOf(new LinkedHashSet<>(layout.listUsernames()));
+    long total = usernames.size();
+    long step = Math.max(1, total / 100);
+    AtomicLong done = new AtomicLong();
+    AtomicLong converted = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    Object progressLock = new Object();
+
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      for (String username : usernames) {
+        executor.execute(() -> {
+          try {
+            if (persistent.convertUser(username, target)) {
+              converted.incrementAndGet();
+            }
+          } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Failed to convert user '" + username + "'", e);
+          }
+          long count = done.incrementAndGet();
+          if (count % step == 0 || count == total) {
+            synchronized (progressLock) {
+              listener.onProgress(count, total);
+            }
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+    }
+    while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+      // Keep waiting, progress is reported by the workers
+    }
+
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    return new Result(total, converted.get(), failed.get(), elapsedMillis);
+  }
+
+  /**
+   * Converts the users directory of the current working directory.
+   * Takes the target format name ({@code json} or {@code smile}) as first argument and
+   * the number of parallel workers as optional second argument.
+   *
+   * @param args command line arguments
+   * @throws Exception if the conversion cannot run
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: FormatConverter <json|smile> [parallelism]");
+      return;
+    }
+    int parallelism = args.length > 1 ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors();
+    FormatConverter converter = new FormatConverter(args[0], parallelism);
+    Result result = converter.convert((done, total) ->
+        System.out.printf("Converted %d/%d users (%d%%)%n", done, total, done * 100 / total));
+    System.out.printf("Done: %d of %d users converted to %s, %d failed, in %d ms%n",
+        result.converted(), result.total(), converter.target.getName(), result.failed(),
+        result.elapsedMillis());
+  }
+}
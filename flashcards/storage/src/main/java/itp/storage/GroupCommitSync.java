@@ -0,0 +1,293 @@
+package itp.storage;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes written files durable by batching fsync calls from concurrent writers.
+ *
+ * <p>A writer arriving while no flush is running is flushed right away, so a single
+ * writer pays no more than forcing its files directly. Writers arriving while a flush
+ * is running open the next window, which closes once the running flush is done and the
+ * configured latency, if any, has passed. Every file requested before the window closes is
+ * forced in the same flush, and all of their writers are released together. Under load
+ * this costs one flush per window instead of one per request.
+ *
+ * <p>The files of a flush are forced in parallel, one virtual thread each, so a flush
+ * takes about as long as its slowest file rather than the sum of all of them. Each file
+ * has its own result, so a writer only fails if one of its own files could not be
+ * forced, not because another writer's file in the same flush failed.
+ *
+ * <p>Buffers registered with {@link #flushWith(Flushable)}, such as the change journal,
+ * are written out at the start of every flush, so writers only put their content in
+ * memory and one write per flush takes it to the file.
+ *
+ * @see FlashcardPersistent
+ */
+public final class GroupCommitSync {
+
+  /**
+   * Maximum time in milliseconds a flush window stays open when none is configured.
+   * None, since writers arriving during a flush already share the next one, and on disks
+   * with cheap flushes any extra wait only adds latency.
+   */
+  public static final long DEFAULT_MAX_LATENCY_MILLIS = 0;
+
+  private static final Logger LOGGER = Logger.getLogger(GroupCommitSync.class.getName());
+
+  private final long maxLatencyNanos;
+  private final ScheduledExecutorService flusher;
+  private final Object monitor = new Object();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong flushes = new AtomicLong();
+  private final Set<Flushable> buffers = new CopyOnWriteArraySet<>();
+  private Batch current;
+  private boolean flushing;
+
+  /**
+   * Files waiting for the same flush, each with the future its writers wait on.
+   */
+  private static final class Batch {
+    private final Map<Path, CompletableFuture<Void>> files = new LinkedHashMap<>();
+  }
+
+  /**
+   * Creates a sync scheduler.
+   *
+   * @param maxLatency how long a window opened during a running flush stays open
+   * @param unit the unit of the latency
+   */
+  public GroupCommitSync(long maxLatency, TimeUnit unit) {
+    if (maxLatency < 0) {
+      throw new IllegalArgumentException("Max latency cannot be negative: " + maxLatency);
+    }
+    this.maxLatencyNanos = unit.toNanos(maxLatency);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flashcards-group-commit");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Forces a file or directory to disk, sharing the flush with concurrent callers.
+   * Blocks until a flush that started after this call has completed.
+   *
+   * @param path the file or directory to make durable
+   * @throws IOException if the file cannot be forced or the caller is interrupted while
+   *     waiting
+   */
+  public void sync(Path path) throws IOException {
+    syncAll(List.of(path));
+  }
+
+  /**
+   * Forces several files or directories to disk in one flush, so a writer with many
+   * files waits for a single flush instead of one per file.
+   *
+   * @param paths the files or directories to make durable
+   * @throws IOException if one of the files cannot be forced or the caller is interrupted
+   *     while waiting
+   */
+  public void syncAll(Collection<Path> paths) throws IOException {
+    if (paths.isEmpty()) {
+      return;
+    }
+    List<CompletableFuture<Void>> forced = new ArrayList<>(paths.size());
+    synchronized (monitor) {
+      if (current == null) {
+        current = new Batch();
+        // Nobody else is about to join while no flush is running, so don't wait for them
+        long delay = flushing ? maxLatencyNanos : 0;
+        flusher.schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+      }
+      for (Path path : paths) {
+        forced.add(current.files.computeIfAbsent(path.toAbsolutePath().normalize(),
+            file -> new CompletableFuture<>()));
+      }
+    }
+    requests.incrementAndGet();
+
+    long start = System.nanoTime();
+    try {
+      for (CompletableFuture<Void> file : forced) {
+        file.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for sync of " + paths);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw new IOException("Failed to sync " + paths + ": " + io.getMessage(), io);
+      }
+      throw new IOException("Failed to sync " + paths, e.getCause());
+    } finally {
+      // Waiting for the shared flush is time the caller spends on I/O
+      StorageMetrics.chargeWrite(System.nanoTime() - start, 0);
+    }
+  }
+
+  /**
+   * Has a buffer written out at the start of every flush, before the files of the flush
+   * are forced. A buffer that cannot be written keeps its content for the next flush,
+   * and the writers of the flush are not failed for it.
+   *
+   * @param buffer the buffer, registered once however often it is passed
+   */
+  public void flushWith(Flushable buffer) {
+    buffers.add(Objects.requireNonNull(buffer, "buffer cannot be null"));
+  }
+
+  /**
+   * Gets the number of sync requests served so far.
+   *
+   * @return the request count
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Gets the number of flushes performed so far. Lower than the request count
+   * whenever writers were batched together.
+   *
+   * @return the flush count
+   */
+  public long getFlushCount() {
+    return flushes.get();
+  }
+
+  /**
+   * Closes the current window and forces all of its files to disk.
+   */
+  private void flush() {
+    Batch batch;
+    synchronized (monitor) {
+      batch = current;
+      current = null;
+      flushing = batch != null;
+    }
+    if (batch == null) {
+      return;
+    }
+
+    for (Flushable buffer : buffers) {
+      try {
+        buffer.flush();
+      } catch (IOException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Failed to write buffered content", e);
+      }
+    }
+    Map<Path, IOException> failures;
+    try {
+      failures = forceAll(batch.files.keySet());
+      flushes.incrementAndGet();
+    } catch (RuntimeException e) {
+      // Fail every file rather than leave its writers waiting
+      IOException failure = new IOException(e);
+      failures = new HashMap<>();
+      for (Path path : batch.files.keySet()) {
+        failures.put(path, failure);
+      }
+    } finally {
+      // Before releasing the writers, so their next sync does not wait for a window
+      synchronized (monitor) {
+        flushing = false;
+      }
+    }
+    for (Map.Entry<Path, CompletableFuture<Void>> file : batch.files.entrySet()) {
+      IOException failure = failures.get(file.getKey());
+      if (failure == null) {
+        file.getValue().complete(null);
+      } else {
+        file.getValue().completeExceptionally(failure);
+      }
+    }
+  }
+
+  /**
+   * Forces all files of a flush to disk, in parallel when there are several.
+   *
+   * @param files the files or directories to force
+   * @return the failure of each file that could not be forced, empty if all were
+   */
+  private static Map<Path, IOException> forceAll(Collection<Path> files) {
+    if (files.size() == 1) {
+      Path path = files.iterator().next();
+      try {
+        force(path);
+        return Map.of();
+      } catch (IOException e) {
+        return Map.of(path, e);
+      } catch (RuntimeException e) {
+        return Map.of(path, new IOException(e));
+      }
+    }
+
+    Map<Path, Future<Void>> forced = new LinkedHashMap<>();
+    // Closing the executor waits for every file to be forced
+    try (ExecutorService forcing = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Path path : files) {
+        forced.put(path, forcing.submit(() -> {
+          force(path);
+          return null;
+        }));
+      }
+    }
+
+    Map<Path, IOException> failures = new HashMap<>();
+    for (Map.Entry<Path, Future<Void>> file : forced.entrySet()) {
+      if (file.getValue().state() == Future.State.FAILED) {
+        Throwable cause = file.getValue().exceptionNow();
+        failures.put(file.getKey(), cause instanceof IOException e ? e : new IOException(cause));
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * Forces a single file or directory to disk.
+   * Directories cannot be opened for syncing on every platform, so failures
+   * there are ignored. A file that was removed since the request has nothing left to sync.
+   *
+   * @param path the path to force
+   * @throws IOException if forcing a regular file fails
+   */
+  private static void force(Path path) throws IOException {
+    boolean directory = Files.isDirectory(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (NoSuchFileException e) {
+      // Superseded by a later write, nothing to make durable
+    } catch (IOException e) {
+      if (!directory) {
+        throw e;
+      }
+    }
+  }
+}
@@ -0,0 +1,635 @@
+package itp.storage;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+/**
+ * Storage backend that keeps all users in one embedded H2 database file.
+ *
+ * <p>Users, decks and cards are rows in three tables. Decks are keyed by user and
+ * deck name and cards by user, deck name and card number, so reading one deck or one
+ * card is an index lookup. Deck and card changes update only the affected rows in a
+ * single transaction, which also increases the version in the user's row.
+ *
+ * <p>Selected with {@code flashcards.storage.engine=h2}, see {@link StorageEngines}.
+ * The database runs in-process and needs no server.
+ *
+ * @see StorageEngine
+ */
+public final class H2StorageEngine implements StorageEngine, AutoCloseable {
+
+  private static final String[] SCHEMA = {
+    "CREATE TABLE IF NOT EXISTS users ("
+        + "username VARCHAR PRIMARY KEY, "
+        + "password VARCHAR NOT NULL, "
+        + "version BIGINT NOT NULL DEFAULT 0)",
+    // Databases created before users had versions
+    "ALTER TABLE users ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0",
+    "CREATE TABLE IF NOT EXISTS decks ("
+        + "username VARCHAR NOT NULL, "
+        + "deck_name VARCHAR NOT NULL, "
+        + "deck_position INT NOT NULL, "
+        + "PRIMARY KEY (username, deck_name), "
+        + "FOREIGN KEY (username) REFERENCES users (username) ON DELETE CASCADE)",
+    "CREATE INDEX IF NOT EXISTS decks_by_position ON decks (username, deck_position)",
+    "CREATE TABLE IF NOT EXISTS cards ("
+        + "username VARCHAR NOT NULL, "
+        + "deck_name VARCHAR NOT NULL, "
+        + "card_number INT NOT NULL, "
+        + "question VARCHAR, "
+        + "answer VARCHAR, "
+        + "PRIMARY KEY (username, deck_name, card_number), "
+        + "FOREIGN KEY (username, deck_name) REFERENCES decks (username, deck_name) "
+        + "ON DELETE CASCADE)",
+    // Databases created before cards had ids
+    "ALTER TABLE decks ADD COLUMN IF NOT EXISTS last_card_id INT NOT NULL DEFAULT 0",
+    "ALTER TABLE cards ADD COLUMN IF NOT EXISTS card_id INT NOT NULL DEFAULT 0",
+    // Their cards take their numbers as ids, once
+    "UPDATE cards SET card_id = card_number WHERE card_id = 0",
+    "UPDATE decks d SET last_card_id = (SELECT COALESCE(MAX(c.card_id), 0) FROM cards c "
+        + "WHERE c.username = d.username AND c.deck_name = d.deck_name) "
+        + "WHERE d.last_card_id = 0"
+  };
+
+  private static final String USER_EXISTS = "SELECT 1 FROM users WHERE username = ?";
+  private static final String SELECT_USER =
+      "SELECT password FROM users WHERE username = ?";
+  private static final String SELECT_VERSION =
+      "SELECT version FROM users WHERE username = ?";
+  private static final String BUMP_VERSION =
+      "UPDATE users SET version = version + 1 WHERE username = ?";
+  private static final String INSERT_USER =
+      "INSERT INTO users (username, password) VALUES (?, ?)";
+  private static final String SELECT_DECK_NAMES =
+      "SELECT deck_name FROM decks WHERE username = ? ORDER BY deck_position";
+  private static final String SELECT_ALL_CARDS =
+      "SELECT d.deck_name, c.card_number, c.question, c.answer, c.card_id, "
+          + "d.last_card_id FROM decks d "
+          + "LEFT JOIN cards c ON c.username = d.username AND c.deck_name = d.deck_name "
+          + "WHERE d.username = ? ORDER BY d.deck_position, c.card_number";
+  private static final String DECK_EXISTS =
+      "SELECT deck_position FROM decks WHERE username = ? AND deck_name = ?";
+  private static final String SELECT_DECK_CARDS =
+      "SELECT card_number, question, answer, card_id FROM cards "
+          + "WHERE username = ? AND deck_name = ? ORDER BY card_number";
+  private static final String SELECT_LAST_CARD_ID =
+      "SELECT last_card_id FROM decks WHERE username = ? AND deck_name = ?";
+  private static final String UPDATE_LAST_CARD_ID =
+      "UPDATE decks SET last_card_id = ? WHERE username = ? AND deck_name = ?";
+  private static final String SELECT_CARD =
+      "SELECT question, answer, card_id FROM cards "
+          + "WHERE username = ? AND deck_name = ? AND card_number = ?";
+  private static final String INSERT_DECK =
+      "INSERT INTO decks (username, deck_name, deck_position, last_card_id) "
+          + "VALUES (?, ?, ?, ?)";
+  private static final String DELETE_DECK =
+      "DELETE FROM decks WHERE username = ? AND deck_name = ?";
+  private static final String DELETE_ALL_DECKS = "DELETE FROM decks WHERE username = ?";
+  private static final String SHIFT_DECKS =
+      "UPDATE decks SET deck_position = deck_position - 1 "
+          + "WHERE username = ? AND deck_position > ?";
+  private static final String INSERT_CARD =
+      "INSERT INTO cards (username, deck_name, card_number, question, answer, card_id) "
+          + "VALUES (?, ?, ?, ?, ?, ?)";
+  private static final String UPDATE_CARD =
+      "UPDATE cards SET question = ?, answer = ? "
+          + "WHERE username = ? AND deck_name = ? AND card_id = ?";
+  private static final String DELETE_CARD =
+      "DELETE FROM cards WHERE username = ? AND deck_name = ? AND card_number = ?";
+  // Renumbering goes through negative numbers, so no intermediate row collides with
+  // the primary key of a card that has not moved yet
+  private static final String SHIFT_CARDS_OUT =
+      "UPDATE cards SET card_number = 1 - card_number "
+          + "WHERE username = ? AND deck_name = ? AND card_number > ?";
+  private static final String SHIFT_CARDS_IN =
+      "UPDATE cards SET card_number = -card_number "
+          + "WHERE username = ? AND deck_name = ? AND card_number < 0";
+
+  // SQL state of a primary key violation
+  private static final String DUPLICATE_KEY = "23505";
+
+  private final JdbcConnectionPool pool;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  /**
+   * Opens or creates a database.
+   *
+   * @param file the database file without the {@code .mv.db} extension
+   * @throws IOException if the database cannot be opened
+   */
+  public H2StorageEngine(Path file) throws IOException {
+    this.pool = JdbcConnectionPool.create(
+        "jdbc:h2:file:" + file.toAbsolutePath().normalize(), "sa", "");
+    try (Connection connection = pool.getConnection();
+        Statement statement = connection.createStatement()) {
+      for (String sql : SCHEMA) {
+        statement.execute(sql);
+      }
+    } catch (SQLException e) {
+      pool.dispose();
+      throw new IOException("Failed to open database " + file + ": " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public String getEngineName() {
+    return StorageEngines.H2;
+  }
+
+  @Override
+  public boolean userExists(String username) {
+    try (Connection connection = pool.getConnection()) {
+      return hasUser(connection, username);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public User readUserData(String username) {
+    try (Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement(SELECT_USER)) {
+      statement.setString(1, username);
+      try (ResultSet rows = statement.executeQuery()) {
+        if (!rows.next()) {
+          return null;
+        }
+        // The stored password is already encoded, so it must not go through the constructor
+        return objectMapper.convertValue(
+            Map.of("username", username, "password", rows.getString(1)), User.class);
+      }
+    } catch (SQLException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void writeUserData(User user) throws IOException {
+    try (Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement(INSERT_USER)) {
+      statement.setString(1, user.getUsername());
+      statement.setString(2, user.getPassword());
+      statement.executeUpdate();
+    } catch (SQLException e) {
+      if (DUPLICATE_KEY.equals(e.getSQLState())) {
+        throw new IOException("User already exists: " + user.getUsername(), e);
+      }
+      throw failure("write user " + user.getUsername(), e);
+    }
+  }
+
+  @Override
+  public FlashcardDeckManager readDeck(String username) throws IOException {
+    List<FlashcardDeck> decks = new ArrayList<>();
+    try (Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement(SELECT_ALL_CARDS)) {
+      statement.setString(1, username);
+      try (ResultSet rows = statement.executeQuery()) {
+        FlashcardDeck current = null;
+        List<Flashcard> cards = new ArrayList<>();
+        while (rows.next()) {
+          String deckName = rows.getString(1);
+          if (current == null || !current.getDeckName().equals(deckName)) {
+            finishDeck(current, cards, decks);
+            current = new FlashcardDeck(deckName);
+            current.setLastCardId(rows.getInt(6));
+            cards = new ArrayList<>();
+          }
+          int number = rows.getInt(2);
+          if (!rows.wasNull()) {
+            cards.add(card(number, rows.getString(3), rows.getString(4), rows.getInt(5)));
+          }
+        }
+        finishDeck(current, cards, decks);
+      }
+    } catch (SQLException e) {
+      throw failure("read decks of " + username, e);
+    }
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.setDecks(decks);
+    return manager;
+  }
+
+  @Override
+  public FlashcardDeck readDeck(String username, String deckName) throws IOException {
+    try (Connection connection = pool.getConnection()) {
+      if (deckPosition(connection, username, deckName) < 0) {
+        return null;
+      }
+      return loadDeck(connection, username, deckName);
+    } catch (SQLException e) {
+      throw failure("read deck " + deckName + " of " + username, e);
+    }
+  }
+
+  @Override
+  public List<String> readDeckNames(String username) throws IOException {
+    try (Connection connection = pool.getConnection()) {
+      return deckNames(connection, username);
+    } catch (SQLException e) {
+      throw failure("read deck names of " + username, e);
+    }
+  }
+
+  @Override
+  public Flashcard readCard(String username, String deckName, int number) throws IOException {
+    try (Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement(SELECT_CARD)) {
+      statement.setString(1, username);
+      statement.setString(2, deckName);
+      statement.setInt(3, number);
+      try (ResultSet rows = statement.executeQuery()) {
+        return rows.next()
+            ? card(number, rows.getString(1), rows.getString(2), rows.getInt(3)) : null;
+      }
+    } catch (SQLException e) {
+      throw failure("read card " + number + " of " + deckName, e);
+    }
+  }
+
+  @Override
+  public void writeDeck(String username, FlashcardDeckManager deckManager) throws IOException {
+    inTransaction("write decks of " + username, connection -> {
+      if (!bumpVersion(connection, username)) {
+        throw new IOException("User does not exist: " + username);
+      }
+      try (PreparedStatement delete = connection.prepareStatement(DELETE_ALL_DECKS);
+          PreparedStatement insertDeck = connection.prepareStatement(INSERT_DECK);
+          PreparedStatement insertCard = connection.prepareStatement(INSERT_CARD)) {
+        delete.setString(1, username);
+        delete.executeUpdate();
+        List<FlashcardDeck> decks = deckManager.getDecks();
+        for (int position = 0; position < decks.size(); position++) {
+          FlashcardDeck deck = decks.get(position);
+          insertDeck.setString(1, username);
+          insertDeck.setString(2, deck.getDeckName());
+          insertDeck.setInt(3, position);
+          insertDeck.setInt(4, deck.getLastCardId());
+          insertDeck.addBatch();
+          List<Flashcard> cards = deck.getDeck();
+          for (int i = 0; i < cards.size(); i++) {
+            addCard(insertCard, username, deck.getDeckName(), i + 1, cards.get(i));
+          }
+        }
+        insertDeck.executeBatch();
+        insertCard.executeBatch();
+      }
+    });
+  }
+
+  @Override
+  public void appendOperation(String username, DeckOperation operation) throws IOException {
+    inTransaction("apply " + operation.getType() + " for " + username, connection -> {
+      if (!bumpVersion(connection, username)) {
+        throw new IOException("User does not exist: " + username);
+      }
+      String deckName = operation.getDeckName();
+      List<String> names = deckNames(connection, username);
+
+      // Validate against the deck names and the target deck, the same way the file
+      // backend does, so both backends accept and reject the same operations
+      List<FlashcardDeck> view = new ArrayList<>();
+      FlashcardDeck target = null;
+      for (String name : names) {
+        FlashcardDeck deck = new FlashcardDeck(name);
+        if (name.equals(deckName) && operation.getType() != DeckOperation.Type.DELETE_DECK) {
+          deck = loadDeck(connection, username, name);
+          target = deck;
+        }
+        view.add(deck);
+      }
+      FlashcardDeckManager manager = new FlashcardDeckManager();
+      manager.setDecks(view);
+      operation.applyTo(manager);
+
+      switch (operation.getType()) {
+        case CREATE_DECK -> {
+          try (PreparedStatement insert = connection.prepareStatement(INSERT_DECK)) {
+            insert.setString(1, username);
+            insert.setString(2, deckName);
+            insert.setInt(3, names.size());
+            insert.setInt(4, 0);
+            insert.executeUpdate();
+          }
+        }
+        case DELETE_DECK -> {
+          int position = names.indexOf(deckName);
+          try (PreparedStatement delete = connection.prepareStatement(DELETE_DECK);
+              PreparedStatement shift = connection.prepareStatement(SHIFT_DECKS)) {
+            delete.setString(1, username);
+            delete.setString(2, deckName);
+            delete.executeUpdate();
+            shift.setString(1, username);
+            shift.setInt(2, position);
+            shift.executeUpdate();
+          }
+        }
+        case ADD_CARD -> {
+          List<Flashcard> cards = target.getDeck();
+          try (PreparedStatement insert = connection.prepareStatement(INSERT_CARD);
+              PreparedStatement last = connection.prepareStatement(UPDATE_LAST_CARD_ID)) {
+            addCard(insert, username, deckName, cards.size(), cards.get(cards.size() - 1));
+            insert.executeBatch();
+            last.setInt(1, target.getLastCardId());
+            last.setString(2, username);
+            last.setString(3, deckName);
+            last.executeUpdate();
+          }
+        }
+        case UPDATE_CARD -> {
+          Flashcard card = target.getFlashcardById(operation.getCardId());
+          try (PreparedStatement update = connection.prepareStatement(UPDATE_CARD)) {
+            update.setString(1, card.getQuestion());
+            update.setString(2, card.getAnswer());
+            update.setString(3, username);
+            update.setString(4, deckName);
+            update.setInt(5, card.getId());
+            update.executeUpdate();
+          }
+        }
+        case REMOVE_CARD -> removeCard(connection, username, deckName,
+            operation.getIndex() + 1);
+        default -> throw new IllegalArgumentException(
+            "Unknown operation: " + operation.getType());
+      }
+    });
+  }
+
+  @Override
+  public long readVersion(String username) throws IOException {
+    try (Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement(SELECT_VERSION)) {
+      statement.setString(1, username);
+      try (ResultSet rows = statement.executeQuery()) {
+        return rows.next() ? rows.getLong(1) : -1;
+      }
+    } catch (SQLException e) {
+      throw failure("read version of " + username, e);
+    }
+  }
+
+  /**
+   * Closes all connections. The engine cannot be used afterwards.
+   */
+  @Override
+  public void close() {
+    pool.dispose();
+  }
+
+  /**
+   * A unit of work run inside one transaction.
+   */
+  @FunctionalInterface
+  private interface Work {
+
+    /**
+     * Runs the work.
+     *
+     * @param connection the connection, with auto-commit off
+     * @throws SQLException if a statement fails
+     * @throws IOException if the work decides to abort
+     */
+    void run(Connection connection) throws SQLException, IOException;
+  }
+
+  /**
+   * Runs work in a transaction that is committed if the work completes and rolled back
+   * if it throws.
+   *
+   * @param description what the work does, for error messages
+   * @param work the work to run
+   * @throws IOException if the work or the commit fails
+   */
+  private void inTransaction(String description, Work work) throws IOException {
+    try (Connection connection = pool.getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        work.run(connection);
+        connection.commit();
+      } catch (SQLException | IOException | RuntimeException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw failure(description, e);
+    }
+  }
+
+  /**
+   * Removes a card and moves the cards after it up by one.
+   *
+   * @param connection the connection
+   * @param username the user
+   * @param deckName the deck
+   * @param number the number of the card to remove
+   * @throws SQLException if a statement fails
+   */
+  private static void removeCard(Connection connection, String username, String deckName,
+      int number) throws SQLException {
+    try (PreparedStatement delete = connection.prepareStatement(DELETE_CARD);
+        PreparedStatement out = connection.prepareStatement(SHIFT_CARDS_OUT);
+        PreparedStatement in = connection.prepareStatement(SHIFT_CARDS_IN)) {
+      delete.setString(1, username);
+      delete.setString(2, deckName);
+      delete.setInt(3, number);
+      delete.executeUpdate();
+      out.setString(1, username);
+      out.setString(2, deckName);
+      out.setInt(3, number);
+      out.executeUpdate();
+      in.setString(1, username);
+      in.setString(2, deckName);
+      in.executeUpdate();
+    }
+  }
+
+  /**
+   * Adds a card insert to a batch.
+   *
+   * @param insert the insert statement
+   * @param username the user
+   * @param deckName the deck
+   * @param number the card number
+   * @param card the card
+   * @throws SQLException if the parameters cannot be set
+   */
+  private static void addCard(PreparedStatement insert, String username, String deckName,
+      int number, Flashcard card) throws SQLException {
+    insert.setString(1, username);
+    insert.setString(2, deckName);
+    insert.setInt(3, number);
+    insert.setString(4, card.getQuestion());
+    insert.setString(5, card.getAnswer());
+    insert.setInt(6, card.getId());
+    insert.addBatch();
+  }
+
+  /**
+   * Checks whether a user row exists.
+   *
+   * @param connection the connection
+   * @param username the user
+   * @return true if the user exists
+   * @throws SQLException if the query fails
+   */
+  private static boolean hasUser(Connection connection, String username)
+      throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(USER_EXISTS)) {
+      statement.setString(1, username);
+      try (ResultSet rows = statement.executeQuery()) {
+        return rows.next();
+      }
+    }
+  }
+
+  /**
+   * Increases the version of a user, which also locks the user's row until the
+   * transaction ends.
+   *
+   * @param connection the connection
+   * @param username the user
+   * @return false if the user does not exist
+   * @throws SQLException if the update fails
+   */
+  private static boolean bumpVersion(Connection connection, String username)
+      throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(BUMP_VERSION)) {
+      statement.setString(1, username);
+      return statement.executeUpdate() > 0;
+    }
+  }
+
+  /**
+   * Reads the deck names of a user in order.
+   *
+   * @param connection the connection
+   * @param username the user
+   * @return the deck names
+   * @throws SQLException if the query fails
+   */
+  private static List<String> deckNames(Connection connection, String username)
+      throws SQLException {
+    List<String> names = new ArrayList<>();
+    try (PreparedStatement statement = connection.prepareStatement(SELECT_DECK_NAMES)) {
+      statement.setString(1, username);
+      try (ResultSet rows = statement.executeQuery()) {
+        while (rows.next()) {
+          names.add(rows.getString(1));
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Looks up the position of a deck.
+   *
+   * @param connection the connection
+   * @param username the user
+   * @param deckName the deck
+   * @return the position, or -1 if the deck does not exist
+   * @throws SQLException if the query fails
+   */
+  private static int deckPosition(Connection connection, String username, String deckName)
+      throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(DECK_EXISTS)) {
+      statement.setString(1, username);
+      statement.setString(2, deckName);
+      try (ResultSet rows = statement.executeQuery()) {
+        return rows.next() ? rows.getInt(1) : -1;
+      }
+    }
+  }
+
+  /**
+   * Reads one deck with its cards in order.
+   *
+   * @param connection the connection
+   * @param username the user
+   * @param deckName the deck
+   * @return the deck
+   * @throws SQLException if a query fails
+   */
+  private static FlashcardDeck loadDeck(Connection connection, String username,
+      String deckName) throws SQLException {
+    FlashcardDeck deck = new FlashcardDeck(deckName);
+    try (PreparedStatement statement = connection.prepareStatement(SELECT_LAST_CARD_ID)) {
+      statement.setString(1, username);
+      statement.setString(2, deckName);
+      try (ResultSet rows = statement.executeQuery()) {
+        if (rows.next()) {
+          deck.setLastCardId(rows.getInt(1));
+        }
+      }
+    }
+    List<Flashcard> cards = new ArrayList<>();
+    try (PreparedStatement statement = connection.prepareStatement(SELECT_DECK_CARDS)) {
+      statement.setString(1, username);
+      statement.setString(2, deckName);
+      try (ResultSet rows = statement.executeQuery()) {
+        while (rows.next()) {
+          cards.add(card(rows.getInt(1), rows.getString(2), rows.getString(3), rows.getInt(4)));
+        }
+      }
+    }
+    deck.setDeck(cards);
+    return deck;
+  }
+
+  /**
+   * Creates a card read from a row.
+   *
+   * @param number the card number
+   * @param question the question text
+   * @param answer the answer text
+   * @param id the card id, 0 for rows from before cards had ids
+   * @return the card
+   */
+  private static Flashcard card(int number, String question, String answer, int id) {
+    Flashcard card = new Flashcard(number, question, answer);
+    card.setId(id);
+    return card;
+  }
+
+  /**
+   * Adds a deck read from a joined result to the list.
+   *
+   * @param deck the deck, or null before the first row
+   * @param cards the cards read for the deck
+   * @param decks the list to add to
+   */
+  private static void finishDeck(FlashcardDeck deck, List<Flashcard> cards,
+      List<FlashcardDeck> decks) {
+    if (deck != null) {
+      deck.setDeck(cards);
+      decks.add(deck);
+    }
+  }
+
+  /**
+   * Wraps a database error.
+   *
+   * @param description what failed
+   * @param e the database error
+   * @return the exception to throw
+   */
+  private static IOException failure(String description, SQLException e) {
+    return new IOException("Failed to " + description + ": " + e.getMessage(), e);
+  }
+}
@@ -0,0 +1,148 @@
+package itp.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, such as latencies in nanoseconds or sizes in bytes,
+ * cheap enough to record into on every storage operation.
+ *
+ * <p>Values are counted in buckets that split every power of two into four, so a
+ * percentile is off by at most a quarter of the value. Recording is a few additions on
+ * {@link LongAdder}s and never blocks, so threads recording at the same time do not slow
+ * each other down. Snapshots taken while values are recorded may be slightly
+ * inconsistent, which is fine for monitoring.
+ *
+ * @see StorageMetrics
+ */
+public final class Histogram {
+
+  private static final int SUB_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  // Values below SUB_BUCKETS get a bucket each, every power of two above gets SUB_BUCKETS
+  private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Summary of a histogram.
+   *
+   * @param count the number of values recorded
+   * @param sum the sum of the values
+   * @param max the largest value
+   * @param p50 the median
+   * @param p90 the 90th percentile
+   * @param p99 the 99th percentile
+   */
+  public record Snapshot(long count, long sum, long max, long p50, long p90, long p99) {
+
+    /**
+     * Gets the mean of the values.
+     *
+     * @return the mean, 0 if nothing was recorded
+     */
+    public double mean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+  }
+
+  /**
+   * Creates an empty histogram.
+   */
+  public Histogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records a value.
+   *
+   * @param value the value, negative values count as 0
+   */
+  public void record(long value) {
+    long recorded = Math.max(0, value);
+    buckets[bucketOf(recorded)].increment();
+    count.increment();
+    sum.add(recorded);
+    // Only contended while the maximum is still rising
+    if (recorded > max.get()) {
+      max.accumulateAndGet(recorded, Math::max);
+    }
+  }
+
+  /**
+   * Summarizes the values recorded so far.
+   *
+   * @return the snapshot
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    long largest = max.get();
+    return new Snapshot(total, sum.sum(), largest, percentile(counts, total, 0.5, largest),
+        percentile(counts, total, 0.9, largest), percentile(counts, total, 0.99, largest));
+  }
+
+  /**
+   * Finds the bucket a value falls into.
+   *
+   * @param value the non-negative value
+   * @return the bucket index
+   */
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Gets the largest value a bucket holds.
+   *
+   * @param bucket the bucket index
+   * @return the upper bound
+   */
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    long width = 1L << (exponent - SUB_BITS);
+    long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+    return lower + width - 1;
+  }
+
+  /**
+   * Estimates a percentile as the upper bound of the bucket it falls into.
+   *
+   * @param counts the count of each bucket
+   * @param total the sum of the counts
+   * @param fraction the percentile as a fraction
+   * @param max the largest value, which caps the estimate
+   * @return the estimate, 0 if nothing was recorded
+   */
+  private static long percentile(long[] counts, long total, double fraction, long max) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * fraction);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max);
+      }
+    }
+    return max;
+  }
+}
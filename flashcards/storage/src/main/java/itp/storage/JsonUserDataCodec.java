@@ -0,0 +1,54 @@
+package itp.storage;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores snapshots as pretty-printed JSON, the original and default format.
+ * Easy to read and edit by hand.
+ *
+ * @see UserDataCodecs#JSON
+ */
+final class JsonUserDataCodec implements UserDataCodec {
+
+  private final ObjectMapper objectMapper = new ObjectMapper()
+      .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+      .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+  private final JsonFactory parserFactory = new JsonFactory();
+
+  @Override
+  public String getName() {
+    return "json";
+  }
+
+  @Override
+  public boolean matches(byte[] header, int length) {
+    for (int i = 0; i < length; i++) {
+      byte b = header[i];
+      if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+        return b == '{';
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void write(OutputStream out, Object value) throws IOException {
+    objectMapper.writerWithDefaultPrettyPrinter().writeValue(out, value);
+  }
+
+  @Override
+  public <T> T read(InputStream in, Class<T> type) throws IOException {
+    return objectMapper.readValue(in, type);
+  }
+
+  @Override
+  public JsonParser createParser(InputStream in) throws IOException {
+    return parserFactory.createParser(in);
+  }
+}
@@ -0,0 +1,159 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves users from the flat file layout into the hash-sharded layout.
+ *
+ * <p>Users are migrated in parallel through {@link FlashcardPersistent#migrateUser(String)},
+ * which takes the same per-user lock as every write. Running the migration inside the
+ * server process is therefore safe while requests are served. Run from the command line
+ * with {@link #main(String[])} only while the server is stopped, since locks are not
+ * shared between processes.
+ *
+ * @see UserFileLayout
+ */
+public final class LayoutMigrator {
+
+  private static final Logger LOGGER = Logger.getLogger(LayoutMigrator.class.getName());
+
+  private final FlashcardPersistent persistent;
+  private final UserFileLayout layout;
+  private final int parallelism;
+
+  /**
+   * The outcome of a migration.
+   *
+   * @param total the number of users found in the flat layout
+   * @param migrated the number of users moved
+   * @param failed the number of users that could not be moved
+   * @param elapsedMillis the time the migration took
+   */
+  public record Result(long total, long migrated, long failed, long elapsedMillis) {}
+
+  /**
+   * Creates a migrator for the users directory of the current working directory.
+   * Users are moved through a FlashcardPersistent, which shares its per-user locks
+   * with every other instance in the process.
+   *
+   * @param parallelism the number of users to move at the same time
+   */
+  public LayoutMigrator(int parallelism) {
+    this(new FlashcardPersistent(), parallelism);
+  }
+
+  /**
+   * Creates a migrator for the users directory of a persistence layer, moving users
+   * through it.
+   *
+   * @param persistent the persistence layer whose users to move
+   * @param parallelism the number of users to move at the same time
+   */
+  public LayoutMigrator(FlashcardPersistent persistent, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    this.persistent = persistent;
+    this.layout = persistent.getLayout();
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Moves every user found in the flat layout.
+   *
+   * @param listener receives progress roughly every percent and once at the end
+   * @return the outcome of the migration
+   * @throws IOException if the users directory cannot be listed
+   * @throws InterruptedException if interrupted while waiting for the workers
+   */
+  public Result migrate(ProgressListener listener) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    List<String> usernames = listFlatUsers();
+    long total = usernames.size();
+    long step = Math.max(1, total / 100);
+    AtomicLong done = new AtomicLong();
+    AtomicLong migrated = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    Object progressLock = new Object();
+
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      for (String username : usernames) {
+        executor.execute(() -> {
+          try {
+            if (persistent.migrateUser(username)) {
+              migrated.incrementAndGet();
+            }
+          } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Failed to migrate user '" + username + "'", e);
+          }
+          long count = done.incrementAndGet();
+          if (count % step == 0 || count == total) {
+            synchronized (progressLock) {
+              listener.onProgress(count, total);
+            }
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+    }
+    while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+      // Keep waiting, progress is reported by the workers
+    }
+
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    return new Result(total, migrated.get(), failed.get(), elapsedMillis);
+  }
+
+  /**
+   * Lists the usernames of all snapshots in the flat layout.
+   *
+   * @return the usernames
+   * @throws IOException if the directory cannot be listed
+   */
+  private List<String> listFlatUsers() throws IOException {
+    List<String> usernames = new ArrayList<>();
+    if (!Files.isDirectory(layout.root())) {
+      return usernames;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(layout.root(), "*.json")) {
+      for (Path file : stream) {
+        if (Files.isRegularFile(file)) {
+          String name = file.toFile().getName();
+          usernames.add(name.substring(0, name.length() - ".json".length()));
+        }
+      }
+    }
+    return usernames;
+  }
+
+  /**
+   * Migrates the users directory of the current working directory.
+   * Takes the number of parallel workers as optional first argument.
+   *
+   * @param args command line arguments
+   * @throws Exception if the migration cannot run
+   */
+  public static void main(String[] args) throws Exception {
+    int parallelism = args.length > 0 ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    LayoutMigrator migrator = new LayoutMigrator(parallelism);
+    Result result = migrator.migrate((done, total) ->
+        System.out.printf("Migrated %d/%d users (%d%%)%n", done, total, done * 100 / total));
+    System.out.printf("Done: %d of %d users moved, %d failed, in %d ms%n", result.migrated(),
+        result.total(), result.failed(), result.elapsedMillis());
+  }
+}
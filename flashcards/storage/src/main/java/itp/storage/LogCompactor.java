@@ -0,0 +1,140 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Folds operation logs into fresh snapshots in the background once they grow
+ * past a size threshold. Keeps the replay cost on read bounded without making
+ * any request wait for a full rewrite.
+ *
+ * <p>Compaction runs on a single daemon thread. A user is queued at most once
+ * at a time, no matter how many appends cross the threshold meanwhile.
+ *
+ * @see OperationLog
+ * @see FlashcardPersistent#compactLog(String)
+ */
+public final class LogCompactor {
+
+  /** Log size in bytes that triggers compaction when none is configured. */
+  public static final long DEFAULT_THRESHOLD_BYTES = 64 * 1024;
+
+  private static final Logger LOGGER = Logger.getLogger(LogCompactor.class.getName());
+
+  private final long thresholdBytes;
+  private final ExecutorService executor;
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final AtomicLong compactions = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * A compaction of one user's log.
+   */
+  @FunctionalInterface
+  public interface Compaction {
+
+    /**
+     * Compacts the log of a user.
+     *
+     * @param username the user whose log to compact
+     * @throws IOException if writing the snapshot fails
+     */
+    void compact(String username) throws IOException;
+  }
+
+  /**
+   * Creates a compactor.
+   *
+   * @param thresholdBytes log size that triggers compaction
+   */
+  public LogCompactor(long thresholdBytes) {
+    this.thresholdBytes = thresholdBytes;
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flashcards-log-compactor");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Schedules compaction of a user's log if it has grown past the threshold.
+   *
+   * @param username the user whose log was appended to
+   * @param logSize the current size of the log in bytes
+   * @param compaction the compaction to run
+   * @return true if a compaction was scheduled by this call
+   */
+  public boolean compactIfNeeded(String username, long logSize, Compaction compaction) {
+    if (logSize < thresholdBytes || !pending.add(username)) {
+      return false;
+    }
+    executor.execute(() -> {
+      // Clear the flag first so appends during compaction can schedule another round
+      pending.remove(username);
+      try {
+        compaction.compact(username);
+        compactions.incrementAndGet();
+      } catch (IOException | RuntimeException e) {
+        failures.incrementAndGet();
+        LOGGER.log(Level.WARNING, "Failed to compact operation log for user '" + username + "'",
+            e);
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Waits until all compactions queued so far have finished.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return true if the queue drained in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+    Future<?> marker = executor.submit(() -> {});
+    try {
+      marker.get(timeout, unit);
+      return true;
+    } catch (ExecutionException | TimeoutException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Gets the log size that triggers compaction.
+   *
+   * @return the threshold in bytes
+   */
+  public long getThresholdBytes() {
+    return thresholdBytes;
+  }
+
+  /**
+   * Gets the number of completed compactions.
+   *
+   * @return the compaction count
+   */
+  public long getCompactionCount() {
+    return compactions.get();
+  }
+
+  /**
+   * Gets the number of compactions that failed. The log stays intact in that case.
+   *
+   * @return the failure count
+   */
+  public long getFailureCount() {
+    return failures.get();
+  }
+}
@@ -0,0 +1,174 @@
+package itp.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and appends a user's operation log, stored as one JSON object per line
+ * in {@code <username>.log} next to the user's snapshot file.
+ *
+ * <p>Only lines terminated by a newline count as written. A partial last line left
+ * behind by a crash is ignored on read and cut off before the next append, so a
+ * torn write never corrupts the log.
+ *
+ * @see DeckOperation
+ * @see FlashcardPersistent
+ */
+public class OperationLog {
+
+  private static final byte NEWLINE = '\n';
+
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Creates an operation log reader/writer.
+   *
+   * @param objectMapper the mapper used to (de)serialize operations
+   */
+  public OperationLog(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper.copy();
+  }
+
+  /**
+   * Appends an operation to a log file, creating the file if needed.
+   *
+   * @param log the log file
+   * @param operation the operation to append
+   * @return the size of the log in bytes after the append
+   * @throws IOException if writing fails
+   */
+  public long append(Path log, DeckOperation operation) throws IOException {
+    return appendAll(log, List.of(operation));
+  }
+
+  /**
+   * Appends several operations to a log file in a single write, creating the file if needed.
+   *
+   * @param log the log file
+   * @param operations the operations to append, in order
+   * @return the size of the log in bytes after the append
+   * @throws IOException if writing fails
+   */
+  public long appendAll(Path log, List<DeckOperation> operations) throws IOException {
+    ByteArrayOutputStream lines = new ByteArrayOutputStream();
+    for (DeckOperation operation : operations) {
+      lines.write(objectMapper.writeValueAsBytes(operation));
+      lines.write(NEWLINE);
+    }
+    final long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long end = committedLength(channel);
+      if (end != channel.size()) {
+        // Drop a torn line from an earlier crash
+        channel.truncate(end);
+      }
+      channel.position(end);
+      ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      return channel.size();
+    } finally {
+      StorageMetrics.chargeWrite(System.nanoTime() - start, lines.size());
+    }
+  }
+
+  /**
+   * Reads all complete operations from a log file.
+   *
+   * @param log the log file
+   * @return the operations in the order they were appended, empty if there is no log
+   * @throws IOException if the log cannot be read or contains a corrupt entry
+   */
+  public List<DeckOperation> read(Path log) throws IOException {
+    byte[] content;
+    long readStart = System.nanoTime();
+    try {
+      content = Files.readAllBytes(log);
+    } catch (NoSuchFileException e) {
+      return List.of();
+    }
+    StorageMetrics.chargeRead(System.nanoTime() - readStart, content.length);
+
+    List<DeckOperation> operations = new ArrayList<>();
+    int start = 0;
+    int lineNumber = 0;
+    for (int i = 0; i < content.length; i++) {
+      if (content[i] != NEWLINE) {
+        continue;
+      }
+      lineNumber++;
+      if (i > start) {
+        try {
+          operations.add(objectMapper.readValue(content, start, i - start, DeckOperation.class));
+        } catch (IOException e) {
+          throw new IOException("Corrupt operation log entry at line " + lineNumber + " in "
+              + log.getFileName() + ": " + e.getMessage(), e);
+        }
+      }
+      start = i + 1;
+    }
+    return operations;
+  }
+
+  /**
+   * Gets the size of a log file.
+   *
+   * @param log the log file
+   * @return the size in bytes, or 0 if there is no log
+   */
+  public long size(Path log) {
+    try {
+      return Files.size(log);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Deletes a log file once its operations are part of a snapshot.
+   *
+   * @param log the log file
+   * @throws IOException if the file exists but cannot be deleted
+   */
+  public void delete(Path log) throws IOException {
+    Files.deleteIfExists(log);
+  }
+
+  /**
+   * Finds the length of the log up to and including its last newline.
+   *
+   * @param channel an open channel on the log
+   * @return the number of bytes that belong to complete lines
+   * @throws IOException if reading fails
+   */
+  private long committedLength(FileChannel channel) throws IOException {
+    long position = channel.size();
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    while (position > 0) {
+      int chunk = (int) Math.min(buffer.capacity(), position);
+      buffer.clear().limit(chunk);
+      while (buffer.hasRemaining()
+          && channel.read(buffer, position - chunk + buffer.position()) >= 0) {
+        // Keep reading until the chunk is full
+      }
+      for (int i = chunk - 1; i >= 0; i--) {
+        if (buffer.get(i) == NEWLINE) {
+          return position - chunk + i + 1;
+        }
+      }
+      position -= chunk;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,20 @@
+package itp.storage;
+
+/**
+ * Receives progress updates while a bulk storage tool runs over every user.
+ * Called from worker threads, one call at a time.
+ *
+ * @see LayoutMigrator
+ * @see FormatConverter
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+  /**
+   * Reports how many users have been handled so far.
+   *
+   * @param done the number of users handled or failed so far
+   * @param total the number of users to handle
+   */
+  void onProgress(long done, long total);
+}
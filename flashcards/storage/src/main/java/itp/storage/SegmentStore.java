@@ -0,0 +1,443 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Key-value store that keeps all records in a few large memory-mapped segment files.
+ *
+ * <p>Records are only ever appended to the newest segment. Writing a key again appends
+ * a new record and leaves the old one behind as dead space. An in-memory index maps
+ * every key to its newest record, so a read is a map lookup followed by a slice of the
+ * mapped segment, served from the page cache without opening a file.
+ *
+ * <p>{@link #remove(String)} appends a tombstone, which hides the older records of the
+ * key until they are compacted away. {@link #compact(double)} copies the live records,
+ * and the tombstones still hiding something, out of segments that are mostly dead and
+ * deletes those segments. On open, the segments are scanned in order to
+ * rebuild the index. Every record carries a checksum, so a record torn by a crash
+ * ends the scan of its segment and is overwritten by the next append.
+ *
+ * <p>Record layout: total length (int), sequence (long), key length (short), key
+ * (UTF-8), payload length (int, -1 for a tombstone), payload, CRC32 of everything after
+ * the total length.
+ *
+ * @see SegmentedStorageEngine
+ * @see CardTextStore
+ */
+public final class SegmentStore implements AutoCloseable {
+
+  /** Size of a segment file when none is configured. */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final Logger LOGGER = Logger.getLogger(SegmentStore.class.getName());
+  private static final String PREFIX = "segment-";
+  private static final String SUFFIX = ".dat";
+  // total length, sequence, key length, payload length and checksum
+  private static final int OVERHEAD = Integer.BYTES + Long.BYTES + Short.BYTES
+      + Integer.BYTES + Integer.BYTES;
+  private static final int TOMBSTONE = -1;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final Map<String, Location> index = new ConcurrentHashMap<>();
+  // Guarded by this
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final Map<String, Location> tombstones = new HashMap<>();
+  private Segment active;
+  private long sequence;
+  private final AtomicLong compactions = new AtomicLong();
+  private final AtomicLong reclaimedBytes = new AtomicLong();
+
+  /**
+   * Where the newest record of a key lives.
+   *
+   * @param segment the segment holding the record
+   * @param offset the offset of the record in the segment
+   * @param length the total length of the record
+   * @param payloadOffset the offset of the payload in the segment
+   * @param payloadLength the length of the payload
+   * @param sequence the sequence number of the record
+   */
+  private record Location(Segment segment, int offset, int length, int payloadOffset,
+      int payloadLength, long sequence) {}
+
+  /**
+   * One mapped segment file and its space accounting.
+   */
+  private static final class Segment {
+    private final int id;
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private int end;
+    private long deadBytes;
+
+    Segment(int id, Path file, MappedByteBuffer buffer) {
+      this.id = id;
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  /**
+   * Statistics of the store.
+   *
+   * @param segments the number of segment files
+   * @param records the number of live records
+   * @param usedBytes the bytes written to segments, live and dead
+   * @param deadBytes the bytes held by records that were overwritten
+   * @param compactions the number of segments compacted away
+   * @param reclaimedBytes the bytes freed by compaction
+   */
+  public record Stats(int segments, int records, long usedBytes, long deadBytes,
+      long compactions, long reclaimedBytes) {}
+
+  /**
+   * Opens a store, creating the directory if needed, and rebuilds the index.
+   *
+   * @param directory the directory holding the segment files
+   * @param segmentSize the size of each segment file, and the largest record size
+   * @throws IOException if the segments cannot be read
+   */
+  public SegmentStore(Path directory, int segmentSize) throws IOException {
+    if (segmentSize < OVERHEAD) {
+      throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    Files.createDirectories(directory);
+    synchronized (this) {
+      List<Integer> ids = new ArrayList<>();
+      try (DirectoryStream<Path> stream =
+          Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+        for (Path file : stream) {
+          String name = file.toFile().getName();
+          ids.add(Integer.parseInt(
+              name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+        }
+      }
+      ids.sort(null);
+      for (int id : ids) {
+        scan(map(id));
+      }
+      active = segments.isEmpty() ? map(0) : segments.lastEntry().getValue();
+    }
+  }
+
+  /**
+   * Writes the record of a key, replacing any earlier one.
+   *
+   * @param key the key
+   * @param payload the record content
+   * @throws IOException if the record does not fit in a segment or a new segment
+   *     cannot be created
+   */
+  public synchronized void put(String key, byte[] payload) throws IOException {
+    Location location = append(key, payload, payload.length);
+    replace(key, location);
+  }
+
+  /**
+   * Deletes the record of a key by appending a tombstone.
+   *
+   * @param key the key
+   * @return true if the key had a record
+   * @throws IOException if a new segment cannot be created
+   */
+  public synchronized boolean remove(String key) throws IOException {
+    if (!index.containsKey(key)) {
+      return false;
+    }
+    delete(key, append(key, new byte[0], TOMBSTONE));
+    return true;
+  }
+
+  /**
+   * Reads the record of a key without copying it.
+   *
+   * @param key the key
+   * @return a read-only view of the payload, or null if the key has no record
+   */
+  public ByteBuffer get(String key) {
+    Location location = index.get(key);
+    if (location == null) {
+      return null;
+    }
+    // Compacted segments are only deleted, never unmapped, so old views stay valid
+    return location.segment().buffer
+        .slice(location.payloadOffset(), location.payloadLength())
+        .asReadOnlyBuffer();
+  }
+
+  /**
+   * Checks whether a key has a record.
+   *
+   * @param key the key
+   * @return true if the key has a record
+   */
+  public boolean contains(String key) {
+    return index.containsKey(key);
+  }
+
+  /**
+   * Lists all keys with a record.
+   *
+   * @return the keys
+   */
+  public Set<String> keys() {
+    return Set.copyOf(index.keySet());
+  }
+
+  /**
+   * Copies the live records out of every full segment whose share of dead space is at
+   * least the given ratio, then deletes those segments. A segment whose file cannot be
+   * deleted stays listed as all dead, and the next compaction tries again.
+   *
+   * @param minDeadRatio the share of dead bytes, 0 to 1, that makes a segment worth
+   *     compacting
+   * @return the number of segments compacted and deleted
+   * @throws IOException if a live record cannot be copied
+   */
+  public synchronized int compact(double minDeadRatio) throws IOException {
+    List<Segment> candidates = new ArrayList<>();
+    for (Segment segment : segments.values()) {
+      if (segment != active && segment.end > 0
+          && (double) segment.deadBytes / segment.end >= minDeadRatio) {
+        candidates.add(segment);
+      }
+    }
+    int compacted = 0;
+    for (Segment segment : candidates) {
+      for (Map.Entry<String, Location> entry : index.entrySet()) {
+        Location location = entry.getValue();
+        if (location.segment() == segment) {
+          ByteBuffer payload = get(entry.getKey());
+          byte[] copy = new byte[payload.remaining()];
+          payload.get(copy);
+          put(entry.getKey(), copy);
+        }
+      }
+      // Tombstones only matter while an older segment may still hold the key
+      boolean older = segments.firstKey() < segment.id;
+      for (Map.Entry<String, Location> entry : List.copyOf(tombstones.entrySet())) {
+        if (entry.getValue().segment() == segment) {
+          if (older) {
+            delete(entry.getKey(), append(entry.getKey(), new byte[0], TOMBSTONE));
+          } else {
+            tombstones.remove(entry.getKey());
+          }
+        }
+      }
+      try {
+        Files.deleteIfExists(segment.file);
+      } catch (IOException e) {
+        // A rescan still reads the file, so it has to stay listed: later compactions
+        // then keep the tombstones its old records need and retry the delete
+        segment.deadBytes = segment.end;
+        LOGGER.log(Level.WARNING, "Could not delete compacted segment " + segment.file, e);
+        continue;
+      }
+      segments.remove(segment.id);
+      compacted++;
+      compactions.incrementAndGet();
+      reclaimedBytes.addAndGet(segment.end);
+    }
+    return compacted;
+  }
+
+  /**
+   * Gets the current statistics of the store.
+   *
+   * @return a snapshot of the statistics
+   */
+  public synchronized Stats stats() {
+    long used = 0;
+    long dead = 0;
+    for (Segment segment : segments.values()) {
+      used += segment.end;
+      dead += segment.deadBytes;
+    }
+    return new Stats(segments.size(), index.size(), used, dead, compactions.get(),
+        reclaimedBytes.get());
+  }
+
+  /**
+   * Forgets all segments. The mappings are released once no view of them is left.
+   */
+  @Override
+  public synchronized void close() {
+    index.clear();
+    tombstones.clear();
+    segments.clear();
+  }
+
+  /**
+   * Appends a record to the active segment, starting a new segment if it does not fit.
+   *
+   * @param key the key
+   * @param payload the record content
+   * @param payloadLength the payload length to record, {@link #TOMBSTONE} for a tombstone
+   * @return where the record was written
+   * @throws IOException if the record does not fit in a segment or a new segment
+   *     cannot be created
+   */
+  private Location append(String key, byte[] payload, int payloadLength) throws IOException {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int length = OVERHEAD + keyBytes.length + payload.length;
+    if (length > segmentSize || keyBytes.length > Short.MAX_VALUE) {
+      throw new IOException("Record for " + key + " does not fit in a segment: " + length);
+    }
+    if (active.end + length > segmentSize) {
+      active = map(active.id + 1);
+    }
+    Segment segment = active;
+    final int offset = segment.end;
+    ByteBuffer record = ByteBuffer.allocate(length);
+    record.putInt(length)
+        .putLong(++sequence)
+        .putShort((short) keyBytes.length)
+        .put(keyBytes)
+        .putInt(payloadLength)
+        .put(payload);
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), Integer.BYTES, length - 2 * Integer.BYTES);
+    record.putInt((int) crc.getValue());
+    segment.buffer.put(offset, record.array());
+    segment.buffer.force(offset, length);
+    segment.end += length;
+    return new Location(segment, offset, length,
+        offset + length - Integer.BYTES - payload.length, payload.length, sequence);
+  }
+
+  /**
+   * Points a key at a new record and counts the old one as dead.
+   *
+   * @param key the key
+   * @param location the new record
+   */
+  private void replace(String key, Location location) {
+    Location previous = index.put(key, location);
+    if (previous != null) {
+      previous.segment().deadBytes += previous.length();
+    }
+    // A tombstone is counted as dead from the start
+    tombstones.remove(key);
+  }
+
+  /**
+   * Drops a key from the index in favour of a tombstone, counting the old record and
+   * the tombstone itself as dead.
+   *
+   * @param key the key
+   * @param tombstone the tombstone record
+   */
+  private void delete(String key, Location tombstone) {
+    Location previous = index.remove(key);
+    if (previous != null) {
+      previous.segment().deadBytes += previous.length();
+    }
+    tombstones.put(key, tombstone);
+    tombstone.segment().deadBytes += tombstone.length();
+  }
+
+  /**
+   * Gets the sequence number of the newest record or tombstone of a key.
+   *
+   * @param key the key
+   * @return the sequence number, -1 if there is neither
+   */
+  private long newestSequence(String key) {
+    Location current = index.get(key);
+    Location tombstone = tombstones.get(key);
+    return Math.max(current == null ? -1 : current.sequence(),
+        tombstone == null ? -1 : tombstone.sequence());
+  }
+
+  /**
+   * Opens or creates a segment file and maps it.
+   *
+   * @param id the segment number
+   * @return the segment
+   * @throws IOException if the file cannot be mapped
+   */
+  private Segment map(int id) throws IOException {
+    Path file = directory.resolve(String.format("%s%05d%s", PREFIX, id, SUFFIX));
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // The mapping stays valid after the channel is closed
+      Segment segment = new Segment(id, file,
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+      segments.put(id, segment);
+      return segment;
+    }
+  }
+
+  /**
+   * Reads the records of a segment into the index, stopping at free space or at the
+   * first record that is torn or corrupt.
+   *
+   * @param segment the segment to scan
+   */
+  private void scan(Segment segment) {
+    ByteBuffer buffer = segment.buffer;
+    int offset = 0;
+    while (offset + OVERHEAD <= segmentSize) {
+      int length = buffer.getInt(offset);
+      if (length < OVERHEAD || offset + length > segmentSize) {
+        break;
+      }
+      int keyLength = buffer.getShort(offset + Integer.BYTES + Long.BYTES);
+      int payloadAt = offset + Integer.BYTES + Long.BYTES + Short.BYTES + keyLength;
+      if (keyLength < 0 || payloadAt + Integer.BYTES > offset + length) {
+        break;
+      }
+      int payloadLength = buffer.getInt(payloadAt);
+      if (payloadLength < TOMBSTONE
+          || OVERHEAD + keyLength + Math.max(payloadLength, 0) != length) {
+        break;
+      }
+      byte[] checked = new byte[length - 2 * Integer.BYTES];
+      buffer.get(offset + Integer.BYTES, checked);
+      CRC32 crc = new CRC32();
+      crc.update(checked);
+      if ((int) crc.getValue() != buffer.getInt(offset + length - Integer.BYTES)) {
+        break;
+      }
+
+      long recordSequence = buffer.getLong(offset + Integer.BYTES);
+      byte[] keyBytes = new byte[keyLength];
+      buffer.get(offset + Integer.BYTES + Long.BYTES + Short.BYTES, keyBytes);
+      String key = new String(keyBytes, StandardCharsets.UTF_8);
+      Location location = new Location(segment, offset, length, payloadAt + Integer.BYTES,
+          Math.max(payloadLength, 0), recordSequence);
+      if (newestSequence(key) > recordSequence) {
+        segment.deadBytes += length;
+      } else if (payloadLength == TOMBSTONE) {
+        delete(key, location);
+      } else {
+        replace(key, location);
+      }
+      sequence = Math.max(sequence, recordSequence);
+      offset += length;
+    }
+    segment.end = offset;
+  }
+}
@@ -0,0 +1,266 @@
+package itp.storage;
+
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Storage backend that keeps every user as one record in memory-mapped segment files.
+ *
+ * <p>Whether a user exists is answered from the in-memory index, and reading a user
+ * parses the record straight out of the mapped segment, so requests do not open,
+ * read and close a file per user. Every change writes the user's whole record again
+ * at the end of the newest segment, with the version in its log sequence increased.
+ * The version is also written in a short header in front of the encoded user, so
+ * reading it does not parse the user. A background task compacts segments once at
+ * least half of them is taken up by overwritten records, see {@link SegmentStore}.
+ *
+ * <p>Records are encoded in the format set by {@code flashcards.storage.format}, and
+ * the format of each record is detected when it is read.
+ *
+ * <p>Selected with {@code flashcards.storage.engine=mmap}, see {@link StorageEngines}.
+ *
+ * @see StorageEngine
+ */
+public final class SegmentedStorageEngine implements StorageEngine, AutoCloseable {
+
+  /** Share of dead space at which a segment is compacted. */
+  public static final double COMPACT_RATIO = 0.5;
+
+  /** Time in milliseconds between background compactions. */
+  public static final long COMPACT_INTERVAL_MILLIS = 10_000;
+
+  // Starts records that begin with their version, matched by no format
+  private static final Logger LOGGER = Logger.getLogger(SegmentedStorageEngine.class.getName());
+  private static final byte[] VERSION_HEADER = {0, 'V', 'E', 'R'};
+  private static final int HEADER_LENGTH = VERSION_HEADER.length + Long.BYTES;
+
+  private final SegmentStore store;
+  private final UserDataCodec codec;
+  private final UserLockManager lockManager;
+  private final ScheduledExecutorService compactor;
+
+  /**
+   * Opens or creates a store.
+   *
+   * @param directory the directory holding the segment files
+   * @param segmentSize the size of each segment file, and the largest user record
+   * @throws IOException if the segments cannot be read
+   */
+  public SegmentedStorageEngine(Path directory, int segmentSize) throws IOException {
+    this.store = new SegmentStore(directory, segmentSize);
+    this.codec = UserDataCodecs.configured();
+    this.lockManager = FlashcardPersistent.sharedLockManager();
+    this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flashcards-segment-compactor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    compactor.scheduleWithFixedDelay(this::compactQuietly, COMPACT_INTERVAL_MILLIS,
+        COMPACT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String getEngineName() {
+    return StorageEngines.MMAP;
+  }
+
+  @Override
+  public boolean userExists(String username) {
+    return store.contains(username);
+  }
+
+  @Override
+  public User readUserData(String username) {
+    try {
+      StoredUserData data = read(username);
+      return data == null ? null : data.getUser();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void writeUserData(User user) throws IOException {
+    lockManager.withLock(user.getUsername(), () -> {
+      if (store.contains(user.getUsername())) {
+        throw new IOException("User already exists: " + user.getUsername());
+      }
+      write(user.getUsername(), new StoredUserData(user, new FlashcardDeckManager(), 0));
+      return null;
+    });
+  }
+
+  @Override
+  public FlashcardDeckManager readDeck(String username) throws IOException {
+    StoredUserData data = read(username);
+    return data == null ? new FlashcardDeckManager() : data.getDeckManager();
+  }
+
+  @Override
+  public FlashcardDeck readDeck(String username, String deckName) throws IOException {
+    return readDeck(username).getDeck(deckName);
+  }
+
+  @Override
+  public List<String> readDeckNames(String username) throws IOException {
+    return readDeck(username).getDecks().stream()
+        .map(FlashcardDeck::getDeckName)
+        .toList();
+  }
+
+  @Override
+  public void writeDeck(String username, FlashcardDeckManager deckManager) throws IOException {
+    lockManager.withLock(username, () -> {
+      StoredUserData data = read(username);
+      if (data == null) {
+        throw new IOException("User does not exist: " + username);
+      }
+      data.setDeckManager(deckManager);
+      data.setLogSequence(data.getLogSequence() + 1);
+      write(username, data);
+      return null;
+    });
+  }
+
+  @Override
+  public void appendOperation(String username, DeckOperation operation) throws IOException {
+    lockManager.withLock(username, () -> {
+      StoredUserData data = read(username);
+      if (data == null) {
+        throw new IOException("User does not exist: " + username);
+      }
+      FlashcardDeckManager manager = data.getDeckManager();
+      operation.applyTo(manager);
+      data.setDeckManager(manager);
+      data.setLogSequence(data.getLogSequence() + 1);
+      write(username, data);
+      return null;
+    });
+  }
+
+  @Override
+  public long readVersion(String username) throws IOException {
+    ByteBuffer record = store.get(username);
+    if (record == null) {
+      return -1;
+    }
+    if (hasVersionHeader(record)) {
+      return record.getLong(record.position() + VERSION_HEADER.length);
+    }
+    // Written before records had a header
+    return decode(record).getLogSequence();
+  }
+
+  /**
+   * Compacts segments with at least {@link #COMPACT_RATIO} dead space now.
+   *
+   * @return the number of segments compacted
+   * @throws IOException if a live record cannot be copied
+   */
+  public int compact() throws IOException {
+    return store.compact(COMPACT_RATIO);
+  }
+
+  /**
+   * Gets the current statistics of the segment files.
+   *
+   * @return a snapshot of the statistics
+   */
+  public SegmentStore.Stats getStats() {
+    return store.stats();
+  }
+
+  /**
+   * Stops background compaction and releases the segments.
+   */
+  @Override
+  public void close() {
+    compactor.shutdownNow();
+    store.close();
+  }
+
+  /**
+   * Parses a user's record from its mapped segment.
+   *
+   * @param username the user
+   * @return the data, or null if the user does not exist
+   * @throws IOException if the record is malformed
+   */
+  private StoredUserData read(String username) throws IOException {
+    ByteBuffer record = store.get(username);
+    if (record == null) {
+      return null;
+    }
+    if (hasVersionHeader(record)) {
+      record.position(record.position() + HEADER_LENGTH);
+    }
+    return decode(record);
+  }
+
+  /**
+   * Parses an encoded user, detecting its format.
+   *
+   * @param encoded the encoded user, without version header
+   * @return the data
+   * @throws IOException if the record is malformed
+   */
+  private static StoredUserData decode(ByteBuffer encoded) throws IOException {
+    return UserDataCodecs.detect(encoded)
+        .read(new ByteBufferInputStream(encoded), StoredUserData.class);
+  }
+
+  /**
+   * Checks whether a record starts with its version.
+   *
+   * @param record the record
+   * @return true if the record has a version header
+   */
+  private static boolean hasVersionHeader(ByteBuffer record) {
+    if (record.remaining() < HEADER_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < VERSION_HEADER.length; i++) {
+      if (record.get(record.position() + i) != VERSION_HEADER[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Encodes a user behind its version and appends the record.
+   *
+   * @param username the user
+   * @param data the data to write
+   * @throws IOException if the record cannot be written
+   */
+  private void write(String username, StoredUserData data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.writeBytes(VERSION_HEADER);
+    out.writeBytes(ByteBuffer.allocate(Long.BYTES).putLong(data.getLogSequence()).array());
+    codec.write(out, data);
+    store.put(username, out.toByteArray());
+  }
+
+  /**
+   * Background compaction that never lets an exception stop the schedule.
+   */
+  private void compactQuietly() {
+    try {
+      compact();
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Failed to compact segments", e);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package itp.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores snapshots in Smile, Jackson's binary encoding of the JSON data model.
+ * Repeated field names such as {@code question} and {@code answer} are written once
+ * and referenced afterwards, and no text has to be tokenized on read.
+ *
+ * @see UserDataCodecs#SMILE
+ */
+final class SmileUserDataCodec implements UserDataCodec {
+
+  // Every Smile document starts with ":)\n"
+  private static final byte[] MAGIC = {':', ')', '\n'};
+
+  private final SmileFactory parserFactory = new SmileFactory();
+  private final ObjectMapper objectMapper = new ObjectMapper(new SmileFactory())
+      .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+      .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+  @Override
+  public String getName() {
+    return "smile";
+  }
+
+  @Override
+  public boolean matches(byte[] header, int length) {
+    if (length < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void write(OutputStream out, Object value) throws IOException {
+    objectMapper.writeValue(out, value);
+  }
+
+  @Override
+  public <T> T read(InputStream in, Class<T> type) throws IOException {
+    return objectMapper.readValue(in, type);
+  }
+
+  @Override
+  public JsonParser createParser(InputStream in) throws IOException {
+    return parserFactory.createParser(in);
+  }
+}
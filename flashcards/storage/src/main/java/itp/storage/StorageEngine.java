@@ -0,0 +1,149 @@
+package itp.storage;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.UserPersistence;
+import itp.storage.UserLockManager.LockedAction;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A storage backend for users, their decks and their cards.
+ *
+ * <p>Extends {@link UserPersistence}, which only covers credentials, with the deck and
+ * card operations the services need. Changes to single decks and cards go through
+ * {@link #appendOperation(String, DeckOperation)}, so every backend can apply them
+ * without rewriting the user's other decks. Callers that validate a change before
+ * applying it hold the user's lock from {@link FlashcardPersistent#sharedLockManager()},
+ * which works the same for every backend.
+ *
+ * <p>Every user's data carries a version that grows with each change, so clients can
+ * tell whether their copy is current and writers can make their change conditional on
+ * it with {@link #ifVersion(String, long, LockedAction)}.
+ *
+ * <p>The backend in use is chosen with {@code flashcards.storage.engine}, see
+ * {@link StorageEngines}.
+ *
+ * @see FlashcardPersistent
+ * @see H2StorageEngine
+ */
+public interface StorageEngine extends UserPersistence {
+
+  /**
+   * Gets the name used to select this backend in configuration.
+   *
+   * @return the backend name
+   */
+  String getEngineName();
+
+  /**
+   * Reads all decks of a user.
+   *
+   * @param username the user
+   * @return the decks, empty if the user does not exist
+   * @throws IOException if reading fails
+   */
+  FlashcardDeckManager readDeck(String username) throws IOException;
+
+  /**
+   * Reads one deck of a user.
+   *
+   * @param username the user
+   * @param deckName the name of the deck
+   * @return the deck, or null if the user or the deck does not exist
+   * @throws IOException if reading fails
+   */
+  FlashcardDeck readDeck(String username, String deckName) throws IOException;
+
+  /**
+   * Reads the names of a user's decks in order.
+   *
+   * @param username the user
+   * @return the deck names, empty if the user does not exist
+   * @throws IOException if reading fails
+   */
+  List<String> readDeckNames(String username) throws IOException;
+
+  /**
+   * Reads one card by its number within a deck.
+   *
+   * @param username the user
+   * @param deckName the name of the deck
+   * @param number the card number, starting at 1
+   * @return the card, or null if the user, the deck or the card does not exist
+   * @throws IOException if reading fails
+   */
+  default Flashcard readCard(String username, String deckName, int number)
+      throws IOException {
+    FlashcardDeck deck = readDeck(username, deckName);
+    if (deck == null || number < 1 || number > deck.size()) {
+      return null;
+    }
+    return deck.getFlashcard(number - 1);
+  }
+
+  /**
+   * Replaces all decks of a user.
+   *
+   * @param username the user
+   * @param deckManager the user's new decks
+   * @throws IOException if the user does not exist or writing fails
+   */
+  void writeDeck(String username, FlashcardDeckManager deckManager) throws IOException;
+
+  /**
+   * Applies a single deck or card change.
+   *
+   * @param username the user
+   * @param operation the change to apply
+   * @throws IOException if the user does not exist or writing fails
+   * @throws IllegalArgumentException if the operation does not fit the current decks
+   */
+  void appendOperation(String username, DeckOperation operation) throws IOException;
+
+  /**
+   * Reads the version of a user's data. Every change to the user's decks and cards
+   * increases it, so an unchanged version means unchanged data.
+   *
+   * @param username the user
+   * @return the version, or -1 if the user does not exist
+   * @throws IOException if reading fails
+   */
+  long readVersion(String username) throws IOException;
+
+  /**
+   * Writes the changes the backend still holds in memory and waits until they are on
+   * disk. Called when the server stops. Backends that write every change right away
+   * have nothing to do.
+   *
+   * @return the number of users whose changes could not be written
+   */
+  default int flushPendingWrites() {
+    return 0;
+  }
+
+  /**
+   * Applies a change only if the user's data is still at a given version. The version is
+   * compared and the change applied under the user's lock, so no other write can slip in
+   * between.
+   *
+   * @param <T> the result type of the change
+   * @param username the user
+   * @param expectedVersion the version the change is based on
+   * @param change the change to apply
+   * @return the result of the change
+   * @throws VersionConflictException if the user is at another version
+   * @throws IOException if reading the version or applying the change fails
+   */
+  default <T> T ifVersion(String username, long expectedVersion, LockedAction<T> change)
+      throws IOException {
+    return FlashcardPersistent.sharedLockManager().withLock(username, () -> {
+      long version = readVersion(username);
+      if (version != expectedVersion) {
+        throw new VersionConflictException(username, expectedVersion, version);
+      }
+      return change.run();
+    });
+  }
+}
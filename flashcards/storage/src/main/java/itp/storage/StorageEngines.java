@@ -0,0 +1,119 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * The available storage backends and selection of the configured one.
+ *
+ * @see StorageEngine
+ */
+public final class StorageEngines {
+
+  /** One snapshot and operation log per user, the default. */
+  public static final String JSON = "json";
+
+  /** All users in one embedded H2 database file. */
+  public static final String H2 = "h2";
+
+  /** All users as records in memory-mapped segment files. */
+  public static final String MMAP = "mmap";
+
+  // Opened on first use and shared, since their files can only be opened once
+  private static H2StorageEngine sharedDatabase;
+  private static SegmentedStorageEngine sharedSegments;
+
+  private StorageEngines() {
+  }
+
+  /**
+   * Gets the backend by its configured name.
+   *
+   * @param name the name, such as {@code json}, {@code h2} or {@code mmap}
+   * @return the backend
+   * @throws IllegalArgumentException if there is no backend with that name
+   * @throws UncheckedIOException if the database or the segments cannot be opened
+   */
+  public static StorageEngine forName(String name) {
+    String wanted = name.trim().toLowerCase(Locale.ROOT);
+    return switch (wanted) {
+      case JSON -> new FlashcardPersistent();
+      case H2 -> sharedDatabase();
+      case MMAP -> sharedSegments();
+      default -> throw new IllegalArgumentException("Unknown storage engine: " + name);
+    };
+  }
+
+  /**
+   * Gets the backend selected by {@code flashcards.storage.engine}.
+   *
+   * @return the configured backend, the JSON backend if none is set
+   * @throws UncheckedIOException if the database or the segments cannot be opened
+   */
+  public static StorageEngine configured() {
+    return forName(System.getProperty("flashcards.storage.engine", JSON));
+  }
+
+  /**
+   * Gets the database file of the H2 backend, from {@code flashcards.storage.databasePath}.
+   *
+   * @return the database file without extension, next to the users directory by default
+   */
+  public static Path databasePath() {
+    String configured = System.getProperty("flashcards.storage.databasePath");
+    if (configured != null) {
+      return Path.of(configured);
+    }
+    return UserFileLayout.current().root().resolveSibling("flashcards");
+  }
+
+  /**
+   * Gets the segment directory of the mmap backend, from
+   * {@code flashcards.storage.segmentsPath}.
+   *
+   * @return the segment directory, next to the users directory by default
+   */
+  public static Path segmentsPath() {
+    String configured = System.getProperty("flashcards.storage.segmentsPath");
+    if (configured != null) {
+      return Path.of(configured);
+    }
+    return UserFileLayout.current().root().resolveSibling("segments");
+  }
+
+  /**
+   * Opens the shared database on first use.
+   *
+   * @return the shared H2 backend
+   */
+  private static synchronized H2StorageEngine sharedDatabase() {
+    if (sharedDatabase == null) {
+      try {
+        sharedDatabase = new H2StorageEngine(databasePath());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return sharedDatabase;
+  }
+
+  /**
+   * Opens the shared segment files on first use. The segment size is read from
+   * {@code flashcards.storage.segmentSize}.
+   *
+   * @return the shared mmap backend
+   */
+  private static synchronized SegmentedStorageEngine sharedSegments() {
+    if (sharedSegments == null) {
+      try {
+        sharedSegments = new SegmentedStorageEngine(segmentsPath(), Integer.getInteger(
+            "flashcards.storage.segmentSize", SegmentStore.DEFAULT_SEGMENT_SIZE));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return sharedSegments;
+  }
+}
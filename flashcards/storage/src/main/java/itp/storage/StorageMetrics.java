@@ -0,0 +1,370 @@
+package itp.storage;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of latency histograms and byte counters for the storage operations of the
+ * {@code json} backend.
+ *
+ * <p>An operation is timed from {@link #start(Operation)} until its sample is closed.
+ * While a sample is open, the time its thread spends in file reads, writes and syncs
+ * is charged to it as I/O, and the time spent waiting for the user's lock as lock wait.
+ * The rest of the operation is counted as serialization, which besides parsing and
+ * writing JSON or Smile includes the cache and the bookkeeping around it. Operations started
+ * inside another one, such as the read inside a write, are charged to the outer one.
+ *
+ * <p>Recording is meant for the hot path: the histograms never block, and file streams
+ * are only wrapped while a sample is open on the current thread.
+ *
+ * @see Histogram
+ * @see FlashcardPersistent#sharedMetrics()
+ */
+public final class StorageMetrics {
+
+  private static final ThreadLocal<Sample> CURRENT = new ThreadLocal<>();
+  // Returned for operations started inside another one, closing it does nothing
+  private static final Sample NESTED = new Sample(null, null);
+
+  private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+  private final Histogram readSizes = new Histogram();
+  private final Histogram writtenSizes = new Histogram();
+
+  /**
+   * The storage operations that are measured.
+   */
+  public enum Operation {
+    /** Reading one deck or all decks of a user. */
+    READ_DECK,
+    /** Writing the decks of a user, whole or as a single change. */
+    WRITE_DECK,
+    /** Checking whether a user exists. */
+    USER_EXISTS,
+    /** Reading the credentials of a user. */
+    READ_USER_DATA,
+    /** Creating a user. */
+    WRITE_USER_DATA
+  }
+
+  /**
+   * Histograms and counters of one operation, all latencies in nanoseconds.
+   *
+   * @param total the latency of the whole operation
+   * @param io the time spent reading, writing and syncing files
+   * @param lockWait the time spent waiting for the user's lock
+   * @param serialization the rest, mostly parsing and writing the data
+   * @param bytesRead the number of bytes read from files
+   * @param bytesWritten the number of bytes written to files
+   */
+  public record OperationSnapshot(Histogram.Snapshot total, Histogram.Snapshot io,
+      Histogram.Snapshot lockWait, Histogram.Snapshot serialization, long bytesRead,
+      long bytesWritten) {}
+
+  /**
+   * Summary of the registry.
+   *
+   * @param operations the metrics of each operation
+   * @param readSizes the number of bytes read from each file, which is its size unless
+   *     the reader stopped early, as the credential read does
+   * @param writtenSizes the size of each file written
+   */
+  public record Snapshot(Map<Operation, OperationSnapshot> operations,
+      Histogram.Snapshot readSizes, Histogram.Snapshot writtenSizes) {
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param operations the metrics of each operation, copied
+     * @param readSizes the number of bytes read from each file
+     * @param writtenSizes the size of each file written
+     */
+    public Snapshot {
+      operations = Collections.unmodifiableMap(new EnumMap<>(operations));
+    }
+  }
+
+  /**
+   * Histograms and counters of one operation.
+   */
+  private static final class OperationMetrics {
+    private final Histogram total = new Histogram();
+    private final Histogram io = new Histogram();
+    private final Histogram lockWait = new Histogram();
+    private final Histogram serialization = new Histogram();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * Summarizes the operation.
+     *
+     * @return the snapshot
+     */
+    OperationSnapshot snapshot() {
+      return new OperationSnapshot(total.snapshot(), io.snapshot(), lockWait.snapshot(),
+          serialization.snapshot(), bytesRead.sum(), bytesWritten.sum());
+    }
+  }
+
+  /**
+   * A running measurement of one operation. Close it when the operation is done, also
+   * when it fails.
+   */
+  public static final class Sample implements AutoCloseable {
+    private final StorageMetrics metrics;
+    private final Operation operation;
+    private final long start;
+    private long ioNanos;
+    private long waitNanos;
+    private long bytesRead;
+    private long bytesWritten;
+
+    /**
+     * Starts a sample.
+     *
+     * @param metrics the registry to record into, or null for a nested operation
+     * @param operation the operation
+     */
+    private Sample(StorageMetrics metrics, Operation operation) {
+      this.metrics = metrics;
+      this.operation = operation;
+      this.start = metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the measured times and bytes.
+     */
+    @Override
+    public void close() {
+      if (metrics == null) {
+        return;
+      }
+      CURRENT.remove();
+      long elapsed = System.nanoTime() - start;
+      OperationMetrics target = metrics.operations.get(operation);
+      target.total.record(elapsed);
+      target.io.record(ioNanos);
+      target.lockWait.record(waitNanos);
+      target.serialization.record(elapsed - ioNanos - waitNanos);
+      target.bytesRead.add(bytesRead);
+      target.bytesWritten.add(bytesWritten);
+    }
+  }
+
+  /**
+   * Creates an empty registry.
+   */
+  public StorageMetrics() {
+    for (Operation operation : Operation.values()) {
+      operations.put(operation, new OperationMetrics());
+    }
+  }
+
+  /**
+   * Starts measuring an operation on the current thread.
+   *
+   * @param operation the operation
+   * @return the sample to close once the operation is done
+   */
+  public Sample start(Operation operation) {
+    if (CURRENT.get() != null) {
+      // Charged to the operation already running
+      return NESTED;
+    }
+    Sample sample = new Sample(this, operation);
+    CURRENT.set(sample);
+    return sample;
+  }
+
+  /**
+   * Summarizes everything recorded so far.
+   *
+   * @return the snapshot
+   */
+  public Snapshot snapshot() {
+    Map<Operation, OperationSnapshot> snapshots = new EnumMap<>(Operation.class);
+    operations.forEach((operation, metrics) -> snapshots.put(operation, metrics.snapshot()));
+    return new Snapshot(snapshots, readSizes.snapshot(), writtenSizes.snapshot());
+  }
+
+  /**
+   * Charges file reads to the operation running on the current thread, if any.
+   *
+   * @param nanos the time the reads took
+   * @param bytes the number of bytes read
+   */
+  static void chargeRead(long nanos, long bytes) {
+    Sample sample = CURRENT.get();
+    if (sample != null) {
+      sample.ioNanos += nanos;
+      sample.bytesRead += bytes;
+    }
+  }
+
+  /**
+   * Charges file writes or syncs to the operation running on the current thread, if any.
+   *
+   * @param nanos the time the writes took
+   * @param bytes the number of bytes written
+   */
+  static void chargeWrite(long nanos, long bytes) {
+    Sample sample = CURRENT.get();
+    if (sample != null) {
+      sample.ioNanos += nanos;
+      sample.bytesWritten += bytes;
+    }
+  }
+
+  /**
+   * Charges waiting for a lock to the operation running on the current thread, if any.
+   *
+   * @param nanos the time spent waiting
+   */
+  static void chargeLockWait(long nanos) {
+    Sample sample = CURRENT.get();
+    if (sample != null) {
+      sample.waitNanos += nanos;
+    }
+  }
+
+  /**
+   * Measures the reads from a file stream, if an operation is running on the current
+   * thread. Wrap the raw stream, below any buffering, so each read is a file read.
+   *
+   * @param in the file stream
+   * @return the measured stream, or the stream itself outside of an operation
+   */
+  static InputStream meter(InputStream in) {
+    Sample sample = CURRENT.get();
+    return sample == null ? in : new MeteredInputStream(in, sample.metrics);
+  }
+
+  /**
+   * Measures the writes to a file stream, if an operation is running on the current
+   * thread. Wrap the raw stream, below any buffering, so each write is a file write.
+   *
+   * @param out the file stream
+   * @return the measured stream, or the stream itself outside of an operation
+   */
+  static OutputStream meter(OutputStream out) {
+    Sample sample = CURRENT.get();
+    return sample == null ? out : new MeteredOutputStream(out, sample.metrics);
+  }
+
+  /**
+   * Input stream that charges its reads to the running operation and records the bytes
+   * read from the file when closed.
+   */
+  private static final class MeteredInputStream extends FilterInputStream {
+    private final StorageMetrics metrics;
+    private long bytes;
+
+    /**
+     * Wraps a file stream.
+     *
+     * @param in the file stream
+     * @param metrics the registry to record the file size in
+     */
+    MeteredInputStream(InputStream in, StorageMetrics metrics) {
+      super(in);
+      this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+      long start = System.nanoTime();
+      int value = super.read();
+      charge(start, value < 0 ? 0 : 1);
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      long start = System.nanoTime();
+      int read = super.read(buffer, offset, length);
+      charge(start, Math.max(read, 0));
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      metrics.readSizes.record(bytes);
+    }
+
+    /**
+     * Charges a read to the running operation.
+     *
+     * @param start when the read started
+     * @param read the number of bytes read
+     */
+    private void charge(long start, int read) {
+      bytes += read;
+      chargeRead(System.nanoTime() - start, read);
+    }
+  }
+
+  /**
+   * Output stream that charges its writes to the running operation and records the size
+   * of the file when closed.
+   */
+  private static final class MeteredOutputStream extends FilterOutputStream {
+    private final StorageMetrics metrics;
+    private long bytes;
+
+    /**
+     * Wraps a file stream.
+     *
+     * @param out the file stream
+     * @param metrics the registry to record the file size in
+     */
+    MeteredOutputStream(OutputStream out, StorageMetrics metrics) {
+      super(out);
+      this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+      long start = System.nanoTime();
+      out.write(value);
+      charge(start, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      long start = System.nanoTime();
+      out.write(buffer, offset, length);
+      charge(start, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      long start = System.nanoTime();
+      out.flush();
+      charge(start, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      metrics.writtenSizes.record(bytes);
+    }
+
+    /**
+     * Charges a write to the running operation.
+     *
+     * @param start when the write started
+     * @param written the number of bytes written
+     */
+    private void charge(long start, int written) {
+      bytes += written;
+      chargeWrite(System.nanoTime() - start, written);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Checks the integrity of every user in the users directory, and optionally repairs
+ * what it finds, so broken files show up before a request trips over them.
+ *
+ * <p>Users are checked in parallel on a {@link ForkJoinPool} through
+ * {@link FlashcardPersistent#checkUser(String, boolean)}, which takes the same per-user
+ * lock as every write. That makes the check safe to run inside the server while it is
+ * serving requests. Run from the command line with {@link #main(String[])} only while
+ * the server is stopped, since locks are not shared between processes.
+ *
+ * <p>Each user's manifest, deck files and operation log must parse, the credentials must
+ * be present and belong to the user, deck names must be unique and cards must be
+ * numbered 1 to n. With repair switched on, whatever can be saved is written back as
+ * a fresh snapshot, and the broken files are copied to the {@code quarantine} directory
+ * next to the users directory first. Users whose manifest or credentials are broken are
+ * moved to the quarantine as a whole.
+ *
+ * @see FlashcardPersistent#checkUser(String, boolean)
+ */
+public final class StoreChecker {
+
+  private final FlashcardPersistent persistent;
+  private final UserFileLayout layout;
+  private final int parallelism;
+  private final boolean repair;
+
+  /**
+   * The state a user was found or left in.
+   */
+  public enum Status {
+    /** Nothing wrong. */
+    HEALTHY,
+    /** Problems found and left as they are. */
+    DAMAGED,
+    /** Problems found and repaired. */
+    REPAIRED,
+    /** Beyond repair and moved to the quarantine. */
+    QUARANTINED
+  }
+
+  /**
+   * The outcome of checking one user.
+   *
+   * @param username the user
+   * @param status the state the user was found or left in
+   * @param problems what was wrong, empty for a healthy user
+   */
+  public record UserReport(String username, Status status, List<String> problems) {
+
+    /**
+     * Creates a report, copying the problems.
+     *
+     * @param username the user
+     * @param status the state the user was found or left in
+     * @param problems what was wrong
+     */
+    public UserReport {
+      problems = List.copyOf(problems);
+    }
+  }
+
+  /**
+   * The outcome of a check.
+   *
+   * @param checked the number of users checked
+   * @param healthy the number of users without problems
+   * @param damaged the number of users with problems left in place
+   * @param repaired the number of users repaired
+   * @param quarantined the number of users moved to the quarantine
+   * @param failed the number of users the check itself failed for
+   * @param elapsedMillis the time the check took
+   */
+  public record Result(long checked, long healthy, long damaged, long repaired,
+      long quarantined, long failed, long elapsedMillis) {
+
+    /**
+     * Gets the throughput of the check.
+     *
+     * @return the users checked per second
+     */
+    public double usersPerSecond() {
+      return checked * 1000.0 / Math.max(1, elapsedMillis);
+    }
+  }
+
+  /**
+   * Creates a checker for the users directory of the current working directory.
+   *
+   * @param parallelism the number of users to check at the same time
+   * @param repair whether to repair or quarantine broken users rather than only report them
+   * @throws IllegalArgumentException if parallelism is below one
+   */
+  public StoreChecker(int parallelism, boolean repair) {
+    this(new FlashcardPersistent(), parallelism, repair);
+  }
+
+  /**
+   * Creates a checker using a given persistence layer, such as the one of a running server.
+   *
+   * @param persistent the persistence layer whose locks and cache to use
+   * @param parallelism the number of users to check at the same time
+   * @param repair whether to repair or quarantine broken users rather than only report them
+   * @throws IllegalArgumentException if parallelism is below one
+   */
+  public StoreChecker(FlashcardPersistent persistent, int parallelism, boolean repair) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    this.persistent = persistent;
+    this.layout = persistent.getLayout();
+    this.parallelism = parallelism;
+    this.repair = repair;
+  }
+
+  /**
+   * Checks every user found in the users directory.
+   *
+   * @param listener receives progress roughly every percent and once at the end
+   * @param reports receives the report of every user that is not healthy, one at a time
+   * @return the outcome of the check
+   * @throws IOException if the users directory cannot be listed
+   * @throws InterruptedException if interrupted while waiting for the workers
+   */
+  public Result check(ProgressListener listener, Consumer<UserReport> reports)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    AtomicLong done = new AtomicLong();
+    AtomicLong healthy = new AtomicLong();
+    AtomicLong damaged = new AtomicLong();
+    AtomicLong repaired = new AtomicLong();
+    AtomicLong quarantined = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    Object reportLock = new Object();
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    List<String> usernames;
+    try {
+      // A user left in both layouts is checked once, in the location that wins
+      usernames = List.copyOf(new LinkedHashSet<>(pool.submit(layout::listUsernames).get()));
+      long total = usernames.size();
+      long step = Math.max(1, total / 100);
+      pool.submit(() -> usernames.parallelStream().forEach(username -> {
+        UserReport report;
+        boolean checked = true;
+        try {
+          report = persistent.checkUser(username, repair);
+        } catch (IOException | RuntimeException e) {
+          report = new UserReport(username, Status.DAMAGED,
+              List.of("Check failed: " + e.getMessage()));
+          checked = false;
+        }
+        if (!checked) {
+          failed.incrementAndGet();
+        } else if (report != null) {
+          switch (report.status()) {
+            case HEALTHY -> healthy.incrementAndGet();
+            case DAMAGED -> damaged.incrementAndGet();
+            case REPAIRED -> repaired.incrementAndGet();
+            case QUARANTINED -> quarantined.incrementAndGet();
+            default -> throw new IllegalStateException("Unknown status: " + report.status());
+          }
+        }
+        long count = done.incrementAndGet();
+        synchronized (reportLock) {
+          if (report != null && report.status() != Status.HEALTHY) {
+            reports.accept(report);
+          }
+          if (count % step == 0 || count == total) {
+            listener.onProgress(count, total);
+          }
+        }
+      })).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw io;
+      }
+      throw new IOException("Failed to check users: " + e.getCause(), e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    return new Result(usernames.size(), healthy.get(), damaged.get(), repaired.get(),
+        quarantined.get(), failed.get(), elapsedMillis);
+  }
+
+  /**
+   * Checks the users directory of the current working directory.
+   * Takes {@code --repair} to repair broken users instead of only reporting them, and the
+   * number of parallel workers as optional last argument.
+   *
+   * @param args command line arguments
+   * @throws Exception if the check cannot run
+   */
+  public static void main(String[] args) throws Exception {
+    boolean repair = args.length > 0 && args[0].equals("--repair");
+    int rest = repair ? 1 : 0;
+    if (args.length > rest + 1) {
+      System.err.println("Usage: StoreChecker [--repair] [parallelism]");
+      return;
+    }
+    int parallelism = args.length > rest ? Integer.parseInt(args[rest])
+        : Runtime.getRuntime().availableProcessors();
+    StoreChecker checker = new StoreChecker(parallelism, repair);
+    Result result = checker.check(
+        (done, total) -> System.out.printf("Checked %d/%d users (%d%%)%n", done, total,
+            done * 100 / total),
+        report -> report.problems().forEach(problem -> System.out.printf("%s %s: %s%n",
+            report.status(), report.username(), problem)));
+    System.out.printf("Done: %d users checked in %d ms (%.0f users/s), %d healthy, "
+        + "%d damaged, %d repaired, %d quarantined, %d failed%n", result.checked(),
+        result.elapsedMillis(), result.usersPerSecond(), result.healthy(), result.damaged(),
+        result.repaired(), result.quarantined(), result.failed());
+  }
+}
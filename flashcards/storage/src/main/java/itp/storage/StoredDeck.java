@@ -0,0 +1,178 @@
+package itp.storage;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A deck file as it is written to disk: the deck name and its cards, with long card
+ * texts replaced by references into the {@link CardTextStore}.
+ *
+ * <p>Texts shorter than {@link CardTextStore#MIN_SHARED_LENGTH} stay inline, since a
+ * reference would not be any smaller. Deck files written before texts were shared
+ * keep all cards inline in {@code flashcards}. They are still read, and get references
+ * the next time the deck is written.
+ *
+ * @see UserManifest
+ * @see CardTextStore
+ */
+@JsonPropertyOrder({"deckName", "lastCardId", "cards", "flashcards"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+final class StoredDeck {
+
+  @JsonProperty("deckName")
+  private String deckName;
+
+  @JsonProperty("lastCardId")
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private int lastCardId;
+
+  @JsonProperty("cards")
+  private List<CardEntry> cards;
+
+  // Only present in deck files from before card texts were shared
+  @JsonProperty("flashcards")
+  private List<Flashcard> flashcards;
+
+  /**
+   * One card of the deck. Each text is either inline or a reference, never both.
+   *
+   * @param number the card number
+   * @param question the question text, or null if it is referenced
+   * @param questionRef the hash of the question text, or null if it is inline
+   * @param answer the answer text, or null if it is referenced
+   * @param answerRef the hash of the answer text, or null if it is inline
+   * @param id the id of the card, 0 in files from before cards had ids
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  record CardEntry(int number, String question, String questionRef, String answer,
+      String answerRef, @JsonInclude(JsonInclude.Include.NON_DEFAULT) int id) {}
+
+  /**
+   * Default constructor for deserialization.
+   */
+  StoredDeck() {
+  }
+
+  /**
+   * Creates the stored form of a deck.
+   *
+   * @param deck the deck
+   */
+  StoredDeck(FlashcardDeck deck) {
+    this.deckName = deck.getDeckName();
+    this.lastCardId = deck.getLastCardId();
+    this.cards = new ArrayList<>();
+    for (Flashcard card : deck.getDeck()) {
+      boolean sharedQuestion = CardTextStore.isShared(card.getQuestion());
+      boolean sharedAnswer = CardTextStore.isShared(card.getAnswer());
+      cards.add(new CardEntry(card.getNumber(),
+          sharedQuestion ? null : card.getQuestion(),
+          sharedQuestion ? CardTextStore.hashOf(card.getQuestion()) : null,
+          sharedAnswer ? null : card.getAnswer(),
+          sharedAnswer ? CardTextStore.hashOf(card.getAnswer()) : null, card.getId()));
+    }
+  }
+
+  /**
+   * Gets the deck name.
+   *
+   * @return the deck name
+   */
+  String getDeckName() {
+    return deckName;
+  }
+
+  /**
+   * Lists the texts of a deck that are stored by reference, once per occurrence.
+   *
+   * @param deck the deck
+   * @return the shared question and answer texts
+   */
+  static List<String> sharedTexts(FlashcardDeck deck) {
+    List<String> texts = new ArrayList<>();
+    for (Flashcard card : deck.getDeck()) {
+      if (CardTextStore.isShared(card.getQuestion())) {
+        texts.add(card.getQuestion());
+      }
+      if (CardTextStore.isShared(card.getAnswer())) {
+        texts.add(card.getAnswer());
+      }
+    }
+    return texts;
+  }
+
+  /**
+   * Lists the references of this deck file, once per occurrence.
+   *
+   * @return the hashes of the referenced texts, empty for a file with inline cards
+   */
+  List<String> references() {
+    List<String> references = new ArrayList<>();
+    if (cards != null) {
+      for (CardEntry card : cards) {
+        if (card.questionRef() != null) {
+          references.add(card.questionRef());
+        }
+        if (card.answerRef() != null) {
+          references.add(card.answerRef());
+        }
+      }
+    }
+    return references;
+  }
+
+  /**
+   * Checks that the cards in the file are numbered 1 to n. Once read into a deck, cards
+   * are numbered by their position, so this is the only place a wrong number shows.
+   *
+   * @return true if every card is present and carries its position
+   */
+  boolean isNumbered() {
+    if (cards == null) {
+      for (int i = 0; flashcards != null && i < flashcards.size(); i++) {
+        if (flashcards.get(i) == null || flashcards.get(i).getNumber() != i + 1) {
+          return false;
+        }
+      }
+      return true;
+    }
+    for (int i = 0; i < cards.size(); i++) {
+      if (cards.get(i) == null || cards.get(i).number() != i + 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Turns the stored form back into a deck, resolving references through a text store.
+   *
+   * @param texts the store holding the referenced texts
+   * @return the deck
+   * @throws IOException if a referenced text cannot be read
+   */
+  FlashcardDeck toDeck(CardTextStore texts) throws IOException {
+    FlashcardDeck deck = new FlashcardDeck(deckName);
+    deck.setLastCardId(lastCardId);
+    if (cards == null) {
+      deck.setDeck(flashcards == null ? List.of() : flashcards);
+      return deck;
+    }
+    List<Flashcard> resolved = new ArrayList<>(cards.size());
+    for (CardEntry card : cards) {
+      Flashcard flashcard = new Flashcard(card.number(),
+          card.questionRef() == null ? card.question() : texts.text(card.questionRef()),
+          card.answerRef() == null ? card.answer() : texts.text(card.answerRef()));
+      flashcard.setId(card.id());
+      resolved.add(flashcard);
+    }
+    deck.setDeck(resolved);
+    return deck;
+  }
+}
@@ -0,0 +1,67 @@
+package itp.storage;
+
+import app.FlashcardDeckManager;
+import app.User;
+import app.UserData;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * User data as it is written to a snapshot file.
+ * Besides credentials and decks it records the sequence number of the last
+ * operation log entry folded into the snapshot, so log entries that were already
+ * compacted are skipped on replay even if a crash left them behind.
+ *
+ * <p>The sequence number doubles as the version of the user's data: every logged change
+ * takes the next number, and so does every write of all decks at once.
+ *
+ * <p>The credentials are always written first so {@link CredentialsReader} can stop
+ * reading before it reaches the decks.
+ *
+ * @see OperationLog
+ */
+@JsonPropertyOrder({"user", "deckManager", "logSequence"})
+public class StoredUserData extends UserData {
+
+  @JsonProperty("logSequence")
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private long logSequence;
+
+  /**
+   * Default constructor for JSON deserialization.
+   */
+  public StoredUserData() {
+    super();
+  }
+
+  /**
+   * Creates stored user data for a user and its decks.
+   *
+   * @param user the user
+   * @param deckManager the user's decks
+   * @param logSequence the sequence number of the last applied log entry
+   */
+  public StoredUserData(User user, FlashcardDeckManager deckManager, long logSequence) {
+    super(user, deckManager);
+    this.logSequence = logSequence;
+  }
+
+  /**
+   * Gets the sequence number of the last log entry reflected in this data.
+   *
+   * @return the log sequence number
+   */
+  public long getLogSequence() {
+    return logSequence;
+  }
+
+  /**
+   * Sets the sequence number of the last log entry reflected in this data.
+   *
+   * @param logSequence the log sequence number
+   */
+  public void setLogSequence(long logSequence) {
+    this.logSequence = logSequence;
+  }
+}
@@ -0,0 +1,311 @@
+package itp.storage;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import itp.storage.UserFileLayout.UserFiles;
+import itp.storage.UserManifest.DeckEntry;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Checks and repairs the files of one user of the {@code json} backend.
+ *
+ * <p>Only reads through the {@link UserFileStore} and moves broken files to the
+ * quarantine. Rewriting a repaired user goes back through {@link FlashcardPersistent},
+ * so the cache and the change journal stay in step, see {@link Repairs}.
+ *
+ * @see StoreChecker
+ * @see FlashcardPersistent#checkUser(String, boolean)
+ */
+final class UserChecker {
+
+  private final UserFileStore store;
+  private final OperationLog operationLog;
+  private final Repairs repairs;
+
+  /**
+   * The changes a repair makes outside the user's files.
+   */
+  interface Repairs {
+
+    /**
+     * Called before a user's files are moved or rewritten.
+     *
+     * @param username the user
+     * @throws IOException if the change cannot be recorded
+     */
+    void changing(String username) throws IOException;
+
+    /**
+     * Writes what could be saved of a user as a fresh snapshot.
+     *
+     * @param userData the repaired data
+     * @throws IOException if writing fails
+     */
+    void rewrite(StoredUserData userData) throws IOException;
+  }
+
+  /**
+   * Creates a checker.
+   *
+   * @param store the store to read the user's files through
+   * @param operationLog the reader of operation logs
+   * @param repairs the changes a repair makes outside the user's files
+   */
+  UserChecker(UserFileStore store, OperationLog operationLog, Repairs repairs) {
+    this.store = store;
+    this.operationLog = operationLog;
+    this.repairs = repairs;
+  }
+
+  /**
+   * Checks the integrity of a user's files and optionally repairs them.
+   * Call under the user's lock with no changes pending for the user.
+   *
+   * <p>The manifest, every deck file and the operation log must parse and the log must
+   * apply cleanly. The credentials must be present and belong to the user, deck names
+   * must be unique and cards numbered 1 to n, and the deck directory must not hold files
+   * the manifest does not list. On repair, the broken files are copied to the quarantine
+   * and everything that could be read is written back as a fresh snapshot: unreadable
+   * decks, duplicate decks and log entries that do not apply are dropped, and cards are
+   * renumbered. A user whose manifest or credentials are broken cannot be rebuilt and
+   * is moved to the quarantine as a whole.
+   *
+   * @param files the files of the user to check
+   * @param repair whether to repair or quarantine the user if it is broken
+   * @return what was found and done, or null if the user does not exist
+   * @throws IOException if the repair fails
+   */
+  StoreChecker.UserReport check(UserFiles files, boolean repair) throws IOException {
+    final String username = files.username();
+    List<String> problems = new ArrayList<>();
+    UserManifest manifest;
+    try {
+      manifest = store.readManifest(files.snapshot());
+    } catch (IOException | RuntimeException e) {
+      problems.add("Unreadable snapshot: " + e.getMessage());
+      return quarantineUser(files, problems, repair);
+    }
+    if (manifest == null) {
+      return null;
+    }
+    User user = manifest.getUser();
+    if (user == null || user.getUsername() == null) {
+      problems.add("Missing username");
+    } else if (!username.equals(user.getUsername())) {
+      problems.add("Snapshot belongs to user '" + user.getUsername() + "'");
+    } else if (user.getPassword() == null || user.getPassword().isBlank()) {
+      problems.add("Missing password");
+    }
+    if (!problems.isEmpty()) {
+      return quarantineUser(files, problems, repair);
+    }
+
+    List<Path> broken = new ArrayList<>();
+    List<FlashcardDeck> decks = checkDecks(files, manifest, problems, broken);
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.setDecks(decks);
+    long sequence = manifest.getLogSequence();
+    try {
+      for (DeckOperation operation : operationLog.read(files.log())) {
+        if (operation.getSequence() <= sequence) {
+          continue;
+        }
+        sequence = operation.getSequence();
+        try {
+          operation.applyTo(manager);
+        } catch (IllegalArgumentException e) {
+          problems.add("Log entry " + sequence + " does not apply: " + e.getMessage());
+          broken.add(files.log());
+        }
+      }
+    } catch (IOException e) {
+      problems.add("Unreadable operation log: " + e.getMessage());
+      broken.add(files.log());
+    }
+
+    if (problems.isEmpty()) {
+      return new StoreChecker.UserReport(username, StoreChecker.Status.HEALTHY, problems);
+    }
+    if (!repair) {
+      return new StoreChecker.UserReport(username, StoreChecker.Status.DAMAGED, problems);
+    }
+    Path quarantine = quarantineOf(username);
+    copyToQuarantine(files.snapshot(), quarantine);
+    for (Path file : new HashSet<>(broken)) {
+      copyToQuarantine(file, quarantine);
+    }
+    repairs.changing(username);
+    repairs.rewrite(new StoredUserData(user, manager, sequence));
+    return new StoreChecker.UserReport(username, StoreChecker.Status.REPAIRED, problems);
+  }
+
+  /**
+   * Reads and checks every deck a manifest lists.
+   *
+   * @param files the user's files
+   * @param manifest the user's manifest
+   * @param problems collects what is wrong
+   * @param broken collects the files to keep a copy of before repairing
+   * @return the decks that can be kept, renumbered where needed
+   * @throws IOException if the deck directory cannot be listed
+   */
+  private List<FlashcardDeck> checkDecks(UserFiles files, UserManifest manifest,
+      List<String> problems, List<Path> broken) throws IOException {
+    List<FlashcardDeck> decks = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    Set<String> listed = new HashSet<>();
+    // Decks whose files number their cards wrongly, which reading them has already fixed
+    Set<FlashcardDeck> misnumbered = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (manifest.isInline()) {
+      FlashcardDeckManager inline = manifest.getDeckManager();
+      if (inline != null) {
+        decks.addAll(inline.getDecks());
+      }
+    } else {
+      CardTextStore texts = store.texts();
+      for (DeckEntry entry : manifest.getDecks()) {
+        listed.add(entry.file());
+        Path file = files.deck(entry.file());
+        try {
+          StoredDeck stored = store.readStoredDeck(file);
+          FlashcardDeck deck = stored.toDeck(texts);
+          if (!stored.isNumbered()) {
+            misnumbered.add(deck);
+          }
+          if (!Objects.equals(deck.getDeckName(), entry.name())) {
+            problems.add("Deck file " + entry.file() + " holds deck '" + deck.getDeckName()
+                + "' instead of '" + entry.name() + "'");
+            deck.setDeckName(entry.name());
+          }
+          decks.add(deck);
+        } catch (IOException | RuntimeException e) {
+          problems.add("Unreadable deck '" + entry.name() + "': " + e.getMessage());
+          broken.add(file);
+        }
+      }
+    }
+
+    List<FlashcardDeck> kept = new ArrayList<>();
+    for (FlashcardDeck deck : decks) {
+      String name = deck.getDeckName();
+      if (name == null || name.isBlank()) {
+        problems.add("Deck without a name");
+      } else if (!names.add(name)) {
+        problems.add("Duplicate deck '" + name + "'");
+      } else {
+        kept.add(renumbered(deck, !misnumbered.contains(deck), problems));
+      }
+    }
+
+    if (Files.isDirectory(files.decks())) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(files.decks())) {
+        for (Path file : stream) {
+          if (!listed.contains(file.toFile().getName())) {
+            problems.add("Unlisted deck file " + file.toFile().getName());
+            broken.add(file);
+          }
+        }
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Checks that the cards of a deck are numbered 1 to n.
+   *
+   * @param deck the deck
+   * @param numbered whether its file numbered the cards 1 to n
+   * @param problems collects what is wrong
+   * @return the deck, or a renumbered copy without missing cards if it was wrong
+   */
+  private static FlashcardDeck renumbered(FlashcardDeck deck, boolean numbered,
+      List<String> problems) {
+    List<Flashcard> cards = deck.getDeck();
+    boolean sequential = numbered;
+    for (int i = 0; i < cards.size() && sequential; i++) {
+      sequential = cards.get(i) != null;
+    }
+    if (sequential) {
+      return deck;
+    }
+    problems.add("Cards of deck '" + deck.getDeckName() + "' are not numbered 1 to "
+        + cards.size());
+    FlashcardDeck fixed = new FlashcardDeck(deck.getDeckName());
+    fixed.setLastCardId(deck.getLastCardId());
+    for (Flashcard card : cards) {
+      if (card != null) {
+        fixed.addFlashcard(card);
+      }
+    }
+    return fixed;
+  }
+
+  /**
+   * Reports a user that cannot be rebuilt, and moves its files to the quarantine on repair.
+   *
+   * @param files the user's files
+   * @param problems what is wrong
+   * @param repair whether to move the files
+   * @return the report
+   * @throws IOException if the files cannot be moved
+   */
+  private StoreChecker.UserReport quarantineUser(UserFiles files, List<String> problems,
+      boolean repair) throws IOException {
+    if (!repair) {
+      return new StoreChecker.UserReport(files.username(), StoreChecker.Status.DAMAGED,
+          problems);
+    }
+    Path quarantine = quarantineOf(files.username());
+    Files.createDirectories(quarantine);
+    repairs.changing(files.username());
+    for (Path file : List.of(files.snapshot(), files.log(), files.decks())) {
+      if (Files.exists(file)) {
+        Files.move(file, quarantine.resolve(file.toFile().getName()));
+      }
+    }
+    return new StoreChecker.UserReport(files.username(), StoreChecker.Status.QUARANTINED,
+        problems);
+  }
+
+  /**
+   * Gets a fresh quarantine directory for a user's files.
+   *
+   * @param username the username
+   * @return the directory in the {@code quarantine} directory next to the users directory
+   */
+  private Path quarantineOf(String username) {
+    return store.layout().root().resolveSibling("quarantine")
+        .resolve(username + "-" + System.currentTimeMillis());
+  }
+
+  /**
+   * Copies a broken file to the quarantine before it is repaired.
+   *
+   * @param file the file, deck files are kept in a {@code decks} subdirectory
+   * @param quarantine the quarantine directory of the user
+   * @throws IOException if copying fails
+   */
+  private static void copyToQuarantine(Path file, Path quarantine) throws IOException {
+    if (!Files.exists(file)) {
+      return;
+    }
+    String name = file.toFile().getName();
+    Path directory = name.endsWith(UserFileStore.DECK_SUFFIX)
+        ? quarantine.resolve("decks") : quarantine;
+    Files.createDirectories(directory);
+    Files.copy(file, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
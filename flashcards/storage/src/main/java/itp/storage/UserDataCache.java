@@ -0,0 +1,386 @@
+package itp.storage;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of parsed user data keyed by username.
+ * Sits in front of the JSON files in {@link FlashcardPersistent} so repeated reads
+ * of an active user skip both the disk read and the Jackson parse.
+ *
+ * <p>Entries are evicted in least-recently-used order once the capacity is reached.
+ * Every entry remembers the modification time and size of the files it was loaded from,
+ * and a lookup only counts as a hit if the files still match, so files that are
+ * edited or deleted outside the application are never served stale.
+ *
+ * <p>Values are handed out without copying any cards. The data returned shares its decks
+ * with the cached entry, and those decks are never changed in place: a change copies
+ * the one deck it touches first, see {@link #forChange}, so a hit costs the number of
+ * decks rather than the size of the library. Callers that hand decks on to code that
+ * may change them take a full copy with {@link #copyOf}.
+ *
+ * @see FlashcardPersistent
+ */
+public final class UserDataCache {
+
+  /** Capacity used when none is configured. */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private final int capacity;
+  private final LinkedHashMap<String, Entry> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a cache holding at most the given number of users.
+   *
+   * @param capacity maximum number of cached users, must be positive
+   * @throws IllegalArgumentException if capacity is not positive
+   */
+  public UserDataCache(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity must be positive");
+    }
+    this.capacity = capacity;
+    // Access-ordered map so iteration order is least recently used first
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Looks up the cached data for a user, validating it against the backing files.
+   *
+   * @param username the username to look up
+   * @param current the current state of the user's files
+   * @return the cached data, sharing its decks with the cache, or null on a miss
+   */
+  public StoredUserData get(String username, FileStamp current) {
+    Entry entry;
+    synchronized (this) {
+      entry = lookup(username, current);
+    }
+    return entry == null ? null : shareOf(entry.data);
+  }
+
+  /**
+   * Looks up one deck of a user, validating it against the backing files.
+   * Only that deck is copied, so the cost depends on the size of the deck rather than
+   * the user's whole library.
+   *
+   * @param username the username to look up
+   * @param current the current state of the user's files
+   * @param deckName the deck to copy with its cards, or null for deck names only
+   * @return a view of the cached data, see {@link #viewOf(StoredUserData, String)},
+   *     or null on a miss
+   */
+  public StoredUserData getDeckView(String username, FileStamp current, String deckName) {
+    synchronized (this) {
+      Entry entry = lookup(username, current);
+      if (entry != null) {
+        return viewOf(entry.data, deckName);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Applies a logged change to the cached data of a user in place, so a change to one
+   * deck does not force the whole library to be parsed again on the next read.
+   * The entry is dropped if it no longer matches the files the change was made on.
+   *
+   * @param username the username the change was made for
+   * @param before the state of the user's files before the change was written
+   * @param after the state of the user's files after the change was written
+   * @param operation the change, already validated and written
+   */
+  public synchronized void apply(String username, FileStamp before, FileStamp after,
+      DeckOperation operation) {
+    Entry entry = entries.get(username);
+    if (entry == null) {
+      return;
+    }
+    if (after == null || !entry.stamp.equals(before)) {
+      entries.remove(username);
+      return;
+    }
+    try {
+      StoredUserData changed = forChange(entry.data, operation.getDeckName());
+      FlashcardDeckManager manager = changed.getDeckManager();
+      operation.applyTo(manager);
+      changed.setDeckManager(manager);
+      changed.setLogSequence(operation.getSequence());
+      entries.put(username, new Entry(changed, after));
+    } catch (IllegalArgumentException e) {
+      entries.remove(username);
+    }
+  }
+
+  /**
+   * Finds a valid entry and counts the lookup. The caller holds the cache's lock.
+   *
+   * @param username the username to look up
+   * @param current the current state of the user's files
+   * @return the entry, or null on a miss
+   */
+  private Entry lookup(String username, FileStamp current) {
+    Entry entry = entries.get(username);
+    if (entry != null && entry.stamp.equals(current)) {
+      hits.incrementAndGet();
+      return entry;
+    }
+    if (entry != null) {
+      // Files changed or disappeared behind our back
+      entries.remove(username);
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Stores data for a user together with the state of its backing files.
+   * Readers capture the stamp before parsing, so a concurrent modification
+   * shows up as a stale entry instead of being masked.
+   *
+   * @param username the username to store data for
+   * @param stamp the file state the data corresponds to, ignored if null
+   * @param data the parsed user data, whose decks are not changed in place afterwards
+   */
+  public void put(String username, FileStamp stamp, StoredUserData data) {
+    if (stamp == null) {
+      return;
+    }
+    Entry entry = new Entry(shareOf(data), stamp);
+    synchronized (this) {
+      entries.put(username, entry);
+      if (entries.size() > capacity) {
+        String eldest = entries.keySet().iterator().next();
+        entries.remove(eldest);
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Removes any cached data for a user.
+   *
+   * @param username the username to invalidate
+   */
+  public synchronized void invalidate(String username) {
+    entries.remove(username);
+  }
+
+  /**
+   * Removes all cached data. Counters are kept.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Gets the number of users currently cached.
+   *
+   * @return the number of cached users
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets the maximum number of cached users.
+   *
+   * @return the capacity
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Gets the number of lookups served from the cache.
+   *
+   * @return the hit count
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of lookups that had to go to disk.
+   *
+   * @return the miss count
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Gets the number of entries dropped because the cache was full.
+   *
+   * @return the eviction count
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Takes a snapshot of the cache counters.
+   *
+   * @return the current statistics
+   */
+  public synchronized Stats stats() {
+    return new Stats(hits.get(), misses.get(), evictions.get(), entries.size(), capacity);
+  }
+
+  /**
+   * Point-in-time view of the cache counters, suitable for exposing as metrics.
+   *
+   * @param hits lookups served from the cache
+   * @param misses lookups that had to go to disk
+   * @param evictions entries dropped because the cache was full
+   * @param size number of users currently cached
+   * @param capacity maximum number of cached users
+   */
+  public record Stats(long hits, long misses, long evictions, int size, int capacity) {
+  }
+
+  /**
+   * Creates user data that shares the decks of the given data. Only the deck list and
+   * the name index are new, so setting the decks or the sequence number of the result
+   * does not change the given data.
+   *
+   * @param data the data to share
+   * @return the new data
+   */
+  static StoredUserData shareOf(StoredUserData data) {
+    return new StoredUserData(data.getUser(), data.getDeckManager(), data.getLogSequence());
+  }
+
+  /**
+   * Creates user data to apply a change to one deck on. The deck is copied with its
+   * cards and the other decks are shared, so the change costs the size of the deck
+   * rather than the user's whole library and the given data stays as it was.
+   *
+   * @param data the data to change
+   * @param deckName the deck the change touches
+   * @return the data with its own copy of the deck
+   */
+  static StoredUserData forChange(StoredUserData data, String deckName) {
+    FlashcardDeckManager manager = data.getDeckManager();
+    FlashcardDeck deck = manager.getDeck(deckName);
+    if (deck != null) {
+      List<FlashcardDeck> decks = manager.getDecks();
+      decks.set(decks.indexOf(deck), copyDeck(deck));
+      manager.setDecks(decks);
+    }
+    return new StoredUserData(data.getUser(), manager, data.getLogSequence());
+  }
+
+  /**
+   * Creates a deep copy of user data, for decks that are handed to code that may change
+   * them.
+   *
+   * @param data the data to copy
+   * @return an independent copy
+   */
+  static StoredUserData copyOf(StoredUserData data) {
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    List<FlashcardDeck> decks = new ArrayList<>();
+    for (FlashcardDeck deck : data.getDeckManager().getDecks()) {
+      decks.add(copyDeck(deck));
+    }
+    manager.setDecks(decks);
+    return new StoredUserData(data.getUser(), manager, data.getLogSequence());
+  }
+
+  /**
+   * Creates a copy of user data that holds the cards of one deck only. The other
+   * decks are present with their names but without cards, which is enough to
+   * validate deck-level changes such as creating or deleting a deck.
+   *
+   * @param data the data to copy
+   * @param deckName the deck to copy with its cards, or null for deck names only
+   * @return an independent partial copy
+   */
+  static StoredUserData viewOf(StoredUserData data, String deckName) {
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    List<FlashcardDeck> decks = new ArrayList<>();
+    for (FlashcardDeck deck : data.getDeckManager().getDecks()) {
+      decks.add(deck.getDeckName().equals(deckName)
+          ? copyDeck(deck) : new FlashcardDeck(deck.getDeckName()));
+    }
+    manager.setDecks(decks);
+    return new StoredUserData(data.getUser(), manager, data.getLogSequence());
+  }
+
+  /**
+   * Creates a deep copy of a deck, card ids included.
+   *
+   * @param deck the deck to copy
+   * @return an independent copy
+   */
+  private static FlashcardDeck copyDeck(FlashcardDeck deck) {
+    FlashcardDeck copy = new FlashcardDeck(deck.getDeckName());
+    copy.setLastCardId(deck.getLastCardId());
+    List<Flashcard> cards = new ArrayList<>();
+    for (Flashcard card : deck.getDeck()) {
+      Flashcard cardCopy = new Flashcard(card.getNumber(), card.getQuestion(), card.getAnswer());
+      cardCopy.setId(card.getId());
+      cards.add(cardCopy);
+    }
+    copy.setDeck(cards);
+    return copy;
+  }
+
+  /**
+   * Modification time and size of a user's snapshot and operation log,
+   * used to detect external changes.
+   *
+   * @param modified last modification time of the snapshot in nanoseconds
+   * @param size snapshot size in bytes
+   * @param logModified last modification time of the log in nanoseconds, 0 if there is none
+   * @param logSize log size in bytes, 0 if there is none
+   */
+  public record FileStamp(long modified, long size, long logModified, long logSize) {
+
+    /**
+     * Reads the current stamp of a user's files.
+     *
+     * @param snapshot the snapshot file
+     * @param log the operation log file, which may not exist
+     * @return the stamp, or null if the snapshot does not exist or cannot be read
+     */
+    public static FileStamp of(Path snapshot, Path log) {
+      BasicFileAttributes snapshotAttributes = attributes(snapshot);
+      if (snapshotAttributes == null) {
+        return null;
+      }
+      BasicFileAttributes logAttributes = attributes(log);
+      return new FileStamp(
+          snapshotAttributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+          snapshotAttributes.size(),
+          logAttributes == null ? 0 : logAttributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+          logAttributes == null ? 0 : logAttributes.size());
+    }
+
+    private static BasicFileAttributes attributes(Path file) {
+      try {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+
+  private record Entry(StoredUserData data, FileStamp stamp) {
+  }
+}
@@ -0,0 +1,63 @@
+package itp.storage;
+
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes and decodes a user's manifest and deck files in one on-disk format.
+ *
+ * <p>Every format is read through Jackson, so the same data binding and streaming
+ * code works for all of them. Formats are told apart by the first bytes of a file,
+ * which lets files in different formats live side by side.
+ *
+ * @see UserDataCodecs
+ */
+public interface UserDataCodec {
+
+  /**
+   * Gets the name used to select this format in configuration.
+   *
+   * @return the format name
+   */
+  String getName();
+
+  /**
+   * Checks whether a file starts like a file in this format.
+   *
+   * @param header the first bytes of the file
+   * @param length the number of valid bytes in the header
+   * @return true if the file is in this format
+   */
+  boolean matches(byte[] header, int length);
+
+  /**
+   * Writes a value, such as a manifest or a deck.
+   *
+   * @param out the stream to write to, left open
+   * @param value the value to write
+   * @throws IOException if writing fails
+   */
+  void write(OutputStream out, Object value) throws IOException;
+
+  /**
+   * Reads a value, such as a manifest or a deck.
+   *
+   * @param <T> the type of the value
+   * @param in the stream to read from, left open
+   * @param type the class of the value
+   * @return the value
+   * @throws IOException if the content is malformed or reading fails
+   */
+  <T> T read(InputStream in, Class<T> type) throws IOException;
+
+  /**
+   * Creates a streaming parser, used to read parts of a snapshot without binding it.
+   *
+   * @param in the stream to parse, closed together with the parser
+   * @return the parser
+   * @throws IOException if the parser cannot be created
+   */
+  JsonParser createParser(InputStream in) throws IOException;
+}
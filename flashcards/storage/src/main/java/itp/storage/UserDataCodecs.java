@@ -0,0 +1,123 @@
+package itp.storage;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The available snapshot formats and detection of the format of a file.
+ *
+ * @see UserDataCodec
+ */
+public final class UserDataCodecs {
+
+  /** Pretty-printed JSON, the default. */
+  public static final UserDataCodec JSON = new JsonUserDataCodec();
+
+  /** Binary Smile encoding. */
+  public static final UserDataCodec SMILE = new SmileUserDataCodec();
+
+  /** JSON compressed with Deflate and a trained dictionary. */
+  public static final UserDataCodec JSON_DEFLATE = new DeflateUserDataCodec(JSON, 'j');
+
+  /** Smile compressed with Deflate and a trained dictionary. */
+  public static final UserDataCodec SMILE_DEFLATE = new DeflateUserDataCodec(SMILE, 's');
+
+  private static final List<UserDataCodec> ALL = List.of(JSON, SMILE, JSON_DEFLATE,
+      SMILE_DEFLATE);
+  private static final int HEADER_LENGTH = 16;
+
+  private UserDataCodecs() {
+  }
+
+  /**
+   * Finds a format by its configured name.
+   *
+   * @param name the name, such as {@code json}, {@code smile} or {@code json+deflate}
+   * @return the format
+   * @throws IllegalArgumentException if there is no format with that name
+   */
+  public static UserDataCodec forName(String name) {
+    String wanted = name.trim().toLowerCase(Locale.ROOT);
+    for (UserDataCodec codec : ALL) {
+      if (codec.getName().equals(wanted)) {
+        return codec;
+      }
+    }
+    throw new IllegalArgumentException("Unknown storage format: " + name);
+  }
+
+  /**
+   * Gets the format new snapshots are written in, from {@code flashcards.storage.format}.
+   * Setting {@code flashcards.storage.compression} to {@code deflate} selects the
+   * compressed variant of that format.
+   *
+   * @return the configured format, JSON if none is set
+   */
+  public static UserDataCodec configured() {
+    String format = System.getProperty("flashcards.storage.format", JSON.getName());
+    String compression = System.getProperty("flashcards.storage.compression", "none");
+    if (!compression.isBlank() && !compression.trim().equalsIgnoreCase("none")) {
+      format = format.trim() + "+" + compression.trim();
+    }
+    return forName(format);
+  }
+
+  /**
+   * Detects the format of a stream from its first bytes without consuming them.
+   * Streams that match no format are treated as JSON, so malformed files fail with
+   * a parse error as before.
+   *
+   * @param in a stream positioned at the start of a snapshot
+   * @return the detected format
+   * @throws IOException if reading fails
+   */
+  public static UserDataCodec detect(BufferedInputStream in) throws IOException {
+    byte[] header = new byte[HEADER_LENGTH];
+    in.mark(HEADER_LENGTH);
+    int length = in.readNBytes(header, 0, HEADER_LENGTH);
+    in.reset();
+    return match(header, length);
+  }
+
+  /**
+   * Detects the format of a buffer from its first bytes without moving its position.
+   *
+   * @param buffer a buffer positioned at the start of a snapshot
+   * @return the detected format
+   */
+  public static UserDataCodec detect(ByteBuffer buffer) {
+    byte[] header = new byte[Math.min(HEADER_LENGTH, buffer.remaining())];
+    buffer.get(buffer.position(), header);
+    return match(header, header.length);
+  }
+
+  /**
+   * Wraps a stream so its format can be detected.
+   *
+   * @param in the raw stream
+   * @return a stream that supports detection
+   */
+  public static BufferedInputStream buffered(InputStream in) {
+    return in instanceof BufferedInputStream buffered ? buffered : new BufferedInputStream(in);
+  }
+
+  /**
+   * Finds the format whose header matches.
+   *
+   * @param header the first bytes of a snapshot
+   * @param length the number of valid bytes in the header
+   * @return the matching format, JSON if none matches
+   */
+  private static UserDataCodec match(byte[] header, int length) {
+    for (UserDataCodec codec : ALL) {
+      if (codec.matches(header, length)) {
+        return codec;
+      }
+    }
+    return JSON;
+  }
+}
@@ -0,0 +1,215 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Decides where a user's snapshot and operation log live on disk.
+ *
+ * <p>Users are spread over two levels of hash-prefix directories, for example
+ * {@code users/3f/a2/alice.json}, so no single directory grows past a few hundred
+ * entries even with millions of users. Files from the older flat layout
+ * ({@code users/alice.json}) are still found until {@link LayoutMigrator} has moved
+ * them. A user's log and deck directory always live next to its snapshot, for example
+ * {@code users/3f/a2/alice.log} and {@code users/3f/a2/alice.decks/}.
+ *
+ * @see FlashcardPersistent
+ * @see LayoutMigrator
+ */
+public final class UserFileLayout {
+
+  private final Path root;
+
+  /**
+   * The manifest, deck files and log of one user.
+   *
+   * @param directory the directory both files live in
+   * @param username the user the files belong to
+   */
+  public record UserFiles(Path directory, String username) {
+
+    /**
+     * Gets the user's snapshot file, which holds the manifest of the user.
+     *
+     * @return the snapshot path
+     */
+    public Path snapshot() {
+      return directory.resolve(username + ".json");
+    }
+
+    /**
+     * Gets the user's operation log.
+     *
+     * @return the log path
+     */
+    public Path log() {
+      return directory.resolve(username + ".log");
+    }
+
+    /**
+     * Gets the directory holding the user's deck files.
+     *
+     * @return the deck directory, which may not exist
+     */
+    public Path decks() {
+      return directory.resolve(username + ".decks");
+    }
+
+    /**
+     * Gets one of the user's deck files.
+     *
+     * @param file the file name recorded in the user's manifest
+     * @return the deck file path
+     */
+    public Path deck(String file) {
+      return decks().resolve(file);
+    }
+  }
+
+  /**
+   * Creates a layout rooted at a users directory.
+   *
+   * @param root the users directory
+   */
+  public UserFileLayout(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Creates the layout for the users directory of the current working directory.
+   *
+   * @return the layout rooted at {@code <user.dir>/../storage/data/users}
+   */
+  public static UserFileLayout current() {
+    return new UserFileLayout(Path.of(System.getProperty("user.dir"), "..", "storage", "data",
+        "users"));
+  }
+
+  /**
+   * Gets the users directory, which is also the directory of the flat layout.
+   *
+   * @return the root directory
+   */
+  public Path root() {
+    return root;
+  }
+
+  /**
+   * Finds a user's files. A snapshot in the sharded layout wins over a flat one,
+   * since a flat snapshot left next to it can only be the leftover of an interrupted
+   * migration. Users that do not exist yet are placed in the sharded layout.
+   *
+   * @param username the username
+   * @return the user's current files
+   */
+  public UserFiles locate(String username) {
+    UserFiles sharded = sharded(username);
+    if (Files.exists(sharded.snapshot())) {
+      return sharded;
+    }
+    UserFiles flat = flat(username);
+    if (Files.exists(flat.snapshot())) {
+      return flat;
+    }
+    return sharded;
+  }
+
+  /**
+   * Gets a user's files in the sharded layout, whether they exist or not.
+   *
+   * @param username the username
+   * @return the sharded files
+   */
+  public UserFiles sharded(String username) {
+    return new UserFiles(root.resolve(shardOf(username)), username);
+  }
+
+  /**
+   * Gets a user's files in the flat layout, whether they exist or not.
+   *
+   * @param username the username
+   * @return the flat files
+   */
+  public UserFiles flat(String username) {
+    return new UserFiles(root, username);
+  }
+
+  /**
+   * Lists every username in the users directory, both flat and sharded.
+   * Shard directories are listed in parallel in the common pool, or in the pool
+   * of the calling task when run inside a ForkJoinPool.
+   *
+   * @return the usernames, a user left in both layouts listed twice
+   * @throws IOException if a directory cannot be listed
+   */
+  public List<String> listUsernames() throws IOException {
+    if (!Files.isDirectory(root)) {
+      return List.of();
+    }
+    List<Path> shards = new ArrayList<>();
+    List<String> usernames = new ArrayList<>(snapshotsIn(root));
+    try (Stream<Path> entries = Files.list(root)) {
+      entries.filter(Files::isDirectory).forEach(shards::add);
+    }
+    try {
+      usernames.addAll(shards.parallelStream()
+          .flatMap(shard -> {
+            List<String> names = new ArrayList<>();
+            try (Stream<Path> nested = Files.list(shard)) {
+              nested.filter(Files::isDirectory).forEach(dir -> names.addAll(snapshotsIn(dir)));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+            return names.stream();
+          })
+          .toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return usernames;
+  }
+
+  /**
+   * Lists the usernames of the snapshots directly inside a directory.
+   *
+   * @param directory the directory
+   * @return the usernames
+   */
+  private static List<String> snapshotsIn(Path directory) {
+    List<String> usernames = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+      for (Path file : stream) {
+        if (Files.isRegularFile(file)) {
+          String name = file.toFile().getName();
+          usernames.add(name.substring(0, name.length() - ".json".length()));
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return usernames;
+  }
+
+  /**
+   * Computes the relative shard directory of a username.
+   * The hash is stable across JVMs and platforms, so files are always found again.
+   *
+   * @param username the username
+   * @return a path of two hex levels such as {@code 3f/a2}
+   */
+  static Path shardOf(String username) {
+    CRC32 crc = new CRC32();
+    crc.update(username.getBytes(StandardCharsets.UTF_8));
+    String hex = String.format("%08x", crc.getValue());
+    return Path.of(hex.substring(0, 2), hex.substring(2, 4));
+  }
+
+}
@@ -0,0 +1,536 @@
+package itp.storage;
+
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import itp.storage.UserFileLayout.UserFiles;
+import itp.storage.UserManifest.DeckEntry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Reads and writes the files of the {@code json} backend: each user's manifest, its deck
+ * files and its operation log, and the card texts the deck files refer to.
+ *
+ * <p>Holds no per-user state and takes no locks. {@link FlashcardPersistent} decides
+ * when to read and write under which user's lock, and keeps the cache, the write-behind
+ * buffer and the tiers in step with the files written here.
+ *
+ * @see FlashcardPersistent
+ * @see UserManifest
+ * @see StoredDeck
+ */
+final class UserFileStore {
+
+  /** Times a reader retries when a concurrent snapshot replaced the deck files it read. */
+  static final int MAX_READ_ATTEMPTS = 3;
+
+  /** Suffix of the deck files in a user's deck directory. */
+  static final String DECK_SUFFIX = ".deck";
+
+  private final UserFileLayout layout;
+  private final OperationLog operationLog;
+  private final GroupCommitSync sync;
+
+  /**
+   * Creates a store.
+   *
+   * @param layout the layout of the users directory
+   * @param operationLog the reader and writer of operation logs
+   * @param sync the scheduler that makes written files durable
+   */
+  UserFileStore(UserFileLayout layout, OperationLog operationLog, GroupCommitSync sync) {
+    this.layout = layout;
+    this.operationLog = operationLog;
+    this.sync = sync;
+  }
+
+  /**
+   * Gets the layout of the users directory the store works in.
+   *
+   * @return the layout
+   */
+  UserFileLayout layout() {
+    return layout;
+  }
+
+  /**
+   * Reads a user's manifest, in whichever format it was written.
+   *
+   * @param snapshot the snapshot file
+   * @return the manifest, or null if the file does not exist
+   * @throws IOException if reading fails
+   */
+  UserManifest readManifest(Path snapshot) throws IOException {
+    if (!Files.exists(snapshot)) {
+      return null;
+    }
+    BufferedInputStream in;
+    try {
+      in = UserDataCodecs.buffered(StorageMetrics.meter(Files.newInputStream(snapshot)));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    try (in) {
+      return UserDataCodecs.detect(in).read(in, UserManifest.class);
+    }
+  }
+
+  /**
+   * Reads a user's manifest and decks.
+   *
+   * @param files the user's files
+   * @param loaded which decks to read the cards of, the others are loaded by name only
+   * @return the snapshot data without the log applied, or null if there is no snapshot
+   * @throws IOException if reading fails
+   */
+  StoredUserData readSnapshot(UserFiles files, Predicate<String> loaded)
+      throws IOException {
+    for (int attempt = 1; ; attempt++) {
+      UserManifest manifest = readManifest(files.snapshot());
+      if (manifest == null) {
+        return null;
+      }
+      try {
+        return new StoredUserData(manifest.getUser(), loadDecks(files, manifest, loaded),
+            manifest.getLogSequence());
+      } catch (NoSuchFileException e) {
+        // A concurrent snapshot replaced the deck files, follow the new manifest
+        if (attempt >= MAX_READ_ATTEMPTS) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the decks listed in a manifest.
+   *
+   * @param files the user's files
+   * @param manifest the manifest
+   * @param loaded which decks to read the cards of, the others are loaded by name only
+   * @return the decks in manifest order
+   * @throws IOException if a deck file or a card text cannot be read
+   */
+  FlashcardDeckManager loadDecks(UserFiles files, UserManifest manifest,
+      Predicate<String> loaded) throws IOException {
+    if (manifest.isInline()) {
+      FlashcardDeckManager inline = manifest.getDeckManager();
+      return inline == null ? new FlashcardDeckManager() : inline;
+    }
+    CardTextStore texts = texts();
+    List<FlashcardDeck> decks = new ArrayList<>();
+    for (DeckEntry entry : manifest.getDecks()) {
+      if (loaded.test(entry.name())) {
+        decks.add(readStoredDeck(files.deck(entry.file())).toDeck(texts));
+      } else {
+        decks.add(new FlashcardDeck(entry.name()));
+      }
+    }
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.setDecks(decks);
+    return manager;
+  }
+
+  /**
+   * Applies the operations logged after the snapshot was taken.
+   * Entries already folded into the snapshot are skipped, and so are card changes
+   * to decks that were loaded without their cards.
+   *
+   * @param log the log to replay
+   * @param userData the snapshot to update in place
+   * @param loaded which decks were loaded with their cards
+   * @throws IOException if the log cannot be read
+   */
+  void replayLog(Path log, StoredUserData userData, Predicate<String> loaded)
+      throws IOException {
+    List<DeckOperation> operations = operationLog.read(log);
+    if (operations.isEmpty()) {
+      return;
+    }
+    FlashcardDeckManager manager = userData.getDeckManager();
+    long sequence = userData.getLogSequence();
+    for (DeckOperation operation : operations) {
+      if (operation.getSequence() > sequence) {
+        if (loaded.test(operation.getDeckName()) || !changesCards(operation)) {
+          operation.applyTo(manager);
+        }
+        sequence = operation.getSequence();
+      }
+    }
+    userData.setDeckManager(manager);
+    userData.setLogSequence(sequence);
+  }
+
+  /**
+   * Writes a snapshot of a user's data in a given format, rewriting only some decks.
+   * Changed decks are written to new deck files first, then the manifest is renamed
+   * over the old one, and only then are the deck files it no longer lists deleted.
+   * Card texts the new deck files refer to are retained before the files are written,
+   * and texts only the deleted files referred to are released after they are gone.
+   *
+   * @param userData the data to write
+   * @param format the format to write the snapshot in
+   * @param changedDecks the decks to rewrite, or null to rewrite every deck
+   * @return the files the snapshot was written to
+   * @throws IOException if writing fails
+   */
+  UserFiles write(StoredUserData userData, UserDataCodec format, Set<String> changedDecks)
+      throws IOException {
+    String username = userData.getUser().getUsername();
+    UserFiles previous = layout.locate(username);
+    UserFiles target = layout.sharded(username);
+    CardTextStore texts = textsOf(layout);
+    texts.referencing(() -> {
+      UserManifest current = null;
+      if (previous.equals(target)) {
+        try {
+          current = readManifest(target.snapshot());
+        } catch (IOException e) {
+          // Unreadable, every deck gets a fresh file
+        }
+      }
+      List<String> released = new ArrayList<>();
+      UserManifest manifest = writeDecks(userData, target, format, current, changedDecks,
+          released);
+      writeManifest(manifest, target, format);
+      operationLog.delete(previous.log());
+      if (!previous.equals(target)) {
+        Files.deleteIfExists(previous.snapshot());
+      }
+      deleteUnlistedDecks(target, manifest);
+      texts.release(released);
+      return null;
+    });
+    return target;
+  }
+
+  /**
+   * Deletes all files of a user: the snapshot, the operation log and the deck files.
+   * The snapshot goes first, so a user whose deletion was interrupted is not read from
+   * a snapshot without its decks. Card texts are left to the caller to release.
+   *
+   * @param files the user's files
+   * @throws IOException if a file cannot be deleted
+   */
+  void delete(UserFiles files) throws IOException {
+    Files.deleteIfExists(files.snapshot());
+    operationLog.delete(files.log());
+    if (Files.isDirectory(files.decks())) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(files.decks())) {
+        for (Path file : stream) {
+          Files.deleteIfExists(file);
+        }
+      }
+      Files.deleteIfExists(files.decks());
+    }
+  }
+
+  /**
+   * Writes the deck files a new manifest needs. Unchanged decks keep the file the
+   * current manifest lists for them. Changed decks get a new file, so the files of the
+   * current manifest stay intact until the new manifest has replaced it.
+   *
+   * @param userData the data to write
+   * @param target the files to write the decks of
+   * @param format the format to write the decks in
+   * @param current the manifest being replaced, or null if there is none to reuse
+   * @param changedDecks the decks to rewrite, or null to rewrite every deck
+   * @param released collects the card texts to release once the replaced deck files
+   *     are deleted
+   * @return the new manifest
+   * @throws IOException if writing fails
+   */
+  private UserManifest writeDecks(StoredUserData userData, UserFiles target,
+      UserDataCodec format, UserManifest current, Set<String> changedDecks,
+      List<String> released) throws IOException {
+    Map<String, String> existing = new HashMap<>();
+    long nextFile = 1;
+    if (current != null && !current.isInline()) {
+      for (DeckEntry entry : current.getDecks()) {
+        existing.put(entry.name(), entry.file());
+      }
+      nextFile = current.getNextDeckFile();
+    }
+
+    CardTextStore texts = texts();
+    List<DeckEntry> entries = new ArrayList<>();
+    List<Path> written = new ArrayList<>();
+    for (FlashcardDeck deck : userData.getDeckManager().getDecks()) {
+      String file = existing.remove(deck.getDeckName());
+      if (file == null || changedDecks == null || changedDecks.contains(deck.getDeckName())) {
+        // Only the references that differ from the replaced file change the counts
+        StoredDeck stored = new StoredDeck(deck);
+        List<String> references = stored.references();
+        List<String> replaced = file == null ? List.of() : referencesOf(target.deck(file));
+        texts.retain(added(StoredDeck.sharedTexts(deck), references, replaced));
+        released.addAll(without(replaced, references));
+
+        file = nextFile++ + DECK_SUFFIX;
+        Files.createDirectories(target.decks());
+        Path path = target.deck(file);
+        try (OutputStream out = new BufferedOutputStream(
+            StorageMetrics.meter(Files.newOutputStream(path)))) {
+          format.write(out, stored);
+        }
+        written.add(path);
+      }
+      entries.add(new DeckEntry(deck.getDeckName(), file));
+    }
+    // Decks that were deleted
+    for (String file : existing.values()) {
+      released.addAll(referencesOf(target.deck(file)));
+    }
+    if (!written.isEmpty()) {
+      // The new files must be durable before the manifest points at them
+      written.add(target.decks());
+      sync.syncAll(written);
+    }
+    return new UserManifest(userData.getUser(), entries, nextFile, userData.getLogSequence());
+  }
+
+  /**
+   * Deletes the deck files a manifest does not list, left over from older snapshots or
+   * from a write that crashed before its manifest was renamed into place.
+   *
+   * @param files the user's files
+   * @param manifest the manifest now in place
+   * @throws IOException if the deck directory cannot be listed
+   */
+  private static void deleteUnlistedDecks(UserFiles files, UserManifest manifest)
+      throws IOException {
+    Path decks = files.decks();
+    if (!Files.isDirectory(decks)) {
+      return;
+    }
+    Set<String> listed = new HashSet<>();
+    for (DeckEntry entry : manifest.getDecks()) {
+      listed.add(entry.file());
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(decks)) {
+      for (Path file : stream) {
+        if (!listed.contains(file.toFile().getName())) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a deck file in whichever format it was written.
+   *
+   * @param file the deck file
+   * @return the stored deck
+   * @throws IOException if reading fails
+   */
+  StoredDeck readStoredDeck(Path file) throws IOException {
+    try (BufferedInputStream in = UserDataCodecs.buffered(
+        StorageMetrics.meter(Files.newInputStream(file)))) {
+      return UserDataCodecs.detect(in).read(in, StoredDeck.class);
+    }
+  }
+
+  /**
+   * Reads the card text references of a deck file about to be replaced.
+   *
+   * @param file the deck file
+   * @return the references, empty if the file cannot be read, which at worst leaves
+   *     counts too high until the next garbage collection
+   */
+  List<String> referencesOf(Path file) {
+    try {
+      return readStoredDeck(file).references();
+    } catch (IOException e) {
+      return List.of();
+    }
+  }
+
+  /**
+   * Lists the card text references of the deck files a user's manifest lists.
+   *
+   * @param files the user's files
+   * @return the references, empty if the user keeps its decks inline or has no snapshot
+   * @throws IOException if a manifest or deck file cannot be read
+   */
+  List<String> deckReferences(UserFiles files) throws IOException {
+    UserManifest manifest = readManifest(files.snapshot());
+    if (manifest == null || manifest.isInline()) {
+      return List.of();
+    }
+    List<String> references = new ArrayList<>();
+    for (DeckEntry entry : manifest.getDecks()) {
+      references.addAll(readStoredDeck(files.deck(entry.file())).references());
+    }
+    return references;
+  }
+
+  /**
+   * Checks whether a user's manifest and every deck file are in a given format.
+   *
+   * @param files the user's files
+   * @param format the format
+   * @return true if nothing needs to be rewritten to be in that format
+   * @throws IOException if a file cannot be read
+   */
+  boolean isStoredIn(UserFiles files, UserDataCodec format) throws IOException {
+    if (!formatOf(files.snapshot()).equals(format)) {
+      return false;
+    }
+    UserManifest manifest = readManifest(files.snapshot());
+    if (manifest == null || manifest.isInline()) {
+      return false;
+    }
+    for (DeckEntry entry : manifest.getDecks()) {
+      if (!formatOf(files.deck(entry.file())).equals(format)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Detects the format of a file from its first bytes.
+   *
+   * @param file the file
+   * @return the format
+   * @throws IOException if the file cannot be read
+   */
+  private static UserDataCodec formatOf(Path file) throws IOException {
+    try (BufferedInputStream in = UserDataCodecs.buffered(Files.newInputStream(file))) {
+      return UserDataCodecs.detect(in);
+    }
+  }
+
+  /**
+   * Writes a user's manifest to file.
+   * Creates the user data directory if it doesn't exist and writes the manifest in the
+   * given format. The data is written and synced to a temporary file first and then
+   * renamed over the old file, so readers see either the old or the new content, never
+   * a mix.
+   *
+   * @param manifest the manifest to write
+   * @param target the files to write the snapshot of
+   * @param format the format to write the snapshot in
+   * @throws IOException if file writing fails
+   * @see "docs/release_3/ai_tools.md"
+   */
+  private void writeManifest(UserManifest manifest, UserFiles target,
+      UserDataCodec format) throws IOException {
+    File dataDir = target.directory().toFile();
+    if (!dataDir.exists() && !dataDir.mkdirs()) {
+      throw new IOException("Failed to create directory: " + dataDir.getPath());
+    }
+
+    Path temp = Files.createTempFile(dataDir.toPath(), target.username() + "-", ".tmp");
+    try {
+      try (OutputStream out = new BufferedOutputStream(
+          StorageMetrics.meter(Files.newOutputStream(temp)))) {
+        format.write(out, manifest);
+      }
+      sync.sync(temp);
+      replaceAtomically(temp, target.snapshot());
+      // Sync the directory so the rename itself survives a crash
+      sync.sync(dataDir.toPath());
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Renames a file over another one in a single step.
+   * Falls back to a plain replacing move on file systems without atomic renames.
+   *
+   * @param source the file to move
+   * @param target the file to replace
+   * @throws IOException if the move fails
+   */
+  void replaceAtomically(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Picks the texts of a new deck file that the replaced file did not refer to yet.
+   *
+   * @param texts the shared texts of the new deck file
+   * @param references their hashes, in the same order
+   * @param replaced the references of the replaced file
+   * @return the texts to retain, once per extra occurrence
+   */
+  private static List<String> added(List<String> texts, List<String> references,
+      List<String> replaced) {
+    Map<String, Integer> available = new HashMap<>();
+    for (String reference : replaced) {
+      available.merge(reference, 1, Integer::sum);
+    }
+    List<String> added = new ArrayList<>();
+    for (int i = 0; i < texts.size(); i++) {
+      // Goes negative once the replaced file has no more occurrences to reuse
+      if (available.merge(references.get(i), -1, Integer::sum) < 0) {
+        added.add(texts.get(i));
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Removes one occurrence of each of the other references from a list of references.
+   *
+   * @param references the references
+   * @param removed the references to take out
+   * @return the remaining references
+   */
+  private static List<String> without(List<String> references, List<String> removed) {
+    return added(references, references, removed);
+  }
+
+  /**
+   * Checks whether an operation changes the cards of a deck rather than the deck list.
+   *
+   * @param operation the operation
+   * @return true for card operations
+   */
+  private static boolean changesCards(DeckOperation operation) {
+    return operation.getType() == DeckOperation.Type.ADD_CARD
+        || operation.getType() == DeckOperation.Type.REMOVE_CARD
+        || operation.getType() == DeckOperation.Type.UPDATE_CARD;
+  }
+
+  /**
+   * Gets the card text store of the users directory the store works in.
+   *
+   * @return the store
+   */
+  CardTextStore texts() {
+    return textsOf(layout);
+  }
+
+  /**
+   * Gets the card text store that belongs to a users directory.
+   *
+   * @param layout the layout of the users directory
+   * @return the store in the {@code texts} directory next to the users directory
+   */
+  static CardTextStore textsOf(UserFileLayout layout) {
+    return CardTextStore.at(layout.root().resolveSibling("texts"));
+  }
+}
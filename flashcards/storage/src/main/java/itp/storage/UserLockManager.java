@@ -0,0 +1,137 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out one lock per username so read-modify-write cycles on a user's data
+ * cannot interleave and lose updates. Requests for different users never share
+ * a lock and run fully in parallel.
+ *
+ * <p>Locks are created on demand and dropped again once no thread holds or waits
+ * for them, so memory use follows the number of concurrently active users.
+ * Locks are reentrant, which lets a service hold the lock across a whole request
+ * while the storage layer takes it again for its own internal updates.
+ *
+ * <p>The time spent waiting for locks is recorded so contention can be monitored.
+ *
+ * @see FlashcardPersistent
+ */
+public final class UserLockManager {
+
+  private final ConcurrentHashMap<String, LockHolder> locks = new ConcurrentHashMap<>();
+
+  private final AtomicLong acquisitions = new AtomicLong();
+  private final AtomicLong contended = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  /**
+   * An action performed while holding a user's lock.
+   *
+   * @param <T> the result type
+   */
+  @FunctionalInterface
+  public interface LockedAction<T> {
+
+    /**
+     * Runs the action.
+     *
+     * @return the result of the action
+     * @throws IOException if a storage operation fails
+     */
+    T run() throws IOException;
+  }
+
+  /**
+   * Runs an action while holding the lock for the given user.
+   *
+   * @param <T> the result type
+   * @param username the user whose data the action reads and writes
+   * @param action the action to run
+   * @return the result of the action
+   * @throws IOException if the action throws it
+   */
+  public <T> T withLock(String username, LockedAction<T> action) throws IOException {
+    LockHolder holder = locks.compute(username, (key, existing) -> {
+      LockHolder lockHolder = existing != null ? existing : new LockHolder();
+      lockHolder.references++;
+      return lockHolder;
+    });
+
+    long start = System.nanoTime();
+    if (!holder.lock.tryLock()) {
+      contended.incrementAndGet();
+      holder.lock.lock();
+    }
+    recordWait(System.nanoTime() - start);
+
+    try {
+      return action.run();
+    } finally {
+      holder.lock.unlock();
+      locks.computeIfPresent(username, (key, existing) ->
+          --existing.references == 0 ? null : existing);
+    }
+  }
+
+  /**
+   * Records the time a thread spent waiting for a lock.
+   *
+   * @param waitNanos the wait time in nanoseconds
+   */
+  private void recordWait(long waitNanos) {
+    acquisitions.incrementAndGet();
+    totalWaitNanos.addAndGet(waitNanos);
+    maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    StorageMetrics.chargeLockWait(waitNanos);
+  }
+
+  /**
+   * Gets the number of users that currently have a lock allocated.
+   *
+   * @return the number of live locks
+   */
+  public int activeLocks() {
+    return locks.size();
+  }
+
+  /**
+   * Takes a snapshot of the contention counters.
+   *
+   * @return the current statistics
+   */
+  public Stats stats() {
+    return new Stats(acquisitions.get(), contended.get(), totalWaitNanos.get(),
+        maxWaitNanos.get());
+  }
+
+  /**
+   * Point-in-time view of lock contention.
+   *
+   * @param acquisitions number of times a lock was acquired
+   * @param contended number of acquisitions that had to wait for another thread
+   * @param totalWaitNanos total time spent waiting for locks
+   * @param maxWaitNanos longest single wait
+   */
+  public record Stats(long acquisitions, long contended, long totalWaitNanos,
+      long maxWaitNanos) {
+
+    /**
+     * Gets the average time an acquisition waited for its lock.
+     *
+     * @return the mean wait in nanoseconds, or 0 if no lock was acquired yet
+     */
+    public double averageWaitNanos() {
+      return acquisitions == 0 ? 0 : (double) totalWaitNanos / acquisitions;
+    }
+  }
+
+  // Lock plus the number of threads holding or waiting for it, guarded by the map
+  private static final class LockHolder {
+    private final ReentrantLock lock = new ReentrantLock();
+    private int references;
+  }
+}
@@ -0,0 +1,129 @@
+package itp.storage;
+
+import app.FlashcardDeckManager;
+import app.User;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The snapshot file of a user: credentials plus an index of the user's deck files.
+ *
+ * <p>Each deck lives in its own file, so a change to one deck only rewrites that deck
+ * and this manifest. Deck files are never overwritten in place. A rewritten deck gets
+ * a new file name, and the manifest is renamed over the old one last, so readers and
+ * crashes always see a manifest whose deck files are complete.
+ *
+ * <p>Snapshots written before decks were split keep all decks inline in
+ * {@code deckManager} and have no deck index. They are still read, and are turned
+ * into a manifest the next time the user's snapshot is written.
+ *
+ * @see FlashcardPersistent
+ */
+@JsonPropertyOrder({"user", "decks", "nextDeckFile", "logSequence", "deckManager"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+final class UserManifest {
+
+  @JsonUnwrapped
+  private User user;
+
+  @JsonProperty("decks")
+  private List<DeckEntry> decks;
+
+  @JsonProperty("nextDeckFile")
+  private long nextDeckFile;
+
+  @JsonProperty("logSequence")
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private long logSequence;
+
+  // Only present in snapshots from before decks were split into files
+  @JsonProperty("deckManager")
+  private FlashcardDeckManager deckManager;
+
+  /**
+   * One deck of the user and the file it is stored in.
+   *
+   * @param name the deck name
+   * @param file the file name inside the user's deck directory
+   */
+  record DeckEntry(String name, String file) {}
+
+  /**
+   * Default constructor for deserialization.
+   */
+  UserManifest() {
+  }
+
+  /**
+   * Creates a manifest.
+   *
+   * @param user the user's credentials
+   * @param decks the user's decks in order
+   * @param nextDeckFile the number to name the next deck file after
+   * @param logSequence the sequence number of the last log entry reflected in the decks
+   */
+  UserManifest(User user, List<DeckEntry> decks, long nextDeckFile, long logSequence) {
+    this.user = user;
+    this.decks = new ArrayList<>(decks);
+    this.nextDeckFile = nextDeckFile;
+    this.logSequence = logSequence;
+  }
+
+  /**
+   * Gets the user's credentials.
+   *
+   * @return the user
+   */
+  User getUser() {
+    return user;
+  }
+
+  /**
+   * Gets the deck index.
+   *
+   * @return the decks in order, or null for a snapshot with inline decks
+   */
+  List<DeckEntry> getDecks() {
+    return decks == null ? null : List.copyOf(decks);
+  }
+
+  /**
+   * Gets the number to name the next deck file after.
+   *
+   * @return the next deck file number
+   */
+  long getNextDeckFile() {
+    return nextDeckFile;
+  }
+
+  /**
+   * Gets the sequence number of the last log entry reflected in the decks.
+   *
+   * @return the log sequence number
+   */
+  long getLogSequence() {
+    return logSequence;
+  }
+
+  /**
+   * Gets the inline decks of a snapshot written before decks were split.
+   *
+   * @return the decks, or null for a manifest with a deck index
+   */
+  FlashcardDeckManager getDeckManager() {
+    return deckManager;
+  }
+
+  /**
+   * Checks whether this snapshot still has its decks inline.
+   *
+   * @return true if there is no deck index
+   */
+  boolean isInline() {
+    return decks == null;
+  }
+}
@@ -0,0 +1,292 @@
+package itp.storage;
+
+import itp.storage.UserFileLayout.UserFiles;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the users into a hot tier, the files in the users directory, and a cold tier,
+ * the {@link ColdArchive}, and moves users that have been inactive for a while into
+ * the cold tier.
+ *
+ * <p>A user counts as active when it was read since the process started or when its
+ * snapshot or log was written recently. Reads are tracked in memory with a resolution
+ * of one minute, so a busy user costs one map lookup per read. After a restart only the
+ * file times are left, which at worst keeps a user hot for one more period.
+ *
+ * <p>Archived users move back into the hot tier on their first read, see
+ * {@link FlashcardPersistent#archiveUser(String)}. The sizes of both tiers are measured
+ * on every sweep, the rehydration latency on every rehydration.
+ *
+ * @see FlashcardPersistent#archiveInactiveUsers(Duration)
+ */
+public final class UserTiering {
+
+  /** Inactivity after which a user is archived when none is configured. */
+  public static final Duration DEFAULT_INACTIVITY = Duration.ofDays(90);
+
+  /** Time between sweeps when none is configured. */
+  public static final Duration DEFAULT_INTERVAL = Duration.ofHours(6);
+
+  private static final long ACCESS_RESOLUTION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+  private final AtomicLong archived = new AtomicLong();
+  private final AtomicLong rehydrated = new AtomicLong();
+  private final AtomicLong rehydrationNanos = new AtomicLong();
+  private final AtomicLong maxRehydrationNanos = new AtomicLong();
+  private volatile TierSizes sizes = new TierSizes(0, 0, 0, 0);
+  // Guarded by this
+  private ScheduledExecutorService sweeper;
+
+  /**
+   * Archives one user.
+   */
+  @FunctionalInterface
+  public interface Archiver {
+
+    /**
+     * Moves a user into the cold tier.
+     *
+     * @param username the user
+     * @return true if the user was archived
+     * @throws IOException if archiving fails
+     */
+    boolean archive(String username) throws IOException;
+  }
+
+  /**
+   * Runs one sweep.
+   */
+  @FunctionalInterface
+  public interface Sweep {
+
+    /**
+     * Archives the inactive users.
+     *
+     * @throws IOException if the users cannot be listed
+     */
+    void run() throws IOException;
+  }
+
+  /**
+   * Sizes of both tiers, as measured by the last sweep.
+   *
+   * @param hotUsers the number of users in the users directory
+   * @param hotBytes the size of their snapshots, logs and deck files, without shared texts
+   * @param coldUsers the number of archived users
+   * @param coldBytes the size of the archive files
+   */
+  record TierSizes(int hotUsers, long hotBytes, int coldUsers, long coldBytes) {}
+
+  /**
+   * Statistics of the tiers.
+   *
+   * @param hotUsers the number of users in the users directory at the last sweep
+   * @param hotBytes the size of their files, without shared card texts
+   * @param coldUsers the number of archived users at the last sweep
+   * @param coldBytes the size of the archive files
+   * @param archived the number of users archived since startup
+   * @param rehydrated the number of users moved back since startup
+   * @param meanRehydrationMillis the mean time a rehydration took
+   * @param maxRehydrationMillis the longest time a rehydration took
+   */
+  public record Stats(int hotUsers, long hotBytes, int coldUsers, long coldBytes,
+      long archived, long rehydrated, double meanRehydrationMillis,
+      double maxRehydrationMillis) {}
+
+  /**
+   * Outcome of a sweep.
+   *
+   * @param scanned the number of hot users looked at
+   * @param archived the number of users archived
+   * @param failed the number of users that could not be archived, retried next time
+   * @param elapsedMillis the time the sweep took
+   */
+  public record Result(int scanned, int archived, int failed, long elapsedMillis) {}
+
+  /**
+   * Records that a user was read. Cheap enough to call on every read.
+   *
+   * @param username the user
+   */
+  void recordAccess(String username) {
+    long now = System.currentTimeMillis();
+    Long previous = lastAccess.get(username);
+    if (previous == null || now - previous >= ACCESS_RESOLUTION_MILLIS) {
+      lastAccess.put(username, now);
+    }
+  }
+
+  /**
+   * Records that a user was archived and forgets its last read.
+   *
+   * @param username the user
+   */
+  void recordArchived(String username) {
+    lastAccess.remove(username);
+    archived.incrementAndGet();
+  }
+
+  /**
+   * Records that an archived user was moved back into the hot tier.
+   *
+   * @param nanos the time it took
+   */
+  void recordRehydration(long nanos) {
+    rehydrated.incrementAndGet();
+    rehydrationNanos.addAndGet(nanos);
+    maxRehydrationNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * Archives every hot user inactive for longer than a given time, and measures both
+   * tiers along the way.
+   *
+   * @param layout the layout of the users directory
+   * @param archive the cold tier
+   * @param inactivity the time without reads or writes after which a user is archived
+   * @param archiver archives one user, under the user's lock
+   * @return what the sweep did
+   * @throws IOException if the users directory or the archive cannot be listed
+   */
+  Result sweep(UserFileLayout layout, ColdArchive archive, Duration inactivity,
+      Archiver archiver) throws IOException {
+    long start = System.nanoTime();
+    long cutoff = System.currentTimeMillis() - inactivity.toMillis();
+    int scanned = 0;
+    int archivedNow = 0;
+    int failed = 0;
+    int hotUsers = 0;
+    long hotBytes = 0;
+    for (String username : new HashSet<>(layout.listUsernames())) {
+      scanned++;
+      UserFiles files = layout.locate(username);
+      if (lastUsed(files) < cutoff) {
+        try {
+          if (archiver.archive(username)) {
+            archivedNow++;
+            continue;
+          }
+        } catch (IOException | RuntimeException e) {
+          failed++;
+        }
+      }
+      hotUsers++;
+      hotBytes += sizeOf(files);
+    }
+    sizes = new TierSizes(hotUsers, hotBytes, archive.listUsernames().size(),
+        archive.sizeInBytes());
+    return new Result(scanned, archivedNow, failed,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Gets the tier sizes and rehydration latency.
+   *
+   * @return a snapshot of the statistics
+   */
+  public Stats stats() {
+    TierSizes current = sizes;
+    long count = rehydrated.get();
+    double mean = count == 0 ? 0 : rehydrationNanos.get() / 1e6 / count;
+    return new Stats(current.hotUsers(), current.hotBytes(), current.coldUsers(),
+        current.coldBytes(), archived.get(), count, mean, maxRehydrationNanos.get() / 1e6);
+  }
+
+  /**
+   * Starts sweeping in the background. Calling it again replaces the schedule.
+   *
+   * @param interval the time between sweeps, the first one runs after one interval
+   * @param sweep the sweep to run
+   */
+  public synchronized void start(Duration interval, Sweep sweep) {
+    stop();
+    sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flashcards-tiering");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = interval.toMillis();
+    sweeper.scheduleWithFixedDelay(() -> {
+      try {
+        sweep.run();
+      } catch (IOException | RuntimeException e) {
+        // Never let a failed sweep stop the schedule, the next one tries again
+      }
+    }, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops sweeping in the background. A sweep that is running finishes.
+   */
+  public synchronized void stop() {
+    if (sweeper != null) {
+      sweeper.shutdown();
+      sweeper = null;
+    }
+  }
+
+  /**
+   * Gets the last time a user was read or written.
+   *
+   * @param files the user's files
+   * @return the time in milliseconds since the epoch
+   */
+  private long lastUsed(UserFiles files) {
+    long lastUsed = lastAccess.getOrDefault(files.username(), 0L);
+    for (Path file : new Path[] {files.snapshot(), files.log()}) {
+      try {
+        lastUsed = Math.max(lastUsed, Files.getLastModifiedTime(file).toMillis());
+      } catch (IOException e) {
+        // No log, or the user just went away
+      }
+    }
+    return lastUsed;
+  }
+
+  /**
+   * Adds up the size of a user's snapshot, log and deck files.
+   *
+   * @param files the user's files
+   * @return the size in bytes
+   */
+  private static long sizeOf(UserFiles files) {
+    long bytes = sizeOf(files.snapshot()) + sizeOf(files.log());
+    if (Files.isDirectory(files.decks())) {
+      try (DirectoryStream<Path> decks = Files.newDirectoryStream(files.decks())) {
+        for (Path deck : decks) {
+          bytes += sizeOf(deck);
+        }
+      } catch (IOException | UncheckedIOException e) {
+        // Replaced while counting, the next sweep gets it right
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Gets the size of a file.
+   *
+   * @param file the file
+   * @return the size in bytes, 0 if there is no such file
+   */
+  private static long sizeOf(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
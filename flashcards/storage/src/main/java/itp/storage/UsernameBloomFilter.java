@@ -0,0 +1,164 @@
+package itp.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over usernames. Answers "definitely not present" without false
+ * negatives, and "maybe present" with a false-positive rate that depends on how full
+ * the filter is. Safe for concurrent adds and lookups.
+ *
+ * @see UsernameIndex
+ */
+public final class UsernameBloomFilter {
+
+  private final AtomicLongArray bits;
+  private final long bitSize;
+  private final int hashFunctions;
+  private final AtomicLong insertions = new AtomicLong();
+
+  /**
+   * Creates a filter sized for an expected number of usernames.
+   *
+   * @param expectedInsertions the number of usernames the filter should hold
+   * @param falsePositiveRate the false-positive rate to aim for at that size
+   */
+  public UsernameBloomFilter(long expectedInsertions, double falsePositiveRate) {
+    if (expectedInsertions < 1) {
+      throw new IllegalArgumentException("Expected insertions must be positive");
+    }
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("False-positive rate must be between 0 and 1");
+    }
+    // Standard sizing: m = -n ln p / (ln 2)^2 and k = m / n ln 2
+    long wanted = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate)
+        / (Math.log(2) * Math.log(2)));
+    int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (wanted + 63) / 64));
+    this.bits = new AtomicLongArray(words);
+    this.bitSize = (long) words * 64;
+    this.hashFunctions = (int) Math.max(1,
+        Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+  }
+
+  /**
+   * Adds a username to the filter.
+   *
+   * @param username the username to add
+   */
+  public void put(String username) {
+    long hash1 = hash(username);
+    long hash2 = mix(hash1) | 1;
+    boolean changed = false;
+    for (int i = 0; i < hashFunctions; i++) {
+      long bit = Math.floorMod(hash1 + i * hash2, bitSize);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long current = bits.get(word);
+      while ((current & mask) == 0) {
+        if (bits.compareAndSet(word, current, current | mask)) {
+          changed = true;
+          break;
+        }
+        current = bits.get(word);
+      }
+    }
+    if (changed) {
+      insertions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Checks whether a username may have been added.
+   *
+   * @param username the username to look up
+   * @return false if the username was definitely never added
+   */
+  public boolean mightContain(String username) {
+    long hash1 = hash(username);
+    long hash2 = mix(hash1) | 1;
+    for (int i = 0; i < hashFunctions; i++) {
+      long bit = Math.floorMod(hash1 + i * hash2, bitSize);
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the number of distinct usernames added, counting only adds that set a new bit.
+   *
+   * @return the approximate number of usernames
+   */
+  public long getInsertions() {
+    return insertions.get();
+  }
+
+  /**
+   * Gets the number of bits in the filter.
+   *
+   * @return the bit size
+   */
+  public long getBitSize() {
+    return bitSize;
+  }
+
+  /**
+   * Gets the number of hash functions per username.
+   *
+   * @return the hash function count
+   */
+  public int getHashFunctions() {
+    return hashFunctions;
+  }
+
+  /**
+   * Gets the memory used by the bit array.
+   *
+   * @return the size in bytes
+   */
+  public long getMemoryBytes() {
+    return bitSize / 8;
+  }
+
+  /**
+   * Estimates the current false-positive rate from the number of usernames added.
+   *
+   * @return the expected probability that an absent username is reported as present
+   */
+  public double expectedFalsePositiveRate() {
+    double fill = 1 - Math.exp(-(double) hashFunctions * insertions.get() / bitSize);
+    return Math.pow(fill, hashFunctions);
+  }
+
+  /**
+   * Computes a 64-bit FNV-1a hash of a username.
+   *
+   * @param username the username
+   * @return the hash
+   */
+  private static long hash(String username) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < username.length(); i++) {
+      hash ^= username.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * Spreads the bits of a hash, so the second hash is independent enough from the first.
+   *
+   * @param value the value to mix
+   * @return the mixed value
+   */
+  private static long mix(long value) {
+    long mixed = value;
+    mixed ^= mixed >>> 33;
+    mixed *= 0xff51afd7ed558ccdL;
+    mixed ^= mixed >>> 33;
+    mixed *= 0xc4ceb9fe1a85ec53L;
+    mixed ^= mixed >>> 33;
+    return mixed;
+  }
+}
@@ -0,0 +1,205 @@
+package itp.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers "does this user exist?" from memory for most usernames that do not.
+ *
+ * <p>Holds a {@link UsernameBloomFilter} over every user in one users directory.
+ * Until the filter has been built, and for any other users directory, every
+ * username counts as possibly existing, so callers fall back to the disk. Users
+ * created while the filter is being built are remembered and added before it is
+ * published, so the filter never misses a user written through this process.
+ *
+ * @see FlashcardPersistent#userExists(String)
+ */
+public final class UsernameIndex {
+
+  /** False-positive rate the filter is sized for. */
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+  // Leaves room for new users before the false-positive rate climbs
+  private static final int MIN_CAPACITY = 1024;
+  private static final int GROWTH_FACTOR = 2;
+
+  private final double falsePositiveRate;
+  private final Object monitor = new Object();
+  private final Set<String> pendingAdds = new HashSet<>();
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong negatives = new AtomicLong();
+  private final AtomicLong falsePositives = new AtomicLong();
+  private volatile Path root;
+  private volatile UsernameBloomFilter filter;
+  private volatile long lastBuildMillis;
+
+  /**
+   * Statistics of the index.
+   *
+   * @param ready whether the filter has been built
+   * @param usernames the number of usernames in the filter
+   * @param bitSize the number of bits in the filter
+   * @param hashFunctions the number of hash functions per username
+   * @param memoryBytes the memory used by the filter
+   * @param expectedFalsePositiveRate the false-positive rate expected from the fill level
+   * @param lookups the number of lookups answered by the filter
+   * @param negatives the number of lookups answered without touching the disk
+   * @param falsePositives the number of lookups the filter passed on for absent users
+   * @param lastBuildMillis how long the last build took
+   */
+  public record Stats(boolean ready, long usernames, long bitSize, int hashFunctions,
+      long memoryBytes, double expectedFalsePositiveRate, long lookups, long negatives,
+      long falsePositives, long lastBuildMillis) {
+
+    /**
+     * Gets the share of lookups for absent users that still had to go to disk.
+     *
+     * @return the observed false-positive rate, 0 if there were no such lookups
+     */
+    public double observedFalsePositiveRate() {
+      long absent = negatives + falsePositives;
+      return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+  }
+
+  /**
+   * Creates an index that is not built yet.
+   *
+   * @param falsePositiveRate the false-positive rate to size the filter for
+   */
+  public UsernameIndex(double falsePositiveRate) {
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  /**
+   * Builds the filter from every user in a layout, scanning shard directories in parallel.
+   *
+   * @param layout the layout to scan
+   * @param parallelism the number of directories to scan at the same time
+   * @throws IOException if the users directory cannot be listed
+   * @throws InterruptedException if interrupted while scanning
+   */
+  public void rebuild(UserFileLayout layout, int parallelism)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Path scanned = layout.root();
+    synchronized (monitor) {
+      if (!scanned.equals(root)) {
+        // Writes for the new directory are collected from here on
+        root = scanned;
+        filter = null;
+        pendingAdds.clear();
+      }
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    UsernameBloomFilter built;
+    try {
+      List<String> usernames = pool.submit(layout::listUsernames).get();
+      built = new UsernameBloomFilter(
+          Math.max(MIN_CAPACITY, (long) usernames.size() * GROWTH_FACTOR), falsePositiveRate);
+      pool.submit(() -> usernames.parallelStream().forEach(built::put)).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw io;
+      }
+      throw new IOException("Failed to build username index: " + e.getCause(), e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    synchronized (monitor) {
+      if (!scanned.equals(root)) {
+        return;
+      }
+      pendingAdds.forEach(built::put);
+      pendingAdds.clear();
+      filter = built;
+      lastBuildMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+  }
+
+  /**
+   * Checks whether a user may exist.
+   *
+   * @param usersDirectory the users directory being looked up
+   * @param username the username
+   * @return false only if the user definitely does not exist in that directory
+   */
+  public boolean mightExist(Path usersDirectory, String username) {
+    UsernameBloomFilter current = filterFor(usersDirectory);
+    if (current == null) {
+      return true;
+    }
+    lookups.incrementAndGet();
+    if (current.mightContain(username)) {
+      return true;
+    }
+    negatives.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Records that a user is about to be written, so later lookups find it.
+   *
+   * @param usersDirectory the users directory the user is written to
+   * @param username the username
+   */
+  public void add(Path usersDirectory, String username) {
+    synchronized (monitor) {
+      if (!usersDirectory.equals(root)) {
+        return;
+      }
+      if (filter != null) {
+        filter.put(username);
+      } else {
+        pendingAdds.add(username);
+      }
+    }
+  }
+
+  /**
+   * Records that a user the filter let through did not exist on disk.
+   *
+   * @param usersDirectory the users directory that was looked up
+   */
+  public void recordFalsePositive(Path usersDirectory) {
+    if (filterFor(usersDirectory) != null) {
+      falsePositives.incrementAndGet();
+    }
+  }
+
+  /**
+   * Gets the current statistics of the index.
+   *
+   * @return a snapshot of the statistics
+   */
+  public Stats stats() {
+    UsernameBloomFilter current = filter;
+    if (current == null) {
+      return new Stats(false, 0, 0, 0, 0, 0, lookups.get(), negatives.get(),
+          falsePositives.get(), lastBuildMillis);
+    }
+    return new Stats(true, current.getInsertions(), current.getBitSize(),
+        current.getHashFunctions(), current.getMemoryBytes(),
+        current.expectedFalsePositiveRate(), lookups.get(), negatives.get(),
+        falsePositives.get(), lastBuildMillis);
+  }
+
+  /**
+   * Gets the filter if it was built for a users directory.
+   *
+   * @param usersDirectory the users directory
+   * @return the filter, or null if it cannot answer for that directory
+   */
+  private UsernameBloomFilter filterFor(Path usersDirectory) {
+    UsernameBloomFilter current = filter;
+    return current != null && usersDirectory.equals(root) ? current : null;
+  }
+}
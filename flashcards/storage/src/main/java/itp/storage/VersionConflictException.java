@@ -0,0 +1,49 @@
+package itp.storage;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a conditional write expected a different version of a user's data than
+ * the stored one, because someone else changed the user in the meantime.
+ *
+ * @see StorageEngine#ifVersion(String, long, UserLockManager.LockedAction)
+ */
+public class VersionConflictException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long expectedVersion;
+  private final long actualVersion;
+
+  /**
+   * Creates the exception.
+   *
+   * @param username the user
+   * @param expectedVersion the version the writer based its change on
+   * @param actualVersion the stored version, -1 if the user does not exist
+   */
+  public VersionConflictException(String username, long expectedVersion, long actualVersion) {
+    super("Version conflict for " + username + ": expected " + expectedVersion
+        + " but found " + actualVersion);
+    this.expectedVersion = expectedVersion;
+    this.actualVersion = actualVersion;
+  }
+
+  /**
+   * Gets the version the writer based its change on.
+   *
+   * @return the expected version
+   */
+  public long getExpectedVersion() {
+    return expectedVersion;
+  }
+
+  /**
+   * Gets the stored version.
+   *
+   * @return the actual version, -1 if the user does not exist
+   */
+  public long getActualVersion() {
+    return actualVersion;
+  }
+}
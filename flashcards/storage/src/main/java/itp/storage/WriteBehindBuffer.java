@@ -0,0 +1,345 @@
+package itp.storage;
+
+import app.PersistentList;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds deck and card changes in memory and writes them to disk in the background.
+ *
+ * <p>Changes become visible to readers as soon as they are recorded. Every flush
+ * interval, all changes recorded for a user since the last flush are written
+ * together, as one log append or, after a full rewrite, as one snapshot. The number
+ * of recorded but unwritten changes is bounded. Writers that hit the bound wait
+ * until the disk has caught up.
+ *
+ * <p>Recording and flushing a user both happen under that user's lock, which the
+ * caller takes. The buffer keeps the data it is given rather than a copy, so recording
+ * a change costs the change itself: callers hand over data whose decks they no longer
+ * change in place, and the log entries of a user are kept in a list that is shared
+ * with the pending write before it.
+ *
+ * @see FlashcardPersistent
+ */
+public final class WriteBehindBuffer {
+
+  /** Time in milliseconds between background flushes when none is configured. */
+  public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+  /** Maximum number of unwritten changes when none is configured. */
+  public static final int DEFAULT_MAX_PENDING = 10_000;
+
+  private static final Logger LOGGER = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+  private final int maxPending;
+  private final Map<String, PendingWrite> dirty = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService flusher;
+  private final Object capacity = new Object();
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong backpressureWaits = new AtomicLong();
+  private volatile UserFlush flush;
+  private int pending;
+
+  /**
+   * Writes the pending changes of one user.
+   */
+  @FunctionalInterface
+  public interface UserFlush {
+
+    /**
+     * Writes a user's pending changes and marks them written.
+     *
+     * @param username the user to flush
+     * @throws IOException if writing fails
+     */
+    void flush(String username) throws IOException;
+  }
+
+  /**
+   * Unwritten state of one user: the data readers should see and either the log
+   * entries to append or a flag that a full snapshot is needed.
+   */
+  static final class PendingWrite {
+    private final StoredUserData data;
+    private final PersistentList<DeckOperation> operations;
+    private final boolean snapshot;
+
+    /**
+     * Creates a pending write.
+     *
+     * @param data the user's current data
+     * @param operations the log entries recorded since the last flush, not changed after
+     * @param snapshot whether the data must be written as a full snapshot
+     */
+    PendingWrite(StoredUserData data, PersistentList<DeckOperation> operations,
+        boolean snapshot) {
+      this.data = data;
+      this.operations = operations;
+      this.snapshot = snapshot;
+    }
+
+    /**
+     * Gets the user's current data. Its decks are not changed in place, so callers copy
+     * a deck before changing it.
+     *
+     * @return the data
+     * @see UserDataCache#forChange(StoredUserData, String)
+     */
+    StoredUserData data() {
+      return data;
+    }
+
+    /**
+     * Gets the log entries recorded since the last flush.
+     *
+     * @return the unmodifiable entries, empty for a snapshot
+     */
+    List<DeckOperation> operations() {
+      return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Checks whether the data must be written as a full snapshot.
+     *
+     * @return true for a snapshot
+     */
+    boolean snapshot() {
+      return snapshot;
+    }
+
+    /**
+     * Counts the changes this pending write stands for.
+     *
+     * @return the number of changes, at least one
+     */
+    int weight() {
+      return snapshot ? 1 : operations.size();
+    }
+  }
+
+  /**
+   * Statistics of the buffer.
+   *
+   * @param pendingUsers the number of users with unwritten changes
+   * @param pendingChanges the number of unwritten changes
+   * @param flushes the number of user flushes written
+   * @param coalescedChanges the number of changes written as part of those flushes
+   * @param failures the number of user flushes that failed and were retried
+   * @param backpressureWaits the number of times a writer waited for the disk
+   */
+  public record Stats(int pendingUsers, int pendingChanges, long flushes,
+      long coalescedChanges, long failures, long backpressureWaits) {}
+
+  /**
+   * Creates a buffer that flushes in the background.
+   *
+   * @param interval the time between background flushes
+   * @param unit the unit of the interval
+   * @param maxPending the number of unwritten changes at which writers start to wait
+   */
+  public WriteBehindBuffer(long interval, TimeUnit unit, int maxPending) {
+    if (interval <= 0 || maxPending < 1) {
+      throw new IllegalArgumentException("Interval and max pending must be positive");
+    }
+    this.maxPending = maxPending;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flashcards-write-behind");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, unit);
+  }
+
+  /**
+   * Sets how a user's pending changes are written. Must be called once, before the
+   * first change is recorded.
+   *
+   * @param flush the flush to run for each dirty user
+   */
+  public void setFlush(UserFlush flush) {
+    this.flush = flush;
+  }
+
+  /**
+   * Waits until there is room for another change. Call before taking the user's lock,
+   * since the flush that makes room needs the locks of the waiting users.
+   *
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public void awaitCapacity() throws InterruptedIOException {
+    synchronized (capacity) {
+      if (pending < maxPending) {
+        return;
+      }
+      backpressureWaits.incrementAndGet();
+      flusher.execute(this::flushQuietly);
+      while (pending >= maxPending) {
+        try {
+          capacity.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for pending writes");
+        }
+      }
+    }
+  }
+
+  /**
+   * Records a log entry for a user. The caller holds the user's lock.
+   *
+   * @param username the user
+   * @param data the user's data after the change, whose decks are not changed in place
+   *     afterwards
+   * @param operation the change to append on the next flush
+   */
+  public void recordOperation(String username, StoredUserData data, DeckOperation operation) {
+    PendingWrite previous = dirty.get(username);
+    PendingWrite next;
+    if (previous != null && previous.snapshot()) {
+      // The snapshot will contain this change too
+      next = new PendingWrite(data, new PersistentList<>(), true);
+    } else {
+      PersistentList<DeckOperation> operations = previous == null
+          ? new PersistentList<>() : previous.operations.snapshot();
+      operations.add(operation);
+      next = new PendingWrite(data, operations, false);
+    }
+    replace(username, previous, next);
+  }
+
+  /**
+   * Records that a user's data must be written as a full snapshot. The caller holds
+   * the user's lock.
+   *
+   * @param username the user
+   * @param data the user's complete data, whose decks are not changed in place afterwards
+   */
+  public void recordSnapshot(String username, StoredUserData data) {
+    PendingWrite previous = dirty.get(username);
+    replace(username, previous, new PendingWrite(data, new PersistentList<>(), true));
+  }
+
+  /**
+   * Gets a user's unwritten state.
+   *
+   * @param username the user
+   * @return the pending write, or null if everything is on disk
+   */
+  PendingWrite pending(String username) {
+    return dirty.get(username);
+  }
+
+  /**
+   * Marks a user's pending write as written. The caller holds the user's lock.
+   *
+   * @param username the user
+   * @param written the pending write that was written
+   */
+  void written(String username, PendingWrite written) {
+    if (dirty.remove(username, written)) {
+      flushes.incrementAndGet();
+      coalesced.addAndGet(written.operations().size());
+      adjustPending(-written.weight());
+    }
+  }
+
+  /**
+   * Writes the pending changes of every user now and waits for it to finish.
+   *
+   * @return the number of users that could not be written
+   */
+  public int flushAll() {
+    UserFlush current = flush;
+    int failed = 0;
+    if (current == null) {
+      return failed;
+    }
+    for (String username : new ArrayList<>(dirty.keySet())) {
+      try {
+        current.flush(username);
+      } catch (IOException | RuntimeException e) {
+        failed++;
+        failures.incrementAndGet();
+        LOGGER.log(Level.WARNING, "Failed to write pending changes for user '" + username + "'",
+            e);
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Writes everything still pending and stops the background flusher.
+   * Used on shutdown so no recorded change is lost.
+   *
+   * @return the number of users that could not be written
+   */
+  public int close() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return flushAll();
+  }
+
+  /**
+   * Gets the current statistics of the buffer.
+   *
+   * @return a snapshot of the statistics
+   */
+  public Stats stats() {
+    int changes;
+    synchronized (capacity) {
+      changes = pending;
+    }
+    return new Stats(dirty.size(), changes, flushes.get(), coalesced.get(), failures.get(),
+        backpressureWaits.get());
+  }
+
+  /**
+   * Replaces a user's pending write and updates the pending count.
+   *
+   * @param username the user
+   * @param previous the pending write being replaced, or null
+   * @param next the new pending write
+   */
+  private void replace(String username, PendingWrite previous, PendingWrite next) {
+    dirty.put(username, next);
+    adjustPending(next.weight() - (previous == null ? 0 : previous.weight()));
+  }
+
+  /**
+   * Changes the pending count and wakes writers waiting for room.
+   *
+   * @param delta the change in pending writes
+   */
+  private void adjustPending(int delta) {
+    synchronized (capacity) {
+      pending += delta;
+      if (pending < maxPending) {
+        capacity.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Background flush that never lets an exception stop the schedule.
+   */
+  private void flushQuietly() {
+    flushAll();
+  }
+}
@@ -2,6 +2,10 @@ module flashcards.storage {
   requires transitive flashcards.core;
   requires com.fasterxml.jackson.databind;
   requires com.fasterxml.jackson.core;
+  requires com.fasterxml.jackson.dataformat.smile;
+  requires com.h2database;
+  requires java.sql;
+  requires java.logging;
   requires java.base;
   
   exports itp.storage;
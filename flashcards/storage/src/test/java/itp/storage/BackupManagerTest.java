@@ -0,0 +1,185 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link BackupManager} and {@link ChangeJournal}.
+ * Backs up users written into a temporary users directory and restores them into
+ * another one.
+ *
+ * @see BackupManager
+ */
+@Tag("storage")
+public class BackupManagerTest {
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+  private FlashcardPersistent persistent;
+  private BackupManager backups;
+
+  /**
+   * Writes three users with one deck each into a users directory in the temporary
+   * directory.
+   *
+   * @throws IOException if the users cannot be written
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+    persistent = new FlashcardPersistent(layout, new UserDataCache(8));
+    for (String username : List.of("alice", "bob", "carol")) {
+      persistent.writeUserData(new User(username, "password123"));
+      writeDeck(username, "Question of " + username);
+    }
+    backups = new BackupManager(layout);
+  }
+
+  /**
+   * Tests that a full backup links the files of every user, and keeps their content
+   * when the users are written again.
+   *
+   * @throws Exception if backing up fails
+   */
+  @Test
+  public void testFull() throws Exception {
+    BackupManager.Backup backup = backups.full();
+    assertEquals(BackupManager.Type.FULL, backup.type());
+    assertNull(backup.base());
+    assertEquals(3, backup.users());
+    assertTrue(backup.linkedFiles() >= 6);
+    assertEquals(List.of(backup), backups.list());
+
+    writeDeck("alice", "Changed question");
+    Path restored = tempDir.resolve("copy/storage/data");
+    assertEquals(3, backups.restore(backup.id(), restored));
+    assertEquals("Question of alice", readQuestion(restored, "alice"));
+  }
+
+  /**
+   * Tests that an incremental backup holds only the users changed since the last backup,
+   * and that restoring it replays the chain, including users deleted in between.
+   *
+   * @throws Exception if backing up fails
+   */
+  @Test
+  public void testIncremental() throws Exception {
+    assertThrows(IOException.class, backups::incremental);
+    final BackupManager.Backup full = backups.full();
+
+    writeDeck("bob", "Changed question");
+    UserFileLayout.UserFiles carol = layout.locate("carol");
+    Files.delete(carol.snapshot());
+    persistent.writeUserData(new User("dave", "password123"));
+    // Only changes made through the persistence layer are journaled
+    ChangeJournal.at(BackupManager.backupsPath(layout)).record("carol");
+
+    BackupManager.Backup incremental = backups.incremental();
+    assertEquals(BackupManager.Type.INCREMENTAL, incremental.type());
+    assertEquals(full.id(), incremental.base());
+    assertEquals(2, incremental.users());
+    assertEquals(1, incremental.deleted());
+    assertEquals(0, backups.incremental().users());
+
+    Path restored = tempDir.resolve("copy/storage/data");
+    assertEquals(3, backups.restore(incremental.id(), restored));
+    assertEquals("Question of alice", readQuestion(restored, "alice"));
+    assertEquals("Changed question", readQuestion(restored, "bob"));
+    assertFalse(Files.exists(new UserFileLayout(restored.resolve("users"))
+        .locate("carol").snapshot()));
+    assertThrows(IOException.class, () -> backups.restore(full.id(), restored));
+  }
+
+  /**
+   * Tests that changed users are kept in memory until a write syncs, which takes them to
+   * the journal file, so they are not lost when the process restarts before a backup.
+   *
+   * @throws Exception if backing up fails
+   */
+  @Test
+  public void testJournalWrittenWithSync() throws Exception {
+    backups.full();
+    Path journal = BackupManager.backupsPath(layout).resolve("changes.journal");
+    assertFalse(Files.exists(journal));
+
+    writeDeck("bob", "Changed question");
+    assertEquals(List.of("bob"), Files.readAllLines(journal));
+    writeDeck("bob", "Changed again");
+    assertEquals(List.of("bob"), Files.readAllLines(journal));
+    assertEquals(1, backups.incremental().users());
+    assertFalse(Files.exists(journal));
+  }
+
+  /**
+   * Tests that archived users are backed up as their archive file and restored into the
+   * archive, from where they are read as usual.
+   *
+   * @throws Exception if backing up fails
+   */
+  @Test
+  public void testArchivedUser() throws Exception {
+    assertTrue(persistent.archiveUser("carol"));
+    BackupManager.Backup full = backups.full();
+    assertEquals(3, full.users());
+
+    assertEquals("Question of carol", persistent.readDeck("carol", "Deck1").getDeck()
+        .get(0).getQuestion());
+    assertTrue(persistent.archiveUser("bob"));
+    BackupManager.Backup incremental = backups.incremental();
+    assertEquals(2, incremental.users());
+
+    Path restored = tempDir.resolve("copy/storage/data");
+    assertEquals(3, backups.restore(incremental.id(), restored));
+    assertTrue(Files.exists(restored.resolve("cold")));
+    assertEquals("Question of bob", readQuestion(restored, "bob"));
+    assertEquals("Question of carol", readQuestion(restored, "carol"));
+  }
+
+  /**
+   * Replaces a user's decks with one deck holding one card.
+   *
+   * @param username the user
+   * @param question the question of the card
+   * @throws IOException if the deck cannot be written
+   */
+  private void writeDeck(String username, String question) throws IOException {
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    FlashcardDeck deck = new FlashcardDeck("Deck1");
+    deck.addFlashcard(new Flashcard(question, "Answer"));
+    manager.addDeck(deck);
+    persistent.writeDeck(username, manager);
+  }
+
+  /**
+   * Reads the question of a user's card from a restored data directory, through a fresh
+   * persistence layer over its users directory.
+   *
+   * @param dataDirectory the restored data directory
+   * @param username the user
+   * @return the question of the user's only card
+   * @throws IOException if the user cannot be read
+   */
+  private String readQuestion(Path dataDirectory, String username) throws IOException {
+    FlashcardPersistent fresh = new FlashcardPersistent(
+        new UserFileLayout(dataDirectory.resolve("users")), new UserDataCache(8));
+    return fresh.readDeck(username, "Deck1").getDeck().get(0).getQuestion();
+  }
+}
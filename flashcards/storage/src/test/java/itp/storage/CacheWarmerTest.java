@@ -0,0 +1,112 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.User;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link CacheWarmer}.
+ * Warms up users written into a temporary users directory.
+ *
+ * @see CacheWarmer
+ */
+@Tag("storage")
+public class CacheWarmerTest {
+
+  private static final List<String> USERS = List.of("old", "middle", "recent");
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+
+  /**
+   * Writes users that were last active one, two and three hours ago into a users
+   * directory in the temporary directory.
+   *
+   * @throws IOException if the users cannot be written
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, new UserDataCache(4));
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < USERS.size(); i++) {
+      persistent.writeUserData(new User(USERS.get(i), "password123"));
+      Path snapshot = layout.locate(USERS.get(i)).snapshot();
+      Files.setLastModifiedTime(snapshot, FileTime.fromMillis(now - (3 - i) * 3_600_000L));
+    }
+  }
+
+  /**
+   * Tests that the most recently active users are the ones loaded.
+   *
+   * @throws Exception if the warm-up fails
+   */
+  @Test
+  public void testMostRecentFirst() throws Exception {
+    Set<String> loaded = ConcurrentHashMap.newKeySet();
+    CacheWarmer warmer = new CacheWarmer(layout, loaded::add);
+
+    CacheWarmer.Result result = warmer.warm(2, Duration.ofSeconds(30));
+    assertEquals(Set.of("recent", "middle"), loaded);
+    assertEquals(3, result.scanned());
+    assertEquals(2, result.selected());
+    assertEquals(2, result.loaded());
+    assertTrue(result.completed());
+  }
+
+  /**
+   * Tests that loads still running when the budget runs out are cancelled.
+   *
+   * @throws Exception if the warm-up fails
+   */
+  @Test
+  public void testBudget() throws Exception {
+    CacheWarmer warmer = new CacheWarmer(layout, username -> {
+      try {
+        Thread.sleep(10_000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return true;
+    });
+
+    CacheWarmer.Result result = warmer.warm(3, Duration.ofMillis(200));
+    assertFalse(result.completed());
+    assertEquals(0, result.loaded());
+    assertTrue(result.elapsedMillis() < 10_000);
+  }
+
+  /**
+   * Tests that preloading fills the cache of a fresh instance, and that failures to
+   * read a user are counted rather than stopping the warm-up.
+   *
+   * @throws Exception if the warm-up fails
+   */
+  @Test
+  public void testPreloadRecentUsers() throws Exception {
+    Files.writeString(layout.locate("old").snapshot(), "{ not json");
+    UserDataCache cache = new UserDataCache(8);
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, cache);
+
+    CacheWarmer.Result result = persistent.preloadRecentUsers(10, Duration.ofSeconds(30));
+    assertEquals(2, result.loaded());
+    assertEquals(1, result.failed());
+    assertEquals(2, cache.size());
+  }
+}
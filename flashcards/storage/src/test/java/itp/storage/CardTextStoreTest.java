@@ -0,0 +1,192 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link CardTextStore}.
+ * Stores texts directly, and through {@link FlashcardPersistent} inside a temporary
+ * users directory.
+ *
+ * @see CardTextStore
+ */
+@Tag("storage")
+public class CardTextStoreTest {
+
+  private static final String QUESTION =
+      "What is the time complexity of looking up a key in a balanced binary search tree?";
+  private static final String ANSWER =
+      "Logarithmic in the number of keys, since every step halves the remaining subtree.";
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+
+  /**
+   * Uses a users directory in the temporary directory.
+   */
+  @BeforeEach
+  public void setUp() {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+  }
+
+  /**
+   * Tests that texts are counted per reference and removed with the last one.
+   *
+   * @throws IOException if the store cannot be written
+   */
+  @Test
+  public void testRetainAndRelease() throws IOException {
+    CardTextStore store = new CardTextStore(tempDir.resolve("texts"));
+    String question = CardTextStore.hashOf(QUESTION);
+    String answer = CardTextStore.hashOf(ANSWER);
+    store.retain(List.of(QUESTION, QUESTION, ANSWER));
+    assertEquals(2, store.referenceCount(question));
+    assertEquals(1, store.referenceCount(answer));
+
+    String text = store.text(question);
+    assertEquals(QUESTION, text);
+    assertSame(text, store.text(question));
+
+    store.release(List.of(question));
+    assertEquals(1, store.referenceCount(question));
+    store.release(List.of(question, answer));
+    assertEquals(0, store.referenceCount(question));
+    assertThrows(NoSuchFileException.class, () -> store.text(answer));
+    assertEquals(0, store.stats().texts());
+    assertEquals(2, store.stats().removed());
+  }
+
+  /**
+   * Tests that short texts stay inline and that hashes are stable.
+   */
+  @Test
+  public void testSharedTexts() {
+    assertFalse(CardTextStore.isShared("Q1"));
+    assertFalse(CardTextStore.isShared(null));
+    assertTrue(CardTextStore.isShared(QUESTION));
+    assertEquals(CardTextStore.hashOf(QUESTION), CardTextStore.hashOf(new String(QUESTION)));
+    assertEquals(43, CardTextStore.hashOf(QUESTION).length());
+  }
+
+  /**
+   * Tests that users with the same card share one stored text and one String, and that
+   * the text goes away with the last deck that refers to it.
+   *
+   * @throws IOException if the user files cannot be written
+   */
+  @Test
+  public void testSharedBetweenUsers() throws IOException {
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, new UserDataCache(4));
+    for (String username : List.of("alice", "bob")) {
+      persistent.writeUserData(new User(username, "password123"));
+      persistent.writeDeck(username, managerWith(new Flashcard(QUESTION, ANSWER),
+          new Flashcard("Short", "Inline")));
+    }
+    CardTextStore store = textStore();
+    String question = CardTextStore.hashOf(QUESTION);
+    assertEquals(2, store.referenceCount(question));
+    String deckFiles = deckFileText("alice");
+    assertFalse(deckFiles.contains(QUESTION));
+    assertTrue(deckFiles.contains(question));
+    assertTrue(deckFiles.contains("Inline"));
+
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    Flashcard alice = fresh.readCard("alice", "Deck", 1);
+    Flashcard bob = fresh.readCard("bob", "Deck", 1);
+    assertEquals(QUESTION, alice.getQuestion());
+    assertSame(alice.getQuestion(), bob.getQuestion());
+
+    persistent.appendOperation("bob", DeckOperation.removeCard("Deck", 0));
+    persistent.compactLog("bob");
+    assertEquals(1, store.referenceCount(question));
+    assertEquals("Inline", persistent.readCard("bob", "Deck", 1).getAnswer());
+
+    persistent.writeDeck("alice", new FlashcardDeckManager());
+    assertEquals(0, store.referenceCount(question));
+    assertEquals(0, store.stats().texts());
+  }
+
+  /**
+   * Tests that garbage collection fixes counts left too high, as after a crash, and
+   * removes texts no deck refers to.
+   *
+   * @throws IOException if the user files cannot be written
+   */
+  @Test
+  public void testCollectGarbage() throws IOException {
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, new UserDataCache(4));
+    persistent.writeUserData(new User("alice", "password123"));
+    persistent.writeDeck("alice", managerWith(new Flashcard(QUESTION, ANSWER)));
+    CardTextStore store = textStore();
+    // As if a deck file was written but its manifest never was
+    store.retain(List.of(QUESTION, "An orphaned answer that is long enough to be shared."));
+
+    assertEquals(1, persistent.collectCardTexts());
+    assertEquals(1, store.referenceCount(CardTextStore.hashOf(QUESTION)));
+    assertEquals(2, persistent.getCardTextStats().texts());
+    assertEquals(ANSWER, new FlashcardPersistent(layout, new UserDataCache(4))
+        .readCard("alice", "Deck", 1).getAnswer());
+  }
+
+  /**
+   * Builds a deck manager with one deck.
+   *
+   * @param cards the cards of the deck
+   * @return the manager
+   */
+  private static FlashcardDeckManager managerWith(Flashcard... cards) {
+    FlashcardDeck deck = new FlashcardDeck("Deck");
+    for (Flashcard card : cards) {
+      deck.addFlashcard(card);
+    }
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(deck);
+    return manager;
+  }
+
+  /**
+   * Gets the text store of the temporary users directory.
+   *
+   * @return the store
+   */
+  private CardTextStore textStore() {
+    return CardTextStore.at(layout.root().resolveSibling("texts"));
+  }
+
+  /**
+   * Reads all deck files of a user as text.
+   *
+   * @param username the user
+   * @return the concatenated deck files
+   * @throws IOException if the files cannot be read
+   */
+  private String deckFileText(String username) throws IOException {
+    StringBuilder text = new StringBuilder();
+    try (Stream<Path> files = Files.list(layout.locate(username).decks())) {
+      for (Path file : files.toList()) {
+        text.append(Files.readString(file));
+      }
+    }
+    return text.toString();
+  }
+}
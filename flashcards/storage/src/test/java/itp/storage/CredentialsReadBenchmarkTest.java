@@ -0,0 +1,131 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.LoginValidator;
+import app.User;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Benchmark comparing login latency for a user with 10 cards and one with 100 000 cards.
+ * Both logins should take about the same time, since only the credentials are read.
+ *
+ * <p>Skipped in normal builds. Run it with
+ * {@code mvn test -pl core,storage -Dtest=CredentialsReadBenchmarkTest
+ * -Dsurefire.failIfNoSpecifiedTests=false -Dflashcards.benchmark=true}.
+ *
+ * @see CredentialsReader
+ */
+@Tag("storage")
+@EnabledIfSystemProperty(named = "flashcards.benchmark", matches = "true")
+public class CredentialsReadBenchmarkTest {
+
+  private static final int WARMUP = 20;
+  private static final int ITERATIONS = 200;
+  private static final String SMALL_USER = "bench_small_user";
+  private static final String LARGE_USER = "bench_large_user";
+
+  /**
+   * Removes the benchmark users.
+   *
+   * @throws IOException if the files cannot be deleted
+   */
+  @AfterEach
+  public void tearDown() throws IOException {
+    for (String username : new String[] {SMALL_USER, LARGE_USER}) {
+      Files.deleteIfExists(userFile(username));
+      Path decks = UserFileLayout.current().sharded(username).decks();
+      if (Files.isDirectory(decks)) {
+        try (Stream<Path> files = Files.list(decks)) {
+          for (Path file : files.toList()) {
+            Files.deleteIfExists(file);
+          }
+        }
+        Files.deleteIfExists(decks);
+      }
+    }
+  }
+
+  /**
+   * Measures authentication through {@link LoginValidator} for both library sizes.
+   *
+   * @throws IOException if the users cannot be written
+   */
+  @Test
+  public void benchmarkLogin() throws IOException {
+    FlashcardPersistent persistent = new FlashcardPersistent(new UserDataCache(1));
+    createUser(persistent, SMALL_USER, 10);
+    createUser(persistent, LARGE_USER, 100_000);
+    LoginValidator validator = new LoginValidator(persistent);
+
+    double small = measure(validator, SMALL_USER);
+    double large = measure(validator, LARGE_USER);
+
+    System.out.printf("Login with %d cards: %.3f ms (file %d bytes)%n", 10, small,
+        Files.size(userFile(SMALL_USER)));
+    System.out.printf("Login with %d cards: %.3f ms (file %d bytes)%n", 100_000, large,
+        Files.size(userFile(LARGE_USER)));
+    assertTrue(large < small * 10, "Login time should not grow with the number of cards");
+  }
+
+  /**
+   * Creates a user with the given number of cards spread over the allowed decks.
+   *
+   * @param persistent the persistence to write with
+   * @param username the username
+   * @param cards the number of cards
+   * @throws IOException if writing fails
+   */
+  private static void createUser(FlashcardPersistent persistent, String username, int cards)
+      throws IOException {
+    persistent.writeUserData(new User(username, "password123"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    int decks = 8;
+    for (int d = 0; d < decks; d++) {
+      FlashcardDeck deck = new FlashcardDeck("Deck" + d);
+      for (int c = d; c < cards; c += decks) {
+        deck.addFlashcard(new Flashcard("Question " + c, "Answer " + c));
+      }
+      manager.addDeck(deck);
+    }
+    persistent.writeDeck(username, manager);
+  }
+
+  /**
+   * Measures the average authentication time of a user.
+   *
+   * @param validator the validator to log in with
+   * @param username the user to log in as
+   * @return the average time per login in milliseconds
+   */
+  private static double measure(LoginValidator validator, String username) {
+    for (int i = 0; i < WARMUP; i++) {
+      validator.authenticateUser(username, "password123");
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      assertTrue(validator.authenticateUser(username, "password123"));
+    }
+    return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+  }
+
+  /**
+   * Gets the data file of a benchmark user.
+   *
+   * @param username the username
+   * @return the path of the user's snapshot
+   */
+  private static Path userFile(String username) {
+    return UserFileLayout.current().sharded(username).snapshot();
+  }
+}
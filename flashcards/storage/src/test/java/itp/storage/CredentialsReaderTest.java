@@ -0,0 +1,95 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link CredentialsReader}.
+ * Verifies that credentials are read from snapshots regardless of field order
+ * and that missing or malformed files are handled.
+ *
+ * @see CredentialsReader
+ */
+@Tag("storage")
+public class CredentialsReaderTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final CredentialsReader reader = new CredentialsReader(objectMapper);
+
+  /**
+   * Tests that a snapshot written by the storage module starts with the credentials
+   * and that they are read back unchanged.
+   *
+   * @throws IOException if the file cannot be written or read
+   */
+  @Test
+  public void testReadSnapshot() throws IOException {
+    User user = new User("alice", "password123");
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    FlashcardDeck deck = new FlashcardDeck("Deck1");
+    deck.addFlashcard(new Flashcard("Q1", "A1"));
+    manager.addDeck(deck);
+    Path file = tempDir.resolve("alice.json");
+    objectMapper.writeValue(file.toFile(), new StoredUserData(user, manager, 3));
+
+    String json = Files.readString(file);
+    assertTrue(json.indexOf("\"password\"") < json.indexOf("\"deckManager\""));
+
+    User read = reader.read(file);
+    assertEquals("alice", read.getUsername());
+    assertEquals(user.getPassword(), read.getPassword());
+  }
+
+  /**
+   * Tests that files with the decks before the credentials are still read correctly.
+   *
+   * @throws IOException if the file cannot be written or read
+   */
+  @Test
+  public void testDecksBeforeCredentials() throws IOException {
+    Path file = Files.writeString(tempDir.resolve("bob.json"),
+        "{\"deckManager\":{\"decks\":[{\"deckName\":\"D\",\"deck\":[{\"question\":\"Q\"}]}]},"
+        + "\"username\":\"bob\",\"password\":\"salt:hash\"}");
+
+    User read = reader.read(file);
+    assertEquals("bob", read.getUsername());
+    assertEquals("salt:hash", read.getPassword());
+  }
+
+  /**
+   * Tests missing files, missing fields and files that are not JSON objects.
+   *
+   * @throws IOException if the files cannot be written
+   */
+  @Test
+  public void testMissingAndMalformed() throws IOException {
+    assertNull(reader.read(tempDir.resolve("missing.json")));
+
+    Path noPassword = Files.writeString(tempDir.resolve("carol.json"),
+        "{\"username\":\"carol\",\"password\":null}");
+    assertNull(reader.read(noPassword).getPassword());
+
+    Path array = Files.writeString(tempDir.resolve("dave.json"), "[]");
+    assertThrows(IOException.class, () -> reader.read(array));
+
+    Path malformed = Files.writeString(tempDir.resolve("eve.json"), "{ invalid }");
+    assertThrows(IOException.class, () -> reader.read(malformed));
+  }
+}
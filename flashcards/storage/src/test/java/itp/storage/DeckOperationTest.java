@@ -0,0 +1,78 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link DeckOperation}.
+ * Verifies that each operation type changes a deck manager as expected.
+ *
+ * @see DeckOperation
+ */
+@Tag("storage")
+public class DeckOperationTest {
+
+  /**
+   * Tests creating a deck, adding and removing cards and deleting the deck again.
+   */
+  @Test
+  public void testApplyOperations() {
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+
+    DeckOperation.createDeck("Deck1").applyTo(manager);
+    DeckOperation.addCard("Deck1", "Q1", "A1").applyTo(manager);
+    DeckOperation.addCard("Deck1", "Q2", "A2").applyTo(manager);
+    DeckOperation.removeCard("Deck1", 0).applyTo(manager);
+
+    FlashcardDeck deck = manager.getDecks().get(0);
+    assertEquals(1, deck.getDeck().size());
+    assertEquals("Q2", deck.getDeck().get(0).getQuestion());
+    assertEquals(1, deck.getDeck().get(0).getNumber());
+
+    DeckOperation.deleteDeck("Deck1").applyTo(manager);
+    assertTrue(manager.getDecks().isEmpty());
+  }
+
+  /**
+   * Tests that added cards keep the id they were logged with and can be updated by id.
+   */
+  @Test
+  public void testCardIds() {
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    DeckOperation.createDeck("Deck1").applyTo(manager);
+    DeckOperation.addCard("Deck1", "Q1", "A1", 7).applyTo(manager);
+    DeckOperation.addCard("Deck1", "Q2", "A2").applyTo(manager);
+    DeckOperation.updateCard("Deck1", 7, "New", " ").applyTo(manager);
+
+    FlashcardDeck deck = manager.getDecks().get(0);
+    assertEquals(8, deck.getFlashcard(1).getId());
+    assertEquals("New", deck.getFlashcardById(7).getQuestion());
+    assertEquals("A1", deck.getFlashcardById(7).getAnswer());
+    assertThrows(IllegalArgumentException.class,
+        () -> DeckOperation.updateCard("Deck1", 1, "Q", "A").applyTo(manager));
+  }
+
+  /**
+   * Tests that operations which do not fit the current state are rejected.
+   */
+  @Test
+  public void testInvalidOperations() {
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    DeckOperation.createDeck("Deck1").applyTo(manager);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> DeckOperation.createDeck("Deck1").applyTo(manager));
+    assertThrows(IllegalArgumentException.class,
+        () -> DeckOperation.addCard("Missing", "Q", "A").applyTo(manager));
+    assertThrows(IllegalArgumentException.class,
+        () -> DeckOperation.removeCard("Deck1", 0).applyTo(manager));
+    assertThrows(IllegalArgumentException.class,
+        () -> DeckOperation.deleteDeck("Missing").applyTo(manager));
+  }
+}
@@ -0,0 +1,160 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link DictionaryTrainer} and the compressed formats using its
+ * dictionaries. Trains on users written into a temporary users directory.
+ *
+ * @see DictionaryTrainer
+ * @see CompressionDictionaries
+ */
+@Tag("storage")
+public class DictionaryTrainerTest {
+
+  private static final int USERS = 6;
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+
+  /**
+   * Uses a users directory in the temporary directory. The compressed formats read the
+   * dictionaries of the whole process, so they are pointed next to it as well.
+   */
+  @BeforeEach
+  public void setUp() {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+    System.setProperty("flashcards.storage.dictionaryPath",
+        tempDir.resolve("storage/data/dictionaries").toString());
+  }
+
+  /**
+   * Restores the default dictionaries and format.
+   */
+  @AfterEach
+  public void tearDown() {
+    System.clearProperty("flashcards.storage.dictionaryPath");
+    System.clearProperty("flashcards.storage.compression");
+  }
+
+  /**
+   * Tests that fragments shared by several samples are kept, the most common last, and
+   * fragments of a single sample are not.
+   */
+  @Test
+  public void testTrain() {
+    String common = "\"question\" : \"What is the capital of ";
+    String pair = " \"hint\" : \"Think of the river\"";
+    String rare = "\"answer\" : \"Somewhere only one user knows";
+    byte[] dictionary = DictionaryTrainer.train(List.of(
+        (common + "France?\"" + pair).getBytes(StandardCharsets.UTF_8),
+        (common + "Spain?\"" + pair).getBytes(StandardCharsets.UTF_8),
+        (common + "Italy?\" " + rare).getBytes(StandardCharsets.UTF_8)),
+        DictionaryTrainer.MAX_SIZE);
+
+    String trained = new String(dictionary, StandardCharsets.ISO_8859_1);
+    int shared = trained.indexOf("\"question\" : \"What is th");
+    assertTrue(shared >= 0, trained);
+    assertTrue(trained.indexOf("\"hint\" : \"Think of the ri") < shared);
+    assertFalse(trained.contains("Somewhere"));
+    assertTrue(dictionary.length <= DictionaryTrainer.MAX_SIZE);
+    assertEquals(0, DictionaryTrainer.train(List.of(rare.getBytes(StandardCharsets.UTF_8)),
+        DictionaryTrainer.MAX_SIZE).length);
+  }
+
+  /**
+   * Tests training on the users directory, writing compressed files with the new
+   * dictionary, and reading them back in a fresh instance.
+   *
+   * @throws IOException if reading or writing fails
+   */
+  @Test
+  public void testTrainAndCompress() throws IOException {
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, new UserDataCache(8));
+    for (int i = 0; i < USERS; i++) {
+      writeUser(persistent, "user" + i);
+    }
+
+    DictionaryTrainer.Result result = new DictionaryTrainer(layout).train(100);
+    assertEquals(USERS, result.samples());
+    assertEquals(1, result.dictionaryId());
+    assertTrue(result.trainedBytes() < result.plainBytes());
+    CompressionDictionaries dictionaries = CompressionDictionaries.at(
+        CompressionDictionaries.directoryOf(layout));
+    assertEquals(List.of(1), dictionaries.ids());
+    assertEquals(1, dictionaries.latest());
+
+    System.setProperty("flashcards.storage.compression", "deflate");
+    FlashcardPersistent compressed = new FlashcardPersistent(layout, new UserDataCache(8));
+    writeUser(compressed, "zipped");
+    Path snapshot = layout.locate("zipped").snapshot();
+    byte[] header = Arrays.copyOf(Files.readAllBytes(snapshot), 8);
+    assertArrayEquals("FCZj".getBytes(StandardCharsets.US_ASCII), Arrays.copyOf(header, 4));
+    assertEquals(1, ByteBuffer.wrap(header, 4, 4).getInt());
+
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(8));
+    assertEquals("zipped", fresh.readUserData("zipped").getUsername());
+    FlashcardDeck deck = fresh.readDeck("zipped", "Geography");
+    assertEquals("What is the capital of country 3?", deck.getDeck().get(3).getQuestion());
+    // Users written before keep working next to the compressed ones
+    assertEquals(2, fresh.readDeck("user0").getDecks().size());
+  }
+
+  /**
+   * Tests that the compressed format is selected on top of the configured format.
+   */
+  @Test
+  public void testConfigured() {
+    System.setProperty("flashcards.storage.compression", "deflate");
+    assertSame(UserDataCodecs.JSON_DEFLATE, UserDataCodecs.configured());
+    System.setProperty("flashcards.storage.compression", "none");
+    assertSame(UserDataCodecs.JSON, UserDataCodecs.configured());
+  }
+
+  /**
+   * Writes a user with two decks of similar cards.
+   *
+   * @param persistent the persistence to write with
+   * @param username the username
+   * @throws IOException if writing fails
+   */
+  private static void writeUser(FlashcardPersistent persistent, String username)
+      throws IOException {
+    persistent.writeUserData(new User(username, "password123"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    FlashcardDeck geography = new FlashcardDeck("Geography");
+    FlashcardDeck history = new FlashcardDeck("History");
+    for (int c = 0; c < 10; c++) {
+      geography.addFlashcard(new Flashcard("What is the capital of country " + c + "?",
+          "The capital is city " + c));
+      history.addFlashcard(new Flashcard("When did event " + c + " happen?",
+          "In the year " + (1900 + c)));
+    }
+    manager.addDeck(geography);
+    manager.addDeck(history);
+    persistent.writeDeck(username, manager);
+  }
+}
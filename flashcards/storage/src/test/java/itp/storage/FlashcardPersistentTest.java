@@ -1,6 +1,8 @@
 package itp.storage;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -9,12 +11,19 @@ import app.FlashcardDeck;
 import app.FlashcardDeckManager;
 import app.PasswordEncoder;
 import app.User;
+import itp.storage.UserFileLayout.UserFiles;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
-import org.junit.jupiter.api.AfterEach;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Test class for verifying the persistence functionality of Flashcard decks.
@@ -29,40 +38,31 @@ import org.junit.jupiter.api.Test;
 @Tag("storage")
 public class FlashcardPersistentTest {
 
+  /**
+   * Temporary directory holding the users directory of each test.
+   */
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Layout of the users directory the tests write into.
+   */
+  UserFileLayout layout;
+
   /**
    * Instance of {@link FlashcardPersistent} used for testing persistence operations.
    */
-  FlashcardPersistent persistent = new FlashcardPersistent();
+  FlashcardPersistent persistent;
 
   /**
-   * Cleanup method that runs after each test to delete test user files.
-   * Ensures tests don't interfere with each other by removing test data.
-   * This method is automatically called after each test method execution.
-   * Removes all test user JSON files and any blocking files created during
-   * directory failure tests to maintain a clean test environment.
-   *
-   * @see "docs/release_3/ai_tools.md"
+   * Setup method that runs before each test to create a fresh users directory.
+   * Ensures tests don't interfere with each other or with real data, since every test
+   * writes into its own temporary directory, which is removed afterwards.
    */
-  @AfterEach
-  public void cleanup() {
-    // Delete all test user files
-    String[] testUsers = {"test_decks", "test_read", "test_user", "user_@.-~", "test_exists_user", 
-                          "test_read_user", "test_duplicate_user", "test_malformed_json", 
-                          "test_dir_exists", "test_existing_dir_user"}; // Added here
-    for (String username : testUsers) {
-      File userFile = new File(System.getProperty("user.dir") + "/../storage/data/users/"
-          + username + ".json");
-      if (userFile.exists()) {
-        userFile.delete();
-      }
-    }
-    
-    // Clean up any blocking files that might have been created during directory failure tests
-    File blockingFile = new File(System.getProperty("user.dir")
-        + "/../storage/data/blocking_file");
-    if (blockingFile.exists()) {
-      blockingFile.delete();
-    }
+  @BeforeEach
+  public void setUp() {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+    persistent = new FlashcardPersistent(layout, new UserDataCache(16));
   }
 
   /**
@@ -96,11 +96,10 @@ public class FlashcardPersistentTest {
     // Write to JSON-file
     persistent.writeDeck("test_decks", manager);
 
-    // Read from JSON-file directly to check content
-    File dataFile = new File(System.getProperty("user.dir")
-        + "/../storage/data/users", "test_decks" + ".json");
-    assertTrue(dataFile.exists());
-    String jsonContent = Files.readString(dataFile.toPath());
+    // Read from JSON-files directly to check content
+    UserFiles files = layout.sharded("test_decks");
+    assertTrue(Files.exists(files.snapshot()));
+    String jsonContent = storedText(files);
     // Check that the JSON content contains expected data
     assertTrue(jsonContent.contains("Deck1"));
     assertTrue(jsonContent.contains("Q3"));
@@ -173,8 +172,7 @@ public class FlashcardPersistentTest {
     assertTrue(persistent.dataExists("test_user"));
 
     // Manually delete the file to test the negative case
-    File dataFile = new File(System.getProperty("user.dir") + "/../storage/data/users", "test_user"
-        + ".json");
+    File dataFile = layout.sharded("test_user").snapshot().toFile();
     dataFile.delete();
 
     // Check that the file no longer exists
@@ -211,8 +209,7 @@ public class FlashcardPersistentTest {
     persistent.writeDeck(specialUsername, manager);
 
     // Verify that the file was created successfully
-    File file = new File(System.getProperty("user.dir") + "/../storage/data/users", specialUsername
-        + ".json");
+    File file = layout.sharded(specialUsername).snapshot().toFile();
     assertTrue(file.exists());
   }
 
@@ -280,8 +277,7 @@ public class FlashcardPersistentTest {
     // Test case 1: File exists but username is null
     // Because of @JsonUnwrapped, username and password are at root level, not under "user"
     String testUsername1 = "test_null_username";
-    File userFile1 = new File(System.getProperty("user.dir") + "/../storage/data/users/"
-        + testUsername1 + ".json");
+    File userFile1 = layout.flat(testUsername1).snapshot().toFile();
     userFile1.getParentFile().mkdirs();
     
     // Correct JSON format with @JsonUnwrapped - no nested "user" object
@@ -295,8 +291,7 @@ public class FlashcardPersistentTest {
     
     // Test case 2: File exists, username is valid, but password is null  
     String testUsername2 = "test_null_password";
-    File userFile2 = new File(System.getProperty("user.dir") + "/../storage/data/users/"
-        + testUsername2 + ".json");
+    File userFile2 = layout.flat(testUsername2).snapshot().toFile();
     
     // Correct JSON format - password at root level is null
     String jsonWithNullPassword = "{\"username\":\"validUser\",\"password\":null,"
@@ -364,8 +359,7 @@ public class FlashcardPersistentTest {
     String testUsername = "test_malformed_json";
     
     // Create a file with malformed JSON content
-    File userFile = new File(System.getProperty("user.dir") + "/../storage/data/users/"
-        + testUsername + ".json");
+    File userFile = layout.flat(testUsername).snapshot().toFile();
     userFile.getParentFile().mkdirs(); // Ensure directory exists
     
     // Write malformed JSON content to the file
@@ -404,49 +398,37 @@ public class FlashcardPersistentTest {
    */
   @Test
   public void testWriteUserDirFail() throws IOException {
-    // Save the original system property
-    String originalUserDir = System.getProperty("user.dir");
-    
-    try {
-      // First test: directory already exists (dataDir.exists() == true)
-      String testUsername1 = "test_dir_exists";
-      User testUser1 = new User(testUsername1, "password123");
-      
-      // Make sure the directory exists
-      File dataDir = new File(System.getProperty("user.dir") + "/../storage/data/users");
-      dataDir.mkdirs();
-      
-      // This should work normally since directory already exists
-      persistent.writeUserData(testUser1);
-      assertTrue(persistent.userExists(testUsername1));
-      
-      // Second test: Force mkdirs() to fail
-      // Point to a path where we cannot create directories (e.g., inside a file)
-      String testUsername2 = "test_dir_failure";
-      
-      // Create a regular file to block directory creation
-      File blockingFile = new File(originalUserDir + "/../storage/data/blocking_file");
-      blockingFile.getParentFile().mkdirs();
-      Files.write(blockingFile.toPath(), "blocking content".getBytes());
-      
-      User testUser2 = new User(testUsername2, "password123");
-
-      // Set user.dir to point inside this file (impossible location)
-      System.setProperty("user.dir", blockingFile.getAbsolutePath() + "/impossible");
-      
-      IOException exception = assertThrows(IOException.class, () -> {
-        persistent.writeUserData(testUser2);
-      });
-      
-      assertTrue(exception.getMessage().contains("Failed to create directory"));
-      
-      // Clean up
-      blockingFile.delete();
-      
-    } finally {
-      // Always restore the original system property
-      System.setProperty("user.dir", originalUserDir);
-    }
+    // First test: directory already exists (dataDir.exists() == true)
+    String testUsername1 = "test_dir_exists";
+    User testUser1 = new User(testUsername1, "password123");
+
+    // Make sure the directory exists
+    File dataDir = layout.root().toFile();
+    dataDir.mkdirs();
+
+    // This should work normally since directory already exists
+    persistent.writeUserData(testUser1);
+    assertTrue(persistent.userExists(testUsername1));
+
+    // Second test: Force mkdirs() to fail
+    // Point to a path where we cannot create directories (e.g., inside a file)
+    String testUsername2 = "test_dir_failure";
+
+    // Create a regular file to block directory creation
+    File blockingFile = tempDir.resolve("storage/data/blocking_file").toFile();
+    Files.write(blockingFile.toPath(), "blocking content".getBytes());
+
+    User testUser2 = new User(testUsername2, "password123");
+
+    // Point an instance inside this file (impossible location)
+    FlashcardPersistent blocked = new FlashcardPersistent(
+        new UserFileLayout(blockingFile.toPath().resolve("impossible")), new UserDataCache(4));
+
+    IOException exception = assertThrows(IOException.class, () -> {
+      blocked.writeUserData(testUser2);
+    });
+
+    assertTrue(exception.getMessage().contains("Failed to create directory"));
   }
 
   /**
@@ -491,14 +473,13 @@ public class FlashcardPersistentTest {
     String username = "test_existing_dir_user";
     
     // Clean up first in case user exists from previous test run
-    File userFile = new File(System.getProperty("user.dir") + "/../storage/data/users/"
-        + username + ".json");
+    File userFile = layout.sharded(username).snapshot().toFile();
     if (userFile.exists()) {
       userFile.delete();
     }
     
     // Ensure directory exists
-    File dataDir = new File(System.getProperty("user.dir") + "/../storage/data/users");
+    File dataDir = layout.root().toFile();
     dataDir.mkdirs();
     assertTrue(dataDir.exists(), "Directory should exist before test");
     
@@ -537,5 +518,373 @@ public class FlashcardPersistentTest {
     assertTrue(exception.getMessage().contains("User does not exist"));
     assertTrue(exception.getMessage().contains(nonExistingUsername));
   }
+
+  /**
+   * Tests that single deck and card changes are appended to the operation log
+   * and replayed on top of the snapshot when the user is read from disk.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testAppendOperation() throws IOException {
+    String username = "test_oplog_user";
+    persistent.writeUserData(new User(username, "password123"));
+
+    persistent.appendOperation(username, DeckOperation.createDeck("Deck1"));
+    persistent.appendOperation(username, DeckOperation.addCard("Deck1", "Q1", "A1"));
+    persistent.appendOperation(username, DeckOperation.addCard("Deck1", "Q2", "A2"));
+    persistent.appendOperation(username, DeckOperation.removeCard("Deck1", 0));
+
+    // The snapshot is untouched, the changes live in the log
+    UserFiles files = layout.sharded(username);
+    String snapshot = Files.readString(files.snapshot());
+    assertFalse(snapshot.contains("Deck1"));
+    assertTrue(Files.exists(files.log()));
+
+    // A fresh cache forces the log to be replayed from disk
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    FlashcardDeck deck = fresh.readDeck(username).getDecks().get(0);
+    assertEquals("Deck1", deck.getDeckName());
+    assertEquals(1, deck.getDeck().size());
+    assertEquals("Q2", deck.getDeck().get(0).getQuestion());
+
+    // Invalid operations are rejected before anything is written
+    assertThrows(IllegalArgumentException.class,
+        () -> persistent.appendOperation(username, DeckOperation.addCard("Missing", "Q", "A")));
+    IOException exception = assertThrows(IOException.class,
+        () -> persistent.appendOperation("non_existing_log_user",
+            DeckOperation.createDeck("Deck1")));
+    assertTrue(exception.getMessage().contains("User does not exist"));
+  }
+
+  /**
+   * Tests that logged changes and whole-deck writes both increase the version, that it
+   * survives reading from disk, and that stale conditional writes are rejected.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testVersions() throws IOException {
+    String username = "test_version_user";
+    persistent.writeUserData(new User(username, "password123"));
+    assertEquals(0, persistent.readVersion(username));
+    assertEquals(-1, persistent.readVersion("non_existing_version_user"));
+
+    persistent.appendOperation(username, DeckOperation.createDeck("Deck1"));
+    persistent.writeDeck(username, persistent.readDeck(username));
+    persistent.appendOperation(username, DeckOperation.addCard("Deck1", "Q1", "A1"));
+    assertEquals(3, persistent.readVersion(username));
+    assertEquals(3, new FlashcardPersistent(layout, new UserDataCache(4)).readVersion(username));
+
+    persistent.ifVersion(username, 3, () -> {
+      persistent.writeDeck(username, new FlashcardDeckManager());
+      return null;
+    });
+    assertThrows(VersionConflictException.class, () -> persistent.ifVersion(username, 3,
+        () -> {
+          persistent.appendOperation(username, DeckOperation.createDeck("Deck2"));
+          return null;
+        }));
+    assertTrue(persistent.readDeck(username).getDecks().isEmpty());
+    assertEquals(4, persistent.readVersion(username));
+  }
+
+  /**
+   * Tests that compaction folds the log into the snapshot, both when requested directly
+   * and when the background compactor is triggered by the size threshold.
+   *
+   * @throws Exception if an error occurs during file operations or waiting
+   */
+  @Test
+  public void testCompactLog() throws Exception {
+    String username = "test_compact_user";
+    LogCompactor compactor = new LogCompactor(1);
+    FlashcardPersistent compacting = new FlashcardPersistent(layout, new UserDataCache(4),
+        compactor);
+    compacting.writeUserData(new User(username, "password123"));
+    UserFiles files = layout.sharded(username);
+    final File logFile = files.log().toFile();
+
+    // Every append crosses the 1 byte threshold and schedules a compaction
+    compacting.appendOperation(username, DeckOperation.createDeck("Deck1"));
+    compacting.appendOperation(username, DeckOperation.addCard("Deck1", "Q1", "A1"));
+    assertTrue(compactor.awaitIdle(10, TimeUnit.SECONDS));
+
+    assertFalse(logFile.exists());
+    String snapshot = storedText(files);
+    assertTrue(snapshot.contains("Q1"));
+    assertTrue(snapshot.contains("logSequence"));
+
+    // A log entry already folded into the snapshot is not applied twice
+    Files.writeString(logFile.toPath(),
+        "{\"seq\":2,\"type\":\"ADD_CARD\",\"deck\":\"Deck1\",\"question\":\"Q1\","
+        + "\"answer\":\"A1\"}\n");
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertEquals(1, fresh.readDeck(username).getDecks().get(0).getDeck().size());
+
+    fresh.compactLog(username);
+    assertFalse(logFile.exists());
+    assertEquals(1, fresh.readDeck(username).getDecks().get(0).getDeck().size());
+  }
+
+  /**
+   * Tests that snapshots are replaced through a temporary file that is cleaned up
+   * afterwards, and that a leftover temporary file from a crash does not affect reads.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testAtomicSnapshotWrite() throws IOException {
+    String username = "test_atomic_user";
+    persistent.writeUserData(new User(username, "password123"));
+    File dataDir = layout.sharded(username).directory().toFile();
+    File leftover = new File(dataDir, username + "-crashed.tmp");
+    Files.writeString(leftover.toPath(), "{\"user\":{\"username\":");
+
+    try {
+      FlashcardDeckManager manager = new FlashcardDeckManager();
+      manager.addDeck(new FlashcardDeck("Deck1"));
+      persistent.writeDeck(username, manager);
+
+      String[] temps = dataDir.list((dir, name) -> name.startsWith(username + "-")
+          && name.endsWith(".tmp") && !name.equals(leftover.getName()));
+      assertEquals(0, temps.length);
+
+      FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+      assertEquals("Deck1", fresh.readDeck(username).getDecks().get(0).getDeckName());
+    } finally {
+      leftover.delete();
+    }
+  }
+
+  /**
+   * Tests that users in the flat layout are still found, and that migrating them
+   * moves their files into the sharded layout without losing logged changes.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testFlatLayoutFallbackAndMigration() throws IOException {
+    String plain = "test_flat_user";
+    String logged = "test_flat_log_user";
+    for (String username : new String[] {plain, logged}) {
+      persistent.writeUserData(new User(username, "password123"));
+      // Move the user back to the flat layout, as written by older versions
+      Files.move(layout.sharded(username).snapshot(), layout.flat(username).snapshot());
+    }
+    persistent.appendOperation(logged, DeckOperation.createDeck("Deck1"));
+    assertTrue(Files.exists(layout.flat(logged).log()));
+
+    assertTrue(persistent.userExists(plain));
+    assertTrue(persistent.dataExists(plain));
+    assertEquals("Deck1", persistent.readDeck(logged).getDecks().get(0).getDeckName());
+
+    assertTrue(persistent.migrateUser(plain));
+    assertTrue(persistent.migrateUser(logged));
+    assertFalse(persistent.migrateUser(plain));
+
+    for (String username : new String[] {plain, logged}) {
+      assertFalse(Files.exists(layout.flat(username).snapshot()));
+      assertFalse(Files.exists(layout.flat(username).log()));
+      assertTrue(Files.exists(layout.sharded(username).snapshot()));
+    }
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertTrue(fresh.userExists(plain));
+    assertEquals("Deck1", fresh.readDeck(logged).getDecks().get(0).getDeckName());
+  }
+
+  /**
+   * Tests that existence checks use the username index once it is built, and that
+   * users created afterwards are still found.
+   *
+   * @throws Exception if an error occurs during file operations or the index build
+   */
+  @Test
+  public void testUsernameIndex() throws Exception {
+    persistent.rebuildUsernameIndex(2);
+    UsernameIndex.Stats before = persistent.getUsernameIndexStats();
+    assertTrue(before.ready());
+
+    assertFalse(persistent.userExists("test_never_created_user"));
+    persistent.writeUserData(new User("test_indexed_user", "password123"));
+    assertTrue(persistent.userExists("test_indexed_user"));
+
+    UsernameIndex.Stats after = persistent.getUsernameIndexStats();
+    assertEquals(before.lookups() + 2, after.lookups());
+    assertTrue(after.negatives() + after.falsePositives()
+        > before.negatives() + before.falsePositives());
+  }
+
+  /**
+   * Tests that with write-behind, changes are visible immediately but only reach
+   * the disk as one write when the buffer is flushed.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testWriteBehind() throws IOException {
+    String username = "test_write_behind_user";
+    WriteBehindBuffer buffer = new WriteBehindBuffer(1, TimeUnit.HOURS, 100);
+    FlashcardPersistent buffered = FlashcardPersistent.writingBehind(layout,
+        new UserDataCache(4), new LogCompactor(LogCompactor.DEFAULT_THRESHOLD_BYTES), buffer);
+    buffered.writeUserData(new User(username, "password123"));
+
+    buffered.appendOperation(username, DeckOperation.createDeck("Deck1"));
+    buffered.appendOperation(username, DeckOperation.addCard("Deck1", "Q1", "A1"));
+    assertEquals(1, buffered.readDeck(username).getDecks().get(0).getDeck().size());
+    UserFiles files = layout.sharded(username);
+    assertFalse(Files.exists(files.log()));
+    assertEquals(2, buffered.getWriteBehindStats().pendingChanges());
+
+    assertEquals(0, buffered.flushPendingWrites());
+    assertTrue(Files.exists(files.log()));
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertEquals(1, fresh.readDeck(username).getDecks().get(0).getDeck().size());
+    assertEquals(1, buffered.getWriteBehindStats().flushes());
+
+    // Replacing all decks is written as one snapshot
+    buffered.writeDeck(username, new FlashcardDeckManager());
+    assertEquals(0, buffer.close());
+    assertFalse(Files.exists(files.log()));
+    assertTrue(fresh.readDeck(username).getDecks().isEmpty());
+  }
+
+  /**
+   * Tests that a snapshot converted to Smile is still read, including the streamed
+   * credentials, and that appended operations work on top of it.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testSmileSnapshot() throws IOException {
+    String username = "test_smile_user";
+    persistent.writeUserData(new User(username, "password123"));
+    FlashcardDeck deck = new FlashcardDeck("Deck1");
+    deck.addFlashcard(new Flashcard("Q1", "A1"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(deck);
+    persistent.writeDeck(username, manager);
+
+    assertTrue(persistent.convertUser(username, UserDataCodecs.SMILE));
+    assertFalse(persistent.convertUser(username, UserDataCodecs.SMILE));
+    assertFalse(persistent.convertUser("test_missing_user", UserDataCodecs.SMILE));
+    UserFiles files = layout.sharded(username);
+    assertEquals(':', Files.readAllBytes(files.snapshot())[0]);
+
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertTrue(fresh.userExists(username));
+    assertEquals(username, fresh.readUserData(username).getUsername());
+    fresh.appendOperation(username, DeckOperation.addCard("Deck1", "Q2", "A2"));
+    assertEquals(2, new FlashcardPersistent(layout, new UserDataCache(4))
+        .readDeck(username).getDecks().get(0).getDeck().size());
+  }
+
+  /**
+   * Tests that every deck has its own file, that single decks are read without the
+   * others, and that compaction only rewrites the decks the log changed.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testDeckFiles() throws IOException {
+    String username = "test_deck_files_user";
+    persistent.writeUserData(new User(username, "password123"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    for (String name : new String[] {"Deck1", "Deck2"}) {
+      FlashcardDeck deck = new FlashcardDeck(name);
+      deck.addFlashcard(new Flashcard(name + "Q", name + "A"));
+      manager.addDeck(deck);
+    }
+    persistent.writeDeck(username, manager);
+    UserFiles files = layout.sharded(username);
+    assertFalse(Files.readString(files.snapshot()).contains("Deck1Q"));
+    List<String> before = deckFileNames(files);
+    assertEquals(2, before.size());
+
+    persistent.appendOperation(username, DeckOperation.addCard("Deck1", "Q2", "A2"));
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertEquals(List.of("Deck1", "Deck2"), fresh.readDeckNames(username));
+    assertEquals(2, fresh.readDeck(username, "Deck1").getDeck().size());
+    assertEquals("Deck2Q", fresh.readDeck(username, "Deck2").getDeck().get(0).getQuestion());
+    assertNull(fresh.readDeck(username, "Deck3"));
+    assertNull(fresh.readDeck("test_missing_user", "Deck1"));
+    assertTrue(fresh.readDeckNames("test_missing_user").isEmpty());
+
+    // Only Deck1 gets a new file, the old one is removed
+    persistent.compactLog(username);
+    List<String> after = deckFileNames(files);
+    assertEquals(2, after.size());
+    assertEquals(1, after.stream().filter(before::contains).count());
+    assertEquals(2, new FlashcardPersistent(layout, new UserDataCache(4))
+        .readDeck(username, "Deck1").getDeck().size());
+
+    // Changes through a partial read keep a cached copy of the whole user current
+    persistent.readDeck(username);
+    persistent.appendOperation(username, DeckOperation.deleteDeck("Deck2"));
+    assertEquals(1, persistent.readDeck(username).getDecks().size());
+    assertThrows(IllegalArgumentException.class, () ->
+        persistent.appendOperation(username, DeckOperation.removeCard("Deck1", 5)));
+  }
+
+  /**
+   * Tests that a snapshot from before decks were split is read and split on the next
+   * snapshot write.
+   *
+   * @throws IOException if an error occurs during file operations
+   */
+  @Test
+  public void testInlineSnapshot() throws IOException {
+    String username = "test_inline_user";
+    FlashcardDeck deck = new FlashcardDeck("Deck1");
+    deck.addFlashcard(new Flashcard("Q1", "A1"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(deck);
+    UserFiles files = layout.sharded(username);
+    Files.createDirectories(files.directory());
+    try (OutputStream out = Files.newOutputStream(files.snapshot())) {
+      UserDataCodecs.JSON.write(out, new StoredUserData(
+          new User(username, PasswordEncoder.encode("password123")), manager, 0));
+    }
+
+    assertTrue(persistent.userExists(username));
+    assertEquals("Q1", persistent.readDeck(username, "Deck1").getDeck().get(0).getQuestion());
+    persistent.appendOperation(username, DeckOperation.addCard("Deck1", "Q2", "A2"));
+    persistent.compactLog(username);
+
+    assertFalse(Files.readString(files.snapshot()).contains("Q1"));
+    assertEquals(1, deckFileNames(files).size());
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertEquals(2, fresh.readDeck(username, "Deck1").getDeck().size());
+  }
+
+  /**
+   * Reads a user's snapshot and all deck files as one string.
+   *
+   * @param files the user's files
+   * @return the concatenated content
+   * @throws IOException if a file cannot be read
+   */
+  private static String storedText(UserFiles files) throws IOException {
+    StringBuilder text = new StringBuilder(Files.readString(files.snapshot()));
+    for (String name : deckFileNames(files)) {
+      text.append(Files.readString(files.deck(name)));
+    }
+    return text.toString();
+  }
+
+  /**
+   * Lists the names of a user's deck files.
+   *
+   * @param files the user's files
+   * @return the sorted file names, empty if there is no deck directory
+   * @throws IOException if the directory cannot be listed
+   */
+  private static List<String> deckFileNames(UserFiles files) throws IOException {
+    if (!Files.isDirectory(files.decks())) {
+      return List.of();
+    }
+    try (Stream<Path> stream = Files.list(files.decks())) {
+      return stream.map(path -> path.toFile().getName()).sorted().toList();
+    }
+  }
 }
-  
\ No newline at end of file
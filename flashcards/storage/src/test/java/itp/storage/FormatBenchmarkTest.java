@@ -0,0 +1,134 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Benchmark comparing snapshot size and encode/decode time of JSON and Smile, plain and
+ * compressed without a dictionary, for users with 10, 100 and 1000 cards in each of
+ * 8 decks.
+ *
+ * <p>Skipped in normal builds. Run it with
+ * {@code mvn test -pl core,storage -Dtest=FormatBenchmarkTest
+ * -Dsurefire.failIfNoSpecifiedTests=false -Dflashcards.benchmark=true}.
+ *
+ * @see UserDataCodecs
+ */
+@Tag("storage")
+@EnabledIfSystemProperty(named = "flashcards.benchmark", matches = "true")
+public class FormatBenchmarkTest {
+
+  private static final int WARMUP = 50;
+  private static final int ITERATIONS = 200;
+  private static final int DECKS = 8;
+
+  /**
+   * Measures both formats for every library size.
+   *
+   * @throws IOException if encoding fails
+   */
+  @Test
+  public void benchmarkFormats() throws IOException {
+    for (int cardsPerDeck : new int[] {10, 100, 1000}) {
+      StoredUserData data = createData(cardsPerDeck);
+      int jsonSize = 0;
+      for (UserDataCodec codec : new UserDataCodec[] {UserDataCodecs.JSON,
+          UserDataCodecs.SMILE, UserDataCodecs.JSON_DEFLATE, UserDataCodecs.SMILE_DEFLATE}) {
+        byte[] encoded = encode(codec, data);
+        double write = measureWrite(codec, data);
+        double read = measureRead(codec, encoded);
+        System.out.printf("%-13s %4d cards/deck: %8d bytes, write %.3f ms, read %.3f ms%n",
+            codec.getName(), cardsPerDeck, encoded.length, write, read);
+        if (codec == UserDataCodecs.JSON) {
+          jsonSize = encoded.length;
+        } else {
+          assertTrue(encoded.length < jsonSize, codec.getName() + " should be smaller than JSON");
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a user with the given number of cards in each deck.
+   *
+   * @param cardsPerDeck the number of cards per deck
+   * @return the data
+   */
+  private static StoredUserData createData(int cardsPerDeck) {
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    for (int d = 0; d < DECKS; d++) {
+      FlashcardDeck deck = new FlashcardDeck("Deck" + d);
+      for (int c = 0; c < cardsPerDeck; c++) {
+        deck.addFlashcard(new Flashcard("What is question number " + c + "?",
+            "This is the answer to question number " + c));
+      }
+      manager.addDeck(deck);
+    }
+    return new StoredUserData(new User("bench_format_user", "password123"), manager, 0);
+  }
+
+  /**
+   * Measures the average time to encode a snapshot.
+   *
+   * @param codec the format
+   * @param data the data
+   * @return the average time per write in milliseconds
+   * @throws IOException if encoding fails
+   */
+  private static double measureWrite(UserDataCodec codec, StoredUserData data)
+      throws IOException {
+    for (int i = 0; i < WARMUP; i++) {
+      encode(codec, data);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      encode(codec, data);
+    }
+    return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+  }
+
+  /**
+   * Measures the average time to decode a snapshot.
+   *
+   * @param codec the format
+   * @param encoded the encoded snapshot
+   * @return the average time per read in milliseconds
+   * @throws IOException if decoding fails
+   */
+  private static double measureRead(UserDataCodec codec, byte[] encoded) throws IOException {
+    for (int i = 0; i < WARMUP; i++) {
+      codec.read(new ByteArrayInputStream(encoded), StoredUserData.class);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      assertEquals(DECKS, codec.read(new ByteArrayInputStream(encoded), StoredUserData.class)
+          .getDeckManager().getDecks().size());
+    }
+    return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+  }
+
+  /**
+   * Encodes data in a format.
+   *
+   * @param codec the format
+   * @param data the data
+   * @return the encoded bytes
+   * @throws IOException if encoding fails
+   */
+  private static byte[] encode(UserDataCodec codec, StoredUserData data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.write(out, data);
+    return out.toByteArray();
+  }
+}
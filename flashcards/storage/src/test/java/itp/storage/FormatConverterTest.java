@@ -0,0 +1,115 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link FormatConverter}.
+ * Converts a users directory with flat and sharded users inside a temporary working
+ * directory.
+ *
+ * @see FormatConverter
+ */
+@Tag("storage")
+public class FormatConverterTest {
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+
+  /**
+   * Uses a users directory in the temporary directory.
+   */
+  @BeforeEach
+  public void setUp() {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+  }
+
+  /**
+   * Tests that every user is rewritten in the target format, logs included, and that
+   * converting back restores JSON.
+   *
+   * @throws Exception if the conversion fails
+   */
+  @Test
+  public void testConvert() throws Exception {
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, new UserDataCache(4));
+    int users = 20;
+    for (int i = 0; i < users; i++) {
+      persistent.writeUserData(new User("user" + i, "password123"));
+    }
+    persistent.appendOperation("user0", DeckOperation.createDeck("Deck1"));
+    // One user still in the flat layout
+    Files.createDirectories(layout.root());
+    try (OutputStream out = Files.newOutputStream(layout.flat("flat").snapshot())) {
+      UserDataCodecs.JSON.write(out,
+          new StoredUserData(new User("flat", "password123"), new FlashcardDeckManager(), 0));
+    }
+
+    AtomicLong lastProgress = new AtomicLong();
+    FormatConverter.Result result = new FormatConverter(persistent, "smile", 4)
+        .convert((done, total) -> lastProgress.set(done));
+
+    assertEquals(users + 1, result.total());
+    assertEquals(users + 1, result.converted());
+    assertEquals(0, result.failed());
+    assertEquals(users + 1, lastProgress.get());
+    for (int i = 0; i < users; i++) {
+      assertSame(UserDataCodecs.SMILE, formatOf(layout.sharded("user" + i).snapshot()));
+    }
+    assertSame(UserDataCodecs.SMILE, formatOf(layout.sharded("flat").snapshot()));
+    assertFalse(Files.exists(layout.sharded("user0").log()));
+
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertEquals("Deck1", fresh.readDeck("user0").getDecks().get(0).getDeckName());
+    assertEquals("flat", fresh.readUserData("flat").getUsername());
+
+    // Already converted users are left alone, converting back restores JSON
+    assertEquals(0, new FormatConverter(persistent, "smile", 2)
+        .convert((done, total) -> {}).converted());
+    assertEquals(users + 1, new FormatConverter(persistent, "json", 2)
+        .convert((done, total) -> {}).converted());
+    assertSame(UserDataCodecs.JSON, formatOf(layout.sharded("user1").snapshot()));
+  }
+
+  /**
+   * Tests that invalid arguments are rejected.
+   */
+  @Test
+  public void testInvalidArguments() {
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, new UserDataCache(4));
+    assertThrows(IllegalArgumentException.class,
+        () -> new FormatConverter(persistent, "smile", 0));
+    assertThrows(IllegalArgumentException.class,
+        () -> new FormatConverter(persistent, "xml", 1));
+  }
+
+  /**
+   * Detects the format of a snapshot file.
+   *
+   * @param file the snapshot
+   * @return the format
+   * @throws IOException if the file cannot be read
+   */
+  private static UserDataCodec formatOf(Path file) throws IOException {
+    try (BufferedInputStream in = UserDataCodecs.buffered(Files.newInputStream(file))) {
+      return UserDataCodecs.detect(in);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Benchmark comparing {@link GroupCommitSync} with forcing each file directly.
+ * A single writer should be about as fast as a direct force, and concurrent writers
+ * should need fewer flushes. Whether batching also saves time depends on how expensive
+ * a flush is on the disk the benchmark runs on.
+ *
+ * <p>Skipped in normal builds. Run it with
+ * {@code mvn test -pl core,storage -Dtest=GroupCommitSyncBenchmarkTest
+ * -Dsurefire.failIfNoSpecifiedTests=false -Dflashcards.benchmark=true}.
+ *
+ * @see GroupCommitSync
+ */
+@Tag("storage")
+@EnabledIfSystemProperty(named = "flashcards.benchmark", matches = "true")
+public class GroupCommitSyncBenchmarkTest {
+
+  private static final int ITERATIONS = 200;
+  private static final int DECK_FILES = 16;
+  private static final int WRITERS = 16;
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Measures a single writer syncing one file at a time.
+   *
+   * @throws IOException if the file cannot be written or synced
+   */
+  @Test
+  public void benchmarkSingleWriter() throws IOException {
+    GroupCommitSync sync = newSync();
+    Path file = write("user.json");
+
+    double direct = measure(() -> force(file));
+    double grouped = measure(() -> sync.sync(file));
+
+    System.out.printf("Single writer: direct %.3f ms, group commit %.3f ms%n", direct, grouped);
+    assertTrue(grouped < direct * 1.5 + 0.5, "A lone writer should not wait for a window");
+  }
+
+  /**
+   * Measures syncing the deck files of a snapshot, one by one or as one batch.
+   *
+   * @throws IOException if the files cannot be written or synced
+   */
+  @Test
+  public void benchmarkSnapshotFiles() throws IOException {
+    GroupCommitSync sync = newSync();
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < DECK_FILES; i++) {
+      files.add(write("deck" + i + ".json"));
+    }
+
+    double direct = measure(() -> {
+      for (Path file : files) {
+        force(file);
+      }
+    });
+    double grouped = measure(() -> sync.syncAll(files));
+
+    System.out.printf("%d deck files: direct %.3f ms, group commit %.3f ms%n", DECK_FILES,
+        direct, grouped);
+    assertTrue(sync.getFlushCount() <= sync.getRequestCount(),
+        "The files of a snapshot should share their flushes");
+  }
+
+  /**
+   * Measures concurrent writers each syncing their own file.
+   *
+   * @throws Exception if a writer fails
+   */
+  @Test
+  public void benchmarkConcurrentWriters() throws Exception {
+    GroupCommitSync sync = newSync();
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < WRITERS; i++) {
+      files.add(write("writer" + i + ".json"));
+    }
+
+    double direct = measureConcurrent(files, GroupCommitSyncBenchmarkTest::force);
+    double grouped = measureConcurrent(files, sync::sync);
+
+    System.out.printf("%d writers: direct %.3f ms, group commit %.3f ms per sync, "
+        + "%d flushes for %d requests%n", WRITERS, direct, grouped, sync.getFlushCount(),
+        sync.getRequestCount());
+    assertTrue(sync.getFlushCount() < sync.getRequestCount());
+  }
+
+  /**
+   * A sync of one or more files.
+   */
+  @FunctionalInterface
+  private interface Syncer {
+    void sync() throws IOException;
+  }
+
+  /**
+   * A sync of a writer's own file.
+   */
+  @FunctionalInterface
+  private interface FileSyncer {
+    void sync(Path file) throws IOException;
+  }
+
+  /**
+   * Creates a sync scheduler with the default window.
+   *
+   * @return the scheduler
+   */
+  private static GroupCommitSync newSync() {
+    return new GroupCommitSync(GroupCommitSync.DEFAULT_MAX_LATENCY_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Writes a small file to sync.
+   *
+   * @param name the file name
+   * @return the file
+   * @throws IOException if the file cannot be written
+   */
+  private Path write(String name) throws IOException {
+    return Files.writeString(tempDir.resolve(name), "{\"decks\":[]}");
+  }
+
+  /**
+   * Measures the average time of a sync.
+   *
+   * @param syncer the sync to run
+   * @return the average time per sync in milliseconds
+   * @throws IOException if a sync fails
+   */
+  private static double measure(Syncer syncer) throws IOException {
+    for (int i = 0; i < ITERATIONS / 10; i++) {
+      syncer.sync();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      syncer.sync();
+    }
+    return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+  }
+
+  /**
+   * Measures the average time of a sync while every writer syncs its file concurrently.
+   *
+   * @param files the files, one per writer
+   * @param syncer the sync each writer runs
+   * @return the average time per sync in milliseconds
+   * @throws Exception if a writer fails
+   */
+  private static double measureConcurrent(List<Path> files, FileSyncer syncer)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(files.size());
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (Path file : files) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < ITERATIONS; i++) {
+            syncer.sync(file);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Forces a file to disk directly.
+   *
+   * @param file the file
+   * @throws IOException if forcing fails
+   */
+  private static void force(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link GroupCommitSync}.
+ * Verifies that concurrent writers share flushes and that single syncs complete.
+ *
+ * @see GroupCommitSync
+ */
+@Tag("storage")
+public class GroupCommitSyncTest {
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Tests that files and directories can be synced and that each call is counted.
+   *
+   * @throws IOException if the files cannot be written or synced
+   */
+  @Test
+  public void testSync() throws IOException {
+    GroupCommitSync sync = new GroupCommitSync(0, TimeUnit.MILLISECONDS);
+    Path file = Files.writeString(tempDir.resolve("user.json"), "{}");
+
+    sync.sync(file);
+    sync.sync(tempDir);
+    // A file removed before the flush has nothing left to sync
+    sync.sync(tempDir.resolve("missing.json"));
+
+    assertEquals(3, sync.getRequestCount());
+    assertTrue(sync.getFlushCount() >= 1);
+  }
+
+  /**
+   * Tests that a writer arriving while no flush is running does not wait for the window.
+   *
+   * @throws IOException if the file cannot be written or synced
+   */
+  @Test
+  public void testIdleWriterSkipsWindow() throws IOException {
+    GroupCommitSync sync = new GroupCommitSync(1, TimeUnit.MINUTES);
+    Path file = Files.writeString(tempDir.resolve("user.json"), "{}");
+
+    long start = System.nanoTime();
+    sync.sync(file);
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+    assertEquals(1, sync.getFlushCount());
+  }
+
+  /**
+   * Tests that several files requested together are forced in a single flush.
+   *
+   * @throws IOException if the files cannot be written or synced
+   */
+  @Test
+  public void testSyncAll() throws IOException {
+    final GroupCommitSync sync = new GroupCommitSync(0, TimeUnit.MILLISECONDS);
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      files.add(Files.writeString(tempDir.resolve("deck" + i + ".json"), "{}"));
+    }
+    files.add(tempDir.resolve("missing.json"));
+    files.add(tempDir);
+
+    sync.syncAll(files);
+    assertEquals(1, sync.getRequestCount());
+    assertEquals(1, sync.getFlushCount());
+  }
+
+  /**
+   * Tests that writers arriving within the same window are released by a single flush.
+   *
+   * @throws Exception if a writer fails or the test is interrupted
+   */
+  @Test
+  public void testConcurrentWritersShareFlush() throws Exception {
+    GroupCommitSync sync = new GroupCommitSync(500, TimeUnit.MILLISECONDS);
+    int writers = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(writers);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < writers; i++) {
+        Path file = Files.writeString(tempDir.resolve("user" + i + ".json"), "{}");
+        futures.add(executor.submit(() -> {
+          start.await();
+          sync.sync(file);
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(writers, sync.getRequestCount());
+    assertTrue(sync.getFlushCount() < writers);
+  }
+
+  /**
+   * Tests that a file that cannot be forced only fails its own writers, not the other
+   * writers sharing the flush.
+   *
+   * @throws Exception if the test is interrupted or a socket cannot be bound
+   */
+  @Test
+  public void testFailureOnlyFailsItsWriters() throws Exception {
+    GroupCommitSync sync = new GroupCommitSync(500, TimeUnit.MILLISECONDS);
+    // A socket file cannot be opened for reading, so forcing it fails
+    Path socket = tempDir.resolve("user.sock");
+    int writers = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(writers);
+    CountDownLatch start = new CountDownLatch(1);
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < writers; i++) {
+        Path file = i % 2 == 0 ? socket
+            : Files.writeString(tempDir.resolve("user" + i + ".json"), "{}");
+        futures.add(executor.submit(() -> {
+          start.await();
+          sync.sync(file);
+          return null;
+        }));
+      }
+      start.countDown();
+      for (int i = 0; i < writers; i++) {
+        Future<?> future = futures.get(i);
+        if (i % 2 == 0) {
+          ExecutionException failure = assertThrows(ExecutionException.class,
+              () -> future.get(10, TimeUnit.SECONDS));
+          assertInstanceOf(IOException.class, failure.getCause());
+        } else {
+          future.get(10, TimeUnit.SECONDS);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(writers, sync.getRequestCount());
+    assertTrue(sync.getFlushCount() < writers);
+  }
+
+  /**
+   * Tests that a negative latency is rejected.
+   */
+  @Test
+  public void testNegativeLatency() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new GroupCommitSync(-1, TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,282 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.PasswordEncoder;
+import app.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link H2StorageEngine}.
+ * Each test works on a fresh database file in a temporary directory.
+ *
+ * @see H2StorageEngine
+ */
+@Tag("storage")
+public class H2StorageEngineTest {
+
+  @TempDir
+  Path tempDir;
+
+  private H2StorageEngine engine;
+
+  /**
+   * Opens a database in the temporary directory with one user.
+   *
+   * @throws IOException if the database cannot be opened
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    engine = new H2StorageEngine(tempDir.resolve("flashcards"));
+    engine.writeUserData(new User("alice", "password123"));
+  }
+
+  /**
+   * Closes the database.
+   */
+  @AfterEach
+  public void tearDown() {
+    engine.close();
+  }
+
+  /**
+   * Tests that credentials are stored with the encoded password and that a user
+   * cannot be created twice.
+   */
+  @Test
+  public void testUsers() {
+    assertTrue(engine.userExists("alice"));
+    assertTrue(PasswordEncoder.matches("password123",
+        engine.readUserData("alice").getPassword()));
+    assertEquals("alice", engine.readUserData("alice").getUsername());
+
+    assertFalse(engine.userExists("bob"));
+    assertNull(engine.readUserData("bob"));
+    assertThrows(IOException.class,
+        () -> engine.writeUserData(new User("alice", "other")));
+  }
+
+  /**
+   * Tests creating and deleting decks and adding and removing cards.
+   *
+   * @throws IOException if the database fails
+   */
+  @Test
+  public void testOperations() throws IOException {
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    engine.appendOperation("alice", DeckOperation.createDeck("History"));
+    engine.appendOperation("alice", DeckOperation.createDeck("Science"));
+    for (int i = 1; i <= 3; i++) {
+      engine.appendOperation("alice", DeckOperation.addCard("Math", "Q" + i, "A" + i));
+    }
+    assertEquals(List.of("Math", "History", "Science"), engine.readDeckNames("alice"));
+
+    // Removing a card renumbers the cards after it
+    engine.appendOperation("alice", DeckOperation.removeCard("Math", 0));
+    FlashcardDeck math = engine.readDeck("alice", "Math");
+    assertEquals(2, math.getDeck().size());
+    assertEquals("Q2", math.getDeck().get(0).getQuestion());
+    assertEquals(1, math.getDeck().get(0).getNumber());
+    assertEquals("A3", engine.readCard("alice", "Math", 2).getAnswer());
+    assertNull(engine.readCard("alice", "Math", 3));
+
+    // Deleting a deck keeps the order of the others and removes its cards
+    engine.appendOperation("alice", DeckOperation.deleteDeck("Math"));
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    assertEquals(List.of("History", "Science", "Math"), engine.readDeckNames("alice"));
+    assertEquals(0, engine.readDeck("alice", "Math").getDeck().size());
+    assertNull(engine.readDeck("alice", "Missing"));
+  }
+
+  /**
+   * Tests that every change increases the version, rejected ones excepted, and that
+   * conditional changes only apply at the expected version.
+   *
+   * @throws IOException if the database fails
+   */
+  @Test
+  public void testVersions() throws IOException {
+    assertEquals(0, engine.readVersion("alice"));
+    assertEquals(-1, engine.readVersion("bob"));
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    engine.writeDeck("alice", engine.readDeck("alice"));
+    assertEquals(2, engine.readVersion("alice"));
+    assertThrows(IllegalArgumentException.class,
+        () -> engine.appendOperation("alice", DeckOperation.createDeck("Math")));
+    assertEquals(2, engine.readVersion("alice"));
+
+    engine.ifVersion("alice", 2, () -> {
+      engine.appendOperation("alice", DeckOperation.createDeck("History"));
+      return null;
+    });
+    VersionConflictException conflict = assertThrows(VersionConflictException.class,
+        () -> engine.ifVersion("alice", 2, () -> {
+          engine.appendOperation("alice", DeckOperation.createDeck("Science"));
+          return null;
+        }));
+    assertEquals(3, conflict.getActualVersion());
+    assertEquals(List.of("Math", "History"), engine.readDeckNames("alice"));
+  }
+
+  /**
+   * Tests that invalid operations are rejected without changing anything.
+   *
+   * @throws IOException if the database fails
+   */
+  @Test
+  public void testInvalidOperations() throws IOException {
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    engine.appendOperation("alice", DeckOperation.addCard("Math", "Q", "A"));
+
+    assertThrows(IllegalArgumentException.class,
+        () -> engine.appendOperation("alice", DeckOperation.createDeck("Math")));
+    assertThrows(IllegalArgumentException.class,
+        () -> engine.appendOperation("alice", DeckOperation.addCard("Missing", "Q", "A")));
+    assertThrows(IllegalArgumentException.class,
+        () -> engine.appendOperation("alice", DeckOperation.removeCard("Math", 1)));
+    assertThrows(IllegalArgumentException.class,
+        () -> engine.appendOperation("alice", DeckOperation.deleteDeck("Missing")));
+    assertThrows(IOException.class,
+        () -> engine.appendOperation("bob", DeckOperation.createDeck("Math")));
+
+    // The deck limit is checked against the configured value
+    System.setProperty("flashcards.decks.max", "8");
+    try {
+      for (int i = 1; i < 8; i++) {
+        engine.appendOperation("alice", DeckOperation.createDeck("Deck" + i));
+      }
+      assertThrows(IllegalArgumentException.class,
+          () -> engine.appendOperation("alice", DeckOperation.createDeck("Deck8")));
+    } finally {
+      System.clearProperty("flashcards.decks.max");
+    }
+    assertEquals(8, engine.readDeckNames("alice").size());
+    assertEquals(1, engine.readDeck("alice", "Math").getDeck().size());
+  }
+
+  /**
+   * Tests that writing all decks replaces the previous decks and keeps the order.
+   *
+   * @throws IOException if the database fails
+   */
+  @Test
+  public void testWriteDeck() throws IOException {
+    engine.appendOperation("alice", DeckOperation.createDeck("Old"));
+    FlashcardDeckManager manager = createManager();
+    engine.writeDeck("alice", manager);
+
+    ObjectMapper mapper = new ObjectMapper();
+    assertEquals(mapper.writeValueAsString(manager),
+        mapper.writeValueAsString(engine.readDeck("alice")));
+    assertEquals(0, engine.readDeck("bob").getDecks().size());
+    assertThrows(IOException.class, () -> engine.writeDeck("bob", manager));
+  }
+
+  /**
+   * Tests that the data survives closing and reopening the database.
+   *
+   * @throws IOException if the database fails
+   */
+  @Test
+  public void testReopen() throws IOException {
+    engine.writeDeck("alice", createManager());
+    engine.close();
+
+    engine = new H2StorageEngine(tempDir.resolve("flashcards"));
+    assertTrue(engine.userExists("alice"));
+    assertEquals(List.of("Math", "Empty"), engine.readDeckNames("alice"));
+    assertEquals("Q2", engine.readCard("alice", "Math", 2).getQuestion());
+  }
+
+  /**
+   * Tests that card ids are stored, survive removals and reopening, and that cards can
+   * be updated by id.
+   *
+   * @throws IOException if the database fails
+   */
+  @Test
+  public void testCardIds() throws IOException {
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    for (int i = 1; i <= 3; i++) {
+      engine.appendOperation("alice", DeckOperation.addCard("Math", "Q" + i, "A" + i));
+    }
+    engine.appendOperation("alice", DeckOperation.removeCard("Math", 2));
+    engine.appendOperation("alice", DeckOperation.updateCard("Math", 2, "New", "Answer"));
+    engine.close();
+
+    engine = new H2StorageEngine(tempDir.resolve("flashcards"));
+    FlashcardDeck math = engine.readDeck("alice", "Math");
+    assertEquals(3, math.getLastCardId());
+    assertEquals("New", math.getFlashcardById(2).getQuestion());
+    assertEquals(2, engine.readCard("alice", "Math", 2).getId());
+    assertThrows(IllegalArgumentException.class, () -> engine.appendOperation("alice",
+        DeckOperation.updateCard("Math", 3, "Q", "A")));
+
+    // The id of the removed card is not given out again
+    engine.appendOperation("alice", DeckOperation.addCard("Math", "Q4", "A4"));
+    assertEquals(4, engine.readDeck("alice").getDecks().get(0).getFlashcard(2).getId());
+  }
+
+  /**
+   * Tests that the same operations give the same decks as the JSON backend.
+   *
+   * @throws IOException if either backend fails
+   */
+  @Test
+  public void testSameAsJson() throws IOException {
+    FlashcardPersistent json = new FlashcardPersistent(
+        new UserFileLayout(tempDir.resolve("users")), new UserDataCache(4));
+    json.writeUserData(new User("alice", "password123"));
+
+    List<DeckOperation> operations = List.of(
+        DeckOperation.createDeck("Math"),
+        DeckOperation.createDeck("History"),
+        DeckOperation.addCard("Math", "Q1", "A1"),
+        DeckOperation.addCard("Math", "Q2", "A2"),
+        DeckOperation.addCard("History", "Q3", "A3"),
+        DeckOperation.removeCard("Math", 0),
+        DeckOperation.createDeck("Science"),
+        DeckOperation.deleteDeck("History"));
+    for (StorageEngine backend : new StorageEngine[] {json, engine}) {
+      for (DeckOperation operation : operations) {
+        backend.appendOperation("alice", operation);
+      }
+    }
+
+    ObjectMapper mapper = new ObjectMapper();
+    assertEquals(mapper.writeValueAsString(json.readDeck("alice")),
+        mapper.writeValueAsString(engine.readDeck("alice")));
+    assertTrue(PasswordEncoder.matches("password123",
+        json.readUserData("alice").getPassword()));
+  }
+
+  /**
+   * Creates decks with cards, including an empty deck.
+   *
+   * @return the decks
+   */
+  private static FlashcardDeckManager createManager() {
+    FlashcardDeck math = new FlashcardDeck("Math");
+    math.addFlashcard(new Flashcard("Q1", "A1"));
+    math.addFlashcard(new Flashcard("Q2", "A2"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(math);
+    manager.addDeck(new FlashcardDeck("Empty"));
+    return manager;
+  }
+}
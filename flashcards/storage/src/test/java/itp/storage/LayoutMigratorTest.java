@@ -0,0 +1,85 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.FlashcardDeckManager;
+import app.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link LayoutMigrator}.
+ * Runs a migration of a flat users directory inside a temporary directory.
+ *
+ * @see LayoutMigrator
+ */
+@Tag("storage")
+public class LayoutMigratorTest {
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+
+  /**
+   * Uses a users directory in the temporary directory.
+   */
+  @BeforeEach
+  public void setUp() {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+  }
+
+  /**
+   * Tests that all flat users are moved in parallel and that progress reaches the total.
+   *
+   * @throws Exception if the migration fails
+   */
+  @Test
+  public void testMigrate() throws Exception {
+    Files.createDirectories(layout.root());
+    ObjectMapper objectMapper = new ObjectMapper();
+    int users = 50;
+    for (int i = 0; i < users; i++) {
+      String username = "user" + i;
+      objectMapper.writeValue(layout.flat(username).snapshot().toFile(),
+          new StoredUserData(new User(username, "password123"), new FlashcardDeckManager(), 0));
+    }
+
+    AtomicLong lastProgress = new AtomicLong();
+    FlashcardPersistent persistent = new FlashcardPersistent(layout, new UserDataCache(4));
+    LayoutMigrator.Result result = new LayoutMigrator(persistent, 4)
+        .migrate((done, total) -> lastProgress.set(done));
+
+    assertEquals(users, result.total());
+    assertEquals(users, result.migrated());
+    assertEquals(0, result.failed());
+    assertEquals(users, lastProgress.get());
+    for (int i = 0; i < users; i++) {
+      String username = "user" + i;
+      assertFalse(Files.exists(layout.flat(username).snapshot()));
+      assertTrue(persistent.userExists(username));
+    }
+
+    // Nothing left to move on a second run
+    assertEquals(0, new LayoutMigrator(persistent, 2).migrate((done, total) -> {}).total());
+  }
+
+  /**
+   * Tests that a parallelism below one is rejected.
+   */
+  @Test
+  public void testInvalidParallelism() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new LayoutMigrator(new FlashcardPersistent(layout, new UserDataCache(4)), 0));
+  }
+}
@@ -0,0 +1,87 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link LogCompactor}.
+ * Verifies threshold handling, deduplication of queued users and failure counting.
+ *
+ * @see LogCompactor
+ */
+@Tag("storage")
+public class LogCompactorTest {
+
+  /**
+   * Tests that compaction only runs once the threshold is reached.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  @Test
+  public void testThreshold() throws InterruptedException {
+    LogCompactor compactor = new LogCompactor(100);
+    AtomicInteger runs = new AtomicInteger();
+
+    assertFalse(compactor.compactIfNeeded("alice", 99, username -> runs.incrementAndGet()));
+    assertTrue(compactor.compactIfNeeded("alice", 100, username -> runs.incrementAndGet()));
+    assertTrue(compactor.awaitIdle(10, TimeUnit.SECONDS));
+
+    assertEquals(1, runs.get());
+    assertEquals(1, compactor.getCompactionCount());
+    assertEquals(100, compactor.getThresholdBytes());
+  }
+
+  /**
+   * Tests that a user is only queued once while a compaction is pending.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  @Test
+  public void testQueuesUserOnce() throws InterruptedException {
+    LogCompactor compactor = new LogCompactor(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+
+    // Occupy the worker so alice stays pending
+    compactor.compactIfNeeded("blocker", 1, username -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertTrue(compactor.compactIfNeeded("alice", 1, username -> runs.incrementAndGet()));
+    assertFalse(compactor.compactIfNeeded("alice", 1, username -> runs.incrementAndGet()));
+    release.countDown();
+
+    assertTrue(compactor.awaitIdle(10, TimeUnit.SECONDS));
+    assertEquals(1, runs.get());
+  }
+
+  /**
+   * Tests that failing compactions are counted and do not stop the worker.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  @Test
+  public void testFailureIsCounted() throws InterruptedException {
+    LogCompactor compactor = new LogCompactor(1);
+
+    compactor.compactIfNeeded("alice", 1, username -> {
+      throw new IOException("Disk full");
+    });
+    compactor.compactIfNeeded("bob", 1, username -> {});
+    assertTrue(compactor.awaitIdle(10, TimeUnit.SECONDS));
+
+    assertEquals(1, compactor.getFailureCount());
+    assertEquals(1, compactor.getCompactionCount());
+  }
+}
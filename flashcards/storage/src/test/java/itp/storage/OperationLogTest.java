@@ -0,0 +1,94 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link OperationLog}.
+ * Verifies appending and reading operations and recovery from torn writes.
+ *
+ * @see OperationLog
+ */
+@Tag("storage")
+public class OperationLogTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final OperationLog operationLog = new OperationLog(new ObjectMapper());
+
+  /**
+   * Tests that appended operations are read back in order with their fields intact.
+   *
+   * @throws IOException if the log cannot be written or read
+   */
+  @Test
+  public void testAppendAndRead() throws IOException {
+    Path log = tempDir.resolve("user.log");
+    assertTrue(operationLog.read(log).isEmpty());
+    assertEquals(0, operationLog.size(log));
+
+    DeckOperation create = DeckOperation.createDeck("Deck1");
+    create.setSequence(1);
+    DeckOperation add = DeckOperation.addCard("Deck1", "Q1", "A1");
+    add.setSequence(2);
+    operationLog.append(log, create);
+    long size = operationLog.append(log, add);
+
+    assertEquals(Files.size(log), size);
+    List<DeckOperation> operations = operationLog.read(log);
+    assertEquals(2, operations.size());
+    assertEquals(DeckOperation.Type.CREATE_DECK, operations.get(0).getType());
+    assertEquals(2, operations.get(1).getSequence());
+    assertEquals("Deck1", operations.get(1).getDeckName());
+
+    operationLog.delete(log);
+    assertTrue(Files.notExists(log));
+  }
+
+  /**
+   * Tests that a partial last line is ignored on read and removed before the next append.
+   *
+   * @throws IOException if the log cannot be written or read
+   */
+  @Test
+  public void testTornTailIsIgnored() throws IOException {
+    Path log = tempDir.resolve("user.log");
+    operationLog.append(log, DeckOperation.createDeck("Deck1"));
+    Files.writeString(log, "{\"seq\":2,\"type\":\"ADD_", StandardCharsets.UTF_8,
+        StandardOpenOption.APPEND);
+
+    assertEquals(1, operationLog.read(log).size());
+
+    operationLog.append(log, DeckOperation.deleteDeck("Deck1"));
+    List<DeckOperation> operations = operationLog.read(log);
+    assertEquals(2, operations.size());
+    assertEquals(DeckOperation.Type.DELETE_DECK, operations.get(1).getType());
+  }
+
+  /**
+   * Tests that a corrupt complete line is reported instead of silently skipped.
+   *
+   * @throws IOException if the log cannot be written
+   */
+  @Test
+  public void testCorruptEntryThrows() throws IOException {
+    Path log = tempDir.resolve("user.log");
+    Files.writeString(log, "not json\n");
+
+    IOException exception = assertThrows(IOException.class, () -> operationLog.read(log));
+    assertTrue(exception.getMessage().contains("line 1"));
+  }
+}
@@ -0,0 +1,259 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link SegmentStore}.
+ * Uses small segments in a temporary directory so tests roll over and compact quickly.
+ *
+ * @see SegmentStore
+ */
+@Tag("storage")
+public class SegmentStoreTest {
+
+  private static final int SEGMENT_SIZE = 1024;
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Tests that the newest record of a key is read back and survives reopening.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testPutAndReopen() throws IOException {
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      store.put("alice", bytes("first"));
+      store.put("bob", bytes("bob"));
+      store.put("alice", bytes("second"));
+
+      assertEquals("second", text(store.get("alice")));
+      assertNull(store.get("carol"));
+      assertTrue(store.contains("bob"));
+      assertFalse(store.contains("carol"));
+      assertEquals(Set.of("alice", "bob"), store.keys());
+      assertTrue(store.stats().deadBytes() > 0);
+    }
+
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      assertEquals("second", text(store.get("alice")));
+      assertEquals("bob", text(store.get("bob")));
+      assertEquals(2, store.stats().records());
+    }
+  }
+
+  /**
+   * Tests that views of the mapped records cannot be written through.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testReadOnlyView() throws IOException {
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      store.put("alice", bytes("data"));
+      assertTrue(store.get("alice").isReadOnly());
+      assertThrows(IOException.class, () -> store.put("alice", new byte[SEGMENT_SIZE]));
+    }
+  }
+
+  /**
+   * Tests that overwritten records are reclaimed by compaction and that the live
+   * records survive it and a reopen.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testCompact() throws IOException {
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      store.put("keep", bytes("kept value"));
+      for (int i = 0; i < 50; i++) {
+        store.put("churn", bytes("value " + i));
+      }
+      int before = store.stats().segments();
+      assertTrue(before > 1);
+
+      int compacted = store.compact(0.5);
+      assertTrue(compacted > 0);
+      assertEquals(before - compacted, segmentFiles());
+      assertEquals("kept value", text(store.get("keep")));
+      assertEquals("value 49", text(store.get("churn")));
+      assertTrue(store.stats().reclaimedBytes() > 0);
+    }
+
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      assertEquals("kept value", text(store.get("keep")));
+      assertEquals("value 49", text(store.get("churn")));
+    }
+  }
+
+  /**
+   * Tests that removed keys stay removed across compaction and reopening, while their
+   * tombstones still hide records in older segments.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testRemove() throws IOException {
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      store.put("gone", bytes("old value"));
+      store.put("keep", bytes("kept value"));
+      for (int i = 0; i < 30; i++) {
+        store.put("churn", bytes("value " + i));
+      }
+      assertTrue(store.remove("gone"));
+      assertFalse(store.remove("gone"));
+      assertNull(store.get("gone"));
+      for (int i = 0; i < 30; i++) {
+        store.put("churn", bytes("value " + i));
+      }
+      store.compact(0.5);
+    }
+
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      assertFalse(store.contains("gone"));
+      assertEquals("kept value", text(store.get("keep")));
+      store.put("gone", bytes("new value"));
+    }
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      assertEquals("new value", text(store.get("gone")));
+      assertEquals(Set.of("gone", "keep", "churn"), store.keys());
+    }
+  }
+
+  /**
+   * Tests that a compacted segment whose file could not be deleted cannot bring back a
+   * removed key, since the tombstones hiding its records are kept.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testUndeletableSegment() throws IOException {
+    Path first = tempDir.resolve("segment-00000.dat");
+    byte[] survivor;
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      store.put("gone", bytes("old value"));
+      for (int i = 0; i < 30; i++) {
+        store.put("churn", bytes("value " + i));
+      }
+      assertTrue(store.remove("gone"));
+      for (int i = 0; i < 60; i++) {
+        store.put("churn", bytes("value " + i));
+      }
+      // A non-empty directory in place of the file makes the delete fail
+      survivor = Files.readAllBytes(first);
+      Files.delete(first);
+      Files.createDirectories(first.resolve("busy"));
+      store.compact(0.5);
+      assertEquals(segmentFiles(), store.stats().segments());
+    }
+    Files.delete(first.resolve("busy"));
+    Files.delete(first);
+    Files.write(first, survivor);
+
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      assertFalse(store.contains("gone"));
+      assertEquals("value 59", text(store.get("churn")));
+      assertTrue(store.compact(0.5) > 0);
+      assertFalse(Files.exists(first));
+    }
+  }
+
+  /**
+   * Tests that a torn record at the end of a segment is ignored on open and overwritten
+   * by the next record.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testTornRecord() throws IOException {
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      store.put("alice", bytes("first"));
+      store.put("alice", bytes("second"));
+    }
+    // Flip the last checksum byte of the second record, as if the crash tore it
+    Path segment = tempDir.resolve("segment-00000.dat");
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      int second = readInt(channel, 0);
+      int end = second + readInt(channel, second);
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.read(last, end - 1);
+      channel.write(ByteBuffer.wrap(new byte[] {(byte) ~last.get(0)}), end - 1);
+    }
+
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      assertEquals("first", text(store.get("alice")));
+      store.put("bob", bytes("bob"));
+    }
+    try (SegmentStore store = new SegmentStore(tempDir, SEGMENT_SIZE)) {
+      assertEquals("first", text(store.get("alice")));
+      assertEquals("bob", text(store.get("bob")));
+    }
+  }
+
+  /**
+   * Counts the segment files in the directory.
+   *
+   * @return the number of segment files
+   * @throws IOException if the directory cannot be listed
+   */
+  private int segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(tempDir)) {
+      return (int) files.count();
+    }
+  }
+
+  /**
+   * Reads an int from a file.
+   *
+   * @param channel the file
+   * @param position the position of the int
+   * @return the int
+   * @throws IOException if reading fails
+   */
+  private static int readInt(FileChannel channel, long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+    channel.read(buffer, position);
+    return buffer.flip().getInt();
+  }
+
+  /**
+   * Encodes text as UTF-8.
+   *
+   * @param text the text
+   * @return the bytes
+   */
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decodes the remaining bytes of a buffer as UTF-8.
+   *
+   * @param buffer the buffer
+   * @return the text
+   */
+  private static String text(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
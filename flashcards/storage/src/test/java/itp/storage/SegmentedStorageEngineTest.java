@@ -0,0 +1,173 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.PasswordEncoder;
+import app.User;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link SegmentedStorageEngine}.
+ * Each test works on fresh, small segments in a temporary directory.
+ *
+ * @see SegmentedStorageEngine
+ */
+@Tag("storage")
+public class SegmentedStorageEngineTest {
+
+  private static final int SEGMENT_SIZE = 8192;
+
+  @TempDir
+  Path tempDir;
+
+  private SegmentedStorageEngine engine;
+
+  /**
+   * Opens segments in the temporary directory with one user.
+   *
+   * @throws IOException if the segments cannot be opened
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    engine = new SegmentedStorageEngine(tempDir, SEGMENT_SIZE);
+    engine.writeUserData(new User("alice", "password123"));
+  }
+
+  /**
+   * Closes the segments.
+   */
+  @AfterEach
+  public void tearDown() {
+    engine.close();
+  }
+
+  /**
+   * Tests credentials and that a user cannot be created twice.
+   */
+  @Test
+  public void testUsers() {
+    assertTrue(engine.userExists("alice"));
+    assertTrue(PasswordEncoder.matches("password123",
+        engine.readUserData("alice").getPassword()));
+    assertFalse(engine.userExists("bob"));
+    assertNull(engine.readUserData("bob"));
+    assertThrows(IOException.class, () -> engine.writeUserData(new User("alice", "other")));
+  }
+
+  /**
+   * Tests deck and card changes, including rejected ones.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testOperations() throws IOException {
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    engine.appendOperation("alice", DeckOperation.createDeck("History"));
+    engine.appendOperation("alice", DeckOperation.addCard("Math", "Q1", "A1"));
+    engine.appendOperation("alice", DeckOperation.addCard("Math", "Q2", "A2"));
+    engine.appendOperation("alice", DeckOperation.removeCard("Math", 0));
+
+    assertEquals(List.of("Math", "History"), engine.readDeckNames("alice"));
+    assertEquals("Q2", engine.readCard("alice", "Math", 1).getQuestion());
+    assertNull(engine.readDeck("alice", "Missing"));
+    assertThrows(IllegalArgumentException.class,
+        () -> engine.appendOperation("alice", DeckOperation.createDeck("Math")));
+    assertThrows(IOException.class,
+        () -> engine.appendOperation("bob", DeckOperation.createDeck("Math")));
+    assertThrows(IOException.class,
+        () -> engine.writeDeck("bob", engine.readDeck("alice")));
+  }
+
+  /**
+   * Tests that every change increases the version, rejected ones excepted, and that
+   * conditional changes only apply at the expected version.
+   *
+   * @throws IOException if the store fails
+   */
+  @Test
+  public void testVersions() throws IOException {
+    assertEquals(0, engine.readVersion("alice"));
+    assertEquals(-1, engine.readVersion("bob"));
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    engine.writeDeck("alice", engine.readDeck("alice"));
+    assertEquals(2, engine.readVersion("alice"));
+    assertThrows(IllegalArgumentException.class,
+        () -> engine.appendOperation("alice", DeckOperation.createDeck("Math")));
+    assertEquals(2, engine.readVersion("alice"));
+
+    engine.ifVersion("alice", 2, () -> {
+      engine.appendOperation("alice", DeckOperation.createDeck("History"));
+      return null;
+    });
+    VersionConflictException conflict = assertThrows(VersionConflictException.class,
+        () -> engine.ifVersion("alice", 2, () -> {
+          engine.appendOperation("alice", DeckOperation.createDeck("Science"));
+          return null;
+        }));
+    assertEquals(3, conflict.getActualVersion());
+    assertEquals(List.of("Math", "History"), engine.readDeckNames("alice"));
+  }
+
+  /**
+   * Tests that the data survives compaction and reopening.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testCompactAndReopen() throws IOException {
+    engine.appendOperation("alice", DeckOperation.createDeck("Math"));
+    for (int i = 0; i < 40; i++) {
+      engine.appendOperation("alice", DeckOperation.addCard("Math", "Q" + i, "A" + i));
+    }
+    assertTrue(engine.getStats().segments() > 1);
+    assertTrue(engine.compact() > 0);
+    assertEquals(40, engine.readDeck("alice", "Math").getDeck().size());
+    engine.close();
+
+    engine = new SegmentedStorageEngine(tempDir, SEGMENT_SIZE);
+    assertTrue(engine.userExists("alice"));
+    assertEquals("A39", engine.readCard("alice", "Math", 40).getAnswer());
+    assertEquals(1, engine.getStats().records());
+  }
+
+  /**
+   * Tests that records written before they carried a version header are still read,
+   * and get the header on their next change.
+   *
+   * @throws IOException if the segments cannot be written
+   */
+  @Test
+  public void testRecordWithoutVersionHeader() throws IOException {
+    Path directory = tempDir.resolve("legacy");
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(new FlashcardDeck("Math"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    UserDataCodecs.JSON.write(out, new StoredUserData(new User("bob", "password123"),
+        manager, 5));
+    try (SegmentStore store = new SegmentStore(directory, SEGMENT_SIZE)) {
+      store.put("bob", out.toByteArray());
+    }
+
+    try (SegmentedStorageEngine legacy = new SegmentedStorageEngine(directory, SEGMENT_SIZE)) {
+      assertEquals(5, legacy.readVersion("bob"));
+      assertEquals(List.of("Math"), legacy.readDeckNames("bob"));
+      legacy.appendOperation("bob", DeckOperation.createDeck("History"));
+      assertEquals(6, legacy.readVersion("bob"));
+      assertEquals(List.of("Math", "History"), legacy.readDeckNames("bob"));
+    }
+  }
+}
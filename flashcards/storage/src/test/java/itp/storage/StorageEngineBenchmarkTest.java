@@ -0,0 +1,147 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import app.User;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Benchmark running the same workload against every {@link StorageEngine}: reading one
+ * deck, reading one card, listing deck names and adding a card, for a user with 8 decks
+ * of 1000 cards.
+ *
+ * <p>Skipped in normal builds. Run it with
+ * {@code mvn test -pl core,storage -Dtest=StorageEngineBenchmarkTest
+ * -Dsurefire.failIfNoSpecifiedTests=false -Dflashcards.benchmark=true}.
+ *
+ * @see StorageEngines
+ */
+@Tag("storage")
+@EnabledIfSystemProperty(named = "flashcards.benchmark", matches = "true")
+public class StorageEngineBenchmarkTest {
+
+  private static final int WARMUP = 50;
+  private static final int ITERATIONS = 500;
+  private static final int DECKS = 8;
+  private static final int CARDS_PER_DECK = 1000;
+  private static final String USER = "bench_engine_user";
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+  private AutoCloseable closeable;
+
+  /**
+   * Uses a users directory in the temporary directory.
+   */
+  @BeforeEach
+  public void setUp() {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+  }
+
+  /**
+   * Closes the database or segments.
+   *
+   * @throws Exception if closing fails
+   */
+  @AfterEach
+  public void tearDown() throws Exception {
+    if (closeable != null) {
+      closeable.close();
+    }
+  }
+
+  /**
+   * Measures the workload against one backend.
+   *
+   * @param name the backend name
+   * @throws IOException if the backend fails
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {StorageEngines.JSON, StorageEngines.H2, StorageEngines.MMAP})
+  public void benchmarkEngine(String name) throws IOException {
+    StorageEngine engine = create(name);
+    engine.writeUserData(new User(USER, "password123"));
+    for (int d = 0; d < DECKS; d++) {
+      engine.appendOperation(USER, DeckOperation.createDeck("Deck" + d));
+      for (int c = 0; c < CARDS_PER_DECK; c++) {
+        engine.appendOperation(USER, DeckOperation.addCard("Deck" + d,
+            "What is question number " + c + "?", "This is the answer to question " + c));
+      }
+    }
+
+    double readDeck = measure(() -> assertEquals(CARDS_PER_DECK,
+        engine.readDeck(USER, "Deck3").getDeck().size()));
+    double readCard = measure(() -> engine.readCard(USER, "Deck3", CARDS_PER_DECK / 2));
+    double readNames = measure(() -> assertEquals(DECKS, engine.readDeckNames(USER).size()));
+    double addCard = measure(() -> {
+      engine.appendOperation(USER, DeckOperation.addCard("Deck5", "Q", "A"));
+      engine.appendOperation(USER, DeckOperation.removeCard("Deck5", CARDS_PER_DECK));
+    }) / 2;
+    System.out.printf("%-5s readDeck %.3f ms, readCard %.3f ms, readDeckNames %.3f ms, "
+        + "change card %.3f ms%n", name, readDeck, readCard, readNames, addCard);
+  }
+
+  /**
+   * Creates a backend that stores into the temporary directory.
+   *
+   * @param name the backend name
+   * @return the backend
+   * @throws IOException if the database or segments cannot be opened
+   */
+  private StorageEngine create(String name) throws IOException {
+    if (StorageEngines.H2.equals(name)) {
+      H2StorageEngine database = new H2StorageEngine(tempDir.resolve("flashcards"));
+      closeable = database;
+      return database;
+    }
+    if (StorageEngines.MMAP.equals(name)) {
+      SegmentedStorageEngine segments = new SegmentedStorageEngine(
+          tempDir.resolve("segments"), SegmentStore.DEFAULT_SEGMENT_SIZE);
+      closeable = segments;
+      return segments;
+    }
+    return new FlashcardPersistent(layout, new UserDataCache(16));
+  }
+
+  /**
+   * A step of the workload.
+   */
+  @FunctionalInterface
+  private interface Step {
+
+    /**
+     * Runs the step once.
+     *
+     * @throws IOException if the backend fails
+     */
+    void run() throws IOException;
+  }
+
+  /**
+   * Measures the average time of a step after a warmup.
+   *
+   * @param step the step
+   * @return the average time in milliseconds
+   * @throws IOException if the backend fails
+   */
+  private static double measure(Step step) throws IOException {
+    for (int i = 0; i < WARMUP; i++) {
+      step.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      step.run();
+    }
+    return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+  }
+}
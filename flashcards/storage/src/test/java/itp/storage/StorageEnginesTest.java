@@ -0,0 +1,56 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link StorageEngines}.
+ *
+ * @see StorageEngines
+ */
+@Tag("storage")
+public class StorageEnginesTest {
+
+  /**
+   * Clears the configuration set by the tests.
+   */
+  @AfterEach
+  public void tearDown() {
+    System.clearProperty("flashcards.storage.engine");
+    System.clearProperty("flashcards.storage.databasePath");
+    System.clearProperty("flashcards.storage.segmentsPath");
+  }
+
+  /**
+   * Tests that the JSON backend is the default and that names are matched loosely.
+   */
+  @Test
+  public void testConfigured() {
+    assertTrue(StorageEngines.configured() instanceof FlashcardPersistent);
+    System.setProperty("flashcards.storage.engine", " JSON ");
+    assertEquals(StorageEngines.JSON, StorageEngines.configured().getEngineName());
+    assertThrows(IllegalArgumentException.class, () -> StorageEngines.forName("mongo"));
+  }
+
+  /**
+   * Tests that the database and segment paths can be configured.
+   */
+  @Test
+  public void testDatabasePath() {
+    assertEquals("flashcards", StorageEngines.databasePath().getFileName().toString());
+    assertEquals(UserFileLayout.current().root().getParent(),
+        StorageEngines.databasePath().getParent());
+    System.setProperty("flashcards.storage.databasePath", "/tmp/other");
+    assertEquals("other", StorageEngines.databasePath().getFileName().toString());
+
+    assertEquals(UserFileLayout.current().root().resolveSibling("segments"),
+        StorageEngines.segmentsPath());
+    System.setProperty("flashcards.storage.segmentsPath", "/tmp/segments");
+    assertEquals("segments", StorageEngines.segmentsPath().getFileName().toString());
+  }
+}
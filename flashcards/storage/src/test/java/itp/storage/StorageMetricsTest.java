@@ -0,0 +1,162 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import itp.storage.StorageMetrics.Operation;
+import itp.storage.StorageMetrics.OperationSnapshot;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link StorageMetrics} and {@link Histogram}.
+ * The registry is shared by the whole process, so the tests compare snapshots taken
+ * before and after the operations they run.
+ *
+ * @see StorageMetrics
+ */
+@Tag("storage")
+public class StorageMetricsTest {
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+  private FlashcardPersistent persistent;
+
+  /**
+   * Writes a user into a users directory in the temporary directory.
+   *
+   * @throws IOException if the user cannot be written
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+    persistent = new FlashcardPersistent(layout, new UserDataCache(8));
+    persistent.writeUserData(new User("metrics_user", "password123"));
+  }
+
+  /**
+   * Tests that percentiles fall into the right bucket and every bucket bound maps back
+   * to its bucket.
+   */
+  @Test
+  public void testHistogram() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.snapshot().p99());
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value);
+    }
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.count());
+    assertEquals(500_500, snapshot.sum());
+    assertEquals(1000, snapshot.max());
+    assertEquals(500.5, snapshot.mean());
+    assertTrue(snapshot.p50() >= 500 && snapshot.p50() <= 625);
+    assertTrue(snapshot.p90() >= 900 && snapshot.p90() <= 1000);
+    assertEquals(1000, snapshot.p99());
+
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+      long upper = Histogram.upperBound(Histogram.bucketOf(value));
+      assertTrue(upper >= value && upper - value <= value / 4, "value " + value);
+    }
+    assertEquals(Histogram.bucketOf(Long.MAX_VALUE),
+        Histogram.bucketOf(Histogram.upperBound(Histogram.bucketOf(Long.MAX_VALUE))));
+  }
+
+  /**
+   * Tests that deck writes and reads record their latency split and the bytes and
+   * files they moved, and that reads inside a write are charged to the write.
+   *
+   * @throws Exception if the storage operations fail
+   */
+  @Test
+  public void testOperations() throws Exception {
+    StorageMetrics metrics = FlashcardPersistent.sharedMetrics();
+    final StorageMetrics.Snapshot before = metrics.snapshot();
+
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    FlashcardDeck deck = new FlashcardDeck("Deck1");
+    deck.addFlashcard(new Flashcard("Question", "Answer"));
+    manager.addDeck(deck);
+    persistent.writeDeck("metrics_user", manager);
+    // A fresh cache, so the deck is read from disk
+    new FlashcardPersistent(layout, new UserDataCache(8)).readDeck("metrics_user", "Deck1");
+    StorageMetrics.Snapshot after = metrics.snapshot();
+
+    OperationSnapshot write = delta(before, after, Operation.WRITE_DECK);
+    assertEquals(1, write.total().count());
+    assertEquals(1, write.io().count());
+    assertTrue(write.bytesWritten() > 0);
+    assertTrue(write.total().sum() >= write.io().sum() + write.lockWait().sum());
+    assertEquals(0, delta(before, after, Operation.READ_USER_DATA).total().count());
+
+    OperationSnapshot read = delta(before, after, Operation.READ_DECK);
+    assertEquals(1, read.total().count());
+    assertTrue(read.bytesRead() > 0);
+    assertTrue(after.writtenSizes().count() >= before.writtenSizes().count() + 2);
+    assertTrue(after.readSizes().count() >= before.readSizes().count() + 2);
+  }
+
+  /**
+   * Tests that an operation started inside another one is not recorded on its own.
+   */
+  @Test
+  public void testNested() {
+    StorageMetrics metrics = new StorageMetrics();
+    try (StorageMetrics.Sample outer = metrics.start(Operation.WRITE_USER_DATA)) {
+      try (StorageMetrics.Sample inner = metrics.start(Operation.USER_EXISTS)) {
+        StorageMetrics.chargeRead(1_000, 10);
+      }
+    }
+    StorageMetrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(0, snapshot.operations().get(Operation.USER_EXISTS).total().count());
+    OperationSnapshot outer = snapshot.operations().get(Operation.WRITE_USER_DATA);
+    assertEquals(1, outer.total().count());
+    assertEquals(1_000, outer.io().sum());
+    assertEquals(10, outer.bytesRead());
+  }
+
+  /**
+   * Computes what happened to an operation between two snapshots.
+   *
+   * @param before the earlier snapshot
+   * @param after the later snapshot
+   * @param operation the operation
+   * @return the difference of counts, sums and bytes, percentiles taken from the later one
+   */
+  private static OperationSnapshot delta(StorageMetrics.Snapshot before,
+      StorageMetrics.Snapshot after, Operation operation) {
+    OperationSnapshot first = before.operations().get(operation);
+    OperationSnapshot second = after.operations().get(operation);
+    return new OperationSnapshot(delta(first.total(), second.total()),
+        delta(first.io(), second.io()), delta(first.lockWait(), second.lockWait()),
+        delta(first.serialization(), second.serialization()),
+        second.bytesRead() - first.bytesRead(), second.bytesWritten() - first.bytesWritten());
+  }
+
+  /**
+   * Computes the difference of two histogram snapshots.
+   *
+   * @param before the earlier snapshot
+   * @param after the later snapshot
+   * @return the difference of counts and sums, the rest taken from the later one
+   */
+  private static Histogram.Snapshot delta(Histogram.Snapshot before,
+      Histogram.Snapshot after) {
+    return new Histogram.Snapshot(after.count() - before.count(),
+        after.sum() - before.sum(), after.max(), after.p50(), after.p90(), after.p99());
+  }
+}
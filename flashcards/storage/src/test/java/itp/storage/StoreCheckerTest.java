@@ -0,0 +1,148 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import itp.storage.UserFileLayout.UserFiles;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link StoreChecker} and {@link FlashcardPersistent#checkUser}.
+ * Breaks users written into a temporary users directory in different ways.
+ *
+ * @see StoreChecker
+ */
+@Tag("storage")
+public class StoreCheckerTest {
+
+  @TempDir
+  Path tempDir;
+
+  private UserFileLayout layout;
+  private FlashcardPersistent persistent;
+
+  /**
+   * Writes three users with two decks each into a users directory in the temporary
+   * directory.
+   *
+   * @throws IOException if the users cannot be written
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+    persistent = new FlashcardPersistent(layout, new UserDataCache(8));
+    for (String username : List.of("alice", "bob", "carol")) {
+      persistent.writeUserData(new User(username, "password123"));
+      final FlashcardDeckManager manager = new FlashcardDeckManager();
+      FlashcardDeck first = new FlashcardDeck("Deck1");
+      first.addFlashcard(new Flashcard("Q1", "A1"));
+      first.addFlashcard(new Flashcard("Q2", "A2"));
+      FlashcardDeck second = new FlashcardDeck("Deck2");
+      second.addFlashcard(new Flashcard("Q3", "A3"));
+      manager.addDeck(first);
+      manager.addDeck(second);
+      persistent.writeDeck(username, manager);
+    }
+  }
+
+  /**
+   * Tests that healthy users are reported as such.
+   *
+   * @throws Exception if the check fails
+   */
+  @Test
+  public void testHealthy() throws Exception {
+    StoreChecker.Result result = new StoreChecker(persistent, 2, false)
+        .check((done, total) -> {}, report -> {});
+    assertEquals(3, result.checked());
+    assertEquals(3, result.healthy());
+    assertEquals(0, result.damaged() + result.repaired() + result.quarantined()
+        + result.failed());
+    assertTrue(result.usersPerSecond() > 0);
+  }
+
+  /**
+   * Tests that broken decks and logs are reported without repair, and that repair
+   * keeps what can be read, renumbers cards and keeps copies of the broken files.
+   *
+   * @throws Exception if the check fails
+   */
+  @Test
+  public void testRepair() throws Exception {
+    UserFiles files = layout.locate("alice");
+    Files.writeString(files.deck("1.deck"), "{\"deckName\" : \"Deck1\", \"cards\" : ["
+        + "{\"number\" : 1, \"question\" : \"Q1\", \"answer\" : \"A1\"},"
+        + "{\"number\" : 5, \"question\" : \"Q2\", \"answer\" : \"A2\"}]}");
+    Files.writeString(files.deck("2.deck"), "{ not json");
+    Files.writeString(files.log(), "not json either\n", StandardOpenOption.CREATE);
+
+    Map<String, StoreChecker.UserReport> reports = new ConcurrentHashMap<>();
+    StoreChecker.Result result = new StoreChecker(persistent, 2, false)
+        .check((done, total) -> {}, report -> reports.put(report.username(), report));
+    assertEquals(1, result.damaged());
+    assertEquals(3, reports.get("alice").problems().size());
+    assertEquals(StoreChecker.Status.DAMAGED, reports.get("alice").status());
+
+    result = new StoreChecker(persistent, 2, true).check((done, total) -> {}, report -> {});
+    assertEquals(1, result.repaired());
+    FlashcardPersistent fresh = new FlashcardPersistent(layout, new UserDataCache(8));
+    assertEquals(List.of("Deck1"), fresh.readDeckNames("alice"));
+    FlashcardDeck deck = fresh.readDeck("alice", "Deck1");
+    assertEquals(2, deck.getDeck().get(1).getNumber());
+    assertFalse(Files.exists(files.log()));
+    assertEquals(3, quarantined().size());
+
+    assertEquals(StoreChecker.Status.HEALTHY, persistent.checkUser("alice", false).status());
+    assertNull(persistent.checkUser("nobody", false));
+  }
+
+  /**
+   * Tests that a user with an unreadable snapshot is moved to the quarantine as a whole.
+   *
+   * @throws Exception if the check fails
+   */
+  @Test
+  public void testQuarantine() throws Exception {
+    UserFiles files = layout.locate("carol");
+    Files.writeString(files.snapshot(), "{ not json");
+
+    StoreChecker.UserReport report = persistent.checkUser("carol", true);
+    assertEquals(StoreChecker.Status.QUARANTINED, report.status());
+    assertFalse(Files.exists(files.snapshot()));
+    assertFalse(persistent.userExists("carol"));
+    assertEquals(List.of("1.deck", "2.deck", "carol.decks", "carol.json"),
+        quarantined().stream().map(file -> file.toFile().getName()).sorted().toList());
+    assertEquals(StoreChecker.Status.HEALTHY, persistent.checkUser("bob", true).status());
+  }
+
+  /**
+   * Lists the files and deck directories kept in the quarantine.
+   *
+   * @return the files
+   * @throws IOException if the quarantine cannot be listed
+   */
+  private List<Path> quarantined() throws IOException {
+    Path quarantine = layout.root().resolveSibling("quarantine");
+    try (Stream<Path> files = Files.walk(quarantine, 3)) {
+      return files.filter(file -> Files.isRegularFile(file)
+          || file.toFile().getName().endsWith(".decks")).toList();
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import itp.storage.UserDataCache.FileStamp;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link UserDataCache}.
+ * Verifies hit/miss accounting, LRU eviction, staleness detection and
+ * that hits share the cached decks while changes copy the deck they touch.
+ *
+ * @see UserDataCache
+ */
+@Tag("storage")
+public class UserDataCacheTest {
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Creates user data with a single deck holding one card.
+   *
+   * @param username the username
+   * @return the user data
+   */
+  private StoredUserData userData(String username) {
+    FlashcardDeck deck = new FlashcardDeck("Deck1");
+    deck.addFlashcard(new Flashcard("Q1", "A1"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(deck);
+    return new StoredUserData(new User(username, "password123"), manager, 7);
+  }
+
+  /**
+   * Captures the stamp of a user file without an operation log.
+   *
+   * @param file the user file
+   * @return the current stamp
+   */
+  private FileStamp stamp(Path file) {
+    return FileStamp.of(file, tempDir.resolve(file.getFileName() + ".log"));
+  }
+
+  /**
+   * Creates a file standing in for a user's JSON file.
+   *
+   * @param username the username
+   * @return path to the created file
+   * @throws IOException if the file cannot be written
+   */
+  private Path file(String username) throws IOException {
+    Path file = tempDir.resolve(username + ".json");
+    Files.writeString(file, "{}");
+    return file;
+  }
+
+  /**
+   * Tests that lookups are counted as misses until data is stored and hits afterwards.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testHitAndMiss() throws IOException {
+    UserDataCache cache = new UserDataCache(4);
+    Path file = file("alice");
+
+    assertNull(cache.get("alice", stamp(file)));
+    assertEquals(1, cache.getMissCount());
+
+    cache.put("alice", stamp(file), userData("alice"));
+    StoredUserData cached = cache.get("alice", stamp(file));
+
+    assertNotNull(cached);
+    assertEquals("alice", cached.getUser().getUsername());
+    assertEquals(7, cached.getLogSequence());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.size());
+  }
+
+  /**
+   * Tests that the least recently used user is evicted when the cache is full.
+   *
+   * @throws IOException if the test files cannot be written
+   */
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    UserDataCache cache = new UserDataCache(2);
+    Path alice = file("alice");
+    Path bob = file("bob");
+    Path carol = file("carol");
+
+    cache.put("alice", stamp(alice), userData("alice"));
+    cache.put("bob", stamp(bob), userData("bob"));
+    // Touch alice so bob becomes the eldest entry
+    cache.get("alice", stamp(alice));
+    cache.put("carol", stamp(carol), userData("carol"));
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertNotNull(cache.get("alice", stamp(alice)));
+    assertNull(cache.get("bob", stamp(bob)));
+    assertNotNull(cache.get("carol", stamp(carol)));
+  }
+
+  /**
+   * Tests that entries are dropped when the snapshot or log changes or the snapshot disappears.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testDetectsExternalChanges() throws IOException {
+    UserDataCache cache = new UserDataCache(4);
+    Path file = file("alice");
+    cache.put("alice", stamp(file), userData("alice"));
+
+    Files.writeString(file, "{\"changed\":true}");
+    assertNull(cache.get("alice", stamp(file)));
+    assertEquals(0, cache.size());
+
+    cache.put("alice", stamp(file), userData("alice"));
+    Files.writeString(tempDir.resolve("alice.json.log"), "{}\n");
+    assertNull(cache.get("alice", stamp(file)));
+
+    cache.put("alice", stamp(file), userData("alice"));
+    Files.delete(file);
+    assertNull(cache.get("alice", stamp(file)));
+  }
+
+  /**
+   * Tests that hits share the cached decks instead of copying them, and that changes
+   * copy only the deck they touch.
+   * Verifies that:
+   * - Two hits return the same deck objects, and replacing the decks of one result
+   *   leaves the cache alone
+   * - A change applied to the cache replaces the deck, so decks handed out before keep
+   *   their cards
+   * - forChange copies the target deck and shares the others, and copyOf copies all
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testHitsShareDecks() throws IOException {
+    UserDataCache cache = new UserDataCache(4);
+    Path file = file("alice");
+    StoredUserData original = userData("alice");
+    FlashcardDeckManager withSecond = original.getDeckManager();
+    withSecond.addDeck(new FlashcardDeck("Deck2"));
+    original.setDeckManager(withSecond);
+    cache.put("alice", stamp(file), original);
+
+    StoredUserData first = cache.get("alice", stamp(file));
+    StoredUserData second = cache.get("alice", stamp(file));
+    FlashcardDeck shared = first.getDeckManager().getDeck("Deck1");
+    assertSame(shared, second.getDeckManager().getDeck("Deck1"));
+    first.setDeckManager(new FlashcardDeckManager());
+    first.setLogSequence(99);
+    assertEquals(7, cache.get("alice", stamp(file)).getLogSequence());
+    assertSame(shared, cache.get("alice", stamp(file)).getDeckManager().getDeck("Deck1"));
+
+    DeckOperation add = DeckOperation.addCard("Deck1", "Q2", "A2");
+    add.setSequence(8);
+    cache.apply("alice", stamp(file), stamp(file), add);
+    FlashcardDeck changed = cache.get("alice", stamp(file)).getDeckManager().getDeck("Deck1");
+    assertEquals(2, changed.size());
+    assertEquals(1, shared.size());
+
+    StoredUserData forChange = UserDataCache.forChange(second, "Deck1");
+    assertNotSame(shared, forChange.getDeckManager().getDeck("Deck1"));
+    assertEquals("Q1", forChange.getDeckManager().getDeck("Deck1").getFlashcard(0).getQuestion());
+    assertSame(second.getDeckManager().getDeck("Deck2"),
+        forChange.getDeckManager().getDeck("Deck2"));
+    StoredUserData copy = UserDataCache.copyOf(second);
+    assertNotSame(second.getDeckManager().getDeck("Deck2"),
+        copy.getDeckManager().getDeck("Deck2"));
+  }
+
+  /**
+   * Tests invalidation and that a non-positive capacity is rejected.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testInvalidateAndCapacity() throws IOException {
+    UserDataCache cache = new UserDataCache(4);
+    Path file = file("alice");
+    cache.put("alice", stamp(file), userData("alice"));
+
+    cache.invalidate("alice");
+    assertNull(cache.get("alice", stamp(file)));
+
+    cache.put("alice", stamp(file), userData("alice"));
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(4, cache.getCapacity());
+
+    assertThrows(IllegalArgumentException.class, () -> new UserDataCache(0));
+  }
+
+  /**
+   * Tests that FlashcardPersistent serves repeated reads of a user from the cache.
+   *
+   * @throws IOException if user data cannot be written
+   */
+  @Test
+  public void testFlashcardPersistentUsesCache() throws IOException {
+    UserDataCache cache = new UserDataCache(4);
+    FlashcardPersistent persistent = new FlashcardPersistent(cache);
+    String username = "test_cache_user";
+    try {
+      persistent.writeUserData(new User(username, "password123"));
+      persistent.userExists(username);
+      persistent.readUserData(username);
+      persistent.readDeck(username);
+
+      // writeUserData checks for an existing user first, which is the only miss.
+      // Credential checks stream the file and leave the cache alone.
+      UserDataCache.Stats stats = persistent.getCacheStats();
+      assertEquals(1, stats.misses());
+      assertEquals(1, stats.hits());
+      assertEquals(1, stats.size());
+    } finally {
+      Files.deleteIfExists(UserFileLayout.current().sharded(username).snapshot());
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link UserDataCodecs} and the snapshot formats it provides.
+ * Verifies round trips, format detection and lookup by name.
+ *
+ * @see UserDataCodecs
+ */
+@Tag("storage")
+public class UserDataCodecsTest {
+
+  /**
+   * Tests that both formats read back what they wrote, and that Smile is smaller.
+   *
+   * @throws IOException if encoding fails
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    StoredUserData data = sampleData();
+    byte[] json = encode(UserDataCodecs.JSON, data);
+    byte[] smile = encode(UserDataCodecs.SMILE, data);
+    assertTrue(smile.length < json.length);
+
+    for (byte[] encoded : new byte[][] {json, smile}) {
+      BufferedInputStream in = UserDataCodecs.buffered(new ByteArrayInputStream(encoded));
+      StoredUserData read = UserDataCodecs.detect(in).read(in, StoredUserData.class);
+      assertEquals("alice", read.getUser().getUsername());
+      assertEquals(7, read.getLogSequence());
+      FlashcardDeck deck = read.getDeckManager().getDecks().get(0);
+      assertEquals("Deck1", deck.getDeckName());
+      assertEquals("Q2", deck.getDeck().get(1).getQuestion());
+    }
+  }
+
+  /**
+   * Tests that the compressed formats read back what they wrote without a dictionary,
+   * are detected from their header and are smaller than what they compress.
+   *
+   * @throws IOException if encoding fails
+   */
+  @Test
+  public void testDeflate() throws IOException {
+    StoredUserData data = sampleData();
+    for (UserDataCodec codec : new UserDataCodec[] {UserDataCodecs.JSON_DEFLATE,
+        UserDataCodecs.SMILE_DEFLATE}) {
+      byte[] encoded = encode(codec, data);
+      BufferedInputStream in = UserDataCodecs.buffered(new ByteArrayInputStream(encoded));
+      assertSame(codec, UserDataCodecs.detect(in));
+      StoredUserData read = codec.read(in, StoredUserData.class);
+      assertEquals("alice", read.getUser().getUsername());
+      assertEquals("Q2", read.getDeckManager().getDecks().get(0).getDeck().get(1).getQuestion());
+    }
+    assertTrue(encode(UserDataCodecs.JSON_DEFLATE, data).length
+        < encode(UserDataCodecs.JSON, data).length);
+    assertSame(UserDataCodecs.SMILE_DEFLATE, UserDataCodecs.forName("smile+deflate"));
+    assertFalse(UserDataCodecs.JSON_DEFLATE.matches(
+        "FCZs".getBytes(StandardCharsets.US_ASCII), 4));
+  }
+
+  /**
+   * Tests that detection looks at the first bytes only and leaves the stream unread.
+   *
+   * @throws IOException if reading fails
+   */
+  @Test
+  public void testDetect() throws IOException {
+    byte[] smile = encode(UserDataCodecs.SMILE, sampleData());
+    BufferedInputStream in = UserDataCodecs.buffered(new ByteArrayInputStream(smile));
+    assertSame(UserDataCodecs.SMILE, UserDataCodecs.detect(in));
+    assertEquals(':', in.read());
+
+    assertSame(UserDataCodecs.JSON, detect("  \n{\"user\": {}}"));
+    // Unknown and empty content falls back to JSON, so it fails as a parse error
+    assertSame(UserDataCodecs.JSON, detect("not a snapshot"));
+    assertSame(UserDataCodecs.JSON, detect(""));
+    assertFalse(UserDataCodecs.SMILE.matches(":)".getBytes(StandardCharsets.US_ASCII), 2));
+  }
+
+  /**
+   * Tests looking up formats by their configured name.
+   */
+  @Test
+  public void testForName() {
+    assertSame(UserDataCodecs.JSON, UserDataCodecs.forName("json"));
+    assertSame(UserDataCodecs.SMILE, UserDataCodecs.forName(" Smile "));
+    assertThrows(IllegalArgumentException.class, () -> UserDataCodecs.forName("xml"));
+    assertSame(UserDataCodecs.JSON, UserDataCodecs.configured());
+  }
+
+  /**
+   * Creates a user with one deck of two cards.
+   *
+   * @return the data
+   */
+  private static StoredUserData sampleData() {
+    FlashcardDeck deck = new FlashcardDeck("Deck1");
+    deck.addFlashcard(new Flashcard("Q1", "A1"));
+    deck.addFlashcard(new Flashcard("Q2", "A2"));
+    FlashcardDeckManager manager = new FlashcardDeckManager();
+    manager.addDeck(deck);
+    return new StoredUserData(new User("alice", "password123"), manager, 7);
+  }
+
+  /**
+   * Encodes data in a format.
+   *
+   * @param codec the format
+   * @param data the data
+   * @return the encoded bytes
+   * @throws IOException if encoding fails
+   */
+  private static byte[] encode(UserDataCodec codec, StoredUserData data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.write(out, data);
+    return out.toByteArray();
+  }
+
+  /**
+   * Detects the format of some text.
+   *
+   * @param content the content
+   * @return the detected format
+   * @throws IOException if reading fails
+   */
+  private static UserDataCodec detect(String content) throws IOException {
+    return UserDataCodecs.detect(UserDataCodecs.buffered(
+        new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))));
+  }
+}
@@ -0,0 +1,84 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import itp.storage.UserFileLayout.UserFiles;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link UserFileLayout}.
+ * Verifies shard paths and the lookup order between the sharded and flat layout.
+ *
+ * @see UserFileLayout
+ */
+@Tag("storage")
+public class UserFileLayoutTest {
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Tests that shard paths are stable two-level hex prefixes.
+   */
+  @Test
+  public void testShardOf() {
+    // CRC32 of "alice" is 0x278ebc47, its first two bytes name the directories
+    assertEquals(Path.of("27", "8e"), UserFileLayout.shardOf("alice"));
+    assertEquals(Path.of("f5", "cb"), UserFileLayout.shardOf("bob"));
+    assertNotEquals(UserFileLayout.shardOf("alice"), UserFileLayout.shardOf("bob"));
+  }
+
+  /**
+   * Tests that new users go to the sharded layout, flat users are still found,
+   * and a sharded snapshot wins when both exist.
+   *
+   * @throws IOException if the files cannot be written
+   */
+  @Test
+  public void testLocate() throws IOException {
+    UserFileLayout layout = new UserFileLayout(tempDir);
+    UserFiles sharded = layout.sharded("alice");
+    UserFiles flat = layout.flat("alice");
+    assertEquals(tempDir.resolve(UserFileLayout.shardOf("alice")), sharded.directory());
+    assertEquals(tempDir.resolve("alice.log"), flat.log());
+    assertEquals(sharded.directory().resolve("alice.json"), sharded.snapshot());
+
+    assertEquals(sharded, layout.locate("alice"));
+
+    Files.writeString(flat.snapshot(), "{}");
+    assertEquals(flat, layout.locate("alice"));
+
+    Files.createDirectories(sharded.directory());
+    Files.writeString(sharded.snapshot(), "{}");
+    assertEquals(sharded, layout.locate("alice"));
+  }
+
+  /**
+   * Tests that usernames are listed from both layouts.
+   *
+   * @throws IOException if the files cannot be written
+   */
+  @Test
+  public void testListUsernames() throws IOException {
+    UserFileLayout layout = new UserFileLayout(tempDir);
+    Files.writeString(layout.flat("alice").snapshot(), "{}");
+    UserFiles bob = layout.sharded("bob");
+    Files.createDirectories(bob.directory());
+    Files.writeString(bob.snapshot(), "{}");
+    Files.writeString(bob.log(), "");
+
+    List<String> usernames = new ArrayList<>(layout.listUsernames());
+    Collections.sort(usernames);
+    assertEquals(List.of("alice", "bob"), usernames);
+    assertEquals(List.of(), new UserFileLayout(tempDir.resolve("missing")).listUsernames());
+  }
+}
@@ -0,0 +1,158 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link UserLockManager}.
+ * Verifies that updates for one user are serialized, that different users do not
+ * block each other, and that contention is recorded.
+ *
+ * @see UserLockManager
+ */
+@Tag("storage")
+public class UserLockManagerTest {
+
+  /**
+   * Tests that concurrent read-modify-write cycles for the same user lose no updates.
+   *
+   * @throws Exception if a worker fails
+   */
+  @Test
+  public void testSameUserIsSerialized() throws Exception {
+    UserLockManager locks = new UserLockManager();
+    int[] counter = {0};
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(pool.submit(() -> {
+          for (int j = 0; j < 500; j++) {
+            locks.withLock("alice", () -> {
+              int read = counter[0];
+              Thread.yield();
+              counter[0] = read + 1;
+              return null;
+            });
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    assertEquals(4000, counter[0]);
+    assertEquals(4000, locks.stats().acquisitions());
+    assertEquals(0, locks.activeLocks());
+  }
+
+  /**
+   * Tests that holding one user's lock does not block another user.
+   *
+   * @throws Exception if a worker fails
+   */
+  @Test
+  public void testDifferentUsersRunInParallel() throws Exception {
+    UserLockManager locks = new UserLockManager();
+    CountDownLatch aliceHoldsLock = new CountDownLatch(1);
+    CountDownLatch bobFinished = new CountDownLatch(1);
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      Future<Boolean> alice = pool.submit(() -> locks.withLock("alice", () -> {
+        aliceHoldsLock.countDown();
+        // Only returns true if bob got through while alice held her lock
+        try {
+          return bobFinished.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }));
+
+      assertTrue(aliceHoldsLock.await(10, TimeUnit.SECONDS));
+      locks.withLock("bob", () -> {
+        bobFinished.countDown();
+        return null;
+      });
+
+      assertTrue(alice.get(10, TimeUnit.SECONDS));
+      assertEquals(0, locks.stats().contended());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests that waiting for a held lock is counted as contention.
+   *
+   * @throws Exception if a worker fails
+   */
+  @Test
+  public void testRecordsContention() throws Exception {
+    UserLockManager locks = new UserLockManager();
+    CountDownLatch holding = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      final Future<?> holder = pool.submit(() -> locks.withLock("alice", () -> {
+        holding.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return null;
+      }));
+      assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+      final Future<?> waiter = pool.submit(() -> locks.withLock("alice", () -> null));
+      // Give the waiter time to block on the lock before releasing it
+      Thread.sleep(50);
+      release.countDown();
+      holder.get(10, TimeUnit.SECONDS);
+      waiter.get(10, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    UserLockManager.Stats stats = locks.stats();
+    assertEquals(2, stats.acquisitions());
+    assertEquals(1, stats.contended());
+    assertTrue(stats.maxWaitNanos() > 0);
+    assertTrue(stats.averageWaitNanos() > 0);
+  }
+
+  /**
+   * Tests that locks are reentrant and released when the action throws.
+   *
+   * @throws IOException if the nested action fails unexpectedly
+   */
+  @Test
+  public void testReentrantAndReleasedOnFailure() throws IOException {
+    UserLockManager locks = new UserLockManager();
+
+    String result = locks.withLock("alice", () -> locks.withLock("alice", () -> "nested"));
+    assertEquals("nested", result);
+
+    assertThrows(IOException.class, () -> locks.withLock("alice", () -> {
+      throw new IOException("Disk full");
+    }));
+    assertEquals(0, locks.activeLocks());
+  }
+}
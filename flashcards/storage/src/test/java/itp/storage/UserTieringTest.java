@@ -0,0 +1,131 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.Flashcard;
+import app.FlashcardDeck;
+import app.FlashcardDeckManager;
+import app.User;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link UserTiering} and {@link ColdArchive}.
+ * Archives users written into a temporary users directory and reads them back.
+ *
+ * @see UserTiering
+ */
+@Tag("storage")
+public class UserTieringTest {
+
+  @TempDir
+  Path tempDir;
+
+  private FlashcardPersistent persistent;
+  private UserFileLayout layout;
+  private ColdArchive archive;
+
+  /**
+   * Writes three users with one deck each into a users directory in the temporary
+   * directory.
+   *
+   * @throws IOException if the users cannot be written
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    layout = new UserFileLayout(tempDir.resolve("storage/data/users"));
+    persistent = new FlashcardPersistent(layout, new UserDataCache(8));
+    for (String username : List.of("alice", "bob", "carol")) {
+      persistent.writeUserData(new User(username, "password123"));
+      FlashcardDeckManager manager = new FlashcardDeckManager();
+      FlashcardDeck deck = new FlashcardDeck("Deck1");
+      deck.addFlashcard(new Flashcard("Question of " + username, "Answer"));
+      manager.addDeck(deck);
+      persistent.writeDeck(username, manager);
+    }
+    archive = ColdArchive.of(layout);
+  }
+
+  /**
+   * Tests that an archived user leaves the users directory and comes back unchanged,
+   * version included, on the first read.
+   *
+   * @throws Exception if archiving fails
+   */
+  @Test
+  public void testArchiveAndRehydrate() throws Exception {
+    final long version = persistent.readVersion("alice");
+    final long rehydrated = persistent.getTieringStats().rehydrated();
+    assertTrue(persistent.archiveUser("alice"));
+    assertFalse(persistent.archiveUser("alice"));
+    assertFalse(Files.exists(layout.locate("alice").snapshot()));
+    assertFalse(Files.exists(layout.locate("alice").decks()));
+    assertTrue(archive.contains("alice"));
+
+    FlashcardDeck deck = persistent.readDeck("alice", "Deck1");
+    assertEquals("Question of alice", deck.getDeck().get(0).getQuestion());
+    assertFalse(archive.contains("alice"));
+    assertTrue(Files.exists(layout.locate("alice").snapshot()));
+    assertEquals(version, persistent.readVersion("alice"));
+
+    UserTiering.Stats stats = persistent.getTieringStats();
+    assertEquals(rehydrated + 1, stats.rehydrated());
+    assertTrue(stats.maxRehydrationMillis() > 0);
+  }
+
+  /**
+   * Tests that existence checks and credential reads see archived users.
+   *
+   * @throws Exception if archiving fails
+   */
+  @Test
+  public void testCredentials() throws Exception {
+    assertTrue(persistent.archiveUser("bob"));
+    persistent.rebuildUsernameIndex(1);
+    assertTrue(persistent.userExists("bob"));
+    assertFalse(archive.contains("bob"));
+
+    assertTrue(persistent.archiveUser("bob"));
+    assertEquals("bob", persistent.readUserData("bob").getUsername());
+  }
+
+  /**
+   * Tests that a sweep archives only users whose files are old and who were not read,
+   * and measures both tiers.
+   *
+   * @throws Exception if the sweep fails
+   */
+  @Test
+  public void testSweep() throws Exception {
+    FileTime old = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+    for (String username : List.of("bob", "carol")) {
+      Files.setLastModifiedTime(layout.locate(username).snapshot(), old);
+    }
+    UserTiering tiering = new UserTiering();
+    tiering.recordAccess("carol");
+
+    UserTiering.Result result = tiering.sweep(layout, archive, Duration.ofDays(1),
+        persistent::archiveUser);
+    assertEquals(3, result.scanned());
+    assertEquals(1, result.archived());
+    assertEquals(0, result.failed());
+    assertEquals(List.of("bob"), archive.listUsernames());
+
+    UserTiering.Stats stats = tiering.stats();
+    assertEquals(2, stats.hotUsers());
+    assertTrue(stats.hotBytes() > 0);
+    assertEquals(1, stats.coldUsers());
+    assertEquals(Files.size(archive.fileOf("bob")), stats.coldBytes());
+  }
+}
@@ -0,0 +1,54 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link UsernameBloomFilter}.
+ * Verifies that added usernames are always found and that the false-positive
+ * rate stays close to the rate the filter was sized for.
+ *
+ * @see UsernameBloomFilter
+ */
+@Tag("storage")
+public class UsernameBloomFilterTest {
+
+  /**
+   * Tests that there are no false negatives and few false positives at full capacity.
+   */
+  @Test
+  public void testFalsePositiveRate() {
+    int users = 10_000;
+    UsernameBloomFilter filter = new UsernameBloomFilter(users, 0.01);
+    for (int i = 0; i < users; i++) {
+      filter.put("user" + i);
+    }
+    for (int i = 0; i < users; i++) {
+      assertTrue(filter.mightContain("user" + i));
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < users; i++) {
+      if (filter.mightContain("absent" + i)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < users * 0.02, "Too many false positives: " + falsePositives);
+    assertTrue(filter.expectedFalsePositiveRate() < 0.02);
+    assertEquals(filter.getBitSize() / 8, filter.getMemoryBytes());
+    assertTrue(filter.getInsertions() > users * 0.99);
+  }
+
+  /**
+   * Tests that invalid sizes are rejected.
+   */
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new UsernameBloomFilter(0, 0.01));
+    assertThrows(IllegalArgumentException.class, () -> new UsernameBloomFilter(10, 1));
+  }
+}
@@ -0,0 +1,75 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for {@link UsernameIndex}.
+ * Verifies building from a users directory, adds before and after the build,
+ * and the lookup counters.
+ *
+ * @see UsernameIndex
+ */
+@Tag("storage")
+public class UsernameIndexTest {
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Tests that users in both layouts are found after a build and that unknown
+   * usernames are answered without going to disk.
+   *
+   * @throws Exception if the directory cannot be written or scanned
+   */
+  @Test
+  public void testRebuild() throws Exception {
+    UserFileLayout layout = new UserFileLayout(tempDir);
+    writeSnapshot(layout.sharded("alice").snapshot());
+    writeSnapshot(layout.flat("bob").snapshot());
+    UsernameIndex index = new UsernameIndex(0.01);
+
+    // Not built yet, everything may exist
+    assertTrue(index.mightExist(tempDir, "nobody"));
+    assertFalse(index.stats().ready());
+
+    index.rebuild(layout, 2);
+    assertTrue(index.mightExist(tempDir, "alice"));
+    assertTrue(index.mightExist(tempDir, "bob"));
+    assertFalse(index.mightExist(tempDir, "nobody"));
+    // Another users directory is not covered by the filter
+    assertTrue(index.mightExist(tempDir.resolve("other"), "nobody"));
+
+    index.add(tempDir, "dave");
+    assertTrue(index.mightExist(tempDir, "dave"));
+    index.recordFalsePositive(tempDir);
+
+    UsernameIndex.Stats stats = index.stats();
+    assertTrue(stats.ready());
+    assertEquals(3, stats.usernames());
+    assertEquals(4, stats.lookups());
+    assertEquals(1, stats.negatives());
+    assertEquals(1, stats.falsePositives());
+    assertEquals(0.5, stats.observedFalsePositiveRate());
+    assertTrue(stats.memoryBytes() > 0);
+  }
+
+  /**
+   * Writes an empty snapshot, creating its directory.
+   *
+   * @param file the snapshot to write
+   * @throws IOException if writing fails
+   */
+  private static void writeSnapshot(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, "{}");
+  }
+}
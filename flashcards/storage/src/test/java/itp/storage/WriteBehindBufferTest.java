@@ -0,0 +1,115 @@
+package itp.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import app.FlashcardDeckManager;
+import app.User;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link WriteBehindBuffer}.
+ * Verifies coalescing of changes per user, snapshots superseding log entries,
+ * and backpressure once the buffer is full.
+ *
+ * @see WriteBehindBuffer
+ */
+@Tag("storage")
+public class WriteBehindBufferTest {
+
+  private final StoredUserData data = new StoredUserData(new User("alice", "password123"),
+      new FlashcardDeckManager(), 0);
+
+  /**
+   * Tests that changes recorded between flushes are written together, and that
+   * recording keeps the data it is given and leaves earlier pending writes alone.
+   */
+  @Test
+  public void testCoalescing() {
+    WriteBehindBuffer buffer = new WriteBehindBuffer(1, TimeUnit.HOURS, 100);
+    List<List<DeckOperation>> written = new ArrayList<>();
+    buffer.setFlush(username -> {
+      WriteBehindBuffer.PendingWrite pending = buffer.pending(username);
+      written.add(pending.operations());
+      buffer.written(username, pending);
+    });
+
+    buffer.recordOperation("alice", data, DeckOperation.createDeck("Deck1"));
+    final WriteBehindBuffer.PendingWrite first = buffer.pending("alice");
+    buffer.recordOperation("alice", data, DeckOperation.addCard("Deck1", "Q1", "A1"));
+    buffer.recordOperation("alice", data, DeckOperation.addCard("Deck1", "Q2", "A2"));
+    assertEquals(3, buffer.stats().pendingChanges());
+    assertEquals(1, buffer.stats().pendingUsers());
+    assertSame(data, buffer.pending("alice").data());
+    assertEquals(1, first.operations().size());
+
+    assertEquals(0, buffer.flushAll());
+    assertEquals(1, written.size());
+    assertEquals(3, written.get(0).size());
+    assertNull(buffer.pending("alice"));
+
+    WriteBehindBuffer.Stats stats = buffer.stats();
+    assertEquals(0, stats.pendingChanges());
+    assertEquals(1, stats.flushes());
+    assertEquals(3, stats.coalescedChanges());
+  }
+
+  /**
+   * Tests that a full snapshot replaces the log entries recorded before and after it.
+   */
+  @Test
+  public void testSnapshotSupersedesOperations() {
+    WriteBehindBuffer buffer = new WriteBehindBuffer(1, TimeUnit.HOURS, 100);
+    buffer.recordOperation("alice", data, DeckOperation.createDeck("Deck1"));
+    buffer.recordSnapshot("alice", data);
+    buffer.recordOperation("alice", data, DeckOperation.createDeck("Deck2"));
+
+    WriteBehindBuffer.PendingWrite pending = buffer.pending("alice");
+    assertTrue(pending.snapshot());
+    assertTrue(pending.operations().isEmpty());
+    assertEquals(1, buffer.stats().pendingChanges());
+  }
+
+  /**
+   * Tests that writers wait when the buffer is full until a flush makes room.
+   *
+   * @throws Exception if the waiting writer fails
+   */
+  @Test
+  public void testBackpressure() throws Exception {
+    WriteBehindBuffer buffer = new WriteBehindBuffer(1, TimeUnit.HOURS, 2);
+    CountDownLatch flushed = new CountDownLatch(1);
+    buffer.setFlush(username -> {
+      buffer.written(username, buffer.pending(username));
+      flushed.countDown();
+    });
+    buffer.recordOperation("alice", data, DeckOperation.createDeck("Deck1"));
+    buffer.recordOperation("bob", data, DeckOperation.createDeck("Deck1"));
+
+    // The buffer is full, so this waits for the flush it triggers
+    buffer.awaitCapacity();
+    assertTrue(flushed.await(10, TimeUnit.SECONDS));
+    assertEquals(1, buffer.stats().backpressureWaits());
+    assertTrue(buffer.stats().pendingChanges() < 2);
+    assertEquals(0, buffer.close());
+  }
+
+  /**
+   * Tests that invalid settings are rejected.
+   */
+  @Test
+  public void testInvalidSettings() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new WriteBehindBuffer(0, TimeUnit.MILLISECONDS, 10));
+    assertThrows(IllegalArgumentException.class,
+        () -> new WriteBehindBuffer(10, TimeUnit.MILLISECONDS, 0));
+  }
+}